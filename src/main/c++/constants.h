@@ -9,8 +9,12 @@ namespace wegapi {
         const wchar_t JAVA_CMDLINE_START_CLIENT[] = L" -cp \"%s\" com.github.alexandergillon.wegapi.client.ClientDaemon -d \"%s\"";
 
         // The space at the front of these literals is REQUIRED. Else java will not receive parameters correctly.
-        const wchar_t JAVA_CMDLINE_CLICKED[] = L" -cp .\\.gamedata\\wegapi.jar com.github.alexandergillon.wegapi.client.Client -c%d";
-        const wchar_t JAVA_CMDLINE_DRAGGED[] = L" -cp .\\.gamedata\\wegapi.jar com.github.alexandergillon.wegapi.client.Client -d%d -t%d";
+        // The client is started for every action, so it uses the minimal client jar, the CDS archive generated by
+        // the daemon (ignored if missing, see ClientCdsArchive.java), and JVM flags that favour startup time.
+        // Java 11 only maps the archive if -cp is exactly the class path that it was dumped with, so the -cp here
+        // must stay the same as ClientCdsArchive.CLIENT_CLASS_PATH (and the client is run in the game directory).
+        const wchar_t JAVA_CMDLINE_CLICKED[] = L" -Xshare:auto -XX:SharedArchiveFile=.\\.gamedata\\wegapi-client.jsa -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -cp .\\.gamedata\\wegapi-client.jar com.github.alexandergillon.wegapi.client.Client -c%d";
+        const wchar_t JAVA_CMDLINE_DRAGGED[] = L" -Xshare:auto -XX:SharedArchiveFile=.\\.gamedata\\wegapi-client.jsa -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -cp .\\.gamedata\\wegapi-client.jar com.github.alexandergillon.wegapi.client.Client -d%d -t%d";
     }
 
     namespace filenames {
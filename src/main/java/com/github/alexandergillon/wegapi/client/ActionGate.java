@@ -0,0 +1,140 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.game.ActionAdmissionPolicy;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Counter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides whether player actions are forwarded to the server, according to the ActionAdmissionPolicy that the server
+ * has chosen for this game. <br> <br>
+ *
+ * The gate does not use locks: it is a small state machine on an AtomicInteger, which is either IDLE (no action is
+ * being forwarded) or BUSY (some thread is forwarding an action). Under the waiting policies (LATEST_ONLY and
+ * BOUNDED_QUEUE), actions are first placed in a lock-free pending slot or queue, and whichever thread moves the gate
+ * from IDLE to BUSY drains the pending actions, one at a time. Before forwarding each pending action, the draining
+ * thread waits for the game directory to finish updating, so that the action is made against the board that the
+ * player can actually see.
+ */
+final class ActionGate {
+    private static final int IDLE = 0;
+    private static final int BUSY = 1;
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final AtomicReference<Runnable> latestPending = new AtomicReference<>();  // for LATEST_ONLY
+    private final ConcurrentLinkedQueue<Runnable> queuedActions = new ConcurrentLinkedQueue<>();  // for BOUNDED_QUEUE
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final TileUpdateQueue updateQueue;
+    private final Counter droppedActions;
+
+    private volatile ActionAdmissionPolicy policy = ActionAdmissionPolicy.forwardAll();
+
+    /**
+     * Creates an ActionGate, which uses an update queue to tell whether the game directory is still being updated.
+     *
+     * @param updateQueue the update queue of the daemon that owns this gate
+     * @param droppedActions the counter of dropped actions, which is also counted in when a waiting action is
+     *                       replaced by a newer one under LATEST_ONLY
+     */
+    ActionGate(TileUpdateQueue updateQueue, Counter droppedActions) {
+        this.updateQueue = updateQueue;
+        this.droppedActions = droppedActions;
+    }
+
+    void setPolicy(ActionAdmissionPolicy policy) {
+        this.policy = policy;
+    }
+
+    ActionAdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Submits an action, which is run (possibly on another submitting thread) if the current policy admits it.
+     *
+     * @param action the action to run, which forwards a player action to the server
+     * @return false if the action was dropped immediately, true otherwise
+     */
+    boolean submit(Runnable action) {
+        ActionAdmissionPolicy currentPolicy = policy;
+        switch (currentPolicy.getKind()) {
+            case FORWARD_ALL:
+                action.run();
+                return true;
+            case DROP_WHILE_RENDERING:
+                if (!updateQueue.isIdle() || !state.compareAndSet(IDLE, BUSY)) return false;
+                try {
+                    action.run();
+                } finally {
+                    state.set(IDLE);
+                }
+                return true;
+            case LATEST_ONLY:
+                if (latestPending.getAndSet(action) != null) {
+                    droppedActions.increment();
+                    Log.debug("daemon: dropped a waiting action, as a newer one arrived");
+                }
+                drain();
+                return true;
+            case BOUNDED_QUEUE:
+                if (queuedCount.incrementAndGet() > currentPolicy.getQueueBound()) {
+                    queuedCount.decrementAndGet();
+                    return false;
+                }
+                queuedActions.add(action);
+                drain();
+                return true;
+            default:
+                throw new AssertionError("Unrecognized admission policy in ActionGate.submit()");
+        }
+    }
+
+    /**
+     * Forwards pending actions, if no other thread is already doing so. The check of hasPending() after releasing
+     * the gate ensures that an action which became pending just as the previous drainer finished is not left behind.
+     */
+    private void drain() {
+        while (hasPending() && state.compareAndSet(IDLE, BUSY)) {
+            try {
+                Runnable next;
+                while ((next = pollPending()) != null) {
+                    awaitUpdates();
+                    next.run();
+                }
+            } finally {
+                state.set(IDLE);
+            }
+        }
+    }
+
+    private boolean hasPending() {
+        return latestPending.get() != null || !queuedActions.isEmpty();
+    }
+
+    /**
+     * Takes the next pending action. Both the LATEST_ONLY slot and the BOUNDED_QUEUE queue are checked, so that
+     * actions are not stranded if the policy changes while they are waiting.
+     *
+     * @return the next pending action, or null if there is none
+     */
+    private Runnable pollPending() {
+        Runnable latest = latestPending.getAndSet(null);
+        if (latest != null) return latest;
+
+        Runnable queued = queuedActions.poll();
+        if (queued != null) queuedCount.decrementAndGet();
+        return queued;
+    }
+
+    /** Waits for all updates that have been submitted so far to be applied to the game directory. */
+    private void awaitUpdates() {
+        try {
+            updateQueue.awaitApplied(updateQueue.getLastSubmittedSequence());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -14,16 +14,24 @@ todo: ensure tile program has finished before doing anything?
  */
 
 import com.github.alexandergillon.wegapi.game.DaemonInterface;
-import org.apache.commons.cli.*;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Tracer;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 
 /**
@@ -32,6 +40,9 @@ import java.util.Arrays;
  * for more information about how communication works, and what the daemon achieves.
  */
 public class Client {
+    static final String CDS_TRAINING_OPTION = "--cds-training";  // not shown in help, see runCdsTraining()
+    public static final String TIMINGS_FILE_PROPERTY = "wegapi.clientTimingsFile";
+
     /**
      * Prints a help message and exits.
      */
@@ -54,42 +65,180 @@ public class Client {
         printHelpAndExit();
     }
 
+    /**
+     * Parses the value of a -c, -d or -t option as a tile index.
+     *
+     * @param option the option, for error messages
+     * @param value the value to parse
+     * @return the tile index
+     */
+    private static int parseTileIndex(char option, String value) {
+        try {
+            int index = Integer.parseInt(value);
+            if (index < 0) printHelpAndExit("Invalid option argument for -" + option + ": " + value);
+            return index;
+        } catch (NumberFormatException e) {
+            printHelpAndExit("Invalid option argument for -" + option + ": " + value);
+            return -1;  // for the compiler
+        }
+    }
+
+    /**
+     * Parses command-line arguments into tile indices. Accepts -c, -d and -t (and their long forms --clicked,
+     * --dragged and --target), with the value either attached (-c5, --clicked=5) or as the next argument (-c 5). <br> <br>
+     *
+     * This is hand-rolled, rather than using commons-cli like the rest of WEGAPI, as a Client JVM is started for
+     * every player action, and loading an option-parsing library is a noticeable part of its startup time.
+     *
+     * @param args the arguments to parse, from main
+     * @return an array of {clicked, dragged, target} tile indices, with -1 for options that were not supplied
+     */
+    private static int[] parseArgs(String[] args) {
+        int[] indices = {-1, -1, -1};
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            char option;
+            String value = null;
+
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                String longOption = equals == -1 ? arg.substring(2) : arg.substring(2, equals);
+                if (equals != -1) value = arg.substring(equals + 1);
+                switch (longOption) {
+                    case "clicked": option = 'c'; break;
+                    case "dragged": option = 'd'; break;
+                    case "target": option = 't'; break;
+                    default: printHelpAndExit("Unrecognized option: " + arg); return null;
+                }
+            } else if (arg.length() >= 2 && arg.charAt(0) == '-') {
+                option = arg.charAt(1);
+                if (arg.length() > 2) value = arg.substring(2);
+            } else {
+                printHelpAndExit("Unexpected argument: " + arg);
+                return null;  // for the compiler
+            }
+
+            if (value == null) {
+                if (i + 1 >= args.length) printHelpAndExit("Missing argument for option -" + option);
+                value = args[++i];
+            }
+
+            switch (option) {
+                case 'c': indices[0] = parseTileIndex(option, value); break;
+                case 'd': indices[1] = parseTileIndex(option, value); break;
+                case 't': indices[2] = parseTileIndex(option, value); break;
+                default: printHelpAndExit("Unrecognized option: " + arg);
+            }
+        }
+        return indices;
+    }
+
     /**
      * Parses command-line arguments, and makes appropriate requests to the client daemon.
      *
      * @param args the arguments to parse, from main
+     * @return a short description of the action that was sent, for reporting timings
      */
-    private static void parseArgsAndContactDaemon(String[] args) {
-        Options options = new Options();
-        options.addOption("c", "clicked", true, "Index of tile clicked");
-        options.addOption("d", "dragged", true, "Index of dragged tile");
-        options.addOption("t", "target", true, "Index of tile that was dragged onto");
-        CommandLineParser parser = new DefaultParser();
+    private static String parseArgsAndContactDaemon(String[] args) {
+        int[] indices = parseArgs(args);
+        int clickedIdx = indices[0];
+        int draggedFrom = indices[1];
+        int draggedTo = indices[2];
 
         try {
-            CommandLine cmdline = parser.parse(options, args);
-
-            if (cmdline.hasOption("c")) {
-                int clickedIdx = Integer.parseInt(cmdline.getOptionValue("c"));
-                DaemonInterface daemon = connectToDaemon();
-                daemon.tileClicked(clickedIdx);
-            } else if (cmdline.hasOption("d") || cmdline.hasOption("t")) {
-                if (!(cmdline.hasOption("d") && cmdline.hasOption("t"))) {
+            if (clickedIdx != -1) {
+                DaemonLocation location = readDaemonLocation();
+                long traceId = Tracer.newTraceId();
+                if (!LocalActionEndpoint.send(location.localPort, LocalActionEndpoint.ACTION_CLICKED, clickedIdx, 0, traceId)) {
+                    DaemonInterface daemon = connectToDaemon(location.daemonNumber);
+                    daemon.tileClicked(clickedIdx, traceId, Tracer.now());
+                }
+                return "clicked";
+            } else if (draggedFrom != -1 || draggedTo != -1) {
+                if (draggedFrom == -1 || draggedTo == -1) {
                     printHelpAndExit("One of -d or -t was specified, but not the other.");
                 }
-                int draggedFrom = Integer.parseInt(cmdline.getOptionValue("d"));
-                int draggedTo = Integer.parseInt(cmdline.getOptionValue("t"));
-                DaemonInterface daemon = connectToDaemon();
-                daemon.tileDragged(draggedFrom, draggedTo);
+                DaemonLocation location = readDaemonLocation();
+                long traceId = Tracer.newTraceId();
+                if (!LocalActionEndpoint.send(location.localPort, LocalActionEndpoint.ACTION_DRAGGED, draggedFrom, draggedTo, traceId)) {
+                    DaemonInterface daemon = connectToDaemon(location.daemonNumber);
+                    daemon.tileDragged(draggedFrom, draggedTo, traceId, Tracer.now());
+                }
+                return "dragged";
             } else {
                 printHelpAndExit("None of -c, -d, or -t were specified (required).");
             }
-        } catch (ParseException e) {
-            printHelpAndExit("ParseException: " + e);
-        } catch (NumberFormatException e) {
-            printHelpAndExit("Invalid option argument: " + e);
         } catch (RemoteException e) {
-            printHelpAndExit("Encountered RemoteException while parsing arguments: " + e);
+            printHelpAndExit("Encountered RemoteException while contacting daemon: " + e);
+        }
+        return null;  // for the compiler
+    }
+
+    /**
+     * Reports how long it took from the JVM starting, and from main() being entered, to the action being sent.
+     * Timings are printed, and if the wegapi.clientTimingsFile system property is set (e.g. through
+     * JAVA_TOOL_OPTIONS, as tile.exe starts the Client), also appended to that file as comma-separated values (epoch
+     * millis, action, startup-to-send millis, main-to-send millis). A relative path is resolved against the game
+     * directory. This happens after the action has been sent, so it does not delay it.
+     *
+     * @param action the action that was sent
+     * @param mainEnteredNanos System.nanoTime() when main() was entered
+     * @param sentNanos System.nanoTime() when the action had been sent
+     */
+    private static void reportTimings(String action, long mainEnteredNanos, long sentNanos) {
+        double mainToSendMillis = (sentNanos - mainEnteredNanos) / 1e6;
+        Instant now = Instant.now();
+        // JVM startup isn't visible to System.nanoTime(), so use the process start time (to millisecond precision)
+        double startupToSendMillis = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, now).toNanos() / 1e6 - (System.nanoTime() - sentNanos) / 1e6)
+                .orElse(Double.NaN);
+        Log.info("client: startup-to-send %.1f ms, main-to-send %.1f ms", startupToSendMillis, mainToSendMillis);
+
+        String timingsFile = System.getProperty(TIMINGS_FILE_PROPERTY);
+        if (timingsFile == null) return;
+        Path timingsPath = Paths.get(timingsFile);
+        String line = String.format("%d,%s,%.1f,%.1f%n", now.toEpochMilli(), action, startupToSendMillis, mainToSendMillis);
+        try {
+            Files.writeString(timingsPath, line, StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.warn("client: IOException while writing client timings, %s", e);
+        }
+    }
+
+    /**
+     * Exercises the Client's fast path without a daemon, so that the classes it uses are recorded in a class list
+     * for the client's class-data sharing archive. See ClientCdsArchive. A throwaway loopback endpoint stands in
+     * for the daemon.
+     */
+    private static void runCdsTraining() {
+        parseArgs(new String[]{"-d1", "-t", "2"});
+        try (ServerSocket standIn = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread replier = new Thread(() -> {
+                try (Socket socket = standIn.accept()) {
+                    socket.getInputStream().readNBytes(LocalActionEndpoint.FRAME_LENGTH);
+                    socket.getOutputStream().write(LocalActionEndpoint.REPLY_OK);
+                } catch (IOException e) {
+                    Log.warn("client: IOException in CDS training stand-in, %s", e);
+                }
+            });
+            replier.start();
+            LocalActionEndpoint.send(standIn.getLocalPort(), LocalActionEndpoint.ACTION_CLICKED, 0, 0, Tracer.newTraceId());
+            replier.join();
+        } catch (IOException e) {
+            Log.warn("client: IOException during CDS training, %s", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Where to find the daemon watching over this game, as read from the daemon number file. */
+    private static final class DaemonLocation {
+        private final int daemonNumber;  // number the daemon is bound under in the RMI registry
+        private final int localPort;     // port of the daemon's LocalActionEndpoint, or -1 if it has none
+
+        private DaemonLocation(int daemonNumber, int localPort) {
+            this.daemonNumber = daemonNumber;
+            this.localPort = localPort;
         }
     }
 
@@ -99,12 +248,19 @@ public class Client {
      *
      * The format of this file is a magic string, found at DaemonInterface.DAEMON_NUMBER_MAGIC, followed by an integer
      * (as raw binary, not ASCII), that was written by a DataOutputStream and can be read by a DataInputStream.
+     * This may be followed by another such integer: the loopback port of the daemon's LocalActionEndpoint. Files
+     * written by older daemons do not have this port.
      *
-     * @return The daemon number of the daemon watching over this game.
+     * @return The daemon number of the daemon watching over this game, and the port of its local endpoint.
      */
-    private static int readDaemonNumber() {
+    private static DaemonLocation readDaemonLocation() {
         Path gameDataDirPath = Paths.get(".").toAbsolutePath().normalize().resolve(DaemonInterface.GAME_DATA_DIR_NAME);  // todo: pass path from c++
-        Util.checkExists(gameDataDirPath, true);
+        try {
+            Util.checkExists(gameDataDirPath, true);
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ", aborting.");
+            System.exit(1);
+        }
         Path daemonNumberPath = gameDataDirPath.resolve(DaemonInterface.DAEMON_NUMBER_FILENAME);
         File daemonNumberFile = new File(daemonNumberPath.toString());
 
@@ -117,7 +273,14 @@ public class Client {
             }
 
             DataInputStream dataInputStream = new DataInputStream(daemonNumberStream);
-            return dataInputStream.readInt();
+            int daemonNumber = dataInputStream.readInt();
+            int localPort;
+            try {
+                localPort = dataInputStream.readInt();
+            } catch (EOFException e) {
+                localPort = -1;  // written by a daemon without a local endpoint
+            }
+            return new DaemonLocation(daemonNumber, localPort);
         } catch (FileNotFoundException e) {
             System.out.printf("daemonnumber file could not be found, %s%n", e);
             System.exit(1);
@@ -125,18 +288,19 @@ public class Client {
             System.out.printf("IOException while reading/closing daemonnumber, %s%n", e);
             System.exit(1);
         }
-        return -1;  // for the compiler
+        return null;  // for the compiler
     }
 
     /**
-     * Connects to the client daemon, returning a remote object that exports the DaemonInterface interface.
+     * Connects to the client daemon over RMI, returning a remote object that exports the DaemonInterface interface.
+     * Used when the daemon's local endpoint cannot be reached.
      *
+     * @param daemonNumber the daemon number of the daemon watching over this game
      * @return The client daemon, as a remote object that exports the DaemonInterface interface
      */
-    private static DaemonInterface connectToDaemon() {
+    private static DaemonInterface connectToDaemon(int daemonNumber) {
         try {
-            int daemonNumber = readDaemonNumber();
-            System.out.println("got daemon number: " + daemonNumber);
+            Log.info("client: got daemon number: %d", daemonNumber);
             return DaemonInterface.connectToDaemon(DaemonInterface.DEFAULT_IP, DaemonInterface.RMI_REGISTRY_PORT, daemonNumber);
         } catch (RemoteException e) {
             System.out.printf("RemoteException while connecting to daemon, %s%n", e);
@@ -156,6 +320,13 @@ public class Client {
     }
 
     public static void main(String[] args) {
-        parseArgsAndContactDaemon(args);
+        long mainEnteredNanos = System.nanoTime();
+        if (args.length == 1 && args[0].equals(CDS_TRAINING_OPTION)) {
+            runCdsTraining();
+            return;
+        }
+
+        String action = parseArgsAndContactDaemon(args);
+        reportTimings(action, mainEnteredNanos, System.nanoTime());
     }
 }
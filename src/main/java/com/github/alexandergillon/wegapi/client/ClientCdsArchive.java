@@ -0,0 +1,133 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static com.github.alexandergillon.wegapi.game.DaemonInterface.GAME_DATA_DIR_NAME;
+
+/**
+ * Generates a class-data sharing (AppCDS) archive for the Client program. <br> <br>
+ *
+ * A new Client JVM is started for every player action (see tile.cpp), and JVM startup is the largest part of the
+ * delay between a click and a reaction. Much of this is loading and verifying classes. A CDS archive contains
+ * these classes pre-parsed, and is memory-mapped by the JVM at startup. <br> <br>
+ *
+ * The archive has to be created by the same JVM that will use it, so it cannot be shipped pre-built. Instead, the
+ * daemon generates it in the game data directory when it starts, if the minimal client jar (CLIENT_JAR_FILENAME)
+ * is present and the archive is missing or older than the jar. This takes two steps, as Java 11 cannot create a
+ * dynamic archive on exit: <br> <br>
+ *
+ *   1. Run the Client in training mode (see Client.runCdsTraining()), recording which classes it loads. <br>
+ *   2. Dump those classes into the archive. <br> <br>
+ *
+ * tile.exe runs the Client with -Xshare:auto, so a missing or stale archive just means a slower start. Java 11
+ * only maps an archive if the class path is exactly the one that it was dumped with (JDK 15 and later also accept
+ * the same jar given by an absolute or relative path), so both steps are run as tile.exe runs the Client: in the
+ * game directory, with the class path CLIENT_CLASS_PATH (see JAVA_CMDLINE_CLICKED in constants.h). The archive is
+ * then checked by starting the Client with -Xshare:on, which fails if the archive cannot be mapped.
+ */
+final class ClientCdsArchive {
+    static final String CLIENT_JAR_FILENAME = "wegapi-client.jar";
+    static final String ARCHIVE_FILENAME = "wegapi-client.jsa";
+    private static final String CLASS_LIST_FILENAME = "wegapi-client.classlist";
+    // exactly as tile.exe passes them, relative to the game directory
+    static final String CLIENT_CLASS_PATH =
+            "." + File.separator + GAME_DATA_DIR_NAME + File.separator + CLIENT_JAR_FILENAME;
+    private static final String ARCHIVE_PATH =
+            "." + File.separator + GAME_DATA_DIR_NAME + File.separator + ARCHIVE_FILENAME;
+
+    private ClientCdsArchive() {
+        throw new AssertionError("Utility class, not meant to be instantiated");
+    }
+
+    /**
+     * Generates the Client's CDS archive in a game data directory, if there is a client jar and the archive is
+     * missing or out of date. Blocks until generation finishes, so should be called off the main thread.
+     *
+     * @param gameDataDirPath the game data directory, containing the client jar
+     */
+    static void generateIfStale(Path gameDataDirPath) {
+        Path jarPath = gameDataDirPath.resolve(CLIENT_JAR_FILENAME);
+        Path archivePath = gameDataDirPath.resolve(ARCHIVE_FILENAME);
+        Path classListPath = gameDataDirPath.resolve(CLASS_LIST_FILENAME);
+        if (!Files.exists(jarPath)) return;
+
+        try {
+            Path gameDirPath = gameDataDirPath.toAbsolutePath().getParent();
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            // an archive dumped with another class path (e.g. by an older daemon) is newer than the jar, but unused
+            if (Files.exists(archivePath)
+                    && Files.getLastModifiedTime(archivePath).compareTo(Files.getLastModifiedTime(jarPath)) > 0
+                    && isMapped(gameDirPath, java, false)) {
+                return;  // up-to-date
+            }
+
+            boolean trained = runJava(gameDirPath, true, java, "-Xshare:off",
+                    "-XX:DumpLoadedClassList=" + classListPath.toAbsolutePath(),
+                    "-cp", CLIENT_CLASS_PATH, Client.class.getName(), Client.CDS_TRAINING_OPTION);
+            if (!trained) return;
+
+            boolean dumped = runJava(gameDirPath, true, java, "-Xshare:dump",
+                    "-XX:SharedClassListFile=" + classListPath.toAbsolutePath(),
+                    "-XX:SharedArchiveFile=" + ARCHIVE_PATH,
+                    "-cp", CLIENT_CLASS_PATH);
+            if (!dumped) return;
+
+            if (isMapped(gameDirPath, java, true)) {
+                Log.info("daemon: generated client CDS archive at %s", archivePath);
+            } else {
+                Files.deleteIfExists(archivePath);  // so that it is generated again next time
+            }
+        } catch (IOException e) {
+            Log.warn("daemon: IOException while generating client CDS archive, %s", e);
+        }
+    }
+
+    /**
+     * Checks that the Client can map the archive, by running it in training mode with the same options as tile.exe,
+     * except for -Xshare:on, which makes the JVM fail rather than start without the archive.
+     *
+     * @param gameDirPath the game directory
+     * @param java the Java executable
+     * @param reportFailure whether to print a message if the archive cannot be mapped
+     * @return whether the archive was mapped
+     */
+    private static boolean isMapped(Path gameDirPath, String java, boolean reportFailure) throws IOException {
+        return runJava(gameDirPath, reportFailure, java, "-Xshare:on", "-XX:SharedArchiveFile=" + ARCHIVE_PATH,
+                "-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC",
+                "-cp", CLIENT_CLASS_PATH, Client.class.getName(), Client.CDS_TRAINING_OPTION);
+    }
+
+    /**
+     * Runs a Java process to completion, discarding its output.
+     *
+     * @param workingDir the directory to run the process in
+     * @param reportFailure whether to print a message if the process fails
+     * @param command the command line, starting with the Java executable
+     * @return whether the process exited successfully
+     */
+    private static boolean runJava(Path workingDir, boolean reportFailure, String... command) throws IOException {
+        Process process = new ProcessBuilder(command)
+                .directory(new File(workingDir.toString()))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0 && reportFailure) {
+                Log.warn("daemon: client CDS archive generation failed: %s exited with %d", Arrays.toString(command), exitCode);
+            }
+            return exitCode == 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            return false;
+        }
+    }
+}
@@ -1,24 +1,41 @@
 package com.github.alexandergillon.wegapi.client;
 
 import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Counter;
+import com.github.alexandergillon.wegapi.metrics.Histogram;
+import com.github.alexandergillon.wegapi.metrics.Metrics;
+import com.github.alexandergillon.wegapi.metrics.RmiCallEvent;
+import com.github.alexandergillon.wegapi.metrics.TileApplyEvent;
+import com.github.alexandergillon.wegapi.metrics.Tracer;
 import org.apache.commons.cli.*;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.rmi.AlreadyBoundException;
 import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReentrantLock;
-
-// todo: if lock is held, abort action
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class which contains a daemon program, that manages a game. This program is intended to be long-running, and
@@ -30,9 +47,10 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * Communication between parties is achieved as follows: <br> <br>
  *
- *   - A Client communicates with a ClientDaemon via the DaemonInterface, over RMI on the local machine. Strictly,
- *     this does not need to be local (the daemon could run on a remote machine), but this doesn't make much sense as
- *     it would introduce unnecessary latency. <br>
+ *   - A Client communicates with a ClientDaemon via a LocalActionEndpoint, which is a small binary protocol over a
+ *     loopback socket. If that is not available, it falls back to the DaemonInterface, over RMI on the local
+ *     machine. Strictly, this does not need to be local (the daemon could run on a remote machine), but this doesn't
+ *     make much sense as it would introduce unnecessary latency. <br>
  *   - A ClientDaemon communicates with a game server via the GameServerInterface, over RMI. The server may be on a
  *     local or remote machine. <br>
  *   - A game server communicates with a ClientDaemon via the PlayerInterface, over RMI. The server uses a remote
@@ -46,99 +64,219 @@ import java.util.concurrent.locks.ReentrantLock;
  * Client program would forward the request regardless, but perhaps we might want to prevent that action from
  * occurring and perhaps tell the user that things were changing right as they clicked something. For certain games
  * we may indeed want to just forward the request regardless. A daemon allows us to choose which behavior we want,
- * and when.
+ * and when. <br> <br>
+ *
+ * The server chooses this behavior with PlayerInterface.setActionAdmissionPolicy() - see ActionAdmissionPolicy and
+ * ActionGate for the available behaviors and how they are implemented. <br> <br>
+ *
+ * One daemon process can manage several game directories (see main()). Each directory has its own ClientDaemon,
+ * with its own player identity, update queue and local endpoint, but they share one server connection and one
+ * thread pool, so that extra games do not each cost a JVM. <br> <br>
+ *
+ * The daemon remembers which tiles it has created, and watches the game directory (see TileDirectoryWatcher). If a
+ * tile file is renamed, deleted, replaced or appears unexpectedly, only the affected tiles are repaired. <br> <br>
+ *
+ * If the server stops responding (a call to it fails, or it has not sent a heartbeat for wegapi.serverTimeoutMillis
+ * milliseconds), the daemon fails over: it finds the server in the registry again (see ServerConnection), which may
+ * now be a standby that has taken over, and rejoins with reconnectPlayer(). An action that failed is not retried, as
+ * the old server may have applied it before failing. <br> <br>
  *
- * todo: concurrency control and options for servers to set it
+ * Forwarding an action to the server (which includes the server redrawing every player), and launching and waiting
+ * for create_tiles.exe and delete_tiles.exe, are timed in histograms published over JMX (see Metrics). Actions from
+ * the Client carry a trace ID, which the daemon passes on to the server, and records its own stages of the action
+ * under (see Tracer). Forwarding actions and applying updates are also recorded as JFR events (RmiCallEvent and
+ * TileApplyEvent). <br> <br>
+ *
+ * If network emulation is on (see NetworkEmulator), calls to the server go over the emulated network. <br> <br>
+ *
+ * A failure in one game directory (such as create_tiles.exe failing, or .gamedata being removed) does not stop the
+ * process, as other directories may be running fine. The daemon for that directory logs the error and marks itself
+ * as needing a resync: checkServer() then rejoins the server with reconnectPlayer(), which sends the tiles that
+ * differ from what the daemon last applied.
  */
 public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface, PlayerInterface {
     private static final String PLAYER_DATA_FILENAME = "playerdata.wegapi";
     private static final String PLAYER_DATA_MAGIC = "WEGAPIPLAYERDATA";
+    private static final String TILE_STATE_FILENAME = "tilestate.wegapi";
+    private static final String TILE_STATE_MAGIC = "WEGAPITILESTATE";
 
     // 0.1.0
     private static final int MAJOR_VERSION_NUMBER = 0;
     private static final int MINOR_VERSION_NUMBER = 1;
     private static final int PATCH_VERSION_NUMBER = 0;
 
+    public static final String SERVER_TIMEOUT_PROPERTY = "wegapi.serverTimeoutMillis";
+    private static final long DEFAULT_SERVER_TIMEOUT_MILLIS = 6000;  // three of the server's default heartbeats
+    private static final long SERVER_CHECK_INTERVAL_MILLIS = 500;
+
+    private static final Histogram FORWARD_NANOS = Metrics.histogram("daemon.forwardNanos", "ns");
+    private static final Histogram PROCESS_SPAWN_NANOS = Metrics.histogram("daemon.processSpawnNanos", "ns");
+    private static final Histogram PROCESS_WAIT_NANOS = Metrics.histogram("daemon.processWaitNanos", "ns");
+    private static final Counter DROPPED_ACTIONS = Metrics.counter("daemon.droppedActions");
+
     private final Path gameDir;
     private int playerNumber = -1;
     private boolean gameOver = false; // todo: use
 
-    private final ReentrantLock actionLock = new ReentrantLock(true);
-    private final GameServerInterface server;
+    private final ServerConnection serverConnection;
+    private volatile GameServerInterface connectedServer = null;  // the server this daemon last joined
+    private volatile long lastHeartbeatNanos = System.nanoTime();
+    private volatile boolean needsResync = false;  // an update failed, so the game directory may not match the server
+    private volatile long lastResyncNanos = System.nanoTime();
+    private int daemonNumber = -1;
+    private final ExecutorService sharedExecutor;
+    private final TileUpdateQueue updateQueue;
+    private final ActionGate actionGate;
+    private final TileBatch.Dictionary iconDictionary = new TileBatch.Dictionary();  // icon names sent by the server
+
+    // the tiles that the daemon has applied to the game directory, and the modification times of their files. Only
+    // written on the update queue, but read by the tile watcher.
+    private final ConcurrentHashMap<Integer, Tile> appliedTiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, FileTime> appliedModifiedTimes = new ConcurrentHashMap<>();
 
     /**
-     * Creates a client daemon that uses userDir as its game directory.
+     * Creates a client daemon that uses userDir as its game directory. <br> <br>
+     *
+     * One daemon process can host several ClientDaemons, one per game directory (see main()). Each has its own
+     * player identity, update queue and action gate, but they share a connection to the server, and a thread
+     * pool which runs their background work.
      *
      * @param userDir path to a directory to run the game in
+     * @param serverConnection the connection to the game server, shared between all ClientDaemons in this process
+     * @param sharedExecutor thread pool for background work, shared between all ClientDaemons in this process
      * @throws RemoteException propagates from UnicastRemoteObject constructor
      */
-    public ClientDaemon(String userDir) throws RemoteException {
-        super(0);
+    public ClientDaemon(String userDir, ServerConnection serverConnection, ExecutorService sharedExecutor) throws RemoteException {
+        super(0, new ConfigurableClientSocketFactory(), new ConfigurableServerSocketFactory());
         gameDir = Paths.get(userDir);
+        this.serverConnection = serverConnection;
+        this.sharedExecutor = sharedExecutor;
+        updateQueue = new TileUpdateQueue(sharedExecutor);
+        actionGate = new ActionGate(updateQueue, DROPPED_ACTIONS);
+    }
 
-        GameServerInterface tempServer;
+    /**
+     * Connects to the game server. On error, prints a message and exits.
+     *
+     * @return the connection to the game server
+     */
+    private static ServerConnection connectToServer() {
         try {
-            tempServer = GameServerInterface.connectToServer(GameServerInterface.DEFAULT_IP, GameServerInterface.RMI_REGISTRY_PORT);
+            return new ServerConnection();
         } catch (RemoteException e) {
             System.out.printf("RemoteException while connecting to server, %s%n", e);
-            System.exit(1);
-            tempServer = null;
         } catch (NotBoundException e) {
             System.out.printf("Server is not bound while connecting, %s%n", e);
-            System.exit(1);
-            tempServer = null;
         } catch (MalformedURLException e) {
             System.out.printf("Malformed URL while connecting to server, %s%n", e);
-            System.exit(1);
-            tempServer = null;
         }
-        server = tempServer;
+        System.exit(1);
+        return null;  // for the compiler
     }
 
     /**
-     * This function is called when the client has double-clicked a tile. For now, forwards
-     * the request to the server.
-     *
-     * todo: concurrency control
+     * This function is called when the client has double-clicked a tile. Forwards the request to the server, if
+     * the current ActionAdmissionPolicy admits it.
      *
      * @param tile the index of the tile that the player clicked
+     * @param traceId the trace ID of the action, or 0 if it is not traced
+     * @param sentNanos when the Client sent the action
      */
     @Override
-    public void tileClicked(int tile) {
-        System.out.printf("daemon: tile clicked: %d%n", tile);
+    public void tileClicked(int tile, long traceId, long sentNanos) {
+        long receivedNanos = Tracer.now();
+        Tracer.record(traceId, Tracer.Stage.CLIENT_SEND, sentNanos, receivedNanos);
+        if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("daemon: tile clicked: %d", tile);
+        if (!actionGate.submit(() -> forwardTileClicked(tile, traceId, receivedNanos))) {
+            DROPPED_ACTIONS.increment();
+            Log.info("daemon: dropped click on tile %d (policy %s)", tile, actionGate.getPolicy());
+        }
+    }
+
+    private void forwardTileClicked(int tile, long traceId, long receivedNanos) {
+        GameServerInterface server = connectedServer;
+        if (server == null) {
+            DROPPED_ACTIONS.increment();
+            Log.info("daemon: dropped click on tile %d, not connected to a server", tile);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long traceStartNanos = Tracer.now();
+        Tracer.record(traceId, Tracer.Stage.DAEMON_GATE, receivedNanos, traceStartNanos);
+        RmiCallEvent event = new RmiCallEvent();
+        event.begin();
         try {
-            server.tileClicked(tile, new PlayerData(playerNumber, this));
+            NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class).tileClicked(tile, new PlayerData(playerNumber, this, traceId));
+            FORWARD_NANOS.recordSince(startNanos);
+            Tracer.recordSince(traceId, Tracer.Stage.DAEMON_FORWARD, traceStartNanos);
+            commitForwardEvent(event, "tileClicked", false, traceId);
         } catch (RemoteException e) {
-            System.out.printf("RemoteException while forwarding tileClicked to server, %s%n", e);
+            commitForwardEvent(event, "tileClicked", true, traceId);
+            Log.warn("RemoteException while forwarding tileClicked to server, %s", e);
+            if (ServerConnection.isCommunicationFailure(e)) failOver(server);
         }
     }
 
     /**
-     * This function is called when the client drags one tile to another. For now, forwards
-     * the request to the server.
-     *
-     * todo: concurrency control
+     * This function is called when the client drags one tile to another. Forwards the request to the server, if
+     * the current ActionAdmissionPolicy admits it.
      *
      * @param fromTile the index of the tile that was dragged
      * @param toTile the index of the tile that the tile was dragged to
+     * @param traceId the trace ID of the action, or 0 if it is not traced
+     * @param sentNanos when the Client sent the action
      */
     @Override
-    public void tileDragged(int fromTile, int toTile) {
-        System.out.printf("daemon: tile dragged: from %d to %d%n", fromTile, toTile);
+    public void tileDragged(int fromTile, int toTile, long traceId, long sentNanos) {
+        long receivedNanos = Tracer.now();
+        Tracer.record(traceId, Tracer.Stage.CLIENT_SEND, sentNanos, receivedNanos);
+        if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("daemon: tile dragged: from %d to %d", fromTile, toTile);
+        if (!actionGate.submit(() -> forwardTileDragged(fromTile, toTile, traceId, receivedNanos))) {
+            DROPPED_ACTIONS.increment();
+            Log.info("daemon: dropped drag from tile %d to %d (policy %s)", fromTile, toTile, actionGate.getPolicy());
+        }
+    }
+
+    private void forwardTileDragged(int fromTile, int toTile, long traceId, long receivedNanos) {
+        GameServerInterface server = connectedServer;
+        if (server == null) {
+            DROPPED_ACTIONS.increment();
+            Log.info("daemon: dropped drag from tile %d to %d, not connected to a server", fromTile, toTile);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long traceStartNanos = Tracer.now();
+        Tracer.record(traceId, Tracer.Stage.DAEMON_GATE, receivedNanos, traceStartNanos);
+        RmiCallEvent event = new RmiCallEvent();
+        event.begin();
         try {
-            server.tileDragged(fromTile, toTile, new PlayerData(playerNumber, this));
+            NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class).tileDragged(fromTile, toTile, new PlayerData(playerNumber, this, traceId));
+            FORWARD_NANOS.recordSince(startNanos);
+            Tracer.recordSince(traceId, Tracer.Stage.DAEMON_FORWARD, traceStartNanos);
+            commitForwardEvent(event, "tileDragged", false, traceId);
         } catch (RemoteException e) {
-            System.out.printf("RemoteException while forwarding tileDragged to server, %s%n", e);
+            commitForwardEvent(event, "tileDragged", true, traceId);
+            Log.warn("RemoteException while forwarding tileDragged to server, %s", e);
+            if (ServerConnection.isCommunicationFailure(e)) failOver(server);
         }
     }
 
+    private void commitForwardEvent(RmiCallEvent event, String method, boolean failed, long traceId) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.method = method;
+        event.playerNumber = playerNumber;
+        event.failed = failed;
+        event.traceId = traceId;
+        event.commit();
+    }
+
     @Override
     public void initialize(int playerNumber) {
-        System.out.println("daemon: initializing, got player #" + playerNumber);
+        Log.info("daemon: initializing, got player #%d", playerNumber);
         this.playerNumber = playerNumber;
 
         Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
-        Util.checkExists(gameDataDirPath, true);
         Path playerDataPath = gameDataDirPath.resolve(PLAYER_DATA_FILENAME);
         File playerData = new File(playerDataPath.toString());
 
@@ -152,60 +290,155 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
             dataOutputStream.writeInt(PATCH_VERSION_NUMBER);
 
             dataOutputStream.writeInt(playerNumber);
-        } catch (FileNotFoundException e) {
-            System.out.printf("playerdata file could not be created, %s%n", e);
-            System.exit(1);
         } catch (IOException e) {
-            System.out.printf("IOException while writing/closing playerdata, %s%n", e);
-            System.exit(1);
+            // the game can still be played, but a restarted daemon will join as a new player
+            Log.error("daemon: IOException while writing playerdata in %s, %s", gameDir, e);
         }
     }
 
+    @Override
+    public void setActionAdmissionPolicy(ActionAdmissionPolicy policy) {
+        if (policy == null) throw new IllegalArgumentException("ActionAdmissionPolicy must not be null.");
+        Log.info("daemon: using action admission policy %s", policy);
+        actionGate.setPolicy(policy);
+    }
+
+    @Override
+    public void heartbeat() {
+        // the server only wants to know whether the call gets through, but this also shows that the server is alive
+        lastHeartbeatNanos = System.nanoTime();
+    }
+
     @Override
     public void displayMessage(String message, boolean error) {
         if (error) {
-            System.out.println("daemon: received ERROR message from server: " + message);
+            Log.warn("daemon: received ERROR message from server: %s", message);
         } else {
-            System.out.println("daemon: received message from server: " + message);
+            Log.info("daemon: received message from server: %s", message);
         }
     }
 
-    private Process launchCreateTiles(Path gameDataDirPath, String tileData, CreateTilesMode mode) {
+    private Process launchCreateTiles(Path gameDataDirPath, String tileData, CreateTilesMode mode) throws IOException {
         Path createTilesExePath = gameDataDirPath.resolve("create_tiles.exe");
 
-        try {
-            switch (mode) {
-                case CREATE:
-                    return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData)
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-                case CREATE_NEW:
-                    return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData, "-n")
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-                case OVERWRITE_EXISTING:
-                    return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData, "-o")
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-            }
-        } catch (IOException e) {
-            System.out.printf("failed to create create_tiles process, %s%n", e);
-            System.exit(1);
+        switch (mode) {
+            case CREATE:
+                return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData)
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
+            case CREATE_NEW:
+                return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData, "-n")
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
+            case OVERWRITE_EXISTING:
+                return new ProcessBuilder(createTilesExePath.toString(), gameDir.toString(), tileData, "-o")
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
         }
 
         return null; // for the compiler
     }
 
+    /**
+     * Checks that tiles sent by the server can be passed to create_tiles.exe. Indices must be non-negative, and icon
+     * and tile names must not contain the characters that create_tiles.exe uses as delimiters.
+     *
+     * @param tiles the tiles to validate
+     * @param mode the mode to create the tiles with
+     * @throws IllegalArgumentException if any tile is invalid
+     */
+    private static void validateTiles(ArrayList<Tile> tiles, CreateTilesMode mode) {
+        if (mode == null) throw new IllegalArgumentException("CreateTilesMode must not be null.");
+        for (Tile tile : tiles) {
+            if (tile == null) throw new IllegalArgumentException("Tiles must not be null.");
+            if (tile.getIndex() < 0) throw new IllegalArgumentException("Tile index " + tile.getIndex() + " is negative.");
+            if (!validTileString(tile.getIconName())) {
+                throw new IllegalArgumentException("Invalid icon name for tile " + tile.getIndex() + ": " + tile.getIconName());
+            }
+            if (tile.getTileName() != null && !validTileString(tile.getTileName())) {
+                throw new IllegalArgumentException("Invalid tile name for tile " + tile.getIndex() + ": " + tile.getTileName());
+            }
+        }
+    }
+
+    /**
+     * Returns whether a string can be used as an icon or tile name in the tile data passed to create_tiles.exe.
+     *
+     * @param string the string to check
+     * @return whether the string is non-empty, and does not contain ':' or ','
+     */
+    private static boolean validTileString(String string) {
+        return string != null && !string.isEmpty() && string.indexOf(':') == -1 && string.indexOf(',') == -1;
+    }
+
+    /**
+     * Unpacks and validates tiles sent by the server, and queues them to be created in the background. Returns to the
+     * server as soon as the tiles have been queued, so that the server does not have to wait for create_tiles.exe.
+     */
     @Override
-    public void createTiles(ArrayList<Tile> tiles, CreateTilesMode mode) {
-        if (tiles == null || tiles.size() == 0) return;
+    public long createTiles(TileBatch batch, CreateTilesMode mode, long traceId) {
+        if (batch == null) return updateQueue.getLastSubmittedSequence();
+        ArrayList<Tile> tiles = batch.decode(iconDictionary);
+        if (tiles.size() == 0) return updateQueue.getLastSubmittedSequence();
+        validateTiles(tiles, mode);
+        long receivedNanos = Tracer.now();
+        return updateQueue.submit(() -> {
+            long startNanos = Tracer.now();
+            Tracer.record(traceId, Tracer.Stage.DAEMON_QUEUE, receivedNanos, startNanos);
+            TileApplyEvent event = new TileApplyEvent();
+            event.begin();
+            try {
+                applyCreateTiles(tiles, mode);
+            } catch (IOException e) {
+                updateFailed(e);
+                return;
+            }
+            Tracer.recordSince(traceId, Tracer.Stage.DAEMON_APPLY, startNanos);
+            commitApplyEvent(event, "create", mode.toString(), tiles.size(), traceId);
+        });
+    }
+
+    private void commitApplyEvent(TileApplyEvent event, String operation, String mode, int tileCount, long traceId) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.gameDir = gameDir.toString();
+        event.playerNumber = playerNumber;
+        event.operation = operation;
+        event.mode = mode;
+        event.tileCount = tileCount;
+        event.traceId = traceId;
+        event.commit();
+    }
+
+    /**
+     * Called on the update queue when an update could not be applied. Only this game directory is affected, so the
+     * error is logged and the daemon is marked as needing a resync, which checkServer() starts. Other game
+     * directories in this process carry on.
+     *
+     * @param e the error that stopped the update
+     */
+    private void updateFailed(IOException e) {
+        Log.error("daemon: failed to update %s, will resync with the server: %s", gameDir, e);
+        needsResync = true;
+    }
 
-        System.out.println("daemon: creating tiles...");
+    /**
+     * Creates tiles in the game directory, by launching create_tiles.exe and waiting for it to finish. Runs on the
+     * update queue's background thread. <br> <br>
+     *
+     * If the tiles could not be created, the daemon's record of the applied tiles is left as it was, so that a resync
+     * (see updateFailed()) can correct the game directory.
+     *
+     * @param tiles tiles to create
+     * @param mode mode (how to handle existing tiles, etc.)
+     * @throws IOException if .gamedata is missing, or create_tiles.exe could not be run or failed
+     */
+    private void applyCreateTiles(ArrayList<Tile> tiles, CreateTilesMode mode) throws IOException {
+        Log.debug("daemon: creating %d tiles", tiles.size());
         // todo: use installed binaries in program files
-        // todo: concurrency
         Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
         Util.checkExists(gameDataDirPath, true);
 
@@ -220,80 +453,262 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
             stringifiedTiles.add(stringifiedTile);
         }
         String tileData = String.join(",", stringifiedTiles);
-        System.out.println("tiledata: " + tileData);
+        Log.debug("tiledata: %s", tileData);
 
+        long spawnStartNanos = System.nanoTime();
         Process p = launchCreateTiles(gameDataDirPath, tileData, mode);
+        PROCESS_SPAWN_NANOS.recordSince(spawnStartNanos);
 
-        // todo: fail more gracefully
         try {
+            long waitStartNanos = System.nanoTime();
             int exitCode = p.waitFor();
-            if (exitCode != 0) {
-                System.out.println("create_tiles.exe failed");
-                System.exit(1);
-            }
+            PROCESS_WAIT_NANOS.recordSince(waitStartNanos);
+            if (exitCode != 0) throw new IOException("create_tiles.exe failed with exit code " + exitCode);
         } catch (InterruptedException e) {
             // this shouldn't happen
-            System.out.printf("interrupted while waiting for create_tiles process, %s%n", e);
-            System.exit(1);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for create_tiles process");
+        }
+
+        for (Tile tile : tiles) {
+            recordAppliedTile(tile);
         }
+        saveTileState();
     }
 
-    private Process launchDeleteTiles(Path gameDataDirPath, String tileData, DeleteTilesMode mode) {
+    private Process launchDeleteTiles(Path gameDataDirPath, String tileData, DeleteTilesMode mode) throws IOException {
         Path deleteTilesExePath = gameDataDirPath.resolve("delete_tiles.exe");
 
-        try {
-            switch (mode) {
-                case DELETE:
-                    return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), tileData)
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-                case DELETE_EXISTING:
-                    return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), tileData, "-e")
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-                case DELETE_ALL:
-                    // delete_tiles needs some data here to parse args correctly, but it's ignored
-                    return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), "0", "-a")
-                            .directory(new File(gameDataDirPath.toString()))
-                            .inheritIO()
-                            .start();
-            }
-        } catch (IOException e) {
-            System.out.printf("failed to create delete_tiles process, %s%n", e);
-            System.exit(1);
+        switch (mode) {
+            case DELETE:
+                return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), tileData)
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
+            case DELETE_EXISTING:
+                return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), tileData, "-e")
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
+            case DELETE_ALL:
+                // delete_tiles needs some data here to parse args correctly, but it's ignored
+                return new ProcessBuilder(deleteTilesExePath.toString(), gameDir.toString(), "0", "-a")
+                        .directory(new File(gameDataDirPath.toString()))
+                        .inheritIO()
+                        .start();
         }
 
         return null; // for the compiler
     }
 
+    /**
+     * Validates tile indices sent by the server, and queues them to be deleted in the background. Returns to the
+     * server as soon as the deletion has been queued, so that the server does not have to wait for delete_tiles.exe.
+     */
     @Override
-    public void deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode) {
-        if (mode != DeleteTilesMode.DELETE_ALL && (tileIndices == null || tileIndices.size() == 0)) return;
-        System.out.println("daemon: deleting tiles...");
+    public long deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode, long traceId) {
+        if (mode == null) throw new IllegalArgumentException("DeleteTilesMode must not be null.");
+        if (mode != DeleteTilesMode.DELETE_ALL) {
+            if (tileIndices == null || tileIndices.size() == 0) return updateQueue.getLastSubmittedSequence();
+            for (Integer index : tileIndices) {
+                if (index == null || index < 0) throw new IllegalArgumentException("Invalid tile index: " + index);
+            }
+        }
+        long receivedNanos = Tracer.now();
+        return updateQueue.submit(() -> {
+            long startNanos = Tracer.now();
+            Tracer.record(traceId, Tracer.Stage.DAEMON_QUEUE, receivedNanos, startNanos);
+            TileApplyEvent event = new TileApplyEvent();
+            event.begin();
+            try {
+                applyDeleteTiles(tileIndices, mode);
+            } catch (IOException e) {
+                updateFailed(e);
+                return;
+            }
+            Tracer.recordSince(traceId, Tracer.Stage.DAEMON_APPLY, startNanos);
+            commitApplyEvent(event, "delete", mode.toString(), mode == DeleteTilesMode.DELETE_ALL ? 0 : tileIndices.size(), traceId);
+        });
+    }
+
+    /**
+     * Deletes tiles from the game directory, by launching delete_tiles.exe and waiting for it to finish. Runs on the
+     * update queue's background thread. <br> <br>
+     *
+     * If the tiles could not be deleted, the daemon's record of the applied tiles is left as it was, so that a resync
+     * (see updateFailed()) can correct the game directory.
+     *
+     * @param tileIndices indices of the tiles to delete (ignored, and may be null, if mode is DELETE_ALL)
+     * @param mode mode (how to handle non-existent tiles, etc.)
+     * @throws IOException if .gamedata is missing, or delete_tiles.exe could not be run or failed
+     */
+    private void applyDeleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode) throws IOException {
+        Log.debug("daemon: deleting tiles (%s)", mode);
         Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
         Util.checkExists(gameDataDirPath, true);
 
-        // tileIndices converted to strings
-        String[] indexStrings = tileIndices.stream().map(x -> Integer.toString(x)).toArray(String[]::new);
-        String tileData = String.join(",", indexStrings);
-        System.out.println("tiledata: " + tileData);
+        String tileData;
+        if (mode == DeleteTilesMode.DELETE_ALL) {
+            tileData = "0";  // ignored by delete_tiles.exe
+        } else {
+            // tileIndices converted to strings
+            String[] indexStrings = tileIndices.stream().map(x -> Integer.toString(x)).toArray(String[]::new);
+            tileData = String.join(",", indexStrings);
+        }
+        Log.debug("tiledata: %s", tileData);
 
+        long spawnStartNanos = System.nanoTime();
         Process p = launchDeleteTiles(gameDataDirPath, tileData, mode);
+        PROCESS_SPAWN_NANOS.recordSince(spawnStartNanos);
 
-        // todo: fail more gracefully
         try {
+            long waitStartNanos = System.nanoTime();
             int exitCode = p.waitFor();
-            if (exitCode != 0) {
-                System.out.println("delete_tiles.exe failed");
-                System.exit(1);
-            }
+            PROCESS_WAIT_NANOS.recordSince(waitStartNanos);
+            if (exitCode != 0) throw new IOException("delete_tiles.exe failed with exit code " + exitCode);
         } catch (InterruptedException e) {
             // this shouldn't happen
-            System.out.printf("interrupted while waiting for delete_tiles process, %s%n", e);
-            System.exit(1);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for delete_tiles process");
+        }
+
+        if (mode == DeleteTilesMode.DELETE_ALL) {
+            appliedTiles.clear();
+            appliedModifiedTimes.clear();
+        } else {
+            for (int index : tileIndices) {
+                appliedTiles.remove(index);
+                appliedModifiedTimes.remove(index);
+            }
+        }
+        saveTileState();
+    }
+
+    /**
+     * Records that a tile has just been created, along with the modification time of its file, so that later changes
+     * to the file can be detected. Runs on the update queue.
+     *
+     * @param tile the tile that was created
+     */
+    private void recordAppliedTile(Tile tile) {
+        appliedTiles.put(tile.getIndex(), tile);
+        try {
+            appliedModifiedTimes.put(tile.getIndex(), Files.getLastModifiedTime(tilePath(tile.getIndex())));
+        } catch (IOException e) {
+            // file is already gone: the watcher will see this, and repair it
+            appliedModifiedTimes.remove(tile.getIndex());
+        }
+    }
+
+    private Path tilePath(int index) {
+        return gameDir.resolve(Util.tileIndexToFilename(index));
+    }
+
+    /**
+     * Starts watching the game directory for tiles that are changed behind the daemon's back. On error, prints a
+     * message and continues without watching.
+     */
+    private void startWatchingTiles() {
+        try {
+            TileDirectoryWatcher.start(gameDir, sharedExecutor, this::tilesChanged);
+        } catch (IOException e) {
+            Log.warn("daemon: failed to watch game directory, damaged tiles will not be repaired: %s", e);
+        }
+    }
+
+    /**
+     * Called by the TileDirectoryWatcher when tile files have changed. Some of these changes are the daemon's own
+     * updates, so tiles are only queued for repair if they differ from what the daemon last applied. <br> <br>
+     *
+     * The check here runs on the watcher's thread, and may race with an update that is being applied, so
+     * repairTiles() checks again on the update queue before touching anything.
+     *
+     * @param tileIndices indices of tiles whose files have changed
+     * @param overflow whether some changes were missed, in which case every tile is checked
+     */
+    private void tilesChanged(Set<Integer> tileIndices, boolean overflow) {
+        Set<Integer> candidates = overflow ? allTileIndices() : tileIndices;
+        Set<Integer> damaged = new HashSet<>();
+        for (int index : candidates) {
+            if (needsRepair(index)) damaged.add(index);
+        }
+        if (!damaged.isEmpty()) {
+            updateQueue.submit(() -> repairTiles(damaged));
+        }
+    }
+
+    /**
+     * Returns whether a tile's file differs from what the daemon last applied: i.e. an applied tile is missing or
+     * has been modified, or a tile exists that the daemon never created (or has since deleted).
+     *
+     * @param index index of the tile to check
+     * @return whether the tile needs to be repaired
+     */
+    private boolean needsRepair(int index) {
+        Path path = tilePath(index);
+        if (!appliedTiles.containsKey(index)) return Files.exists(path);
+
+        try {
+            return !Files.getLastModifiedTime(path).equals(appliedModifiedTimes.get(index));
+        } catch (IOException e) {
+            return true;  // missing
+        }
+    }
+
+    /**
+     * Returns the indices of every tile that is either applied, or present in the game directory.
+     *
+     * @return all tile indices that could need repair
+     */
+    private Set<Integer> allTileIndices() {
+        Set<Integer> indices = new HashSet<>(appliedTiles.keySet());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(gameDir)) {
+            for (Path file : files) {
+                int index = Util.tileFilenameToIndex(file.getFileName().toString());
+                if (index != -1) indices.add(index);
+            }
+        } catch (IOException e) {
+            Log.warn("IOException while scanning game directory, %s", e);
         }
+        return indices;
+    }
+
+    /**
+     * Restores tiles to the state that the daemon last applied: missing or modified tiles are re-created, and
+     * unexpected tiles are deleted. Only the given tiles are touched. Runs on the update queue.
+     *
+     * @param tileIndices indices of tiles that may need repair
+     */
+    private void repairTiles(Set<Integer> tileIndices) {
+        ArrayList<Tile> toCreate = new ArrayList<>();
+        ArrayList<Integer> toDelete = new ArrayList<>();
+        for (int index : tileIndices) {
+            if (!needsRepair(index)) continue;  // repaired or overwritten since it was queued
+            Tile tile = appliedTiles.get(index);
+            if (tile != null) {
+                toCreate.add(tile);
+            } else {
+                toDelete.add(index);
+            }
+        }
+
+        try {
+            if (!toCreate.isEmpty()) {
+                Log.info("daemon: repairing %d damaged tile(s)", toCreate.size());
+                applyCreateTiles(toCreate, CreateTilesMode.CREATE);
+            }
+            if (!toDelete.isEmpty()) {
+                Log.info("daemon: removing %d unexpected tile(s)", toDelete.size());
+                applyDeleteTiles(toDelete, DeleteTilesMode.DELETE);
+            }
+        } catch (IOException e) {
+            updateFailed(e);
+        }
+    }
+
+    @Override
+    public long getLastAppliedSequence() {
+        return updateQueue.getLastAppliedSequence();
     }
 
     @Override
@@ -302,21 +717,235 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
     }
 
     /**
-     * Registers this player with the server.
+     * Registers this player with the server, if this daemon is not already connected to one. If there is no server
+     * for this player, or registering fails, this daemon is left unconnected, and checkServer() tries again after
+     * wegapi.serverTimeoutMillis. Actions are dropped until then.
+     */
+    private synchronized void registerWithServer() {
+        if (connectedServer != null) return;
+        int savedPlayerNumber = readPlayerNumber();
+        try {
+            GameServerInterface server = serverConnection.serverFor(savedPlayerNumber);
+            if (server == null) {
+                Log.warn("daemon: the router has no server for this player, will try again");
+                return;
+            }
+            connectedServer = server;
+            lastHeartbeatNanos = System.nanoTime();
+            if (savedPlayerNumber == -1) {
+                NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class).registerPlayer(this);
+            } else {
+                ArrayList<Tile> currentTiles = loadTileState();
+                playerNumber = savedPlayerNumber;
+                Log.info("daemon: rejoining as player #%d with %d tiles", savedPlayerNumber, currentTiles.size());
+                NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class).reconnectPlayer(this, savedPlayerNumber, currentTiles);
+            }
+        } catch (RemoteException e) {
+            connectedServer = null;
+            Log.warn("daemon: RemoteException while registering with server, will try again, %s", e);
+        }
+    }
+
+    /**
+     * Moves to a new server after the current one has stopped responding, and rejoins the game there with the tiles
+     * that this daemon has applied. Also binds this daemon in the registry again, as the registry may have died
+     * with the old server. Does nothing if this daemon has already moved on from the failed server.
+     *
+     * @param failed the server that stopped responding
+     */
+    private synchronized void failOver(GameServerInterface failed) {
+        if (failed != connectedServer || playerNumber == -1) return;
+        Log.warn("daemon: server is not responding, failing over");
+        long startNanos = System.nanoTime();
+
+        GameServerInterface newServer = serverConnection.failOver(failed, playerNumber,
+                server -> NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class)
+                        .reconnectPlayer(this, playerNumber, new ArrayList<>(appliedTiles.values())));
+        if (newServer == null) {
+            Log.warn("daemon: could not find a server to fail over to, will try again");
+            lastHeartbeatNanos = System.nanoTime();
+            return;
+        }
+        connectedServer = newServer;
+        lastHeartbeatNanos = System.nanoTime();
+        needsResync = false;  // rejoining sent the applied tiles, which is all that a resync does
+        Log.info("daemon: failed over to a new server in %.1f ms", (System.nanoTime() - startNanos) / 1e6);
+
+        try {
+            if (daemonNumber != -1) Naming.rebind(Util.buildDaemonRMIPath(daemonNumber), this);
+        } catch (RemoteException | MalformedURLException e) {
+            Log.warn("daemon: failed to rebind daemon after failing over, %s", e);
+        }
+    }
+
+    /**
+     * Fails over (in the background) if the server has not sent a heartbeat for wegapi.serverTimeoutMillis, or tries
+     * to register again if this daemon is not connected to a server. Also resyncs (in the background) if an update
+     * failed, at most once every wegapi.serverTimeoutMillis. Called periodically by main().
+     */
+    private void checkServer() {
+        long timeoutNanos = Long.getLong(SERVER_TIMEOUT_PROPERTY, DEFAULT_SERVER_TIMEOUT_MILLIS) * 1_000_000;
+        if (needsResync && System.nanoTime() - lastResyncNanos >= timeoutNanos) {
+            lastResyncNanos = System.nanoTime();
+            GameServerInterface server = connectedServer;
+            if (server != null) sharedExecutor.execute(() -> resync(server));
+        }
+        if (System.nanoTime() - lastHeartbeatNanos < timeoutNanos) return;
+        lastHeartbeatNanos = System.nanoTime();  // so that only one attempt is started per timeout
+        GameServerInterface server = connectedServer;
+        if (server == null) {
+            sharedExecutor.execute(this::registerWithServer);
+        } else {
+            sharedExecutor.execute(() -> failOver(server));
+        }
+    }
+
+    /**
+     * Rejoins the server with the tiles that this daemon has applied, after an update failed. The server sends back
+     * the tiles that differ, which brings the game directory back in line with the game. If the resync fails,
+     * checkServer() tries again later.
+     *
+     * @param server the server to resync with
      */
-    private void registerWithServer() {
+    private synchronized void resync(GameServerInterface server) {
+        if (!needsResync || server != connectedServer || playerNumber == -1) return;
+        needsResync = false;  // cleared first, so that an update failing during the resync marks it again
+        Log.info("daemon: resyncing %s with the server", gameDir);
         try {
-            server.registerPlayer(this);
+            NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class)
+                    .reconnectPlayer(this, playerNumber, new ArrayList<>(appliedTiles.values()));
         } catch (RemoteException e) {
-            System.out.printf("RemoteException while registering with server, %s%n", e);
+            needsResync = true;
+            Log.warn("daemon: RemoteException while resyncing with server, will try again, %s", e);
+            if (ServerConnection.isCommunicationFailure(e)) failOver(server);
         }
     }
 
+    /**
+     * Reads the player number saved in the playerdata file by initialize(), if there is one.
+     *
+     * @return the saved player number, or -1 if there is no valid playerdata file
+     */
+    private int readPlayerNumber() {
+        Path playerDataPath = gameDir.resolve(GAME_DATA_DIR_NAME).resolve(PLAYER_DATA_FILENAME);
+        if (!Files.exists(playerDataPath)) return -1;
+
+        try (DataInputStream playerDataStream = new DataInputStream(new FileInputStream(playerDataPath.toString()))) {
+            byte[] magic = PLAYER_DATA_MAGIC.getBytes(StandardCharsets.US_ASCII);
+            if (!Arrays.equals(playerDataStream.readNBytes(magic.length), magic)) {
+                Log.warn("daemon: magic at the start of playerdata is not as expected, joining as a new player");
+                return -1;
+            }
+            if (playerDataStream.readInt() != MAJOR_VERSION_NUMBER) {
+                Log.warn("daemon: playerdata is from an incompatible version, joining as a new player");
+                return -1;
+            }
+            playerDataStream.readInt();  // minor version
+            playerDataStream.readInt();  // patch version
+            return playerDataStream.readInt();
+        } catch (IOException e) {
+            Log.warn("daemon: IOException while reading playerdata, joining as a new player: %s", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Saves the tiles that the daemon has applied to the tilestate file, so that a restarted daemon can tell the
+     * server what the player can already see (see reconnectPlayer()). The file is written to a temporary file and
+     * then moved into place, so a crash never leaves a partial file. Runs on the update queue.
+     */
+    private void saveTileState() {
+        Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
+        Path tileStatePath = gameDataDirPath.resolve(TILE_STATE_FILENAME);
+        Path tempPath = gameDataDirPath.resolve(TILE_STATE_FILENAME + ".tmp");
+
+        try (DataOutputStream tileStateStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath.toString())))) {
+            tileStateStream.write(TILE_STATE_MAGIC.getBytes(StandardCharsets.US_ASCII));
+            tileStateStream.writeInt(MAJOR_VERSION_NUMBER);
+            tileStateStream.writeInt(appliedTiles.size());
+            for (Tile tile : appliedTiles.values()) {
+                tileStateStream.writeInt(tile.getIndex());
+                tileStateStream.writeUTF(tile.getIconName());
+                tileStateStream.writeBoolean(tile.getTileName() != null);
+                if (tile.getTileName() != null) tileStateStream.writeUTF(tile.getTileName());
+            }
+        } catch (IOException e) {
+            Log.warn("IOException while writing tilestate, %s", e);
+            return;
+        }
+
+        try {
+            Files.move(tempPath, tileStatePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("IOException while replacing tilestate, %s", e);
+        }
+    }
+
+    /**
+     * Loads the tiles saved by saveTileState(), and records them as applied. Tiles whose files are no longer in the
+     * game directory are left out, so that the server re-creates them.
+     *
+     * @return the tiles that are still in the game directory, or an empty list if there is no valid tilestate file
+     */
+    private ArrayList<Tile> loadTileState() {
+        ArrayList<Tile> tiles = new ArrayList<>();
+        Path tileStatePath = gameDir.resolve(GAME_DATA_DIR_NAME).resolve(TILE_STATE_FILENAME);
+        if (!Files.exists(tileStatePath)) return tiles;
+
+        try (DataInputStream tileStateStream = new DataInputStream(new BufferedInputStream(new FileInputStream(tileStatePath.toString())))) {
+            byte[] magic = TILE_STATE_MAGIC.getBytes(StandardCharsets.US_ASCII);
+            if (!Arrays.equals(tileStateStream.readNBytes(magic.length), magic)
+                    || tileStateStream.readInt() != MAJOR_VERSION_NUMBER) {
+                Log.warn("daemon: tilestate is not valid, ignoring it");
+                return tiles;
+            }
+
+            int numTiles = tileStateStream.readInt();
+            for (int i = 0; i < numTiles; i++) {
+                int index = tileStateStream.readInt();
+                String iconName = tileStateStream.readUTF();
+                String tileName = tileStateStream.readBoolean() ? tileStateStream.readUTF() : null;
+                Tile tile = new Tile(index, iconName, tileName);
+                if (Files.exists(tilePath(index))) {
+                    recordAppliedTile(tile);
+                    tiles.add(tile);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("daemon: IOException while reading tilestate, ignoring it: %s", e);
+            appliedTiles.clear();
+            appliedModifiedTimes.clear();
+            tiles.clear();
+        }
+        return tiles;
+    }
+
+    /**
+     * Tells the player if the minimal client jar is missing from the game data directory. tile.exe runs the Client
+     * from this jar (see JAVA_CMDLINE_CLICKED in constants.h), so without it, the player's clicks and drags do
+     * nothing.
+     */
+    private void checkClientJar() {
+        Path clientJarPath = gameDir.resolve(GAME_DATA_DIR_NAME).resolve(ClientCdsArchive.CLIENT_JAR_FILENAME);
+        if (!Files.exists(clientJarPath)) {
+            Log.error("daemon: %s is missing, so clicks and drags in %s will do nothing (build it with mvn package, as target/%s)",
+                    clientJarPath, gameDir, ClientCdsArchive.CLIENT_JAR_FILENAME);
+        }
+    }
+
+    /**
+     * Generates the Client's class-data sharing archive in the background, if needed. See ClientCdsArchive.
+     */
+    private void generateClientCdsArchive() {
+        Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
+        sharedExecutor.execute(() -> ClientCdsArchive.generateIfStale(gameDataDirPath));
+    }
+
     /**
      * Prints a help message and exits.
      */
     private static void printHelpAndExit() {
-        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.client.ClientDaemon -d <DIR>        Start the client daemon, with DIR as the game directory\n");
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.client.ClientDaemon -d <DIR> [-d <DIR>...]        Start the client daemon, with each DIR as a game directory\n");
         System.exit(1);
     }
 
@@ -331,21 +960,22 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
     }
 
     /**
-     * Parses command line args for the directory to run the game in, and returns its path. <br> <br>
+     * Parses command line args for the directories to run games in, and returns their paths. -d may be given more
+     * than once, to run games in several directories from one process. <br> <br>
      *
      * On error, prints a message and exits.
      *
      * @param args the args parameter that was passed to main()
-     * @return the path to a directory, supplied on the command line, to run the game in
+     * @return the paths to directories, supplied on the command line, to run games in
      */
-    private static String parseArgs(String[] args) {
+    private static String[] parseArgs(String[] args) {
         Options options = new Options();
-        options.addOption(Option.builder("d").longOpt("dir").hasArg().required().desc("Directory to run the game in").build());
+        options.addOption(Option.builder("d").longOpt("dir").hasArg().required().desc("Directory to run a game in (may be repeated)").build());
         CommandLineParser parser = new DefaultParser();
 
         try {
             CommandLine cmdline = parser.parse(options, args);
-            return cmdline.getOptionValue("d");
+            return cmdline.getOptionValues("d");
         } catch (ParseException e) {
             printHelpAndExit("ParseException: " + e);
         } catch (NumberFormatException e) {
@@ -364,17 +994,24 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
                 // this url is not in use: we can use it
                 return numberToTry;
             } catch (RemoteException e) {
-                System.out.printf("RemoteException while looking for daemon url, %s%n", e);
+                Log.warn("daemon: RemoteException while looking for daemon url, %s", e);
             } catch (MalformedURLException e) {
-                System.out.printf("Malformed URL while looking for daemon url, %s%n", e);
+                Log.warn("daemon: malformed URL while looking for daemon url, %s", e);
             }
         }
     }
 
-    private void writeDaemonNumber(int daemonNumber) {
-        System.out.println("writing daemon number: " + daemonNumber);
+    /**
+     * Writes the daemon number file, which tells Client programs how to reach this daemon. See
+     * Client.readDaemonLocation() for the format.
+     *
+     * @param daemonNumber the number this daemon is bound under in the RMI registry
+     * @param localPort the port of this daemon's LocalActionEndpoint
+     * @throws IOException if the file could not be written
+     */
+    private void writeDaemonNumber(int daemonNumber, int localPort) throws IOException {
+        Log.info("daemon: writing daemon number: %d, local port: %d", daemonNumber, localPort);
         Path gameDataDirPath = gameDir.resolve(GAME_DATA_DIR_NAME);
-        Util.checkExists(gameDataDirPath, true);
         Path daemonNumberPath = gameDataDirPath.resolve(DAEMON_NUMBER_FILENAME);
         File daemonNumberFile = new File(daemonNumberPath.toString());
 
@@ -384,51 +1021,106 @@ public class ClientDaemon extends UnicastRemoteObject implements DaemonInterface
 
             DataOutputStream dataOutputStream = new DataOutputStream(daemonNumberStream);
             dataOutputStream.writeInt(daemonNumber);
-        } catch (FileNotFoundException e) {
-            System.out.printf("daemonnumber file could not be created, %s%n", e);
-            System.exit(1);
-        } catch (IOException e) {
-            System.out.printf("IOException while writing/closing daemonnumber, %s%n", e);
-            System.exit(1);
+            dataOutputStream.writeInt(localPort);
         }
     }
 
     /**
-     * Main function. Parses command-line arguments and launches a daemon RMI service
-     * running in the directory specified by the user.
+     * Starts a ClientDaemon for one game directory: exports it, starts its local endpoint, binds it in the registry
+     * and registers it with the server. On error, logs a message and returns null, so that the other game
+     * directories can still be started.
+     *
+     * @param gameDir the game directory
+     * @param serverConnection the connection to the game server, shared between daemons
+     * @param sharedExecutor thread pool for background work, shared between daemons
+     * @return the started daemon, or null if it could not be started
      */
-    public static void main(String[] args) {
-        // todo: search for in progress game
-        String gameDir = parseArgs(args);
-        ClientDaemon daemon = null;
+    private static ClientDaemon startDaemon(String gameDir, ServerConnection serverConnection, ExecutorService sharedExecutor) {
         try {
-            daemon = new ClientDaemon(gameDir);
+            Util.checkExists(Paths.get(gameDir).resolve(GAME_DATA_DIR_NAME), true);
+        } catch (IOException e) {
+            Log.error("daemon: not starting %s, %s", gameDir, e);
+            return null;
+        }
+
+        ClientDaemon daemon;
+        try {
+            daemon = new ClientDaemon(gameDir, serverConnection, sharedExecutor);
         } catch (RemoteException e) {
-            System.out.printf("RemoteException while instantiating daemon: %s%n", e);
-            System.exit(1);
+            Log.error("daemon: RemoteException while instantiating daemon for %s: %s", gameDir, e);
+            return null;
         }
 
+        LocalActionEndpoint endpoint = null;
         try {
-            LocateRegistry.createRegistry(DaemonInterface.RMI_REGISTRY_PORT);
-        } catch (RemoteException ignore) {
-            // RMI registry already exists
+            endpoint = LocalActionEndpoint.start(daemon, sharedExecutor);
+        } catch (IOException e) {
+            Log.warn("daemon: failed to start local action endpoint, clients will use RMI: %s", e);
         }
 
         try {
             int daemonNumber = getDaemonNumber();
-            daemon.writeDaemonNumber(daemonNumber);
+            daemon.writeDaemonNumber(daemonNumber, endpoint == null ? -1 : endpoint.getPort());
             Naming.bind(Util.buildDaemonRMIPath(daemonNumber), daemon);
-        } catch (RemoteException e) {
-            System.out.printf("Failed to bind daemon, %s%n", e);
-            System.exit(1);
-        } catch (MalformedURLException e) {
-            System.out.printf("Malformed URL: %s%n", e);
-            System.exit(1);
-        } catch (AlreadyBoundException e) {
-            System.out.printf("Daemon URL already bound: %s%n", e);
-            System.exit(1);
+            daemon.daemonNumber = daemonNumber;
+        } catch (IOException | AlreadyBoundException e) {
+            // RemoteException and MalformedURLException are IOExceptions
+            Log.error("daemon: failed to publish daemon for %s: %s", gameDir, e);
+            if (endpoint != null) endpoint.close();
+            try {
+                UnicastRemoteObject.unexportObject(daemon, true);
+            } catch (NoSuchObjectException ignore) {
+                // not exported
+            }
+            return null;
         }
+        daemon.startWatchingTiles();
         daemon.registerWithServer();
-        System.out.println("Daemon ready!");
+        daemon.checkClientJar();
+        daemon.generateClientCdsArchive();
+        Log.info("Daemon ready for %s!", gameDir);
+        return daemon;
+    }
+
+    /**
+     * Main function. Parses command-line arguments and launches a daemon RMI service for each directory
+     * specified by the user. All of these daemons run in this process, sharing one server connection and one
+     * thread pool. One thread checks that the server is still sending heartbeats to each daemon. <br> <br>
+     *
+     * A directory that cannot be started is skipped. The process only exits if no directory could be started.
+     */
+    public static void main(String[] args) {
+        String[] gameDirs = parseArgs(args);
+
+        try {
+            LocateRegistry.createRegistry(DaemonInterface.RMI_REGISTRY_PORT);
+        } catch (RemoteException ignore) {
+            // RMI registry already exists
+        }
+
+        ServerConnection serverConnection = connectToServer();
+        ExecutorService sharedExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-daemon-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ArrayList<ClientDaemon> daemons = new ArrayList<>();
+        for (String gameDir : gameDirs) {
+            ClientDaemon daemon = startDaemon(gameDir, serverConnection, sharedExecutor);
+            if (daemon != null) daemons.add(daemon);
+        }
+        if (daemons.isEmpty()) {
+            System.out.println("No game directory could be started, aborting.");
+            System.exit(1);
+        }
+
+        ScheduledExecutorService serverChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-daemon-server-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        serverChecker.scheduleAtFixedRate(() -> daemons.forEach(ClientDaemon::checkServer),
+                SERVER_CHECK_INTERVAL_MILLIS, SERVER_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 }
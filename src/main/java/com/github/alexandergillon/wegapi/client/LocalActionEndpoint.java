@@ -0,0 +1,181 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.game.DaemonInterface;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Tracer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A lightweight local endpoint, which lets the Client program forward player actions to a ClientDaemon without
+ * going through RMI. <br> <br>
+ *
+ * A new Client JVM is started for every click or drag, so every action would otherwise pay for an RMI registry lookup
+ * and an RMI handshake before the daemon even hears about it. Instead, the daemon also listens on a loopback TCP
+ * port (written to the daemon number file, see ClientDaemon.writeDaemonNumber()), and a Client sends a single fixed
+ * size frame: <br> <br>
+ *
+ *   - 1 byte: the action type (ACTION_CLICKED or ACTION_DRAGGED) <br>
+ *   - 4 bytes: the index of the clicked tile, or of the tile that was dragged <br>
+ *   - 4 bytes: the index of the tile that was dragged to (0 for a click) <br>
+ *   - 8 bytes: the trace ID of the action (see Tracer) <br>
+ *   - 8 bytes: when the frame was sent, from Tracer.now() <br> <br>
+ *
+ * The daemon replies with a single byte (REPLY_OK or REPLY_ERROR) once it has handled the action, and closes the
+ * connection. If the endpoint cannot be reached, the Client falls back to RMI.
+ */
+final class LocalActionEndpoint {
+    static final byte ACTION_CLICKED = 1;
+    static final byte ACTION_DRAGGED = 2;
+    static final byte REPLY_OK = 0;
+    static final byte REPLY_ERROR = 1;
+    static final int FRAME_LENGTH = 25;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private final ServerSocket serverSocket;
+    private final DaemonInterface daemon;
+    private final ExecutorService connectionExecutor;
+
+    private LocalActionEndpoint(ServerSocket serverSocket, DaemonInterface daemon, ExecutorService connectionExecutor) {
+        this.serverSocket = serverSocket;
+        this.daemon = daemon;
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    /**
+     * Starts a local endpoint on an ephemeral loopback port, which forwards actions to a daemon.
+     *
+     * @param daemon the daemon to forward actions to
+     * @param connectionExecutor the executor to handle connections on, which may be shared between endpoints
+     * @return the started endpoint
+     * @throws IOException if the port could not be opened
+     */
+    static LocalActionEndpoint start(DaemonInterface daemon, ExecutorService connectionExecutor) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        LocalActionEndpoint endpoint = new LocalActionEndpoint(serverSocket, daemon, connectionExecutor);
+
+        Thread acceptThread = new Thread(endpoint::acceptLoop, "wegapi-local-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return endpoint;
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Stops accepting connections. Connections that have already been accepted are still handled. */
+    void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.warn("IOException while closing local action endpoint, %s", e);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionExecutor.execute(() -> handleConnection(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.warn("IOException while accepting local action connection, %s", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a single action frame from a connection, forwards it to the daemon, and replies.
+     *
+     * @param socket the connection to handle
+     */
+    private void handleConnection(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            byte action = in.readByte();
+            int firstTile = in.readInt();
+            int secondTile = in.readInt();
+            long traceId = in.readLong();
+            long sentNanos = in.readLong();
+
+            byte reply = REPLY_OK;
+            try {
+                if (action == ACTION_CLICKED) {
+                    daemon.tileClicked(firstTile, traceId, sentNanos);
+                } else if (action == ACTION_DRAGGED) {
+                    daemon.tileDragged(firstTile, secondTile, traceId, sentNanos);
+                } else {
+                    Log.warn("daemon: unrecognized local action type %d", action);
+                    reply = REPLY_ERROR;
+                }
+            } catch (RemoteException e) {
+                reply = REPLY_ERROR;
+            }
+            out.writeByte(reply);
+            out.flush();
+        } catch (IOException e) {
+            Log.warn("IOException while handling local action connection, %s", e);
+        }
+    }
+
+    /**
+     * Sends an action frame to a daemon's local endpoint, and waits for its reply. <br> <br>
+     *
+     * Returns false only if the frame could not be sent - in that case, the daemon has definitely not received the
+     * action, and the caller can safely fall back to RMI. Once the frame has been sent, this returns true even if no
+     * reply arrives, as falling back would risk the daemon handling the action twice.
+     *
+     * @param port the port of the daemon's local endpoint
+     * @param action the action type (ACTION_CLICKED or ACTION_DRAGGED)
+     * @param firstTile the index of the clicked tile, or of the tile that was dragged
+     * @param secondTile the index of the tile that was dragged to (ignored for clicks)
+     * @param traceId the trace ID of the action
+     * @return whether the frame was sent
+     */
+    static boolean send(int port, byte action, int firstTile, int secondTile, long traceId) {
+        if (port <= 0) return false;
+
+        try (Socket socket = new Socket()) {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+                // written in one go, so that the frame goes out in a single packet
+                byte[] frame = ByteBuffer.allocate(FRAME_LENGTH).put(action).putInt(firstTile).putInt(secondTile)
+                        .putLong(traceId).putLong(Tracer.now()).array();
+                socket.getOutputStream().write(frame);
+            } catch (IOException e) {
+                Log.warn("client: local endpoint unavailable, falling back to RMI: %s", e);
+                return false;
+            }
+
+            try {
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                if (new DataInputStream(socket.getInputStream()).readByte() != REPLY_OK) {
+                    Log.warn("client: daemon reported an error while handling the action");
+                }
+            } catch (IOException e) {
+                Log.warn("client: IOException while waiting for local endpoint reply, %s", e);
+            }
+        } catch (IOException e) {
+            Log.warn("client: IOException while closing local endpoint connection, %s", e);
+        }
+        return true;
+    }
+}
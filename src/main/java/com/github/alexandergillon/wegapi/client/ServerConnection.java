@@ -0,0 +1,163 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.game.GameRouterInterface;
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.transport.Transport;
+
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+
+/**
+ * The connection to the game server, shared by every ClientDaemon in a process. <br> <br>
+ *
+ * If the server stops responding, a daemon calls failOver(), which looks the server up in the registry again until
+ * it finds one that it can rejoin. This is how daemons move to a standby server that has taken over from a dead
+ * primary (see ChessServer). The registry is looked up on each host in the wegapi.serverHosts system property
+ * (comma-separated, default GameServerInterface.DEFAULT_IP) in turn, for up to wegapi.failoverTimeoutMillis
+ * milliseconds (default DEFAULT_FAILOVER_TIMEOUT_MILLIS). <br> <br>
+ *
+ * If the wegapi.useRouter system property is true, the registry is expected to hold a GameRouter rather than a
+ * server. New players are then sent to whichever shard the router assigns, returning players to the shard that
+ * their player number belongs to, and failing over asks the router for the player's shard again (which a standby
+ * re-registers as when it takes over). Different daemons in one process may then be on different shards. <br> <br>
+ *
+ * Otherwise, the server is reached over the transport named by the wegapi.transport system property (see Transport),
+ * which must match the server's.
+ */
+public final class ServerConnection {
+    public static final String SERVER_HOSTS_PROPERTY = "wegapi.serverHosts";
+    public static final String FAILOVER_TIMEOUT_PROPERTY = "wegapi.failoverTimeoutMillis";
+    public static final String USE_ROUTER_PROPERTY = "wegapi.useRouter";
+    private static final long DEFAULT_FAILOVER_TIMEOUT_MILLIS = 10000;
+    private static final long RETRY_INTERVAL_MILLIS = 50;
+
+    /** A call that joins a server, such as reconnectPlayer(). */
+    @FunctionalInterface
+    public interface JoinCall {
+        void join(GameServerInterface server) throws RemoteException;
+    }
+
+    private final String[] hosts = System.getProperty(SERVER_HOSTS_PROPERTY, GameServerInterface.DEFAULT_IP).split(",");
+    private final boolean useRouter = Boolean.getBoolean(USE_ROUTER_PROPERTY);
+    private final Transport transport = Transport.fromProperties();
+    private volatile GameServerInterface server;  // null if using a router
+    private volatile GameRouterInterface router;  // null if not using a router
+
+    /**
+     * Connects to the game server (or router), on the first host that has one.
+     *
+     * @throws RemoteException if no host could be reached
+     * @throws NotBoundException if no host has a server bound
+     * @throws MalformedURLException if a host is malformed
+     */
+    public ServerConnection() throws RemoteException, NotBoundException, MalformedURLException {
+        for (int i = 0; i < hosts.length; i++) {
+            try {
+                if (useRouter) {
+                    router = GameRouterInterface.connectToRouter(hosts[i].strip(), GameServerInterface.RMI_REGISTRY_PORT);
+                } else {
+                    server = transport.connectToServer(hosts[i].strip());
+                }
+                return;
+            } catch (RemoteException | NotBoundException e) {
+                if (i == hosts.length - 1) throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the server that a player should register with (as a new player) or reconnect to.
+     *
+     * @param playerNumber the player's number, or -1 for a new player
+     * @return the server, or null if the router has no shard for the player
+     * @throws RemoteException if the router could not be reached
+     */
+    public GameServerInterface serverFor(int playerNumber) throws RemoteException {
+        if (!useRouter) return server;
+        return playerNumber == -1 ? router.assignShard() : router.shardForPlayer(playerNumber);
+    }
+
+    /**
+     * Moves to a new server after the current one has failed, and joins it. If another daemon has already moved this
+     * connection on from the failed server, joins the server that it moved to instead.
+     *
+     * @param failed the server that failed
+     * @param playerNumber the number of the player who is failing over
+     * @param joinCall the call that joins a server
+     * @return the joined server, or null if no server could be joined before the failover timeout
+     */
+    public synchronized GameServerInterface failOver(GameServerInterface failed, int playerNumber, JoinCall joinCall) {
+        if (useRouter) return failOverWithRouter(playerNumber, joinCall);
+        if (server != failed) {
+            try {
+                joinCall.join(server);
+                return server;
+            } catch (RemoteException e) {
+                if (!isCommunicationFailure(e)) return null;
+                Log.warn("daemon: new server is not responding either, %s", e);
+            }
+        }
+
+        long deadline = System.nanoTime() + Long.getLong(FAILOVER_TIMEOUT_PROPERTY, DEFAULT_FAILOVER_TIMEOUT_MILLIS) * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            for (String host : hosts) {
+                try {
+                    GameServerInterface candidate = transport.connectToServer(host.strip());
+                    joinCall.join(candidate);
+                    server = candidate;
+                    return candidate;
+                } catch (RemoteException | NotBoundException | MalformedURLException e) {
+                    // not there yet: the standby may still be taking over
+                }
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fails over by asking the router for the player's shard, and trying to join it, until a join succeeds. While a
+     * standby is taking over, the router still returns the dead shard, which fails to join.
+     */
+    private GameServerInterface failOverWithRouter(int playerNumber, JoinCall joinCall) {
+        long deadline = System.nanoTime() + Long.getLong(FAILOVER_TIMEOUT_PROPERTY, DEFAULT_FAILOVER_TIMEOUT_MILLIS) * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            try {
+                GameServerInterface candidate = router.shardForPlayer(playerNumber);
+                if (candidate != null) {
+                    joinCall.join(candidate);
+                    return candidate;
+                }
+            } catch (RemoteException e) {
+                // the shard (or the router) is not there yet: a standby may still be taking over
+                if (!isCommunicationFailure(e)) return null;
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a RemoteException means that the server could not be reached. A ServerException means that
+     * the server received the call and threw an exception, so is not a communication failure.
+     *
+     * @param e the exception to check
+     * @return whether e represents a failure to communicate with the server
+     */
+    static boolean isCommunicationFailure(RemoteException e) {
+        return !(e instanceof ServerException);
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a game directory for changes to tile files, and reports which tiles were affected. <br> <br>
+ *
+ * Tiles are files in the game directory (see Util.tileIndexToFilename()), and nothing stops the player (or some other
+ * program) from renaming, deleting or replacing them. A rename shows up as a deletion of one tile and the creation of
+ * another, so only deletions, creations and modifications need to be watched. <br> <br>
+ *
+ * Changes tend to arrive in bursts (e.g. when create_tiles.exe writes many tiles, or the player deletes a selection
+ * of files), so after the first event the watcher waits until the directory has been quiet for SETTLE_MILLIS, and
+ * reports the whole burst at once. The watcher only reports: deciding whether a changed tile actually needs to be
+ * repaired is up to the listener (see ClientDaemon.tilesChanged()).
+ */
+final class TileDirectoryWatcher {
+    private static final long SETTLE_MILLIS = 100;
+
+    /** Listener for changes to tile files. Called on the watcher's thread. */
+    interface Listener {
+        /**
+         * Called when tile files have changed.
+         *
+         * @param tileIndices indices of the tiles whose files were created, deleted or modified
+         * @param overflow whether some events were lost, in which case any tile may have changed
+         */
+        void tilesChanged(Set<Integer> tileIndices, boolean overflow);
+    }
+
+    private final WatchService watchService;
+    private final Listener listener;
+
+    private TileDirectoryWatcher(WatchService watchService, Listener listener) {
+        this.watchService = watchService;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching a game directory for changes to tile files.
+     *
+     * @param gameDir the game directory to watch
+     * @param executor the executor to run the watcher on - the watcher occupies one of its threads until closed
+     * @param listener the listener to report changes to
+     * @return the started watcher
+     * @throws IOException if the directory could not be watched
+     */
+    static TileDirectoryWatcher start(Path gameDir, Executor executor, Listener listener) throws IOException {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        gameDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        TileDirectoryWatcher watcher = new TileDirectoryWatcher(watchService, listener);
+        executor.execute(watcher::watchLoop);
+        return watcher;
+    }
+
+    /** Stops watching. */
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            Log.warn("daemon: IOException while closing tile watcher, %s", e);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                Set<Integer> tileIndices = new HashSet<>();
+                boolean overflow = drainEvents(watchService.take(), tileIndices);
+
+                // keep collecting until the directory goes quiet
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= drainEvents(key, tileIndices);
+                }
+
+                if (overflow || !tileIndices.isEmpty()) {
+                    listener.tilesChanged(tileIndices, overflow);
+                }
+            }
+        } catch (ClosedWatchServiceException expected) {
+            // watcher was closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds the indices of tiles affected by a watch key's events to a set, and resets the key.
+     *
+     * @param key the key to drain
+     * @param tileIndices set to add tile indices to
+     * @return whether any events were lost
+     */
+    private static boolean drainEvents(WatchKey key, Set<Integer> tileIndices) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            int index = Util.tileFilenameToIndex(((Path) event.context()).getFileName().toString());
+            if (index != -1) tileIndices.add(index);
+        }
+        key.reset();
+        return overflow;
+    }
+}
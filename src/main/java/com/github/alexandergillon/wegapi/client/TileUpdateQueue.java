@@ -0,0 +1,134 @@
+package com.github.alexandergillon.wegapi.client;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Queue of updates (tile creations/deletions) that a ClientDaemon has accepted from the server, but may not yet have
+ * applied to the game directory. <br> <br>
+ *
+ * Applying an update means launching create_tiles.exe or delete_tiles.exe and waiting for it to finish, which can
+ * take a while. Rather than making the server wait for this (as its RMI call would block until the process exits),
+ * the daemon validates an update, submits it to this queue, and returns to the server immediately. Updates are then
+ * applied one at a time, on a background thread, in the order in which they were submitted. <br> <br>
+ *
+ * Each submitted update is given a sequence number, starting from 1. Sequence numbers are assigned in the same order
+ * that updates are applied, so if the last applied sequence number is n, then every update with a sequence number
+ * less than or equal to n has been applied. The server can use this as a barrier, if it needs to know that the
+ * player is seeing some update. <br> <br>
+ *
+ * The queue does not own a thread. Updates run on an executor that may be shared with other queues (one per game
+ * directory, see ClientDaemon.main()), and at most one task from this queue is on the executor at a time, so updates
+ * to one game directory are still applied serially.
+ */
+final class TileUpdateQueue {
+    private final Executor executor;
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();  // guarded by this
+
+    private boolean draining = false;        // guarded by this
+    private long lastSubmittedSequence = 0;  // guarded by this
+    private long lastAppliedSequence = 0;    // guarded by this
+
+    /**
+     * Creates an update queue, which applies updates on an executor.
+     *
+     * @param executor the executor to apply updates on, which may be shared
+     */
+    TileUpdateQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Submits an update to be applied on the background thread, after all previously submitted updates.
+     *
+     * @param update the update to apply
+     * @return the sequence number of the update
+     */
+    synchronized long submit(Runnable update) {
+        long sequence = ++lastSubmittedSequence;
+        // enqueueing while holding the lock means updates are applied in the same order as their sequence numbers
+        pending.add(() -> {
+            try {
+                update.run();
+            } finally {
+                markApplied(sequence);
+            }
+        });
+        if (!draining) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+        return sequence;
+    }
+
+    /**
+     * Applies pending updates one at a time, until there are none left. Only one drain() runs at a time. <br> <br>
+     *
+     * An update that throws is logged and skipped (it is still marked as applied, by the wrapper in submit()), so
+     * that one bad update cannot leave the queue stuck with draining set and no thread draining it.
+     */
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                Log.error("daemon: exception while applying a tile update, %s", e);
+            }
+        }
+    }
+
+    private synchronized void markApplied(long sequence) {
+        lastAppliedSequence = sequence;
+        notifyAll();
+    }
+
+    /**
+     * Returns the sequence number of the last update that was submitted, or 0 if no updates have been submitted.
+     *
+     * @return the sequence number of the last submitted update
+     */
+    synchronized long getLastSubmittedSequence() {
+        return lastSubmittedSequence;
+    }
+
+    /**
+     * Returns the sequence number of the last update that has finished being applied, or 0 if no updates have been
+     * applied.
+     *
+     * @return the sequence number of the last applied update
+     */
+    synchronized long getLastAppliedSequence() {
+        return lastAppliedSequence;
+    }
+
+    /**
+     * Returns whether every submitted update has been applied, i.e. whether the game directory is up-to-date.
+     *
+     * @return whether there are no updates waiting to be applied
+     */
+    synchronized boolean isIdle() {
+        return lastAppliedSequence == lastSubmittedSequence;
+    }
+
+    /**
+     * Blocks until the update with a given sequence number (and so all updates before it) has been applied.
+     *
+     * @param sequence the sequence number to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitApplied(long sequence) throws InterruptedException {
+        while (lastAppliedSequence < sequence) {
+            wait();
+        }
+    }
+}
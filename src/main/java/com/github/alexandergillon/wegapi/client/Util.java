@@ -3,30 +3,38 @@ package com.github.alexandergillon.wegapi.client;
 import com.github.alexandergillon.wegapi.game.DaemonInterface;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 
 public final class Util {
+    // must match wegapi::filenames in constants.h
+    private static final int TILE_FILENAME_LENGTH = 5;
+    private static final String TILE_FILENAME_CHARACTERS = "abcde";
+    private static final String TILE_FILENAME_EXTENSION = ".exe";
+
     private Util() {
         throw new AssertionError("Utility class, not meant to be instantiated");
     }
 
     /**
-     * Checks whether a path exists, and optionally whether it is a directory. If either check fails, prints an
-     * error message and aborts.
+     * Checks whether a path exists, and optionally whether it is a directory. Callers decide what a failure means:
+     * the Client aborts, but the ClientDaemon only gives up on the affected game directory.
      *
      * @param path path to check whether it exists
      * @param checkIsDir whether to check if the path is also a directory
+     * @throws NoSuchFileException if the path does not exist
+     * @throws NotDirectoryException if checkIsDir is true, and the path is not a directory
      */
-    static void checkExists(Path path, boolean checkIsDir) {
+    static void checkExists(Path path, boolean checkIsDir) throws IOException {
         File file = new File(path.toString());
         if (!file.exists()) {
-            System.out.println(path + " does not exist, aborting.");
-            System.exit(1);
+            throw new NoSuchFileException(path + " does not exist");
         }
 
         if (checkIsDir && !file.isDirectory()) {
-            System.out.println(path + " is not a directory, aborting.");
-            System.exit(1);
+            throw new NotDirectoryException(path + " is not a directory");
         }
     }
 
@@ -39,4 +47,43 @@ public final class Util {
     public static String buildDaemonRMIPath(String ip, int port, int daemonNumber) {
         return "//" + ip + ":" + port + "/" + DaemonInterface.DEFAULT_DAEMON_PATH + daemonNumber;
     }
+
+    /**
+     * Converts a tile index to the name of its file in the game directory. This is a port of
+     * wegapi::filenames::index_to_filename_with_exe() in util.cpp: the index is written in base
+     * TILE_FILENAME_LENGTH, using TILE_FILENAME_CHARACTERS as digits.
+     *
+     * @param index index of the tile
+     * @return filename of that tile, including the .exe extension
+     */
+    static String tileIndexToFilename(int index) {
+        char[] filename = new char[TILE_FILENAME_LENGTH];
+        for (int i = TILE_FILENAME_LENGTH - 1; i >= 0; i--) {
+            filename[i] = TILE_FILENAME_CHARACTERS.charAt(index % TILE_FILENAME_CHARACTERS.length());
+            index /= TILE_FILENAME_CHARACTERS.length();
+        }
+        return new String(filename) + TILE_FILENAME_EXTENSION;
+    }
+
+    /**
+     * Converts the name of a file in the game directory to the index of the tile it represents. The inverse of
+     * tileIndexToFilename().
+     *
+     * @param filename filename to convert
+     * @return index of the tile, or -1 if the filename is not the name of a tile
+     */
+    static int tileFilenameToIndex(String filename) {
+        if (filename.length() != TILE_FILENAME_LENGTH + TILE_FILENAME_EXTENSION.length()
+                || !filename.endsWith(TILE_FILENAME_EXTENSION)) {
+            return -1;
+        }
+
+        int index = 0;
+        for (int i = 0; i < TILE_FILENAME_LENGTH; i++) {
+            int digit = TILE_FILENAME_CHARACTERS.indexOf(filename.charAt(i));
+            if (digit == -1) return -1;
+            index = index * TILE_FILENAME_CHARACTERS.length() + digit;
+        }
+        return index;
+    }
 }
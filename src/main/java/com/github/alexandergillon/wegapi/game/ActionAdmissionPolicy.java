@@ -0,0 +1,76 @@
+package com.github.alexandergillon.wegapi.game;
+
+import java.io.Serializable;
+
+/**
+ * Class that describes how a player's daemon should handle player actions (clicks and drags) that happen while
+ * another action is still being processed, or while the player's game directory is still being updated. Sent to a
+ * player by the server with PlayerInterface.setActionAdmissionPolicy(). <br> <br>
+ *
+ * The following policies are available: <br> <br>
+ *
+ *   - FORWARD_ALL: every action is forwarded to the server immediately. This is the default. <br>
+ *   - DROP_WHILE_RENDERING: actions are dropped if another action is in progress, or if the game directory is still
+ *                           being updated. <br>
+ *   - LATEST_ONLY: actions wait until the current action has finished and the game directory is up-to-date, but only
+ *                  the most recent waiting action is kept - older waiting actions are dropped. <br>
+ *   - BOUNDED_QUEUE: actions wait in a queue until the current action has finished and the game directory is
+ *                    up-to-date, and are then forwarded in order. If the queue is full, new actions are dropped.
+ */
+public final class ActionAdmissionPolicy implements Serializable {
+    /** Enum for the type of admission policy. See ActionAdmissionPolicy for details. */
+    public enum Kind {
+        FORWARD_ALL,
+        DROP_WHILE_RENDERING,
+        LATEST_ONLY,
+        BOUNDED_QUEUE
+    }
+
+    private final Kind kind;
+    private final int queueBound;  // only meaningful for BOUNDED_QUEUE
+
+    private ActionAdmissionPolicy(Kind kind, int queueBound) {
+        this.kind = kind;
+        this.queueBound = queueBound;
+    }
+
+    /** @return a policy which forwards every action to the server immediately */
+    public static ActionAdmissionPolicy forwardAll() {
+        return new ActionAdmissionPolicy(Kind.FORWARD_ALL, 0);
+    }
+
+    /** @return a policy which drops actions while another action is in progress, or the game is being updated */
+    public static ActionAdmissionPolicy dropWhileRendering() {
+        return new ActionAdmissionPolicy(Kind.DROP_WHILE_RENDERING, 0);
+    }
+
+    /** @return a policy which keeps only the most recent action that is waiting to be forwarded */
+    public static ActionAdmissionPolicy latestOnly() {
+        return new ActionAdmissionPolicy(Kind.LATEST_ONLY, 1);
+    }
+
+    /**
+     * Creates a policy which queues actions that are waiting to be forwarded, up to some bound.
+     *
+     * @param queueBound the maximum number of actions that can be waiting to be forwarded
+     * @return a policy which queues up to queueBound waiting actions
+     * @throws IllegalArgumentException if queueBound is not positive
+     */
+    public static ActionAdmissionPolicy boundedQueue(int queueBound) {
+        if (queueBound <= 0) throw new IllegalArgumentException("Queue bound must be positive.");
+        return new ActionAdmissionPolicy(Kind.BOUNDED_QUEUE, queueBound);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getQueueBound() {
+        return queueBound;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.BOUNDED_QUEUE ? kind + "(" + queueBound + ")" : kind.toString();
+    }
+}
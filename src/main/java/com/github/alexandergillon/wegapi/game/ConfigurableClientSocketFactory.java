@@ -0,0 +1,95 @@
+package com.github.alexandergillon.wegapi.game;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * RMI client socket factory that puts timeouts on connecting to, and waiting for replies from, a remote object, and
+ * tunes the sockets for WEGAPI's small, latency-sensitive calls. <br> <br>
+ *
+ * Remote objects (the game server and client daemons) are exported with this factory, so it is sent to whoever
+ * calls them as part of the stub, and the sockets are created in the caller's JVM. Without it, a call to a
+ * remote object whose process has hung (or whose machine has vanished) blocks until the operating system gives up
+ * on the TCP connection, which can take minutes. <br> <br>
+ *
+ * Settings are read from system properties in the caller's JVM, when each socket is created: <br> <br>
+ *
+ *   - wegapi.rmi.connectTimeoutMillis: how long to wait for a connection (default DEFAULT_CONNECT_TIMEOUT_MILLIS) <br>
+ *   - wegapi.rmi.readTimeoutMillis: how long to wait for a reply (default DEFAULT_READ_TIMEOUT_MILLIS, 0 means
+ *                                   wait forever) <br>
+ *   - wegapi.rmi.tcpNoDelay: whether to turn off Nagle's algorithm (default true), so that a small call such as
+ *                            tileClicked() is sent at once, rather than waiting for an acknowledgement of
+ *                            earlier data <br>
+ *   - wegapi.rmi.keepAlive: whether to send TCP keepalives on idle connections (default true) <br>
+ *   - wegapi.rmi.sendBufferBytes, wegapi.rmi.receiveBufferBytes: socket buffer sizes (default 0, which leaves
+ *                                                                them to the operating system) <br> <br>
+ *
+ * The other end of each connection is tuned the same way by ConfigurableServerSocketFactory. When a timeout expires,
+ * the call fails with a RemoteException. <br> <br>
+ *
+ * RMI keeps connections open between calls, and reuses them for any stub whose client socket factory is equal, so
+ * all instances of this factory compare equal. Idle connections are closed after sun.rmi.transport.connectionTimeout
+ * milliseconds (15 seconds by default).
+ */
+public final class ConfigurableClientSocketFactory implements RMIClientSocketFactory, Serializable {
+    public static final String CONNECT_TIMEOUT_PROPERTY = "wegapi.rmi.connectTimeoutMillis";
+    public static final String READ_TIMEOUT_PROPERTY = "wegapi.rmi.readTimeoutMillis";
+    public static final String TCP_NO_DELAY_PROPERTY = "wegapi.rmi.tcpNoDelay";
+    public static final String KEEP_ALIVE_PROPERTY = "wegapi.rmi.keepAlive";
+    public static final String SEND_BUFFER_PROPERTY = "wegapi.rmi.sendBufferBytes";
+    public static final String RECEIVE_BUFFER_PROPERTY = "wegapi.rmi.receiveBufferBytes";
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setSoTimeout(Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT_MILLIS));
+            configure(socket);
+            // the receive buffer must be set before connecting, as it decides the TCP window scale
+            int receiveBufferBytes = Integer.getInteger(RECEIVE_BUFFER_PROPERTY, 0);
+            if (receiveBufferBytes > 0) socket.setReceiveBufferSize(receiveBufferBytes);
+            socket.connect(new InetSocketAddress(host, port),
+                    Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT_MILLIS));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Applies the wegapi.rmi.tcpNoDelay, wegapi.rmi.keepAlive and wegapi.rmi.sendBufferBytes settings to a socket.
+     * Used for the sockets at both ends of a connection, and for NioTransport's sockets.
+     *
+     * @param socket the socket to configure
+     * @throws IOException if a setting could not be applied
+     */
+    public static void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(getBoolean(TCP_NO_DELAY_PROPERTY, true));
+        socket.setKeepAlive(getBoolean(KEEP_ALIVE_PROPERTY, true));
+        int sendBufferBytes = Integer.getInteger(SEND_BUFFER_PROPERTY, 0);
+        if (sendBufferBytes > 0) socket.setSendBufferSize(sendBufferBytes);
+    }
+
+    private static boolean getBoolean(String property, boolean defaultValue) {
+        String value = System.getProperty(property);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /** All instances behave the same, so compare equal. This lets RMI reuse connections between stubs. */
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && getClass() == obj.getClass();
+    }
+
+    /** Overridden to keep in line with overridden equals. */
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.alexandergillon.wegapi.game;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * RMI server socket factory that tunes the sockets of incoming connections to a remote object, in the same way
+ * that ConfigurableClientSocketFactory tunes outgoing ones: TCP_NODELAY, keepalive and buffer sizes are taken from
+ * the same wegapi.rmi.* system properties, read in the exporting JVM. Replies to calls are sent on these sockets, so
+ * without this, a reply could still be held back by Nagle's algorithm. <br> <br>
+ *
+ * Remote objects that are exported on the same port with equal server socket factories share a listening socket, so
+ * all instances of this factory compare equal.
+ */
+public final class ConfigurableServerSocketFactory implements RMIServerSocketFactory {
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket serverSocket = new TunedServerSocket();
+        try {
+            // accepted sockets inherit the receive buffer size, which must be set before binding to take effect
+            int receiveBufferBytes = Integer.getInteger(ConfigurableClientSocketFactory.RECEIVE_BUFFER_PROPERTY, 0);
+            if (receiveBufferBytes > 0) serverSocket.setReceiveBufferSize(receiveBufferBytes);
+            serverSocket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        return serverSocket;
+    }
+
+    /** A ServerSocket that configures each socket it accepts. */
+    private static final class TunedServerSocket extends ServerSocket {
+        private TunedServerSocket() throws IOException {
+            super();
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            try {
+                ConfigurableClientSocketFactory.configure(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+    }
+
+    /** All instances behave the same, so compare equal. This lets RMI share a listening socket between objects. */
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && getClass() == obj.getClass();
+    }
+
+    /** Overridden to keep in line with overridden equals. */
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -25,16 +25,20 @@ public interface DaemonInterface extends Remote {
      * Informs the daemon that the player double-clicked a certain tile.
      *
      * @param tile the index of the tile that the player clicked
+     * @param traceId the trace ID of the action (see Tracer), or 0 if it is not traced
+     * @param sentNanos when the Client sent the action, from Tracer.now()
      */
-    void tileClicked(int tile) throws RemoteException;
+    void tileClicked(int tile, long traceId, long sentNanos) throws RemoteException;
 
     /**
      * Informs the daemon that the player dragged one tile to another.
      *
      * @param fromTile the index of the tile that was dragged
      * @param toTile the index of the tile that the tile was dragged to
+     * @param traceId the trace ID of the action (see Tracer), or 0 if it is not traced
+     * @param sentNanos when the Client sent the action, from Tracer.now()
      */
-    void tileDragged(int fromTile, int toTile) throws RemoteException;
+    void tileDragged(int fromTile, int toTile, long traceId, long sentNanos) throws RemoteException;
 
     static DaemonInterface connectToDaemon(String ip, int port, int daemonNumber) throws RemoteException, NotBoundException, MalformedURLException {
         return connect(Util.buildDaemonRMIPath(ip, port, daemonNumber));
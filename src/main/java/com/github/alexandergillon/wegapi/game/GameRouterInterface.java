@@ -0,0 +1,65 @@
+package com.github.alexandergillon.wegapi.game;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface of a game router, which spreads games over several game server processes (shards). <br> <br>
+ *
+ * Each shard registers with the router, and is given a shard ID. A shard numbers its players starting from
+ * GameRouter.firstPlayerNumber(shardId), so the high bits of every player number say which shard the player is on
+ * (see GameRouter.shardOf()). Shards report their load periodically, and the router assigns each new player to a
+ * shard: one with a player waiting for an opponent if there is one, otherwise the least loaded. A returning player
+ * is sent back to the shard in their player number. <br> <br>
+ *
+ * The router is only involved when a daemon joins (or rejoins) a game: after that, the daemon talks to its shard
+ * directly.
+ */
+public interface GameRouterInterface extends Remote {
+    String DEFAULT_ROUTER_PATH = "WEGAPI/GameRouter"; // path to bind the router to in the registry
+    int PLAYER_NUMBER_BITS = 24;  // number of low bits of a player number that are per-shard
+    int MAX_SHARD_ID = (1 << (31 - PLAYER_NUMBER_BITS)) - 1;
+
+    /**
+     * Registers a game server as a shard. A shard that has restarted (or a standby that has taken over from one)
+     * should ask for its old ID, so that its players are routed back to it.
+     *
+     * @param shard the game server
+     * @param requestedShardId the ID the shard would like, or -1 for any. It is given if it is not in use by a shard
+     *                         that is still reporting its load.
+     * @return the shard's ID
+     */
+    int registerShard(GameServerInterface shard, int requestedShardId) throws RemoteException;
+
+    /**
+     * Reports a shard's load. Shards should report at least every few seconds: a shard that stops reporting is not
+     * given new players.
+     *
+     * @param shardId the shard's ID
+     * @param load the number of players on the shard
+     * @param waitingForPlayer whether the shard has a game that is waiting for another player
+     */
+    void reportLoad(int shardId, int load, boolean waitingForPlayer) throws RemoteException;
+
+    /**
+     * Chooses a shard for a new player.
+     *
+     * @return the shard that the player should register with, or null if there are no live shards
+     */
+    GameServerInterface assignShard() throws RemoteException;
+
+    /**
+     * Returns the shard that a returning player belongs to.
+     *
+     * @param playerNumber the player's number
+     * @return the shard that gave out that player number, or null if it is not registered
+     */
+    GameServerInterface shardForPlayer(int playerNumber) throws RemoteException;
+
+    static GameRouterInterface connectToRouter(String ip, int port) throws RemoteException, NotBoundException, MalformedURLException {
+        return (GameRouterInterface) Naming.lookup("//" + ip + ":" + port + "/" + DEFAULT_ROUTER_PATH);
+    }
+}
@@ -5,6 +5,7 @@ import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 
 /**
  * Interface that a game server needs to implement to accept and process user actions. <br> <br>
@@ -29,6 +30,17 @@ public interface GameServerInterface extends Remote {
      */
     void registerPlayer(PlayerInterface player) throws RemoteException;
 
+    /**
+     * Informs the server that a client who was already in the game has restarted, and wants to rejoin as the same
+     * player. The client reports which tiles it currently has, so that the server only needs to send it what has
+     * changed. If the server does not recognize the player number, it should treat this as registerPlayer().
+     *
+     * @param player the new remote object of the player
+     * @param playerNumber the player number that the client was given when it first joined
+     * @param currentTiles the tiles currently in the player's game directory
+     */
+    void reconnectPlayer(PlayerInterface player, int playerNumber, ArrayList<Tile> currentTiles) throws RemoteException;
+
     /**
      * Informs the server that a certain player double-clicked a certain tile.
      *
@@ -1,5 +1,7 @@
 package com.github.alexandergillon.wegapi.game;
 
+import java.util.ArrayList;
+
 /**
  * Interface that a game server needs to implement to accept and process user actions, for a 2D game. <br> <br>
  *
@@ -19,6 +21,16 @@ public interface GameServerInterface2D {
      */
     void registerPlayer2D(PlayerInterface2D player);
 
+    /**
+     * Informs the server that a client who was already in the game has restarted, and wants to rejoin as the same
+     * player. If the server does not recognize the player number, it should treat this as registerPlayer2D().
+     *
+     * @param player the new remote object of the player
+     * @param playerNumber the player number that the client was given when it first joined
+     * @param currentTiles the tiles currently in the player's game directory
+     */
+    void reconnectPlayer2D(PlayerInterface2D player, int playerNumber, ArrayList<Tile2D> currentTiles);
+
     /**
      * Informs the server that a certain player double-clicked a certain tile.
      *
@@ -0,0 +1,269 @@
+package com.github.alexandergillon.wegapi.game;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectIOException;
+import java.rmi.Remote;
+import java.rmi.UnmarshalException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emulates a slow or unreliable network on calls to remote objects (e.g. GameServerInterface and PlayerInterface), so
+ * that WEGAPI can be tested under WAN conditions while everything runs on one machine. <br> <br>
+ *
+ * wrap() returns a proxy for a remote object, which delays each call and its reply as if they had crossed the
+ * emulated network, and sometimes fails them as if the connection had dropped: <br> <br>
+ *
+ *   - latency: each message (call or reply) is delayed by a one-way latency, plus or minus a uniformly random
+ *              jitter, so a call takes two latencies longer than it would otherwise. <br>
+ *   - bandwidth: each message also takes its serialized size divided by the bandwidth to send, and messages in the
+ *                same direction queue for the link behind each other, as on a real link. Remote objects passed in a
+ *                call are counted as STUB_BYTES each, since they are sent as stubs. <br>
+ *   - drops: each message is dropped with some probability. A dropped call is not made, and fails with a
+ *            ConnectIOException. A dropped reply fails with an UnmarshalException, after the call has been made. Both
+ *            are seen as communication failures, just as a real dropped connection would be. <br> <br>
+ *
+ * Each process emulates the network on its own outgoing calls: daemons on their calls to the server, and the server
+ * on its calls to players (including heartbeats). Emulation is configured with system properties, and is off unless
+ * one of them is set (see fromProperties()): <br> <br>
+ *
+ *   - wegapi.netem.latencyMillis: one-way latency, in milliseconds (default 0) <br>
+ *   - wegapi.netem.jitterMillis: maximum jitter either side of the latency, in milliseconds (default 0) <br>
+ *   - wegapi.netem.bandwidthKbps: bandwidth of the link in each direction, in kilobits per second (default 0, which
+ *                                 means unlimited) <br>
+ *   - wegapi.netem.dropRate: probability that each message is dropped, from 0 to 1 (default 0) <br> <br>
+ *
+ * Tests and the load generator can also create an emulator directly, with the constructor.
+ */
+public final class NetworkEmulator {
+    public static final String LATENCY_PROPERTY = "wegapi.netem.latencyMillis";
+    public static final String JITTER_PROPERTY = "wegapi.netem.jitterMillis";
+    public static final String BANDWIDTH_PROPERTY = "wegapi.netem.bandwidthKbps";
+    public static final String DROP_RATE_PROPERTY = "wegapi.netem.dropRate";
+    public static final int STUB_BYTES = 300;  // roughly the serialized size of an RMI stub
+
+    private static final NetworkEmulator FROM_PROPERTIES = createFromProperties();
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long nanosPerByte;  // 0 for unlimited bandwidth
+    private final double dropRate;
+    private final AtomicLong uplinkFreeNanos = new AtomicLong();  // when the link for calls is next free
+    private final AtomicLong downlinkFreeNanos = new AtomicLong();  // when the link for replies is next free
+
+    /**
+     * Creates a network emulator.
+     *
+     * @param latencyMillis one-way latency, in milliseconds
+     * @param jitterMillis maximum jitter either side of the latency, in milliseconds
+     * @param bandwidthKbps bandwidth in each direction, in kilobits per second, or 0 for unlimited
+     * @param dropRate probability that each message is dropped, from 0 to 1
+     */
+    public NetworkEmulator(double latencyMillis, double jitterMillis, double bandwidthKbps, double dropRate) {
+        if (latencyMillis < 0 || jitterMillis < 0 || bandwidthKbps < 0 || dropRate < 0 || dropRate > 1) {
+            throw new IllegalArgumentException("Network emulator settings must not be negative, and the drop rate must be at most 1.");
+        }
+        this.latencyNanos = (long) (latencyMillis * 1_000_000);
+        this.jitterNanos = (long) (jitterMillis * 1_000_000);
+        this.nanosPerByte = bandwidthKbps == 0 ? 0 : (long) (8_000_000 / bandwidthKbps);
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * Returns the network emulator configured by the wegapi.netem.* system properties, or null if none of them are
+     * set. The properties are read once, when this is first called.
+     *
+     * @return the network emulator, or null if network emulation is off
+     */
+    public static NetworkEmulator fromProperties() {
+        return FROM_PROPERTIES;
+    }
+
+    private static NetworkEmulator createFromProperties() {
+        String latency = System.getProperty(LATENCY_PROPERTY);
+        String jitter = System.getProperty(JITTER_PROPERTY);
+        String bandwidth = System.getProperty(BANDWIDTH_PROPERTY);
+        String dropRate = System.getProperty(DROP_RATE_PROPERTY);
+        if (latency == null && jitter == null && bandwidth == null && dropRate == null) return null;
+
+        try {
+            NetworkEmulator emulator = new NetworkEmulator(latency == null ? 0 : Double.parseDouble(latency),
+                    jitter == null ? 0 : Double.parseDouble(jitter), bandwidth == null ? 0 : Double.parseDouble(bandwidth),
+                    dropRate == null ? 0 : Double.parseDouble(dropRate));
+            Log.info("Emulating network: %s", emulator);
+            return emulator;
+        } catch (IllegalArgumentException e) {  // includes NumberFormatException
+            Log.warn("Invalid network emulator settings, not emulating network: %s", e);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps a remote object, so that calls to it go over the emulated network.
+     *
+     * @param target the remote object
+     * @param type the remote interface to proxy
+     * @return a proxy for target, which implements type
+     */
+    public <T extends Remote> T wrap(T target, Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new Handler(target)));
+    }
+
+    /**
+     * Wraps a remote object with the emulator from fromProperties(), if network emulation is on.
+     *
+     * @param target the remote object
+     * @param type the remote interface to proxy
+     * @return a proxy for target, or target itself if network emulation is off
+     */
+    public static <T extends Remote> T wrapIfEnabled(T target, Class<T> type) {
+        return FROM_PROPERTIES == null ? target : FROM_PROPERTIES.wrap(target, type);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("latency %.1f ms, jitter %.1f ms, %s, drop rate %.3f", latencyNanos / 1e6, jitterNanos / 1e6,
+                nanosPerByte == 0 ? "unlimited bandwidth" : String.format("bandwidth %.0f kbps", 8e6 / nanosPerByte), dropRate);
+    }
+
+    /** Calls a remote object over the emulated network. */
+    private final class Handler implements InvocationHandler {
+        private final Object target;
+
+        private Handler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) return invokeObjectMethod(method, args);
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            transmit(uplinkFreeNanos, serializedSize(args));
+            if (dropRate > 0 && random.nextDouble() < dropRate) {
+                throw new ConnectIOException("Emulated network dropped the call to " + method.getName() + "().");
+            }
+
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                transmit(downlinkFreeNanos, 0);  // exceptions are small next to the tiles in a typical call
+                throw e.getCause();
+            }
+
+            transmit(downlinkFreeNanos, serializedSize(result == null ? null : new Object[] {result}));
+            if (dropRate > 0 && random.nextDouble() < dropRate) {
+                throw new UnmarshalException("Emulated network dropped the reply from " + method.getName() + "().");
+            }
+            return result;
+        }
+
+        /** equals() sees through proxies, so that a proxy equals another proxy for the same remote object. */
+        private Object invokeObjectMethod(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    Object other = args[0];
+                    if (other != null && Proxy.isProxyClass(other.getClass()) && Proxy.getInvocationHandler(other) instanceof Handler) {
+                        other = ((Handler) Proxy.getInvocationHandler(other)).target;
+                    }
+                    return target.equals(other);
+                case "hashCode":
+                    return target.hashCode();
+                default:
+                    return "NetworkEmulator proxy for " + target;
+            }
+        }
+    }
+
+    /**
+     * Waits for a message to cross the emulated network: for its turn on the link, for its transmission time, and
+     * for the latency.
+     *
+     * @param linkFreeNanos when the link that the message goes over is next free
+     * @param bytes the size of the message
+     */
+    private void transmit(AtomicLong linkFreeNanos, long bytes) {
+        long now = System.nanoTime();
+        long sentNanos = now;
+        if (nanosPerByte != 0) {
+            long transmissionNanos = bytes * nanosPerByte;
+            long linkFree;
+            do {
+                linkFree = linkFreeNanos.get();
+                sentNanos = Math.max(now, linkFree) + transmissionNanos;
+            } while (!linkFreeNanos.compareAndSet(linkFree, sentNanos));
+        }
+
+        long jitter = jitterNanos == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitterNanos, jitterNanos + 1);
+        long arrivalNanos = sentNanos + Math.max(0, latencyNanos + jitter);
+        long remaining;
+        while ((remaining = arrivalNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Returns roughly how many bytes some objects take up when sent over RMI: their serialized size, with remote
+     * objects counted as STUB_BYTES. Returns 0 if they cannot be serialized, or if bandwidth is unlimited.
+     *
+     * @param objects the objects, or null for none
+     * @return the objects' size, in bytes
+     */
+    private long serializedSize(Object[] objects) {
+        if (nanosPerByte == 0 || objects == null) return 0;
+        CountingOutputStream counter = new CountingOutputStream();
+        try (RemoteCountingObjectOutputStream out = new RemoteCountingObjectOutputStream(counter)) {
+            for (Object object : objects) {
+                out.writeObject(object);
+            }
+            out.flush();
+            return counter.count + (long) out.remoteObjects * STUB_BYTES;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /** An OutputStream that counts, and then discards, what is written to it. */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /** An ObjectOutputStream that leaves out remote objects, and counts them, as they are sent as stubs. */
+    private static final class RemoteCountingObjectOutputStream extends ObjectOutputStream {
+        private int remoteObjects = 0;
+
+        private RemoteCountingObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof Remote) {
+                remoteObjects++;
+                return null;
+            }
+            return obj;
+        }
+    }
+}
@@ -10,16 +10,29 @@ import java.io.Serializable;
 public class PlayerData implements Serializable {
     private final int playerNumber; // unique identifier
     private final PlayerInterface player; // remote object to communicate with the player via RMI
+    private final long traceId; // trace ID of the action (see Tracer), or 0 if it is not traced
 
     /**
-     * Creates a PlayerData with the given playerNumber and remote object.
+     * Creates a PlayerData with the given playerNumber and remote object, for an action that is not traced.
      *
      * @param playerNumber the unique identifier assigned to the player with PlayerInterface.initialize()
      * @param player       a remote object that can be used to communicate with the player via RMI
      */
     public PlayerData(int playerNumber, PlayerInterface player) {
+        this(playerNumber, player, 0);
+    }
+
+    /**
+     * Creates a PlayerData with the given playerNumber and remote object, for a traced action.
+     *
+     * @param playerNumber the unique identifier assigned to the player with PlayerInterface.initialize()
+     * @param player       a remote object that can be used to communicate with the player via RMI
+     * @param traceId      the trace ID of the action (see Tracer), or 0 if it is not traced
+     */
+    public PlayerData(int playerNumber, PlayerInterface player, long traceId) {
         this.playerNumber = playerNumber;
         this.player = player;
+        this.traceId = traceId;
     }
 
     public int getPlayerNumber() {
@@ -29,4 +42,8 @@ public class PlayerData implements Serializable {
     public PlayerInterface getPlayer() {
         return player;
     }
+
+    public long getTraceId() {
+        return traceId;
+    }
 }
@@ -44,6 +44,15 @@ public interface PlayerInterface extends Remote {
      */
     void initialize(int playerNumber) throws RemoteException;
 
+    /**
+     * Sets how the player's daemon handles actions that the player makes while another action is still being
+     * processed, or while their game directory is still being updated. See ActionAdmissionPolicy. Until this is
+     * called, every action is forwarded to the server.
+     *
+     * @param policy the policy to use for this player's actions
+     */
+    void setActionAdmissionPolicy(ActionAdmissionPolicy policy) throws RemoteException;
+
     /**
      * Displays a message to a player, in a message box (todo: actually do it in a message box - for now, is printed
      * to the console). Optionally makes the message look like an error to the user.
@@ -70,12 +79,20 @@ public interface PlayerInterface extends Remote {
      *   - CREATE_NEW: creates tiles only if they do not exist. If some tile already exists, the client will
      *                 abort and print an error message. <br>
      *   - OVERWRITE_EXISTING: only overwrites existing tiles. If some tile does not exist, the client will abort
-     *                         and print an error message.
+     *                         and print an error message. <br> <br>
+     *
+     * The player validates the tiles and returns as soon as the update has been queued: the tiles are created in the
+     * background, in the order that updates were received. See getLastAppliedSequence(). <br> <br>
+     *
+     * The tiles are packed into a TileBatch, whose icon names refer to a dictionary that the player keeps for the
+     * server (see TileBatch). Returning from this call acknowledges the icon names that the batch defined.
      *
      * @param tiles tiles to create in the player's game directory
      * @param mode mode (how to handle existing tiles, etc.)
+     * @param traceId the trace ID of the action that caused this update (see Tracer), or 0 if none
+     * @return the sequence number of this update
      */
-    void createTiles(ArrayList<Tile> tiles, CreateTilesMode mode) throws RemoteException;
+    long createTiles(TileBatch tiles, CreateTilesMode mode, long traceId) throws RemoteException;
 
     /** Enum for specifying how to delete tiles. */
     enum DeleteTilesMode {
@@ -91,12 +108,33 @@ public interface PlayerInterface extends Remote {
      *   - DELETE: deletes tiles, whether or not they exist. <br>
      *   - DELETE_EXISTING: deletes tiles only if they exist. If some tile does not exist, the client will abort
      *                      and print an error message.
-     *   - DELETE_ALL: deletes all tiles. If this parameter is specified, tileIndices should be null.
+     *   - DELETE_ALL: deletes all tiles. If this parameter is specified, tileIndices should be null. <br> <br>
+     *
+     * As with createTiles(), the player returns as soon as the update has been queued, and the tiles are deleted
+     * in the background.
      *
      * @param tileIndices indices of the tiles to delete - should be null if mode is DELETE_ALL (todo: actually handle null)
      * @param mode mode (how to handle non-existent tiles, etc.)
+     * @param traceId the trace ID of the action that caused this update (see Tracer), or 0 if none
+     * @return the sequence number of this update
+     */
+    long deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode, long traceId) throws RemoteException;
+
+    /**
+     * Returns the sequence number of the last update (from createTiles() or deleteTiles()) that the player has
+     * finished applying to their game directory. Updates are applied in order, so every update with a smaller
+     * sequence number has also been applied. Servers can poll this when they need to know that a player is
+     * actually seeing some update.
+     *
+     * @return the sequence number of the last applied update, or 0 if no updates have been applied
+     */
+    long getLastAppliedSequence() throws RemoteException;
+
+    /**
+     * Does nothing. Sent periodically by the server (see BaseServer) to check that the player's daemon is still
+     * reachable, so must return immediately.
      */
-    void deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode) throws RemoteException;
+    void heartbeat() throws RemoteException;
 
     /**
      * Informs the player that the game is over. They will not be able to do anything until a new game is started.
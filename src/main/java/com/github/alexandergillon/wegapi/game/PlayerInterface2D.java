@@ -42,6 +42,14 @@ public interface PlayerInterface2D {
      */
     void initialize(int playerNumber) throws RemoteException;
 
+    /**
+     * Sets how the player's daemon handles actions that the player makes while another action is still being
+     * processed, or while their game directory is still being updated. See ActionAdmissionPolicy.
+     *
+     * @param policy the policy to use for this player's actions
+     */
+    void setActionAdmissionPolicy(ActionAdmissionPolicy policy) throws RemoteException;
+
     /**
      * Displays a message to a player, in a message box (todo: actually do it in a message box - for now, is printed
      * to the console). Optionally makes the message look like an error to the user.
@@ -63,8 +71,9 @@ public interface PlayerInterface2D {
      *
      * @param tiles tiles to create in the player's game directory
      * @param mode mode (how to handle existing tiles, etc.)
+     * @return the sequence number of this update (see PlayerInterface.getLastAppliedSequence())
      */
-    void createTiles(ArrayList<Tile2D> tiles, PlayerInterface.CreateTilesMode mode) throws RemoteException;
+    long createTiles(ArrayList<Tile2D> tiles, PlayerInterface.CreateTilesMode mode) throws RemoteException;
 
 
     /**
@@ -77,9 +86,18 @@ public interface PlayerInterface2D {
      *
      * @param tileCoordinates coordinates of the tiles to delete - should be null if mode is DELETE_ALL (todo: actually handle null)
      * @param mode mode (how to handle non-existent tiles, etc.)
+     * @return the sequence number of this update (see PlayerInterface.getLastAppliedSequence())
      */
     // todo: make this accept null
-    void deleteTiles(ArrayList<TileCoordinate> tileCoordinates, PlayerInterface.DeleteTilesMode mode) throws RemoteException;
+    long deleteTiles(ArrayList<TileCoordinate> tileCoordinates, PlayerInterface.DeleteTilesMode mode) throws RemoteException;
+
+    /**
+     * Returns the sequence number of the last update that the player has finished applying to their game directory.
+     * See PlayerInterface.getLastAppliedSequence().
+     *
+     * @return the sequence number of the last applied update, or 0 if no updates have been applied
+     */
+    long getLastAppliedSequence() throws RemoteException;
 
     /**
      * Informs the player that the game is over. They will not be able to do anything until a new game is started.
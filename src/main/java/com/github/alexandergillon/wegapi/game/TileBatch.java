@@ -0,0 +1,413 @@
+package com.github.alexandergillon.wegapi.game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A batch of tiles to create, packed for sending to a player with createTiles(). Serializing an ArrayList of Tiles
+ * sends a class descriptor and the full icon name of every tile, which for a full board comes to kilobytes. A
+ * TileBatch is a single byte array instead, which RMI copies as is (it is Externalizable): <br> <br>
+ *
+ *   - icon names are replaced by small IDs, from a dictionary that the server keeps for each player (an Encoder),
+ *     and the player rebuilds as batches arrive (a Dictionary). A batch carries the definition of every ID that it
+ *     uses, until the player has acknowledged one (by returning from createTiles()), so each icon name is sent about
+ *     once per player. <br>
+ *   - indices are sent in runs of consecutive tiles (ascending or descending), so a full board is one run, and
+ *     each tile in it costs only its icon ID. <br>
+ *   - numbers are sent as varints, so an ID or a run length under 128 takes one byte. <br> <br>
+ *
+ * A full chess board is about 70 bytes once the player knows its icons. <br> <br>
+ *
+ * The layout of the bytes is: a varint count of definitions, each a varint ID and a string; a varint count of tiles;
+ * then runs, each a varint header ((run length << 1) | 1 if descending), the zigzag varint difference between the
+ * run's first index and the last index of the previous run (or 0), then, for each tile, a varint ((icon ID << 1) | 1
+ * if the tile has a name), followed by the name if it has one. Strings are a varint length, then UTF-8 bytes. <br>
+ * <br>
+ *
+ * If a player's dictionary could be out of step with the server's Encoder (e.g. a call to the player failed, in a way
+ * that leaves it unclear what it received), the Encoder should be reset(), so that it sends every definition again.
+ */
+public final class TileBatch implements Externalizable {
+    private static final int[] NO_IDS = new int[0];
+
+    private byte[] data;
+    private int tileCount;  // not sent: -1 in a received batch until it is decoded
+    private int[] definedIds;  // not sent: the IDs this batch defines, kept by the sender to acknowledge them
+
+    /** Creates an empty TileBatch, for deserialization. */
+    public TileBatch() {
+        this(new byte[] {0, 0}, 0, NO_IDS);
+    }
+
+    private TileBatch(byte[] data, int tileCount, int[] definedIds) {
+        this.data = data;
+        this.tileCount = tileCount;
+        this.definedIds = definedIds;
+    }
+
+    /**
+     * Creates a TileBatch from the bytes returned by toBytes(), e.g. after they have been sent by some other means
+     * than serialization.
+     *
+     * @param bytes the batch's bytes
+     * @return the batch
+     */
+    public static TileBatch fromBytes(byte[] bytes) {
+        return new TileBatch(bytes, -1, NO_IDS);
+    }
+
+    /**
+     * Returns the batch's packed bytes (see class documentation). The array must not be modified.
+     *
+     * @return the batch's bytes
+     */
+    public byte[] toBytes() {
+        return data;
+    }
+
+    /**
+     * Returns the number of tiles in the batch, as known by the sender. A batch that was received reports -1 until
+     * it has been decoded.
+     *
+     * @return the number of tiles in the batch
+     */
+    public int size() {
+        return tileCount;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new InvalidObjectException("Negative TileBatch length " + length);
+        data = new byte[length];
+        in.readFully(data);
+        tileCount = -1;
+        definedIds = NO_IDS;
+    }
+
+    /**
+     * Unpacks the tiles in this batch, adding the definitions that it carries to a player's dictionary.
+     *
+     * @param dictionary the dictionary of the player that the batch was sent to
+     * @return the tiles, in the order they were packed in
+     * @throws IllegalArgumentException if the batch is malformed, or uses an ID that the dictionary does not know
+     */
+    public ArrayList<Tile> decode(Dictionary dictionary) {
+        Reader reader = new Reader(data);
+        try {
+            ArrayList<Tile> tiles;
+            synchronized (dictionary) {
+                int definitions = reader.readCount();
+                for (int i = 0; i < definitions; i++) {
+                    int id = reader.readCount();
+                    dictionary.define(id, reader.readString());
+                }
+
+                int count = reader.readCount();
+                tiles = new ArrayList<>(count);
+                int index = 0;
+                while (tiles.size() < count) {
+                    int header = reader.readCount();
+                    int runLength = header >>> 1;
+                    int step = (header & 1) == 0 ? 1 : -1;
+                    if (runLength == 0 || runLength > count - tiles.size()) {
+                        throw new IllegalArgumentException("Bad run length " + runLength);
+                    }
+                    int delta = reader.readVarint();
+                    index += (delta >>> 1) ^ -(delta & 1);
+                    for (int i = 0; i < runLength; i++) {
+                        if (i > 0) index += step;
+                        int iconCode = reader.readCount();
+                        String iconName = dictionary.lookUp(iconCode >>> 1);
+                        tiles.add((iconCode & 1) == 0 ? new Tile(index, iconName) : new Tile(index, iconName, reader.readString()));
+                    }
+                }
+            }
+            if (reader.position != data.length) throw new IllegalArgumentException("Trailing bytes in TileBatch");
+            tileCount = tiles.size();
+            return tiles;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("TileBatch ends early");
+        }
+    }
+
+    /**
+     * The server's side of a player's icon dictionary: packs tiles into TileBatches for that player, and remembers
+     * which icon IDs the player is known to have. Thread-safe.
+     */
+    public static final class Encoder {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final BitSet acknowledged = new BitSet();
+        // reused by every encode(), so that packing a batch allocates only the batch itself
+        private final Writer tileBytes = new Writer(256);
+        private final Writer definitionBytes = new Writer(64);
+        private final BitSet defined = new BitSet();
+
+        /**
+         * Packs tiles into a batch, defining any icon ID that the player has not acknowledged.
+         *
+         * @param tiles the tiles
+         * @return the batch
+         */
+        public synchronized TileBatch encode(List<Tile> tiles) {
+            return encode(tiles, TILE, 0, null);
+        }
+
+        /**
+         * Packs 2D tiles into a batch, as encode() does, without first converting them to 1D tiles.
+         *
+         * @param tiles the tiles
+         * @param numCols the number of columns in the grid, to convert coordinates to indices with
+         * @return the batch
+         */
+        public synchronized TileBatch encode2D(List<Tile2D> tiles, int numCols) {
+            return encode(tiles, TILE_2D, numCols, null);
+        }
+
+        /**
+         * Packs 2D tiles into a batch, as encode2D() does, moving each tile to another index as it goes: a tile whose
+         * coordinates give index i is sent with index indexMap[i].
+         *
+         * @param tiles the tiles
+         * @param numCols the number of columns in the grid, to convert coordinates to indices with
+         * @param indexMap the index to send the tile at each index with
+         * @return the batch
+         */
+        public synchronized TileBatch encode2D(List<Tile2D> tiles, int numCols, int[] indexMap) {
+            return encode(tiles, TILE_2D, numCols, indexMap);
+        }
+
+        private <T> TileBatch encode(List<T> tiles, TileAccessor<T> accessor, int numCols, int[] indexMap) {
+            tileBytes.reset();
+            definitionBytes.reset();
+            defined.clear();
+            int definitionCount = 0;
+
+            tileBytes.writeVarint(tiles.size());
+            int previousIndex = 0;
+            int i = 0;
+            while (i < tiles.size()) {
+                int start = indexOf(tiles.get(i), accessor, numCols, indexMap);
+                int runLength = 1;
+                int step = 0;
+                if (i + 1 < tiles.size()) {
+                    int difference = indexOf(tiles.get(i + 1), accessor, numCols, indexMap) - start;
+                    if (difference == 1 || difference == -1) step = difference;
+                }
+                while (step != 0 && i + runLength < tiles.size()
+                        && indexOf(tiles.get(i + runLength), accessor, numCols, indexMap) == start + step * runLength) {
+                    runLength++;
+                }
+
+                tileBytes.writeVarint(runLength << 1 | (step == -1 ? 1 : 0));
+                int delta = start - previousIndex;
+                tileBytes.writeVarint((delta << 1) ^ (delta >> 31));
+                for (int j = i; j < i + runLength; j++) {
+                    T tile = tiles.get(j);
+                    String iconName = accessor.iconName(tile);
+                    Integer id = ids.get(iconName);
+                    if (id == null) {
+                        id = ids.size();
+                        ids.put(iconName, id);
+                    }
+                    if (!acknowledged.get(id) && !defined.get(id)) {
+                        defined.set(id);
+                        definitionBytes.writeVarint(id);
+                        definitionBytes.writeString(iconName);
+                        definitionCount++;
+                    }
+                    String tileName = accessor.tileName(tile);
+                    tileBytes.writeVarint(id << 1 | (tileName == null ? 0 : 1));
+                    if (tileName != null) tileBytes.writeString(tileName);
+                }
+                previousIndex = start + step * (runLength - 1);
+                i += runLength;
+            }
+
+            byte[] data = new byte[varintSize(definitionCount) + definitionBytes.size() + tileBytes.size()];
+            int offset = writeVarint(data, 0, definitionCount);
+            offset = definitionBytes.copyTo(data, offset);
+            tileBytes.copyTo(data, offset);
+            return new TileBatch(data, tiles.size(), definitionCount == 0 ? NO_IDS : defined.stream().toArray());
+        }
+
+        /**
+         * Records that the player has received a batch, so that the IDs it defines need not be sent again.
+         *
+         * @param batch a batch from encode(), which the player has returned from createTiles() for
+         */
+        public synchronized void acknowledge(TileBatch batch) {
+            for (int id : batch.definedIds) {
+                acknowledged.set(id);
+            }
+        }
+
+        /** Forgets which IDs the player has, so that batches define every ID they use until acknowledged again. */
+        public synchronized void reset() {
+            acknowledged.clear();
+        }
+    }
+
+    private static <T> int indexOf(T tile, TileAccessor<T> accessor, int numCols, int[] indexMap) {
+        int index = accessor.index(tile, numCols);
+        return indexMap == null || index < 0 || index >= indexMap.length ? index : indexMap[index];
+    }
+
+    /** Reads the fields of a kind of tile, so that the Encoder can pack any kind without converting it. */
+    private interface TileAccessor<T> {
+        int index(T tile, int numCols);
+
+        String iconName(T tile);
+
+        String tileName(T tile);
+    }
+
+    private static final TileAccessor<Tile> TILE = new TileAccessor<>() {
+        @Override
+        public int index(Tile tile, int numCols) {
+            return tile.getIndex();
+        }
+
+        @Override
+        public String iconName(Tile tile) {
+            return tile.getIconName();
+        }
+
+        @Override
+        public String tileName(Tile tile) {
+            return tile.getTileName();
+        }
+    };
+
+    private static final TileAccessor<Tile2D> TILE_2D = new TileAccessor<>() {
+        @Override
+        public int index(Tile2D tile, int numCols) {
+            return tile.getRow() * numCols + tile.getCol();
+        }
+
+        @Override
+        public String iconName(Tile2D tile) {
+            return tile.getIconName();
+        }
+
+        @Override
+        public String tileName(Tile2D tile) {
+            return tile.getTileName();
+        }
+    };
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** Writes a varint into an array, and returns the offset after it. */
+    private static int writeVarint(byte[] data, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /** The player's side of its icon dictionary, which decode() adds to. Thread-safe. */
+    public static final class Dictionary {
+        private final ArrayList<String> iconNames = new ArrayList<>();  // guarded by this
+
+        private void define(int id, String iconName) {
+            if (id > iconNames.size() + 1024) throw new IllegalArgumentException("Icon ID " + id + " is too far ahead");
+            while (iconNames.size() <= id) {
+                iconNames.add(null);
+            }
+            iconNames.set(id, iconName);
+        }
+
+        private String lookUp(int id) {
+            String iconName = id < iconNames.size() ? iconNames.get(id) : null;
+            if (iconName == null) throw new IllegalArgumentException("Unknown icon ID " + id);
+            return iconName;
+        }
+    }
+
+    /** A growable byte array that numbers and strings are written to. */
+    private static final class Writer extends ByteArrayOutputStream {
+        private Writer(int initialSize) {
+            super(initialSize);
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /** Copies what has been written into an array, and returns the offset after it. */
+        private int copyTo(byte[] data, int offset) {
+            System.arraycopy(buf, 0, data, offset, count);
+            return offset + count;
+        }
+    }
+
+    /** Reads numbers and strings from a byte array. Reading past the end throws ArrayIndexOutOfBoundsException. */
+    private static final class Reader {
+        private final byte[] data;
+        private int position = 0;
+
+        private Reader(byte[] data) {
+            this.data = data;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("Varint is too long");
+        }
+
+        /** Reads a varint that must not be negative, such as a count or an ID. */
+        private int readCount() {
+            int value = readVarint();
+            if (value < 0) throw new IllegalArgumentException("Negative count " + value);
+            return value;
+        }
+
+        private String readString() {
+            int length = readCount();
+            if (length > data.length - position) throw new IllegalArgumentException("Bad string length " + length);
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
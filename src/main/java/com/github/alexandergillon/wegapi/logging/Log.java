@@ -0,0 +1,247 @@
+package com.github.alexandergillon.wegapi.logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small asynchronous logger, for messages on hot paths (every action, every tile update) that should not hold up
+ * the thread that logs them with console I/O. <br> <br>
+ *
+ * Logging a message puts it in a fixed-size ring buffer, without taking a lock. Messages are formatted (with
+ * String.format()) and written to standard output by a background thread, in the order they were logged, one line
+ * per message: <br> <br>
+ *
+ *   2022-01-01T12:00:00.000Z INFO  [thread name] message <br> <br>
+ *
+ * Formatting happens later, on the background thread, so arguments must not be changed after they are logged. If the
+ * buffer is full, messages are dropped (and a count of them written), rather than making the logging thread wait.
+ * Anything left in the buffer is written by a shutdown hook when the process exits. <br> <br>
+ *
+ * Messages below the wegapi.logLevel system property (DEBUG, INFO, WARN or ERROR, default INFO) are discarded at once.
+ * Arguments of primitive types are boxed before that check, so a call with such arguments on a hot path that is
+ * normally disabled should be guarded with isEnabled(). <br> <br>
+ *
+ * Errors that end the process (i.e. are followed by System.exit()) should still be printed directly, so that they
+ * are not lost if the process dies before the buffer is written.
+ */
+public final class Log {
+    public static final String LEVEL_PROPERTY = "wegapi.logLevel";
+    private static final int CAPACITY = 1 << 13;  // must be a power of two
+    private static final long WRITER_PARK_NANOS = 2_000_000;
+
+    /** Log levels, from most to least verbose. */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /** A slot in the ring buffer. The sequence says whose turn it is to use the slot (see log() and drain()). */
+    private static final class Slot {
+        private volatile long sequence;
+        private Level level;
+        private long timeMillis;
+        private String threadName;
+        private String format;
+        private int argCount;
+        private Object arg0;
+        private Object arg1;
+        private Object arg2;
+    }
+
+    private static final Level threshold = parseLevel(System.getProperty(LEVEL_PROPERTY, "INFO"));
+    private static final Slot[] slots = new Slot[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();  // next position to log to
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final PrintStream out = System.out;
+    private static long head = 0;  // next position to write, guarded by Log.class
+    private static volatile Thread writer = null;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String level) {
+        try {
+            return Level.valueOf(level.strip().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unrecognized " + LEVEL_PROPERTY + " " + level + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * Returns whether messages at a level are logged.
+     *
+     * @param level the level
+     * @return whether messages at that level are logged
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, 0, null, null, null);
+    }
+
+    public static void debug(String format, Object arg0) {
+        log(Level.DEBUG, format, 1, arg0, null, null);
+    }
+
+    public static void debug(String format, Object arg0, Object arg1) {
+        log(Level.DEBUG, format, 2, arg0, arg1, null);
+    }
+
+    public static void debug(String format, Object arg0, Object arg1, Object arg2) {
+        log(Level.DEBUG, format, 3, arg0, arg1, arg2);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, 0, null, null, null);
+    }
+
+    public static void info(String format, Object arg0) {
+        log(Level.INFO, format, 1, arg0, null, null);
+    }
+
+    public static void info(String format, Object arg0, Object arg1) {
+        log(Level.INFO, format, 2, arg0, arg1, null);
+    }
+
+    public static void info(String format, Object arg0, Object arg1, Object arg2) {
+        log(Level.INFO, format, 3, arg0, arg1, arg2);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, 0, null, null, null);
+    }
+
+    public static void warn(String format, Object arg0) {
+        log(Level.WARN, format, 1, arg0, null, null);
+    }
+
+    public static void warn(String format, Object arg0, Object arg1) {
+        log(Level.WARN, format, 2, arg0, arg1, null);
+    }
+
+    public static void warn(String format, Object arg0, Object arg1, Object arg2) {
+        log(Level.WARN, format, 3, arg0, arg1, arg2);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, 0, null, null, null);
+    }
+
+    public static void error(String format, Object arg0) {
+        log(Level.ERROR, format, 1, arg0, null, null);
+    }
+
+    public static void error(String format, Object arg0, Object arg1) {
+        log(Level.ERROR, format, 2, arg0, arg1, null);
+    }
+
+    public static void error(String format, Object arg0, Object arg1, Object arg2) {
+        log(Level.ERROR, format, 3, arg0, arg1, arg2);
+    }
+
+    private static void log(Level level, String format, int argCount, Object arg0, Object arg1, Object arg2) {
+        if (!isEnabled(level)) return;
+        if (writer == null) startWriter();
+
+        // claim a slot: a slot whose sequence equals our position is free for us
+        long position = tail.get();
+        Slot slot;
+        while (true) {
+            slot = slots[(int) (position & (CAPACITY - 1))];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();  // the writer has not caught up with this slot: the buffer is full
+                return;
+            } else {
+                position = tail.get();  // another thread took this position
+            }
+        }
+
+        slot.level = level;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.threadName = Thread.currentThread().getName();
+        slot.format = format;
+        slot.argCount = argCount;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.sequence = position + 1;  // publishes the message to the writer
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        Thread thread = new Thread(Log::writeLoop, "wegapi-log-writer");
+        thread.setDaemon(true);
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "wegapi-log-flush"));
+        writer = thread;
+        thread.start();
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            if (!drain()) LockSupport.parkNanos(WRITER_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Writes every message that has been logged so far, as one write to standard output.
+     *
+     * @return whether there were any messages
+     */
+    private static synchronized boolean drain() {
+        StringBuilder lines = new StringBuilder();
+        while (true) {
+            Slot slot = slots[(int) (head & (CAPACITY - 1))];
+            if (slot.sequence != head + 1) break;  // not yet published
+            appendLine(lines, slot);
+            slot.threadName = null;
+            slot.format = null;
+            slot.arg0 = null;
+            slot.arg1 = null;
+            slot.arg2 = null;
+            slot.sequence = head + CAPACITY;  // frees the slot for the next lap around the buffer
+            head++;
+        }
+
+        long droppedMessages = dropped.getAndSet(0);
+        if (droppedMessages > 0) {
+            lines.append(Instant.ofEpochMilli(System.currentTimeMillis())).append(" WARN  [wegapi-log-writer] dropped ").append(droppedMessages)
+                    .append(" log messages, as the log buffer was full\n");
+        }
+        if (lines.length() == 0) return false;
+        out.print(lines);
+        out.flush();
+        return true;
+    }
+
+    private static void appendLine(StringBuilder lines, Slot slot) {
+        String message;
+        try {
+            switch (slot.argCount) {
+                case 0: message = slot.format; break;
+                case 1: message = String.format(slot.format, slot.arg0); break;
+                case 2: message = String.format(slot.format, slot.arg0, slot.arg1); break;
+                default: message = String.format(slot.format, slot.arg0, slot.arg1, slot.arg2);
+            }
+        } catch (RuntimeException e) {
+            message = slot.format + " (could not format message: " + e + ")";
+        }
+        lines.append(Instant.ofEpochMilli(slot.timeMillis)).append(' ')
+                .append(String.format("%-5s", slot.level)).append(" [").append(slot.threadName).append("] ")
+                .append(message).append('\n');
+    }
+}
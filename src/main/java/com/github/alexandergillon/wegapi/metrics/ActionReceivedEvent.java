@@ -0,0 +1,33 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a click or drag that the server has received. Its duration is the time the server took to handle the
+ * action, including redrawing players.
+ */
+@Name("com.github.alexandergillon.wegapi.ActionReceived")
+@Label("Action Received")
+@Category({"WEGAPI", "Server"})
+@Description("A click or drag handled by the game server")
+public final class ActionReceivedEvent extends Event {
+    @Label("Action")
+    public String action;
+
+    @Label("Player Number")
+    public int playerNumber;
+
+    @Label("From Tile")
+    public int fromTile;
+
+    @Label("To Tile")
+    @Description("The tile dragged to, or -1 for a click")
+    public int toTile;
+
+    @Label("Trace ID")
+    public long traceId;
+}
@@ -0,0 +1,27 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A lock-free, allocation-free counter of events, such as failed calls. */
+public final class Counter implements CounterMXBean {
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public void reset() {
+        count.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(count.get());
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+/** JMX view of a Counter. */
+public interface CounterMXBean {
+    /** @return the current count */
+    long getCount();
+
+    /** Sets the count back to 0. */
+    void reset();
+}
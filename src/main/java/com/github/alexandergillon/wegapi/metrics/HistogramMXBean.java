@@ -0,0 +1,30 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+/**
+ * JMX view of a Histogram. Percentiles are the upper bound of the bucket that the percentile falls in, so may be up
+ * to 12.5% above the true value (but never above the maximum).
+ */
+public interface HistogramMXBean {
+    /** @return the unit of the recorded values, e.g. "ns" */
+    String getUnit();
+
+    /** @return the number of values recorded */
+    long getCount();
+
+    /** @return the mean of the recorded values, or 0 if none have been recorded */
+    double getMean();
+
+    /** @return the largest recorded value, or 0 if none have been recorded */
+    long getMax();
+
+    long get50thPercentile();
+
+    long get90thPercentile();
+
+    long get99thPercentile();
+
+    long get999thPercentile();
+
+    /** Forgets every recorded value. */
+    void reset();
+}
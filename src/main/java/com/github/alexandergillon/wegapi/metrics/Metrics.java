@@ -0,0 +1,95 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the metrics that WEGAPI processes publish over JMX, under the DOMAIN domain. Connect with e.g. jconsole
+ * to see them. <br> <br>
+ *
+ * Metrics are looked up by name, and the same name always gives the same metric, so several objects in one process
+ * (e.g. the daemons in a multi-player daemon process) share their metrics. Classes should look their metrics up once
+ * and keep them in fields: it is recording to a metric, not looking it up, that is allocation-free. <br> <br>
+ *
+ * If a metric cannot be published over JMX, a message is printed, and the metric works as normal otherwise.
+ */
+public final class Metrics {
+    public static final String DOMAIN = "com.github.alexandergillon.wegapi";
+
+    private static final Map<String, Object> metrics = new ConcurrentHashMap<>();  // maps object name to metric
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the histogram with a name, creating and publishing it if there is not one.
+     *
+     * @param name the name of the histogram, e.g. "server.actionNanos"
+     * @param unit the unit of the histogram's values, e.g. "ns"
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, String unit) {
+        return (Histogram) metrics.computeIfAbsent(DOMAIN + ":type=Histogram,name=" + name,
+                objectName -> register(objectName, new Histogram(unit)));
+    }
+
+    /**
+     * Returns a player's histogram with a name, creating and publishing it if there is not one.
+     *
+     * @param name the name of the histogram, e.g. "server.playerCallNanos"
+     * @param playerNumber the number of the player
+     * @param unit the unit of the histogram's values, e.g. "ns"
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, int playerNumber, String unit) {
+        return (Histogram) metrics.computeIfAbsent(DOMAIN + ":type=Histogram,name=" + name + ",player=" + playerNumber,
+                objectName -> register(objectName, new Histogram(unit)));
+    }
+
+    /**
+     * Returns the counter with a name, creating and publishing it if there is not one.
+     *
+     * @param name the name of the counter, e.g. "server.playerCallFailures"
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(DOMAIN + ":type=Counter,name=" + name,
+                objectName -> register(objectName, new Counter()));
+    }
+
+    /**
+     * Stops publishing a metric, e.g. a player's histogram once the player has left. Looking the metric up again
+     * afterwards gives a new one.
+     *
+     * @param metric the metric to remove
+     */
+    public static void remove(Object metric) {
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            if (entry.getValue() == metric && metrics.remove(entry.getKey(), metric)) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(entry.getKey()));
+                } catch (JMException e) {
+                    Log.warn("metrics: failed to unregister %s, %s", entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    static Object register(String objectName, Object metric) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(objectName);
+            if (mBeanServer.isRegistered(name)) mBeanServer.unregisterMBean(name);
+            mBeanServer.registerMBean(metric, name);
+        } catch (JMException e) {
+            Log.warn("metrics: failed to register %s, %s", objectName, e);
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JFR event for a move that a game has checked, whether or not it was legal. */
+@Name("com.github.alexandergillon.wegapi.MoveValidated")
+@Label("Move Validated")
+@Category({"WEGAPI", "Server"})
+@Description("A move checked (and, if legal, made) by a game")
+public final class MoveValidatedEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Player Number")
+    public int playerNumber;
+
+    @Label("From Row")
+    public int fromRow;
+
+    @Label("From Column")
+    public int fromCol;
+
+    @Label("To Row")
+    public int toRow;
+
+    @Label("To Column")
+    public int toCol;
+
+    @Label("Legal")
+    public boolean legal;
+}
@@ -0,0 +1,26 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JFR event for working out which of a player's tiles changed. Its duration does not include sending them. */
+@Name("com.github.alexandergillon.wegapi.RedrawComputed")
+@Label("Redraw Computed")
+@Category({"WEGAPI", "Server"})
+@Description("The tiles to create and delete to bring a player's view up to date")
+public final class RedrawComputedEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Player Number")
+    public int playerNumber;
+
+    @Label("Tiles Created")
+    public int tilesCreated;
+
+    @Label("Tiles Deleted")
+    public int tilesDeleted;
+}
@@ -0,0 +1,33 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an outbound RMI call on the action path: the server sending tiles to a player, or a daemon
+ * forwarding an action to the server.
+ */
+@Name("com.github.alexandergillon.wegapi.RmiCall")
+@Label("RMI Call")
+@Category({"WEGAPI", "RMI"})
+@Description("An outbound RMI call on the action path")
+public final class RmiCallEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Player Number")
+    @Description("The player called by the server, or the player forwarding an action; -1 if not known")
+    public int playerNumber;
+
+    @Label("Tile Count")
+    public int tileCount;
+
+    @Label("Failed")
+    public boolean failed;
+
+    @Label("Trace ID")
+    public long traceId;
+}
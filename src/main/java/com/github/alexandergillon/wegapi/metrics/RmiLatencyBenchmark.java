@@ -0,0 +1,161 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.game.ConfigurableServerSocketFactory;
+import org.apache.commons.cli.*;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Compares the round-trip time of RMI calls to an object exported with RMI's default socket factories, with one
+ * exported with ConfigurableClientSocketFactory and ConfigurableServerSocketFactory (as the server and daemons are).
+ * <br> <br>
+ *
+ * Both objects are exported in this process, and called over loopback TCP, as RMI does not short-circuit calls
+ * through a stub to an object in the same process. Calls are made with a small argument, the size of a tileClicked()
+ * call, and with a larger one, the size of a typical createTiles() call. Each kind of call is made -n times (after
+ * the same number of warmup calls), alternating between the two objects, so that both see the same machine
+ * conditions. <br> <br>
+ *
+ * Run with -Dwegapi.rmi.tcpNoDelay=false to see the effect of Nagle's algorithm on its own, and with the other
+ * wegapi.rmi.* properties to try out buffer sizes. Loopback has almost no latency, so Nagle's algorithm shows up
+ * most when the calls are made over a real network (or one emulated with e.g. tc netem).
+ */
+public class RmiLatencyBenchmark {
+    private static final int DEFAULT_CALLS = 10000;
+    private static final int SMALL_BYTES = 16;
+    private static final int LARGE_BYTES = 4096;
+
+    /** The remote interface that is called. */
+    public interface Echo extends Remote {
+        /**
+         * Returns its argument.
+         *
+         * @param data any data
+         * @return data
+         */
+        byte[] echo(byte[] data) throws RemoteException;
+    }
+
+    /** An Echo that returns a short acknowledgement, as most WEGAPI calls do. */
+    private static class EchoImpl implements Echo {
+        private static final byte[] ACK = new byte[8];
+
+        @Override
+        public byte[] echo(byte[] data) {
+            return ACK;
+        }
+    }
+
+    /**
+     * Makes calls to each of two objects, alternating between them, and records the time taken by each call.
+     *
+     * @param defaultEcho the object exported with the default socket factories
+     * @param tunedEcho the object exported with WEGAPI's socket factories
+     * @param bytes the size of the argument to send
+     * @param calls the number of calls to make to each object
+     * @param defaultNanos histogram to record calls to defaultEcho in, or null to not record them
+     * @param tunedNanos histogram to record calls to tunedEcho in, or null to not record them
+     */
+    private static void run(Echo defaultEcho, Echo tunedEcho, int bytes, int calls, Histogram defaultNanos,
+                            Histogram tunedNanos) throws RemoteException {
+        byte[] data = new byte[bytes];
+        for (int i = 0; i < calls; i++) {
+            long startNanos = System.nanoTime();
+            defaultEcho.echo(data);
+            if (defaultNanos != null) defaultNanos.recordSince(startNanos);
+
+            startNanos = System.nanoTime();
+            tunedEcho.echo(data);
+            if (tunedNanos != null) tunedNanos.recordSince(startNanos);
+        }
+    }
+
+    private static void printResult(String name, Histogram nanos) {
+        System.out.printf("  %-8s mean %8.1f us, p50 %8.1f us, p99 %8.1f us, p99.9 %8.1f us, max %8.1f us%n", name,
+                nanos.getMean() / 1e3, nanos.get50thPercentile() / 1e3, nanos.get99thPercentile() / 1e3,
+                nanos.get999thPercentile() / 1e3, nanos.getMax() / 1e3);
+    }
+
+    /**
+     * Prints a help message and exits.
+     */
+    private static void printHelpAndExit() {
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.metrics.RmiLatencyBenchmark [-n <CALLS>]\n");
+        System.out.print("  -n, --calls <CALLS>    Number of calls of each kind to time (default " + DEFAULT_CALLS + ")\n");
+        System.exit(1);
+    }
+
+    /**
+     * Prints an error message, followed by a help message, then exits.
+     *
+     * @param errorMessage error message to print
+     */
+    private static void printHelpAndExit(String errorMessage) {
+        System.out.println(errorMessage);
+        printHelpAndExit();
+    }
+
+    /**
+     * Parses command line args for the number of calls to make. <br> <br>
+     *
+     * On error, prints a message and exits.
+     *
+     * @param args the args parameter that was passed to main()
+     * @return the number of calls to make
+     */
+    private static int parseArgs(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("n").longOpt("calls").hasArg().desc("Number of calls of each kind to time").build());
+        CommandLineParser parser = new DefaultParser();
+
+        int calls = DEFAULT_CALLS;
+        try {
+            CommandLine cmdline = parser.parse(options, args);
+            if (cmdline.hasOption("n")) calls = Integer.parseInt(cmdline.getOptionValue("n"));
+        } catch (ParseException e) {
+            printHelpAndExit("ParseException: " + e);
+        } catch (NumberFormatException e) {
+            printHelpAndExit("NumberFormatException: " + e);
+        }
+        if (calls < 1) printHelpAndExit("-n must be positive.");
+        return calls;
+    }
+
+    /**
+     * Main function. Exports the two objects, times calls to them, and prints the results.
+     */
+    public static void main(String[] args) {
+        int calls = parseArgs(args);
+        EchoImpl defaultImpl = new EchoImpl();
+        EchoImpl tunedImpl = new EchoImpl();
+        try {
+            Echo defaultEcho = (Echo) UnicastRemoteObject.exportObject(defaultImpl, 0);
+            Echo tunedEcho = (Echo) UnicastRemoteObject.exportObject(tunedImpl, 0, new ConfigurableClientSocketFactory(),
+                    new ConfigurableServerSocketFactory());
+
+            for (int bytes : new int[] {SMALL_BYTES, LARGE_BYTES}) {
+                run(defaultEcho, tunedEcho, bytes, calls, null, null);  // warmup
+                Histogram defaultNanos = new Histogram("ns");
+                Histogram tunedNanos = new Histogram("ns");
+                run(defaultEcho, tunedEcho, bytes, calls, defaultNanos, tunedNanos);
+                System.out.printf("%d calls with a %d-byte argument:%n", calls, bytes);
+                printResult("default", defaultNanos);
+                printResult("wegapi", tunedNanos);
+            }
+
+            UnicastRemoteObject.unexportObject(defaultImpl, true);
+            UnicastRemoteObject.unexportObject(tunedImpl, true);
+        } catch (NoSuchObjectException e) {
+            System.out.printf("Failed to unexport benchmark objects, %s%n", e);
+            System.exit(1);
+        } catch (RemoteException e) {
+            System.out.printf("RemoteException during benchmark, %s%n", e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
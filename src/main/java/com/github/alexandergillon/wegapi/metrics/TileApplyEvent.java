@@ -0,0 +1,35 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a daemon applying an update to its game directory. Its duration covers launching create_tiles.exe
+ * or delete_tiles.exe and waiting for it.
+ */
+@Name("com.github.alexandergillon.wegapi.TileApply")
+@Label("Tile Apply")
+@Category({"WEGAPI", "Daemon"})
+@Description("A tile update applied to a game directory")
+public final class TileApplyEvent extends Event {
+    @Label("Game Directory")
+    public String gameDir;
+
+    @Label("Player Number")
+    public int playerNumber;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Mode")
+    public String mode;
+
+    @Label("Tile Count")
+    public int tileCount;
+
+    @Label("Trace ID")
+    public long traceId;
+}
@@ -0,0 +1,147 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Merges trace files written by Tracer (e.g. one from the server and one from each daemon process), and prints a
+ * per-stage breakdown of the slowest traced actions. An action's time runs from the start of its first span to the
+ * end of its last, which is normally from the Client sending it to the last daemon finishing applying its tiles.
+ * <br> <br>
+ *
+ * Spans are listed in the order in which they started, with their offset from the start of the action, so that
+ * gaps between stages (e.g. time spent in RMI between DAEMON_FORWARD starting and SERVER_ACTION starting) show up.
+ */
+public class TraceReport {
+    private static final int DEFAULT_ACTIONS = 10;
+
+    /** A span read from a trace file. */
+    private static class Span {
+        private final String stage;
+        private final long start;
+        private final long duration;
+        private final long pid;
+
+        private Span(String stage, long start, long duration, long pid) {
+            this.stage = stage;
+            this.start = start;
+            this.duration = duration;
+            this.pid = pid;
+        }
+    }
+
+    /** A traced action, i.e. the spans that share a trace ID. */
+    private static class Action {
+        private final String traceId;
+        private final ArrayList<Span> spans = new ArrayList<>();
+        private long start = Long.MAX_VALUE;
+        private long end = Long.MIN_VALUE;
+
+        private Action(String traceId) {
+            this.traceId = traceId;
+        }
+
+        private void add(Span span) {
+            spans.add(span);
+            start = Math.min(start, span.start);
+            end = Math.max(end, span.start + span.duration);
+        }
+
+        private long duration() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Prints a help message and exits.
+     */
+    private static void printHelpAndExit() {
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.metrics.TraceReport [-n <ACTIONS>] <TRACE FILE>...\n");
+        System.out.print("  -n, --actions <ACTIONS>    Number of slowest actions to break down (default " + DEFAULT_ACTIONS + ")\n");
+        System.exit(1);
+    }
+
+    /**
+     * Prints an error message, followed by a help message, then exits.
+     *
+     * @param errorMessage error message to print
+     */
+    private static void printHelpAndExit(String errorMessage) {
+        System.out.println(errorMessage);
+        printHelpAndExit();
+    }
+
+    /**
+     * Parses command line args for the number of actions to print, and the trace files. <br> <br>
+     *
+     * On error, prints a message and exits.
+     *
+     * @param args the args parameter that was passed to main()
+     * @return the parsed command line
+     */
+    private static CommandLine parseArgs(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("n").longOpt("actions").hasArg().desc("Number of slowest actions to break down").build());
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            CommandLine cmdline = parser.parse(options, args);
+            if (cmdline.getArgList().isEmpty()) printHelpAndExit("No trace files given.");
+            return cmdline;
+        } catch (ParseException e) {
+            printHelpAndExit("ParseException: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Main function. Reads the trace files, and prints the slowest actions.
+     */
+    public static void main(String[] args) {
+        CommandLine cmdline = parseArgs(args);
+        int actionsToPrint = DEFAULT_ACTIONS;
+        try {
+            if (cmdline.hasOption("n")) actionsToPrint = Integer.parseInt(cmdline.getOptionValue("n"));
+        } catch (NumberFormatException e) {
+            printHelpAndExit("NumberFormatException: " + e);
+        }
+
+        HashMap<String, Action> actions = new HashMap<>();
+        for (String file : cmdline.getArgList()) {
+            try {
+                for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.US_ASCII)) {
+                    String[] fields = line.split(",");
+                    if (fields.length != 5) continue;
+                    Span span = new Span(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                    actions.computeIfAbsent(fields[0], Action::new).add(span);
+                }
+            } catch (IOException e) {
+                System.out.printf("Failed to read trace file %s, %s%n", file, e);
+                System.exit(1);
+            } catch (NumberFormatException e) {
+                System.out.printf("Malformed trace file %s, %s%n", file, e);
+                System.exit(1);
+            }
+        }
+
+        List<Action> slowest = new ArrayList<>(actions.values());
+        slowest.sort(Comparator.comparingLong(Action::duration).reversed());
+        System.out.printf("%d traced actions%n", actions.size());
+        for (Action action : slowest.subList(0, Math.min(actionsToPrint, slowest.size()))) {
+            System.out.printf("%ntrace %s: %.3f ms%n", action.traceId, action.duration() / 1e6);
+            action.spans.sort(Comparator.comparingLong(span -> span.start));
+            for (Span span : action.spans) {
+                System.out.printf("  +%9.3f ms  %-18s %9.3f ms  (pid %d)%n", (span.start - action.start) / 1e6, span.stage,
+                        span.duration / 1e6, span.pid);
+            }
+        }
+    }
+}
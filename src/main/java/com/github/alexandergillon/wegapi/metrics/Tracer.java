@@ -0,0 +1,199 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traces individual player actions from end to end. The Client gives each action a random trace ID, which is passed
+ * along with the action to the daemon, from the daemon to the server (in PlayerData), and from the server back to
+ * every daemon it sends tiles to because of the action (in createTiles() and deleteTiles()). Each stage that the
+ * action passes through records a span (see Stage) in its process's span buffer. <br> <br>
+ *
+ * The span buffer is a fixed-size ring (wegapi.traceBufferSpans spans, default DEFAULT_CAPACITY), so recording a
+ * span allocates nothing, and the oldest spans are overwritten. The buffer can be dumped to a trace file over JMX
+ * (see TracerMXBean), and is dumped when the process exits if the wegapi.traceFile system property is set (any %p
+ * in it is replaced by the process ID, so several processes can share one setting). A trace file has one span per
+ * line, as comma-separated values: trace ID (hex), stage, start (nanoseconds since the epoch), duration
+ * (nanoseconds), process ID. The trace files of the client daemons and the server can be merged by TraceReport, to
+ * show where the time went in the slowest actions. <br> <br>
+ *
+ * Times are nanoseconds since the epoch, measured with System.nanoTime() from a wall clock reading taken when the
+ * process starts, so spans from different processes on one machine line up to within the wall clock's resolution
+ * (microseconds on most platforms). The CLIENT_SEND span crosses processes, so it is only as accurate as that. <br> <br>
+ *
+ * A trace ID of 0 means that an action is not traced, and spans with trace ID 0 are not recorded.
+ */
+public final class Tracer {
+    public static final String BUFFER_SPANS_PROPERTY = "wegapi.traceBufferSpans";
+    public static final String TRACE_FILE_PROPERTY = "wegapi.traceFile";
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** The stages that an action passes through, in order. */
+    public enum Stage {
+        CLIENT_SEND,         // from the Client sending the action, to the daemon receiving it
+        DAEMON_GATE,         // from the daemon receiving the action, to it being admitted (see ActionGate)
+        DAEMON_FORWARD,      // the daemon's call to the server, which includes all of SERVER_ACTION
+        SERVER_ACTION,       // the server handling the action, including redrawing players
+        SERVER_PLAYER_CALL,  // a call from the server to a player, to create or delete tiles
+        DAEMON_QUEUE,        // from the daemon receiving tiles from the server, to it starting to apply them
+        DAEMON_APPLY         // the daemon applying tiles to the game directory
+    }
+
+    private static final long START_EPOCH_NANOS;
+    private static final long START_NANO_TIME;
+
+    static {
+        Instant now = Instant.now();
+        START_NANO_TIME = System.nanoTime();
+        START_EPOCH_NANOS = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private static final ThreadLocal<long[]> currentTrace = ThreadLocal.withInitial(() -> new long[1]);
+
+    private Tracer() {
+    }
+
+    /** @return a new, random, non-zero trace ID */
+    public static long newTraceId() {
+        long traceId;
+        do {
+            traceId = ThreadLocalRandom.current().nextLong();
+        } while (traceId == 0);
+        return traceId;
+    }
+
+    /** @return the current time, in nanoseconds since the epoch */
+    public static long now() {
+        return START_EPOCH_NANOS + (System.nanoTime() - START_NANO_TIME);
+    }
+
+    /**
+     * Sets the trace ID of the action that the current thread is handling, for code further down the call stack to
+     * pass on.
+     *
+     * @param traceId the trace ID, or 0 if the thread is not handling a traced action
+     */
+    public static void setCurrentTrace(long traceId) {
+        currentTrace.get()[0] = traceId;
+    }
+
+    /** @return the trace ID of the action that the current thread is handling, or 0 if none */
+    public static long currentTrace() {
+        return currentTrace.get()[0];
+    }
+
+    /**
+     * Records a span, unless the trace ID is 0.
+     *
+     * @param traceId the trace ID of the action
+     * @param stage the stage that the span covers
+     * @param startNanos when the stage started, from now()
+     * @param endNanos when the stage ended, from now()
+     */
+    public static void record(long traceId, Stage stage, long startNanos, long endNanos) {
+        if (traceId != 0) SpanBuffer.INSTANCE.record(traceId, stage, startNanos, endNanos);
+    }
+
+    /**
+     * Records a span that ends now, unless the trace ID is 0.
+     *
+     * @param traceId the trace ID of the action
+     * @param stage the stage that the span covers
+     * @param startNanos when the stage started, from now()
+     */
+    public static void recordSince(long traceId, Stage stage, long startNanos) {
+        if (traceId != 0) SpanBuffer.INSTANCE.record(traceId, stage, startNanos, now());
+    }
+
+    /**
+     * The span buffer. This is a separate class so that it is only created in processes that record spans: the
+     * Client only creates trace IDs.
+     */
+    private static final class SpanBuffer implements TracerMXBean {
+        private static final SpanBuffer INSTANCE = create();
+
+        private final int mask;
+        private final AtomicLong nextSlot = new AtomicLong();
+        private final AtomicLongArray traceIds;  // written last, and 0 while a slot is being written
+        private final long[] starts;
+        private final long[] durations;
+        private final byte[] stages;
+
+        private SpanBuffer(int capacity) {
+            mask = capacity - 1;
+            traceIds = new AtomicLongArray(capacity);
+            starts = new long[capacity];
+            durations = new long[capacity];
+            stages = new byte[capacity];
+        }
+
+        private static SpanBuffer create() {
+            int requested = Math.max(1, Integer.getInteger(BUFFER_SPANS_PROPERTY, DEFAULT_CAPACITY));
+            int capacity = Integer.highestOneBit(requested) == requested ? requested : Integer.highestOneBit(requested) << 1;
+            SpanBuffer buffer = new SpanBuffer(capacity);
+            Metrics.register(Metrics.DOMAIN + ":type=Tracer", buffer);
+
+            String traceFile = System.getProperty(TRACE_FILE_PROPERTY);
+            if (traceFile != null) {
+                String path = traceFile.replace("%p", Long.toString(ProcessHandle.current().pid()));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        buffer.dump(path);
+                    } catch (IOException e) {
+                        Log.warn("tracer: failed to write trace file, %s", e);
+                    }
+                }, "wegapi-trace-dump"));
+            }
+            return buffer;
+        }
+
+        private void record(long traceId, Stage stage, long startNanos, long endNanos) {
+            int slot = (int) (nextSlot.getAndIncrement() & mask);
+            traceIds.set(slot, 0);
+            starts[slot] = startNanos;
+            durations[slot] = endNanos - startNanos;
+            stages[slot] = (byte) stage.ordinal();
+            traceIds.set(slot, traceId);
+        }
+
+        @Override
+        public int getCapacity() {
+            return mask + 1;
+        }
+
+        @Override
+        public long getSpansRecorded() {
+            return nextSlot.get();
+        }
+
+        @Override
+        public int dump(String path) throws IOException {
+            long pid = ProcessHandle.current().pid();
+            Stage[] stageValues = Stage.values();
+            int written = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.US_ASCII)) {
+                for (int slot = 0; slot <= mask; slot++) {
+                    long traceId = traceIds.get(slot);
+                    if (traceId == 0) continue;
+                    long start = starts[slot];
+                    long duration = durations[slot];
+                    byte stage = stages[slot];
+                    if (traceIds.get(slot) != traceId) continue;  // overwritten while we were reading it
+
+                    writer.write(String.format("%016x,%s,%d,%d,%d%n", traceId, stageValues[stage], start, duration, pid));
+                    written++;
+                }
+            }
+            return written;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.alexandergillon.wegapi.metrics;
+
+import java.io.IOException;
+
+/** JMX view of the Tracer's span buffer. */
+public interface TracerMXBean {
+    /** @return the number of spans the buffer holds before the oldest are overwritten */
+    int getCapacity();
+
+    /** @return the number of spans recorded since the process started (including overwritten ones) */
+    long getSpansRecorded();
+
+    /**
+     * Writes the spans in the buffer to a trace file (see Tracer).
+     *
+     * @param path the path of the file to write
+     * @return the number of spans written
+     * @throws IOException if the file could not be written
+     */
+    int dump(String path) throws IOException;
+}
@@ -1,18 +1,264 @@
 package com.github.alexandergillon.wegapi.server;
 
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.game.ConfigurableServerSocketFactory;
 import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.game.NetworkEmulator;
+import com.github.alexandergillon.wegapi.game.PlayerInterface;
+import com.github.alexandergillon.wegapi.game.TileBatch;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Counter;
+import com.github.alexandergillon.wegapi.metrics.Histogram;
+import com.github.alexandergillon.wegapi.metrics.Metrics;
 
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A base server, designed to be subclassed to make a game with WEGAPI. At present, doesn't do much on its own except
- * ensures that subclasses are UnicastRemoteObjects that implement the GameServerInterface.
+ * A base server, designed to be subclassed to make a game with WEGAPI. Ensures that subclasses are
+ * UnicastRemoteObjects that implement the GameServerInterface, and keeps track of whether players are reachable. <br> <br>
+ *
+ * Every tracked player (see trackPlayer()) is sent a heartbeat every wegapi.heartbeatIntervalMillis milliseconds, and
+ * has a circuit breaker (see PlayerCircuitBreaker). Calls to a player should go through callPlayer(): after
+ * wegapi.breakerFailureThreshold consecutive calls or heartbeats fail to reach the player, the player is considered
+ * disconnected, playerDisconnected() is called, and further calls fail immediately with a PlayerUnavailableException
+ * rather than waiting on a dead daemon. Heartbeats continue, and once one gets through, playerReconnected() is called
+ * and calls are sent again. <br> <br>
+ *
+ * The server is exported with a ConfigurableClientSocketFactory, so that calls from players to the server also time
+ * out, and a ConfigurableServerSocketFactory, so that both ends of those connections have Nagle's algorithm turned
+ * off. <br> <br>
+ *
+ * The time taken by every call to a player is recorded in the server.playerCallNanos histogram (see Metrics), and,
+ * once the subclass has told the server the player's number with setPlayerNumber(), in a histogram of the player's
+ * own. <br> <br>
+ *
+ * If network emulation is on (see NetworkEmulator), calls to players, including heartbeats, go over the emulated
+ * network.
  *
  * todo: use this class to transparently encrypt game traffic
  */
 public abstract class BaseServer extends UnicastRemoteObject implements GameServerInterface {
+    public static final String HEARTBEAT_INTERVAL_PROPERTY = "wegapi.heartbeatIntervalMillis";
+    public static final String FAILURE_THRESHOLD_PROPERTY = "wegapi.breakerFailureThreshold";
+    private static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 2000;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 2;
+
+    /** A call to a player, which may fail with a RemoteException. */
+    @FunctionalInterface
+    protected interface PlayerCall<T> {
+        T call(PlayerInterface player) throws RemoteException;
+    }
+
+    private static final Histogram PLAYER_CALL_NANOS = Metrics.histogram("server.playerCallNanos", "ns");
+    private static final Counter PLAYER_CALL_FAILURES = Metrics.counter("server.playerCallFailures");
+
+    private final Map<PlayerInterface, PlayerCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<PlayerInterface, Histogram> playerCallNanos = new ConcurrentHashMap<>();  // per-player histograms
+    private final Map<PlayerInterface, Integer> playerNumbers = new ConcurrentHashMap<>();
+    private final Map<PlayerInterface, TileBatch.Encoder> tileEncoders = new ConcurrentHashMap<>();
+    private final int failureThreshold = Integer.getInteger(FAILURE_THRESHOLD_PROPERTY, DEFAULT_FAILURE_THRESHOLD);
+    private final ExecutorService heartbeatExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "wegapi-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     protected BaseServer() throws RemoteException {
-        super(0);
+        super(0, new ConfigurableClientSocketFactory(), new ConfigurableServerSocketFactory());
+
+        ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-heartbeat-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long heartbeatInterval = Long.getLong(HEARTBEAT_INTERVAL_PROPERTY, DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+        heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeats, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking a player: sending them heartbeats, and noticing when they disconnect. Tracking a player who is
+     * already tracked does nothing.
+     *
+     * @param player the player to track
+     */
+    protected final void trackPlayer(PlayerInterface player) {
+        breakers.putIfAbsent(player, new PlayerCircuitBreaker());
+        tileEncoders.putIfAbsent(player, new TileBatch.Encoder());
+    }
+
+    /**
+     * Stops tracking a player.
+     *
+     * @param player the player to stop tracking
+     */
+    protected final void untrackPlayer(PlayerInterface player) {
+        breakers.remove(player);
+        playerNumbers.remove(player);
+        tileEncoders.remove(player);
+        Histogram callNanos = playerCallNanos.remove(player);
+        if (callNanos != null && !playerCallNanos.containsValue(callNanos)) Metrics.remove(callNanos);
+    }
+
+    /**
+     * Tells the server a tracked player's number, so that the time taken by calls to them is also recorded in a
+     * histogram of their own.
+     *
+     * @param player the player
+     * @param playerNumber the player's number
+     */
+    protected final void setPlayerNumber(PlayerInterface player, int playerNumber) {
+        if (!breakers.containsKey(player)) return;
+        playerNumbers.put(player, playerNumber);
+        playerCallNanos.put(player, Metrics.histogram("server.playerCallNanos", playerNumber, "ns"));
+    }
+
+    /**
+     * Returns a player's number, as given to setPlayerNumber().
+     *
+     * @param player the player
+     * @return the player's number, or -1 if it has not been given
+     */
+    protected final int playerNumberOf(PlayerInterface player) {
+        Integer playerNumber = playerNumbers.get(player);
+        return playerNumber == null ? -1 : playerNumber;
+    }
+
+    /**
+     * Returns the encoder that packs tiles for a player into TileBatches, which remembers the icon names that the
+     * player already has. An untracked player gets a new encoder each time, whose batches define every icon they use.
+     *
+     * @param player the player
+     * @return the player's tile encoder
+     */
+    protected final TileBatch.Encoder tileEncoderFor(PlayerInterface player) {
+        TileBatch.Encoder encoder = tileEncoders.get(player);
+        return encoder == null ? new TileBatch.Encoder() : encoder;
+    }
+
+    /**
+     * Returns whether a player is connected. Untracked players are assumed to be connected.
+     *
+     * @param player the player to check
+     * @return false if the player is tracked and their circuit breaker is open, true otherwise
+     */
+    protected final boolean isPlayerConnected(PlayerInterface player) {
+        PlayerCircuitBreaker breaker = breakers.get(player);
+        return breaker == null || !breaker.isOpen();
+    }
+
+    /**
+     * Makes a call to a player, through their circuit breaker. If the player is disconnected, the call is not made.
+     *
+     * @param player the player to call
+     * @param call the call to make
+     * @return the result of the call
+     * @throws PlayerUnavailableException if the player is disconnected
+     * @throws RemoteException if the call fails
+     */
+    protected final <T> T callPlayer(PlayerInterface player, PlayerCall<T> call) throws RemoteException {
+        PlayerCircuitBreaker breaker = breakers.get(player);
+        if (breaker != null && breaker.isOpen()) throw new PlayerUnavailableException("Player is disconnected.");
+
+        long startNanos = System.nanoTime();
+        try {
+            T result = call.call(NetworkEmulator.wrapIfEnabled(player, PlayerInterface.class));
+            if (breaker != null) recordSuccess(player, breaker);
+            return result;
+        } catch (RemoteException e) {
+            PLAYER_CALL_FAILURES.increment();
+            if (breaker != null && isCommunicationFailure(e)) recordFailure(player, breaker);
+            throw e;
+        } finally {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            PLAYER_CALL_NANOS.record(elapsedNanos);
+            Histogram callNanos = playerCallNanos.get(player);
+            if (callNanos != null) callNanos.record(elapsedNanos);
+        }
+    }
+
+    /**
+     * Records that a player has contacted the server, which shows that they are reachable. Should be called when a
+     * player takes an action.
+     *
+     * @param player the player who contacted the server
+     */
+    protected final void playerActive(PlayerInterface player) {
+        PlayerCircuitBreaker breaker = breakers.get(player);
+        if (breaker != null) recordSuccess(player, breaker);
+    }
+
+    /**
+     * Called when a tracked player stops responding. Calls to the player will fail until playerReconnected() is
+     * called. Does nothing by default.
+     *
+     * @param player the player who disconnected
+     */
+    protected void playerDisconnected(PlayerInterface player) {
+    }
+
+    /**
+     * Called when a player who had disconnected starts responding again. Anything sent to the player while they were
+     * disconnected was not delivered, so subclasses will usually want to bring the player up to date. Does nothing
+     * by default.
+     *
+     * @param player the player who reconnected
+     */
+    protected void playerReconnected(PlayerInterface player) {
+    }
+
+    private void recordSuccess(PlayerInterface player, PlayerCircuitBreaker breaker) {
+        if (breaker.recordSuccess()) {
+            Log.info("server: a player has reconnected");
+            playerReconnected(player);
+        }
+    }
+
+    private void recordFailure(PlayerInterface player, PlayerCircuitBreaker breaker) {
+        if (breaker.recordFailure(failureThreshold)) {
+            Log.warn("server: a player has stopped responding, marking them as disconnected");
+            playerDisconnected(player);
+        }
+    }
+
+    /**
+     * Returns whether a RemoteException means that the player could not be reached. A ServerException means that
+     * the player's daemon received the call and threw an exception, so is not a communication failure.
+     *
+     * @param e the exception to check
+     * @return whether e represents a failure to communicate with the player
+     */
+    private static boolean isCommunicationFailure(RemoteException e) {
+        return !(e instanceof ServerException) && !(e instanceof PlayerUnavailableException);
+    }
+
+    /**
+     * Sends a heartbeat to every tracked player, including disconnected ones. Each heartbeat is sent on its own
+     * thread, so a player who is slow to respond only holds up their own heartbeats.
+     */
+    private void sendHeartbeats() {
+        for (Map.Entry<PlayerInterface, PlayerCircuitBreaker> entry : breakers.entrySet()) {
+            PlayerInterface player = entry.getKey();
+            PlayerCircuitBreaker breaker = entry.getValue();
+            if (!breaker.startHeartbeat()) continue;  // previous heartbeat still waiting
+
+            heartbeatExecutor.execute(() -> {
+                try {
+                    NetworkEmulator.wrapIfEnabled(player, PlayerInterface.class).heartbeat();
+                    recordSuccess(player, breaker);
+                } catch (RemoteException e) {
+                    if (isCommunicationFailure(e)) recordFailure(player, breaker);
+                } finally {
+                    breaker.finishHeartbeat();
+                }
+            });
+        }
     }
 }
@@ -1,17 +1,39 @@
 package com.github.alexandergillon.wegapi.server;
 
 import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.metrics.ActionReceivedEvent;
+import com.github.alexandergillon.wegapi.metrics.Histogram;
+import com.github.alexandergillon.wegapi.metrics.Metrics;
+import com.github.alexandergillon.wegapi.metrics.RmiCallEvent;
+import com.github.alexandergillon.wegapi.metrics.Tracer;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A base 2D server, designed to be subclassed to make a 2D game with WEGAPI. <br> <br>
  *
  * For developers of WEGAPI itself (not developers of games based on WEGAPI): wraps all 1D communication that comes in/
  * goes out with GameServerInterface and PlayerInterface into communication that uses GameServerInterface2D and
- * PlayerInterface2D. See implementation for more details.
+ * PlayerInterface2D. See implementation for more details. <br> <br>
+ *
+ * The time taken to handle each click and drag (including redrawing players) is recorded in the server.actionNanos
+ * histogram, and the number of tiles in each update sent to a player in server.tileBatchSize (see Metrics), with
+ * the size of the TileBatch they were packed into in server.tileBatchBytes. The trace ID of the action (see Tracer)
+ * is made the thread's current trace while the subclass handles it, and passed on to players with the tiles that the
+ * subclass sends them. Actions and calls to players are also recorded as JFR events (ActionReceivedEvent and
+ * RmiCallEvent), which cost next to nothing unless a recording is enabling them. <br> <br>
+ *
+ * As every action passes through here, handling one avoids allocating where it can: each registered player's
+ * PlayerInterfaceWrapper (and the PlayerData2D passed with their actions) is made once and reused, indices are split
+ * into rows and columns without making TileCoordinates, and 2D tiles are packed straight into a TileBatch without
+ * first being converted to 1D tiles. <br> <br>
+ *
+ * Each player can see the grid rotated or mirrored (see ViewTransform and viewTransformOf()), while the subclass works
+ * only with the grid's own coordinates. Tiles sent to the player, and the tiles that they click and drag, are moved
+ * between the two with tables of indices made once per transform, so that this costs an array lookup per tile.
  */
 public abstract class BaseServer2D extends BaseServer implements GameServerInterface2D {
     /**
@@ -36,8 +58,33 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
 
     // BELOW THIS POINT IS IMPLEMENTATION DETAILS, AND SHOULD NOT BE USED BY SUBCLASSES
 
+    private static final Histogram ACTION_NANOS = Metrics.histogram("server.actionNanos", "ns");
+    private static final Histogram TILE_BATCH_SIZE = Metrics.histogram("server.tileBatchSize", "tiles");
+    private static final Histogram TILE_BATCH_BYTES = Metrics.histogram("server.tileBatchBytes", "bytes");
+
     private final int numRows;
     private final int numCols;
+    // wrappers of registered players, reused for every action and call, see wrapperFor()
+    private final ConcurrentHashMap<PlayerInterface, PlayerInterfaceWrapper> wrappers = new ConcurrentHashMap<>();
+    // tables of each transform (by ordinal), made when first used, see viewTablesFor(). Guarded by this.
+    private final ViewTables[] viewTables = new ViewTables[ViewTransform.values().length];
+
+    /**
+     * Where a player sees each tile of the grid, with some ViewTransform, and the reverse. Indices are 1D indices
+     * (see coordsToIndex()).
+     */
+    private static final class ViewTables {
+        private final int[] viewIndices;  // viewIndices[i] is where the player sees the grid's tile i
+        private final int[] gridIndices;  // gridIndices[i] is the grid's tile that the player sees at i
+
+        private ViewTables(int[] viewIndices) {
+            this.viewIndices = viewIndices;
+            this.gridIndices = new int[viewIndices.length];
+            for (int i = 0; i < viewIndices.length; i++) {
+                gridIndices[viewIndices[i]] = i;
+            }
+        }
+    }
 
     /**
      * Class which wraps a PlayerInterface into a PlayerInterface2D, as all communication between the server and
@@ -56,6 +103,8 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
     private static final class PlayerInterfaceWrapper implements PlayerInterface2D {
         private final PlayerInterface player;
         private final BaseServer2D parent;
+        private volatile PlayerData2D playerData = null;  // the last PlayerData2D made by playerDataFor()
+        private volatile ViewTables view = null;  // how the player sees the grid, or null if as it is
 
         /**
          * Creates a new PlayerInterfaceWrapper which wraps a given 1D PlayerInterface. Also takes a parent
@@ -75,96 +124,160 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
         }
 
         /**
-         * Static method which wraps a PlayerData into a PlayerData2D. This again allows methods expecting a
+         * Returns a PlayerData2D for this player with a given player number. This allows methods expecting a
          * PlayerData2D to use 2D functions to communicate with a player (rather than 1D). <br> <br>
          *
-         * Note: a PlayerInterfaceWrapper must exist in reference to some BaseServer2D, as described in
-         * PlayerInterfaceWrapper documentation. A PlayerData wrapper needs to use a PlayerInterfaceWrapper under
-         * the hood, so a parent BaseServer2D is also needed here.
+         * A player sends the same player number with every action, so the PlayerData2D made for the last action is
+         * returned again if its number matches, rather than making a new one for every action.
+         *
+         * @param playerNumber the player number that the player sent
+         * @return a PlayerData2D that transparently delegates to this wrapper
+         */
+        private PlayerData2D playerDataFor(int playerNumber) {
+            PlayerData2D cached = playerData;
+            if (cached != null && cached.getPlayerNumber() == playerNumber) return cached;
+            PlayerData2D created = new PlayerData2D(playerNumber, this);
+            playerData = created;
+            return created;
+        }
+
+        /**
+         * Converts the index of a tile where the player sees it to the index of the tile in the grid. Indices
+         * outside of the grid are left as they are, for the subclass to reject.
          *
-         * @param playerData the PlayerData to wrap
-         * @param parent the BaseServer2D object which created this wrapper
-         * @return a PlayerData2D that transparently delegates to an underlying PlayerData, performing appropriate
-         *         conversions
+         * @param viewIndex the index of the tile in the player's view
+         * @return the index of the tile in the grid
          */
-        private static PlayerData2D createPlayerDataWrapper(PlayerData playerData, BaseServer2D parent) {
-            PlayerInterface2D player2D = new PlayerInterfaceWrapper(playerData.getPlayer(), parent);
-            return new PlayerData2D(playerData.getPlayerNumber(), player2D);
+        private int toGridIndex(int viewIndex) {
+            ViewTables tables = view;
+            if (tables == null || viewIndex < 0 || viewIndex >= tables.gridIndices.length) return viewIndex;
+            return tables.gridIndices[viewIndex];
         }
 
         /**
          * Converts a 2D coordinate pair to a 1D index, relative to the size of the BaseServer2D which created this
-         * PlayerInterfaceWrapper.
+         * PlayerInterfaceWrapper, and to where the player sees that tile.
          *
          * @param tileCoordinates the coordinates to convert to 1D indices
          * @return the converted indices, relative to the size of the BaseServer2D which created
          *         this PlayerInterfaceWrapper
          */
         private ArrayList<Integer> tileCoordinates2Dto1D(ArrayList<TileCoordinate> tileCoordinates) {
+            ViewTables tables = view;
             ArrayList<Integer> indices = new ArrayList<>(tileCoordinates.size());
             for (TileCoordinate tileCoordinate : tileCoordinates) {
-                indices.add(parent.coordsToIndex(tileCoordinate.getRow(), tileCoordinate.getCol()));
+                int index = parent.coordsToIndex(tileCoordinate.getRow(), tileCoordinate.getCol());
+                indices.add(tables == null ? index : tables.viewIndices[index]);
             }
             return indices;
         }
 
-        /**
-         * Converts a 2D tile to a 1D tile, relative to the size of the BaseServer2D which created this
-         * PlayerInterfaceWrapper.
-         *
-         * @param tile the 2D tile to convert to a 1D tile
-         * @return the converted tile, relative to the size of the BaseServer2D which created this
-         *         PlayerInterfaceWrapper
-         */
-        private Tile tile2Dto1D(Tile2D tile) {
-            return new Tile(parent.coordsToIndex(tile.getRow(), tile.getCol()),
-                    tile.getIconName(), tile.getTileName());
-        }
-
-        /**
-         * Converts a list of 2D tiles to a list of 1D tiles, relative to the size of the BaseServer2D which created
-         * this PlayerInterfaceWrapper.
-         *
-         * @param tiles the 2D tiles to convert to 1D tiles
-         * @return the converted tiles, relative to the size of the BaseServer2D which created this
-         *         PlayerInterfaceWrapper
-         */
-        private ArrayList<Tile> tiles2Dto1D(ArrayList<Tile2D> tiles) {
-            ArrayList<Tile> tiles1D = new ArrayList<>(tiles.size());
-            for (Tile2D tile : tiles) {
-                tiles1D.add(tile2Dto1D(tile));
-            }
-            return tiles1D;
-        }
-
         /** Passes through the initialize call, as initialize is not dimensional. */
         @Override
         public void initialize(int playerNumber) throws RemoteException {
-            player.initialize(playerNumber);
+            parent.callPlayer(player, p -> {
+                p.initialize(playerNumber);
+                return null;
+            });
+        }
+
+        /** Passes through the setActionAdmissionPolicy call, as admission policies are not dimensional. */
+        @Override
+        public void setActionAdmissionPolicy(ActionAdmissionPolicy policy) throws RemoteException {
+            parent.callPlayer(player, p -> {
+                p.setActionAdmissionPolicy(policy);
+                return null;
+            });
         }
 
         /** Passes through the displayMessage call, as displayMessage is not dimensional. */
         @Override
         public void displayMessage(String message, boolean error) throws RemoteException {
-            player.displayMessage(message, error);
+            parent.callPlayer(player, p -> {
+                p.displayMessage(message, error);
+                return null;
+            });
         }
 
-        /** Wraps the createTiles call, converting 2D tiles to 1D tiles to be sent to the player. */
+        /**
+         * Wraps the createTiles call, packing the 2D tiles into a TileBatch with the player's encoder (which converts
+         * their coordinates to 1D indices, and moves them to where the player sees them, as it goes), to be sent to
+         * the player.
+         */
         @Override
-        public void createTiles(ArrayList<Tile2D> tiles, PlayerInterface.CreateTilesMode mode) throws RemoteException {
-            player.createTiles(tiles2Dto1D(tiles), mode);
+        public long createTiles(ArrayList<Tile2D> tiles, PlayerInterface.CreateTilesMode mode) throws RemoteException {
+            TILE_BATCH_SIZE.record(tiles.size());
+            TileBatch.Encoder encoder = parent.tileEncoderFor(player);
+            ViewTables tables = view;
+            TileBatch batch = tables == null ? encoder.encode2D(tiles, parent.numCols)
+                    : encoder.encode2D(tiles, parent.numCols, tables.viewIndices);
+            TILE_BATCH_BYTES.record(batch.toBytes().length);
+            long traceId = Tracer.currentTrace();
+            long startNanos = Tracer.now();
+            RmiCallEvent event = new RmiCallEvent();
+            event.begin();
+            boolean failed = true;
+            try {
+                long sequence = parent.callPlayer(player, p -> p.createTiles(batch, mode, traceId));
+                encoder.acknowledge(batch);
+                failed = false;
+                return sequence;
+            } catch (RemoteException e) {
+                encoder.reset();  // the player may or may not have received the batch's definitions
+                throw e;
+            } finally {
+                Tracer.recordSince(traceId, Tracer.Stage.SERVER_PLAYER_CALL, startNanos);
+                commitCallEvent(event, "createTiles", tiles.size(), failed, traceId);
+            }
         }
 
-        /** Wraps the deleteTiles call, converting 2D coordinates to 1D indices to be sent to the player. */
+        /**
+         * Wraps the deleteTiles call, converting 2D coordinates to 1D indices (where the player sees those tiles) to
+         * be sent to the player.
+         */
         @Override
-        public void deleteTiles(ArrayList<TileCoordinate> tileCoordinates, PlayerInterface.DeleteTilesMode mode) throws RemoteException {
-            player.deleteTiles(tileCoordinates2Dto1D(tileCoordinates), mode);
+        public long deleteTiles(ArrayList<TileCoordinate> tileCoordinates, PlayerInterface.DeleteTilesMode mode) throws RemoteException {
+            ArrayList<Integer> indices = tileCoordinates2Dto1D(tileCoordinates);
+            TILE_BATCH_SIZE.record(indices.size());
+            long traceId = Tracer.currentTrace();
+            long startNanos = Tracer.now();
+            RmiCallEvent event = new RmiCallEvent();
+            event.begin();
+            boolean failed = true;
+            try {
+                long sequence = parent.callPlayer(player, p -> p.deleteTiles(indices, mode, traceId));
+                failed = false;
+                return sequence;
+            } finally {
+                Tracer.recordSince(traceId, Tracer.Stage.SERVER_PLAYER_CALL, startNanos);
+                commitCallEvent(event, "deleteTiles", indices.size(), failed, traceId);
+            }
+        }
+
+        private void commitCallEvent(RmiCallEvent event, String method, int tileCount, boolean failed, long traceId) {
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.method = method;
+            event.playerNumber = parent.playerNumberOf(player);
+            event.tileCount = tileCount;
+            event.failed = failed;
+            event.traceId = traceId;
+            event.commit();
+        }
+
+        /** Passes through the getLastAppliedSequence call, as sequence numbers are not dimensional. */
+        @Override
+        public long getLastAppliedSequence() throws RemoteException {
+            return parent.callPlayer(player, PlayerInterface::getLastAppliedSequence);
         }
 
         /** Passes through the gameOver call, as gameOver is not dimensional. */
         @Override
         public void gameOver(boolean win) throws RemoteException {
-            player.gameOver(win);
+            parent.callPlayer(player, p -> {
+                p.gameOver(win);
+                return null;
+            });
         }
 
         /** We want testing for equality of PlayerInterfaceWrappers to return true when they wrap the same underlying
@@ -197,13 +310,51 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
     }
 
     /**
-     * Converts a 1D index to a 2D pair of coordinates, relative to the size of this BaseServer2D.
+     * Returns the row of the tile with a 1D index, relative to the size of this BaseServer2D. Used with indexToCol()
+     * rather than making a TileCoordinate, so that handling an action does not allocate.
      *
      * @param index the index to convert
-     * @return coordinates corresponding to the tile with that index
+     * @return the row of the tile with that index
      */
-    private TileCoordinate indexToCoords(int index) {
-        return new TileCoordinate(index / numCols, index % numCols);
+    private int indexToRow(int index) {
+        return index / numCols;
+    }
+
+    /**
+     * Returns the column of the tile with a 1D index, relative to the size of this BaseServer2D.
+     *
+     * @param index the index to convert
+     * @return the column of the tile with that index
+     */
+    private int indexToCol(int index) {
+        return index % numCols;
+    }
+
+    /**
+     * Returns the wrapper of a registered player, creating and caching one if they have none. The wrapper is
+     * reused for all of the player's actions, until the player is untracked (see untrackPlayer2D()).
+     *
+     * @param player the player
+     * @return the player's wrapper
+     */
+    private PlayerInterfaceWrapper cachedWrapperFor(PlayerInterface player) {
+        PlayerInterfaceWrapper wrapper = wrappers.get(player);
+        if (wrapper != null) return wrapper;
+        wrapper = new PlayerInterfaceWrapper(player, this);
+        PlayerInterfaceWrapper existing = wrappers.putIfAbsent(player, wrapper);
+        return existing == null ? wrapper : existing;
+    }
+
+    /**
+     * Returns the cached wrapper of a player, or a new wrapper that is not cached if the player has not registered
+     * (so that actions from unknown players do not fill the cache).
+     *
+     * @param player the player
+     * @return a wrapper of the player
+     */
+    private PlayerInterfaceWrapper wrapperFor(PlayerInterface player) {
+        PlayerInterfaceWrapper wrapper = wrappers.get(player);
+        return wrapper == null ? new PlayerInterfaceWrapper(player, this) : wrapper;
     }
 
     /**
@@ -213,7 +364,26 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
      */
     @Override
     public final void registerPlayer(PlayerInterface player) {
-        registerPlayer2D(new PlayerInterfaceWrapper(player, this));
+        trackPlayer(player);
+        registerPlayer2D(cachedWrapperFor(player));
+    }
+
+    /**
+     * Wraps the 1D reconnectPlayer and calls reconnectPlayer2D, which will be implemented by a subclass. This allows
+     * subclasses to only implement 2D methods, and not worry about the needed conversions to 1D (as the remote
+     * objects of players only accept 1D parameters).
+     */
+    @Override
+    public final void reconnectPlayer(PlayerInterface player, int playerNumber, ArrayList<Tile> currentTiles) {
+        trackPlayer(player);
+        PlayerInterfaceWrapper wrapper = cachedWrapperFor(player);
+        wrapper.view = viewTablesFor(viewTransformOf(playerNumber));
+        ArrayList<Tile2D> currentTiles2D = new ArrayList<>(currentTiles.size());
+        for (Tile tile : currentTiles) {
+            int index = wrapper.toGridIndex(tile.getIndex());
+            currentTiles2D.add(new Tile2D(indexToRow(index), indexToCol(index), tile.getIconName(), tile.getTileName()));
+        }
+        reconnectPlayer2D(wrapper, playerNumber, currentTiles2D);
     }
 
     /**
@@ -223,9 +393,23 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
      */
     @Override
     public final void tileClicked(int tileIndex, PlayerData playerData) throws RemoteException {
-        TileCoordinate coords = indexToCoords(tileIndex);
-        PlayerData2D playerData2D = PlayerInterfaceWrapper.createPlayerDataWrapper(playerData, this);
-        tileClicked2D(coords.getRow(), coords.getCol(), playerData2D);
+        playerActive(playerData.getPlayer());
+        PlayerInterfaceWrapper wrapper = wrapperFor(playerData.getPlayer());
+        PlayerData2D playerData2D = wrapper.playerDataFor(playerData.getPlayerNumber());
+        int gridIndex = wrapper.toGridIndex(tileIndex);
+        long startNanos = System.nanoTime();
+        long traceStartNanos = Tracer.now();
+        ActionReceivedEvent event = new ActionReceivedEvent();
+        event.begin();
+        Tracer.setCurrentTrace(playerData.getTraceId());
+        try {
+            tileClicked2D(indexToRow(gridIndex), indexToCol(gridIndex), playerData2D);
+        } finally {
+            ACTION_NANOS.recordSince(startNanos);
+            Tracer.recordSince(playerData.getTraceId(), Tracer.Stage.SERVER_ACTION, traceStartNanos);
+            Tracer.setCurrentTrace(0);
+            commitActionEvent(event, "click", playerData, tileIndex, -1);
+        }
     }
 
     /**
@@ -235,9 +419,141 @@ public abstract class BaseServer2D extends BaseServer implements GameServerInter
      */
     @Override
     public final void tileDragged(int fromTileIndex, int toTileIndex, PlayerData playerData) throws RemoteException {
-        TileCoordinate fromCoords = indexToCoords(fromTileIndex);
-        TileCoordinate toCoords = indexToCoords(toTileIndex);
-        PlayerData2D playerData2D = PlayerInterfaceWrapper.createPlayerDataWrapper(playerData, this);
-        tileDragged2D(fromCoords.getRow(), fromCoords.getCol(), toCoords.getRow(), toCoords.getCol(), playerData2D);
+        playerActive(playerData.getPlayer());
+        PlayerInterfaceWrapper wrapper = wrapperFor(playerData.getPlayer());
+        PlayerData2D playerData2D = wrapper.playerDataFor(playerData.getPlayerNumber());
+        int fromGridIndex = wrapper.toGridIndex(fromTileIndex);
+        int toGridIndex = wrapper.toGridIndex(toTileIndex);
+        long startNanos = System.nanoTime();
+        long traceStartNanos = Tracer.now();
+        ActionReceivedEvent event = new ActionReceivedEvent();
+        event.begin();
+        Tracer.setCurrentTrace(playerData.getTraceId());
+        try {
+            tileDragged2D(indexToRow(fromGridIndex), indexToCol(fromGridIndex), indexToRow(toGridIndex),
+                    indexToCol(toGridIndex), playerData2D);
+        } finally {
+            ACTION_NANOS.recordSince(startNanos);
+            Tracer.recordSince(playerData.getTraceId(), Tracer.Stage.SERVER_ACTION, traceStartNanos);
+            Tracer.setCurrentTrace(0);
+            commitActionEvent(event, "drag", playerData, fromTileIndex, toTileIndex);
+        }
+    }
+
+    private static void commitActionEvent(ActionReceivedEvent event, String action, PlayerData playerData, int fromTile, int toTile) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.action = action;
+        event.playerNumber = playerData.getPlayerNumber();
+        event.fromTile = fromTile;
+        event.toTile = toTile;
+        event.traceId = playerData.getTraceId();
+        event.commit();
+    }
+
+    /**
+     * Stops tracking a player (see BaseServer). Should be called when a player's remote object has been replaced,
+     * e.g. when they reconnect with reconnectPlayer2D().
+     *
+     * @param player the player to stop tracking
+     */
+    protected final void untrackPlayer2D(PlayerInterface2D player) {
+        if (player instanceof PlayerInterfaceWrapper) {
+            untrackPlayer(((PlayerInterfaceWrapper) player).player);
+            wrappers.remove(((PlayerInterfaceWrapper) player).player);
+        }
+    }
+
+    /**
+     * Tells the server a player's number, so that calls to them are also timed in a histogram of their own (see
+     * BaseServer.setPlayerNumber()). This also decides how the player sees the grid (see viewTransformOf()), so
+     * should be called before anything is drawn for the player.
+     *
+     * @param player the player
+     * @param playerNumber the player's number
+     */
+    protected final void setPlayerNumber2D(PlayerInterface2D player, int playerNumber) {
+        if (player instanceof PlayerInterfaceWrapper) {
+            PlayerInterfaceWrapper wrapper = (PlayerInterfaceWrapper) player;
+            setPlayerNumber(wrapper.player, playerNumber);
+            wrapper.view = viewTablesFor(viewTransformOf(playerNumber));
+        }
+    }
+
+    /**
+     * Returns a player's number, as given to setPlayerNumber2D() (see BaseServer.playerNumberOf()). This lets a
+     * subclass find the player's data from their number, rather than by searching for their remote object.
+     *
+     * @param player the player
+     * @return the player's number, or -1 if it has not been given
+     */
+    protected final int playerNumberOf2D(PlayerInterface2D player) {
+        if (player instanceof PlayerInterfaceWrapper) {
+            return playerNumberOf(((PlayerInterfaceWrapper) player).player);
+        }
+        return -1;
+    }
+
+    /**
+     * Decides how the player with a given number sees the grid. Called when the player is given their number with
+     * setPlayerNumber2D(), and when they reconnect (before their current tiles are passed to reconnectPlayer2D()),
+     * so must always give the same transform for the same player. By default, every player sees the grid as it is.
+     *
+     * @param playerNumber the player's number
+     * @return how the player sees the grid
+     */
+    protected ViewTransform viewTransformOf(int playerNumber) {
+        return ViewTransform.IDENTITY;
+    }
+
+    /**
+     * Returns the tables of a view transform for this server's grid, making them the first time that they are
+     * needed.
+     *
+     * @param transform the transform
+     * @return the transform's tables, or null for the identity transform
+     */
+    private synchronized ViewTables viewTablesFor(ViewTransform transform) {
+        if (transform == ViewTransform.IDENTITY) return null;
+        ViewTables tables = viewTables[transform.ordinal()];
+        if (tables == null) {
+            tables = new ViewTables(transform.viewIndices(numRows, numCols));
+            viewTables[transform.ordinal()] = tables;
+        }
+        return tables;
+    }
+
+    /**
+     * Wraps the 1D playerDisconnected and calls playerDisconnected2D, which may be overridden by a subclass.
+     */
+    @Override
+    protected final void playerDisconnected(PlayerInterface player) {
+        playerDisconnected2D(wrapperFor(player));
+    }
+
+    /**
+     * Wraps the 1D playerReconnected and calls playerReconnected2D, which may be overridden by a subclass.
+     */
+    @Override
+    protected final void playerReconnected(PlayerInterface player) {
+        playerReconnected2D(wrapperFor(player));
+    }
+
+    /**
+     * Called when a player stops responding (see BaseServer). Calls to the player will fail with a
+     * PlayerUnavailableException until playerReconnected2D() is called. Does nothing by default.
+     *
+     * @param player the player who disconnected
+     */
+    protected void playerDisconnected2D(PlayerInterface2D player) {
+    }
+
+    /**
+     * Called when a player who had disconnected starts responding again (see BaseServer). Anything sent to the
+     * player while they were disconnected was not delivered. Does nothing by default.
+     *
+     * @param player the player who reconnected
+     */
+    protected void playerReconnected2D(PlayerInterface2D player) {
     }
 }
@@ -0,0 +1,150 @@
+package com.github.alexandergillon.wegapi.server;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A grid of tiles that can be far larger than any player's view of it (see ViewportServer2D). Each tile is an icon
+ * name and an optional tile name, as in a Tile2D. <br> <br>
+ *
+ * The grid is stored in square chunks of CHUNK_SIZE x CHUNK_SIZE tiles, and a chunk is only allocated when one of
+ * its tiles is first set: every tile of an unallocated chunk has the grid's default icon and no tile name. So a
+ * large map that is mostly empty costs memory in proportion to the parts that have been drawn on, plus one
+ * reference per chunk. <br> <br>
+ *
+ * Not thread-safe.
+ */
+public final class ChunkedTileGrid {
+    public static final int CHUNK_SIZE = 64;
+
+    private final int numRows;
+    private final int numCols;
+    private final int numChunkCols;
+    private final String defaultIconName;
+    private final Chunk[] chunks;  // by chunk row * numChunkCols + chunk column, null until a tile is set
+    private int allocatedChunks = 0;
+
+    /** The tiles of one chunk, by row within the chunk * CHUNK_SIZE + column within the chunk. */
+    private static final class Chunk {
+        private final String[] iconNames = new String[CHUNK_SIZE * CHUNK_SIZE];
+        private String[] tileNames = null;  // allocated when a tile in the chunk is first given a name
+
+        private Chunk(String defaultIconName) {
+            Arrays.fill(iconNames, defaultIconName);
+        }
+    }
+
+    /**
+     * Creates a grid in which every tile has a default icon, and no tile name.
+     *
+     * @param numRows the number of rows in the grid
+     * @param numCols the number of columns in the grid
+     * @param defaultIconName the icon of tiles that have not been set
+     * @throws IllegalArgumentException if the grid is empty, or has too many chunks to index
+     */
+    public ChunkedTileGrid(int numRows, int numCols, String defaultIconName) {
+        if (numRows <= 0 || numCols <= 0) {
+            throw new IllegalArgumentException("Grid must have at least one tile, not " + numRows + "x" + numCols);
+        }
+        int numChunkRows = (numRows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        numChunkCols = (numCols + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if ((long) numChunkRows * numChunkCols > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Grid of " + numRows + "x" + numCols + " tiles is too large");
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.defaultIconName = Objects.requireNonNull(defaultIconName);
+        chunks = new Chunk[numChunkRows * numChunkCols];
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /** @return the number of chunks that have been allocated, i.e. that have had a tile set */
+    public int getAllocatedChunks() {
+        return allocatedChunks;
+    }
+
+    /**
+     * Checks whether some coordinates are inside the grid.
+     *
+     * @param row the row
+     * @param col the column
+     * @return whether the tile at those coordinates is inside the grid
+     */
+    public boolean contains(int row, int col) {
+        return row >= 0 && row < numRows && col >= 0 && col < numCols;
+    }
+
+    private Chunk chunkAt(int row, int col) {
+        if (!contains(row, col)) {
+            throw new IndexOutOfBoundsException("(" + row + ", " + col + ") is outside of a " + numRows + "x"
+                    + numCols + " grid");
+        }
+        return chunks[(row / CHUNK_SIZE) * numChunkCols + col / CHUNK_SIZE];
+    }
+
+    private static int indexInChunk(int row, int col) {
+        return (row % CHUNK_SIZE) * CHUNK_SIZE + col % CHUNK_SIZE;
+    }
+
+    /**
+     * Gets the icon name of a tile.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the tile's icon name
+     * @throws IndexOutOfBoundsException if the tile is outside the grid
+     */
+    public String getIconName(int row, int col) {
+        Chunk chunk = chunkAt(row, col);
+        return chunk == null ? defaultIconName : chunk.iconNames[indexInChunk(row, col)];
+    }
+
+    /**
+     * Gets the tile name of a tile.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the tile's name, or null if it has none
+     * @throws IndexOutOfBoundsException if the tile is outside the grid
+     */
+    public String getTileName(int row, int col) {
+        Chunk chunk = chunkAt(row, col);
+        return chunk == null || chunk.tileNames == null ? null : chunk.tileNames[indexInChunk(row, col)];
+    }
+
+    /**
+     * Sets a tile's icon name and tile name, allocating its chunk if this is the first tile set in it.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param iconName the tile's new icon name
+     * @param tileName the tile's new name, or null for none
+     * @return whether the tile changed
+     * @throws IndexOutOfBoundsException if the tile is outside the grid
+     */
+    public boolean set(int row, int col, String iconName, String tileName) {
+        Objects.requireNonNull(iconName);
+        Chunk chunk = chunkAt(row, col);
+        int index = indexInChunk(row, col);
+        if (chunk == null) {
+            if (iconName.equals(defaultIconName) && tileName == null) return false;
+            chunk = new Chunk(defaultIconName);
+            chunks[(row / CHUNK_SIZE) * numChunkCols + col / CHUNK_SIZE] = chunk;
+            allocatedChunks++;
+        }
+        String oldTileName = chunk.tileNames == null ? null : chunk.tileNames[index];
+        if (iconName.equals(chunk.iconNames[index]) && Objects.equals(tileName, oldTileName)) return false;
+
+        chunk.iconNames[index] = iconName;
+        if (tileName != null && chunk.tileNames == null) chunk.tileNames = new String[CHUNK_SIZE * CHUNK_SIZE];
+        if (chunk.tileNames != null) chunk.tileNames[index] = tileName;
+        return true;
+    }
+}
@@ -0,0 +1,396 @@
+package com.github.alexandergillon.wegapi.server;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, write-ahead log of game events, which a server can use to rebuild its games after a restart. <br> <br>
+ *
+ * The log does not know anything about any particular game: a record is just a type byte (chosen by the game) and a
+ * payload. On disk, each record is: <br> <br>
+ *
+ *   - 4 bytes: length of the payload <br>
+ *   - 1 byte: record type <br>
+ *   - n bytes: payload <br>
+ *   - 4 bytes: CRC32 of the type and payload <br> <br>
+ *
+ * The log is split into segment files (events-NNNNNNNNNN.log) in a directory, each starting with a header of
+ * SEGMENT_MAGIC and the game's log format version. A segment is rolled over once it is larger than the segment size.
+ * Existing segments are never appended to: a newly opened log writes to a new segment, so that a record torn by a
+ * crash is only ever at the end of a segment that is already finished. <br> <br>
+ *
+ * Appends are group-committed: appending threads queue their records, and a single writer thread writes everything
+ * that is queued with one write and one force(), then wakes up every thread whose record is now durable. Under load,
+ * many records (e.g. from different games) share the cost of one disk flush. <br> <br>
+ *
+ * Typical usage: open() the log, replay() it to rebuild state, checkpoint() the rebuilt state (which deletes the old
+ * segments, so that the log does not grow forever), then append() new events as they happen. <br> <br>
+ *
+ * A log that is being appended to can be checkpointed without stopping the appenders: rollOver() to a new segment,
+ * append() a snapshot of each game (ordered with that game's own events), wait for the last snapshot to be durable,
+ * then deleteSegmentsBefore() the segment that rollOver() returned.
+ */
+public final class GameEventLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final byte[] SEGMENT_MAGIC = "WEGAPIEVENTLOG".getBytes(StandardCharsets.US_ASCII);
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;  // length, type, CRC
+    private static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    /** Handler for records read back by replay(). */
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * Handles a record.
+         *
+         * @param type the record's type
+         * @param payload the record's payload, positioned at its start
+         */
+        void handle(byte type, ByteBuffer payload);
+    }
+
+    /** A record to be written by checkpoint(). */
+    public static final class Record {
+        private final byte type;
+        private final byte[] payload;
+
+        public Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private final Path logDir;
+    private final int formatVersion;
+    private final long segmentBytes;
+    private final List<Path> replayableSegments;  // segments that existed when the log was opened
+    private final Object writeLock = new Object();  // guards channel and segmentNumber
+    private FileChannel channel = null;
+    private long segmentNumber;
+
+    private final ArrayList<byte[]> pending = new ArrayList<>();  // guarded by this
+    private long appendedSequence = 0;  // guarded by this
+    private long durableSequence = 0;   // guarded by this
+    private IOException failure = null;  // guarded by this
+    private boolean closed = false;      // guarded by this
+    private final Thread writerThread;
+
+    private GameEventLog(Path logDir, int formatVersion, long segmentBytes, List<Path> replayableSegments, long nextSegmentNumber) {
+        this.logDir = logDir;
+        this.formatVersion = formatVersion;
+        this.segmentBytes = segmentBytes;
+        this.replayableSegments = replayableSegments;
+        this.segmentNumber = nextSegmentNumber;
+
+        writerThread = new Thread(this::writeLoop, "wegapi-event-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Opens the event log in a directory, creating the directory if necessary.
+     *
+     * @param logDir the directory that holds the log's segments
+     * @param formatVersion the version of the game's record format. Segments with a different version are rejected
+     *                      by replay().
+     * @param segmentBytes the size after which a segment is rolled over
+     * @return the opened log
+     * @throws IOException if the directory could not be created or listed
+     */
+    public static GameEventLog open(Path logDir, int formatVersion, long segmentBytes) throws IOException {
+        Files.createDirectories(logDir);
+        ArrayList<Path> segments = new ArrayList<>();
+        long lastSegmentNumber = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(logDir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+                lastSegmentNumber = Math.max(lastSegmentNumber, segmentNumberOf(file));
+            }
+        }
+        segments.sort((a, b) -> Long.compare(segmentNumberOf(a), segmentNumberOf(b)));
+        return new GameEventLog(logDir, formatVersion, segmentBytes, segments, lastSegmentNumber + 1);
+    }
+
+    private static long segmentNumberOf(Path segment) {
+        String filename = segment.getFileName().toString();
+        return Long.parseLong(filename.substring(SEGMENT_PREFIX.length(), filename.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Path segmentPath(long number) {
+        return logDir.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Reads back every record in the segments that existed when the log was opened, in the order in which they were
+     * appended. A torn or corrupt record ends its segment: it, and anything after it in that segment, is skipped
+     * with a warning.
+     *
+     * @param handler handler to pass each record to
+     * @throws IOException if a segment could not be read, or has the wrong format version
+     */
+    public void replay(RecordHandler handler) throws IOException {
+        for (Path segment : replayableSegments) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+                byte[] magic = new byte[SEGMENT_MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, SEGMENT_MAGIC)) throw new IOException(segment + " is not an event log segment");
+                int version = in.readInt();
+                if (version != formatVersion) {
+                    throw new IOException(segment + " has log format version " + version + ", expected " + formatVersion);
+                }
+                replaySegment(segment, in, handler);
+            } catch (EOFException e) {
+                Log.warn("event log: %s has a truncated header, skipping it", segment);
+            }
+        }
+    }
+
+    private static void replaySegment(Path segment, DataInputStream in, RecordHandler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException expected) {
+                return;  // clean end of segment
+            }
+
+            try {
+                if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+                    Log.warn("event log: corrupt record length in %s, skipping the rest of it", segment);
+                    return;
+                }
+                byte type = in.readByte();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int expectedCrc = in.readInt();
+
+                crc.reset();
+                crc.update(type);
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    Log.warn("event log: checksum mismatch in %s, skipping the rest of it", segment);
+                    return;
+                }
+                handler.handle(type, ByteBuffer.wrap(payload));
+            } catch (EOFException e) {
+                Log.warn("event log: torn record at the end of %s, skipping it", segment);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment containing only the given records, and deletes every older segment. The records should
+     * describe the complete state of every game (e.g. snapshots), as nothing before them will be replayed again. <br> <br>
+     *
+     * Records appended concurrently with a checkpoint are written after it.
+     *
+     * @param records the records to write
+     * @throws IOException if the records could not be written, or old segments could not be deleted
+     */
+    public void checkpoint(List<Record> records) throws IOException {
+        synchronized (writeLock) {
+            rollSegment();
+            for (Record record : records) {
+                writeFully(ByteBuffer.wrap(encode(record.type, record.payload)));
+            }
+            channel.force(false);
+            deleteSegmentsBefore(segmentNumber);
+        }
+    }
+
+    /**
+     * Finishes the current segment, and starts a new one. Every record appended after this returns is written to
+     * the new segment, or a later one.
+     *
+     * @return the number of the new segment
+     * @throws IOException if the new segment could not be created
+     */
+    public long rollOver() throws IOException {
+        synchronized (writeLock) {
+            rollSegment();
+            return segmentNumber;
+        }
+    }
+
+    /** @return the number of the segment that is currently being written to */
+    public long currentSegment() {
+        synchronized (writeLock) {
+            return segmentNumber;
+        }
+    }
+
+    /**
+     * Deletes every segment older than a given one. Everything in those segments must be superseded by records in
+     * later segments (e.g. snapshots), as it will not be replayed again.
+     *
+     * @param firstKeptSegment the number of the oldest segment to keep
+     * @throws IOException if a segment could not be deleted
+     */
+    public void deleteSegmentsBefore(long firstKeptSegment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(logDir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                if (segmentNumberOf(file) < firstKeptSegment) Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Queues a record to be written. Returns without waiting for it to be durable - see awaitDurable().
+     *
+     * @param type the record's type
+     * @param payload the record's payload
+     * @return the record's sequence number, to pass to awaitDurable()
+     * @throws IOException if the log has failed, or is closed
+     */
+    public synchronized long append(byte type, byte[] payload) throws IOException {
+        if (failure != null) throw failure;
+        if (closed) throw new IOException("Event log is closed.");
+        if (payload.length > MAX_PAYLOAD_BYTES) throw new IllegalArgumentException("Event log payload is too large.");
+
+        pending.add(encode(type, payload));
+        notifyAll();
+        return ++appendedSequence;
+    }
+
+    /**
+     * Blocks until the record with a given sequence number (and every record before it) has been forced to disk.
+     *
+     * @param sequence the sequence number returned by append()
+     * @throws IOException if the log failed before the record became durable
+     */
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        try {
+            while (durableSequence < sequence && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the event log.");
+        }
+        if (durableSequence < sequence) throw failure;
+    }
+
+    /**
+     * Appends a record, and waits for it to be durable.
+     *
+     * @param type the record's type
+     * @param payload the record's payload
+     * @throws IOException if the record could not be written
+     */
+    public void appendAndSync(byte type, byte[] payload) throws IOException {
+        awaitDurable(append(type, payload));
+    }
+
+    private static byte[] encode(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return ByteBuffer.allocate(RECORD_OVERHEAD + payload.length)
+                .putInt(payload.length)
+                .put(type)
+                .put(payload)
+                .putInt((int) crc.getValue())
+                .array();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ArrayList<byte[]> batch;
+            long batchEnd;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.isEmpty()) return;  // closed, and everything has been written
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                batchEnd = appendedSequence;
+            }
+
+            try {
+                synchronized (writeLock) {
+                    if (channel == null) rollSegment();
+                    int batchBytes = 0;
+                    for (byte[] record : batch) batchBytes += record.length;
+                    ByteBuffer buffer = ByteBuffer.allocate(batchBytes);
+                    for (byte[] record : batch) buffer.put(record);
+                    buffer.flip();
+                    writeFully(buffer);
+                    channel.force(false);
+                    if (channel.size() >= segmentBytes) rollSegment();
+                }
+                synchronized (this) {
+                    durableSequence = batchEnd;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                Log.error("event log: IOException while writing, %s", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /** Closes the current segment (if any), and starts a new one. Must hold writeLock. */
+    private void rollSegment() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            segmentNumber++;
+        }
+        channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_MAGIC.length + 4).put(SEGMENT_MAGIC).putInt(formatVersion);
+        header.flip();
+        writeFully(header);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** Writes any queued records, and closes the log. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            if (channel != null) channel.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.alexandergillon.wegapi.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A directory of small pages of game state, keyed by game ID, for paging idle games out of memory. Each page is one
+ * file (page-N.bin), written atomically via a temporary file, so a crash leaves either the old page or the new one.
+ * <br> <br>
+ *
+ * Pages only hold state that is also in the event log (or that can be rebuilt some other way), so they do not
+ * survive a restart: open() deletes any pages left over from a previous run.
+ */
+public final class GamePageStore {
+    private static final String PAGE_PREFIX = "page-";
+    private static final String PAGE_SUFFIX = ".bin";
+
+    private final Path pageDir;
+
+    private GamePageStore(Path pageDir) {
+        this.pageDir = pageDir;
+    }
+
+    /**
+     * Opens the page store in a directory, creating the directory if necessary, and deleting any old pages.
+     *
+     * @param pageDir the directory to keep pages in
+     * @return the opened store
+     * @throws IOException if the directory could not be created or cleared
+     */
+    public static GamePageStore open(Path pageDir) throws IOException {
+        Files.createDirectories(pageDir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pageDir, PAGE_PREFIX + "*")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        return new GamePageStore(pageDir);
+    }
+
+    private Path pagePath(int gameId) {
+        return pageDir.resolve(PAGE_PREFIX + gameId + PAGE_SUFFIX);
+    }
+
+    /**
+     * Writes a game's page, replacing any existing one.
+     *
+     * @param gameId the ID of the game
+     * @param page the page
+     * @throws IOException if the page could not be written
+     */
+    public void write(int gameId, byte[] page) throws IOException {
+        Path tempPath = pageDir.resolve(PAGE_PREFIX + gameId + PAGE_SUFFIX + ".tmp");
+        Files.write(tempPath, page);
+        Files.move(tempPath, pagePath(gameId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a game's page.
+     *
+     * @param gameId the ID of the game
+     * @return the page
+     * @throws IOException if the page could not be read
+     */
+    public byte[] read(int gameId) throws IOException {
+        return Files.readAllBytes(pagePath(gameId));
+    }
+
+    /**
+     * Deletes a game's page, if it has one.
+     *
+     * @param gameId the ID of the game
+     * @throws IOException if the page could not be deleted
+     */
+    public void delete(int gameId) throws IOException {
+        Files.deleteIfExists(pagePath(gameId));
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.alexandergillon.wegapi.server;
+
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.game.ConfigurableServerSocketFactory;
+import com.github.alexandergillon.wegapi.game.GameRouterInterface;
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Routes players to game server shards (see GameRouterInterface). The router knows nothing about any particular
+ * game: any server that registers as a shard, and reports its load, can be routed to. <br> <br>
+ *
+ * A shard is live if it has reported its load in the last SHARD_TIMEOUT_MILLIS. Only live shards are given new
+ * players, but returning players are always routed to their shard, live or not, as no other shard has their game.
+ * Between load reports, the router updates its copy of a shard's load itself as it assigns players, so that a burst
+ * of new players is not all sent to the same shard.
+ */
+public class GameRouter extends UnicastRemoteObject implements GameRouterInterface {
+    private static final long SHARD_TIMEOUT_MILLIS = 3000;
+
+    /** What the router knows about a shard. */
+    private static class Shard {
+        private final GameServerInterface server;
+        private int load = 0;
+        private boolean waitingForPlayer = false;
+        private long lastReportNanos = System.nanoTime();
+
+        private Shard(GameServerInterface server) {
+            this.server = server;
+        }
+
+        private boolean isLive() {
+            return System.nanoTime() - lastReportNanos < SHARD_TIMEOUT_MILLIS * 1_000_000;
+        }
+    }
+
+    private final Shard[] shards = new Shard[MAX_SHARD_ID + 1];  // indexed by shard ID, guarded by this
+
+    public GameRouter() throws RemoteException {
+        super(0, new ConfigurableClientSocketFactory(), new ConfigurableServerSocketFactory());
+    }
+
+    /**
+     * Returns the shard that a player number belongs to.
+     *
+     * @param playerNumber a player number
+     * @return the ID of the shard that gave out that player number
+     */
+    public static int shardOf(int playerNumber) {
+        return playerNumber >>> PLAYER_NUMBER_BITS;
+    }
+
+    /**
+     * Returns the first player number that a shard gives out.
+     *
+     * @param shardId the ID of a shard
+     * @return the shard's first player number
+     */
+    public static int firstPlayerNumber(int shardId) {
+        return shardId << PLAYER_NUMBER_BITS;
+    }
+
+    @Override
+    public synchronized int registerShard(GameServerInterface shard, int requestedShardId) throws RemoteException {
+        int shardId = -1;
+        if (requestedShardId >= 0 && requestedShardId <= MAX_SHARD_ID
+                && (shards[requestedShardId] == null || !shards[requestedShardId].isLive())) {
+            shardId = requestedShardId;
+        } else {
+            for (int id = 0; id <= MAX_SHARD_ID; id++) {
+                if (shards[id] == null) {
+                    shardId = id;
+                    break;
+                }
+            }
+        }
+        if (shardId == -1) throw new RemoteException("All " + (MAX_SHARD_ID + 1) + " shard IDs are in use.");
+
+        shards[shardId] = new Shard(shard);
+        Log.info("router: registered shard %d%s", shardId, requestedShardId == -1 || requestedShardId == shardId ? "" : " (requested " + requestedShardId + ")");
+        return shardId;
+    }
+
+    @Override
+    public synchronized void reportLoad(int shardId, int load, boolean waitingForPlayer) throws RemoteException {
+        if (shardId < 0 || shardId > MAX_SHARD_ID || shards[shardId] == null) {
+            throw new RemoteException("Shard " + shardId + " is not registered.");
+        }
+        Shard shard = shards[shardId];
+        shard.load = load;
+        shard.waitingForPlayer = waitingForPlayer;
+        shard.lastReportNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized GameServerInterface assignShard() {
+        int best = -1;
+        for (int id = 0; id <= MAX_SHARD_ID; id++) {
+            Shard shard = shards[id];
+            if (shard == null || !shard.isLive()) continue;
+            if (shard.waitingForPlayer) {
+                best = id;
+                break;
+            }
+            if (best == -1 || shard.load < shards[best].load) best = id;
+        }
+        if (best == -1) return null;
+
+        // until the shard next reports, assume that this player either took the waiting seat or opened a new game
+        Shard shard = shards[best];
+        shard.load++;
+        shard.waitingForPlayer = !shard.waitingForPlayer;
+        return shard.server;
+    }
+
+    @Override
+    public synchronized GameServerInterface shardForPlayer(int playerNumber) {
+        if (playerNumber < 0) return null;
+        Shard shard = shards[shardOf(playerNumber)];
+        return shard == null ? null : shard.server;
+    }
+
+    /**
+     * Main function. Starts the router, and binds it in the registry.
+     */
+    public static void main(String[] args) {
+        try {
+            LocateRegistry.createRegistry(GameServerInterface.RMI_REGISTRY_PORT);
+        } catch (RemoteException ignore) {
+            // RMI server already exists
+        }
+
+        try {
+            Naming.rebind("//" + GameServerInterface.DEFAULT_IP + ":" + GameServerInterface.RMI_REGISTRY_PORT + "/" + DEFAULT_ROUTER_PATH, new GameRouter());
+        } catch (RemoteException e) {
+            System.out.printf("Failed to rebind router, %s%n", e);
+            System.exit(1);
+        } catch (MalformedURLException e) {
+            System.out.printf("Malformed URL: %s%n", e);
+            System.exit(1);
+        }
+        Log.info("Router ready!");
+    }
+}
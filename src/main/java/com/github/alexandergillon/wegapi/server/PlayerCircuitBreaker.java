@@ -0,0 +1,55 @@
+package com.github.alexandergillon.wegapi.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker for a single player, used by BaseServer. <br> <br>
+ *
+ * The breaker starts closed (the player is connected). After a number of consecutive failed calls to the player, it
+ * opens (the player is disconnected), and BaseServer stops sending the player anything except heartbeats. The first
+ * successful heartbeat (or action from the player) closes it again.
+ */
+final class PlayerCircuitBreaker {
+    private final AtomicBoolean open = new AtomicBoolean(false);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean heartbeatInFlight = new AtomicBoolean(false);
+
+    boolean isOpen() {
+        return open.get();
+    }
+
+    /**
+     * Records that a call to the player succeeded.
+     *
+     * @return whether this closed the breaker, i.e. the player has just reconnected
+     */
+    boolean recordSuccess() {
+        consecutiveFailures.set(0);
+        return open.compareAndSet(true, false);
+    }
+
+    /**
+     * Records that a call to the player failed because the player could not be reached.
+     *
+     * @param failureThreshold how many consecutive failures open the breaker
+     * @return whether this opened the breaker, i.e. the player has just disconnected
+     */
+    boolean recordFailure(int failureThreshold) {
+        return consecutiveFailures.incrementAndGet() >= failureThreshold && open.compareAndSet(false, true);
+    }
+
+    /**
+     * Claims the right to send the player a heartbeat, so that a player who is slow to respond does not pile up
+     * heartbeat threads.
+     *
+     * @return whether the caller should send a heartbeat (and must later call finishHeartbeat())
+     */
+    boolean startHeartbeat() {
+        return heartbeatInFlight.compareAndSet(false, true);
+    }
+
+    void finishHeartbeat() {
+        heartbeatInFlight.set(false);
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.alexandergillon.wegapi.server;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown instead of contacting a player whose daemon has stopped responding (see BaseServer). It is a
+ * RemoteException, so games that already handle a player being unreachable do not need to do anything extra.
+ */
+public class PlayerUnavailableException extends RemoteException {
+    public PlayerUnavailableException(String message) {
+        super(message);
+    }
+}
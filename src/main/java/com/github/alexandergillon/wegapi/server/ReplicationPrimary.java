@@ -0,0 +1,267 @@
+package com.github.alexandergillon.wegapi.server;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The primary's end of hot-standby replication: streams a game server's records (the same records it writes to its
+ * GameEventLog) over TCP to a ReplicationStandby in another process, which keeps a copy of every game up to date
+ * and takes over if this process dies. <br> <br>
+ *
+ * Replication is asynchronous, so that it never adds latency to a move: replicate() only queues a record, and a
+ * sender thread writes everything that is queued with one flush. The standby acknowledges the sequence number of
+ * the last record it has applied, which gives the lag metrics (getLagRecords() and getLagMillis()). The cost is
+ * that a move which the primary accepted just before dying may not have reached the standby. If the standby falls
+ * more than MAX_PENDING_RECORDS behind, it is disconnected rather than buffering without bound, and must reconnect.
+ * <br> <br>
+ *
+ * When idle, the sender sends a heartbeat every HEARTBEAT_INTERVAL_MILLIS, so that the standby can tell a hung
+ * primary from a quiet one. <br> <br>
+ *
+ * The stream starts with REPLICATION_MAGIC and the game's log format version. After that, the primary sends
+ * messages, each starting with a kind byte: <br> <br>
+ *
+ *   - RECORD: (long sequence number, byte type, int payload length, payload) <br>
+ *   - HEARTBEAT: no body <br> <br>
+ *
+ * and the standby sends back longs: the sequence number of the last record it has applied. <br> <br>
+ *
+ * One standby is served at a time: a new standby replaces the old one. Whenever a standby connects, the game is
+ * told (see the standbyConnected callback to start()), so that it can replicate the complete state of every game
+ * before any new records. The records sent to a standby therefore only need to be correct from its first snapshot
+ * of each game onwards.
+ */
+public final class ReplicationPrimary implements Closeable {
+    static final byte[] REPLICATION_MAGIC = "WEGAPIREPLICATION".getBytes(StandardCharsets.US_ASCII);
+    static final byte RECORD = 1;
+    static final byte HEARTBEAT = 2;
+    static final long HEARTBEAT_INTERVAL_MILLIS = 100;
+    private static final int MAX_PENDING_RECORDS = 100_000;
+    private static final long LAG_WARNING_MILLIS = 1000;
+    private static final long LAG_WARNING_INTERVAL_MILLIS = 10_000;
+
+    /** A record that has been queued for the standby. */
+    private static final class QueuedRecord {
+        private final long sequence;
+        private final byte type;
+        private final byte[] payload;
+        private final long queuedNanos;
+
+        private QueuedRecord(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+            this.queuedNanos = System.nanoTime();
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final int formatVersion;
+    private final Runnable standbyConnected;
+
+    private Socket standby = null;                                    // guarded by this
+    private final ArrayDeque<QueuedRecord> pending = new ArrayDeque<>();  // not yet sent, guarded by this
+    private final ArrayDeque<QueuedRecord> unacked = new ArrayDeque<>();  // sent or pending, guarded by this
+    private long sequence = 0;          // guarded by this
+    private long ackedSequence = 0;     // guarded by this
+    private long lastLagWarningNanos = 0;  // only used by the sender thread
+
+    private ReplicationPrimary(ServerSocket serverSocket, int formatVersion, Runnable standbyConnected) {
+        this.serverSocket = serverSocket;
+        this.formatVersion = formatVersion;
+        this.standbyConnected = standbyConnected;
+    }
+
+    /**
+     * Starts listening for a standby.
+     *
+     * @param port the port to listen on
+     * @param formatVersion the version of the game's record format, which the standby must agree with
+     * @param standbyConnected called (on the accepting thread) whenever a standby connects, after which every call to
+     *                         replicate() is sent to it. Should replicate the complete state of every game.
+     * @return the started primary
+     * @throws IOException if the port could not be listened on
+     */
+    public static ReplicationPrimary start(int port, int formatVersion, Runnable standbyConnected) throws IOException {
+        ReplicationPrimary primary = new ReplicationPrimary(new ServerSocket(port), formatVersion, standbyConnected);
+        Thread acceptThread = new Thread(primary::acceptLoop, "wegapi-replication-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return primary;
+    }
+
+    /**
+     * Queues a record to be sent to the standby, if one is connected. Never blocks on the network.
+     *
+     * @param type the record's type
+     * @param payload the record's payload
+     */
+    public synchronized void replicate(byte type, byte[] payload) {
+        if (standby == null) return;
+        QueuedRecord record = new QueuedRecord(++sequence, type, payload);
+        pending.add(record);
+        unacked.add(record);
+        if (unacked.size() > MAX_PENDING_RECORDS) {
+            Log.warn("replication: standby is more than %d records behind, disconnecting it", MAX_PENDING_RECORDS);
+            disconnect(standby);
+            return;
+        }
+        notifyAll();
+    }
+
+    /** @return whether a standby is connected */
+    public synchronized boolean isStandbyConnected() {
+        return standby != null;
+    }
+
+    /** @return the number of records that have been replicated but not yet acknowledged by the standby */
+    public synchronized long getLagRecords() {
+        return sequence - ackedSequence;
+    }
+
+    /** @return how long the oldest record not yet acknowledged by the standby has been waiting, in milliseconds */
+    public synchronized long getLagMillis() {
+        QueuedRecord oldest = unacked.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest.queuedNanos) / 1_000_000;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.write(REPLICATION_MAGIC);
+                out.writeInt(formatVersion);
+                out.flush();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) Log.warn("replication: IOException while accepting a standby, %s", e);
+                continue;
+            }
+
+            synchronized (this) {
+                if (standby != null) {
+                    Log.info("replication: a new standby connected, replacing the old one");
+                    disconnect(standby);
+                }
+                standby = socket;
+                ackedSequence = sequence;
+            }
+            startThread(() -> sendLoop(socket), "wegapi-replication-send");
+            startThread(() -> ackLoop(socket), "wegapi-replication-ack");
+            Log.info("replication: standby connected from %s", socket.getRemoteSocketAddress());
+            standbyConnected.run();
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Sends queued records to a standby, until it is disconnected. */
+    private void sendLoop(Socket socket) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            while (true) {
+                ArrayList<QueuedRecord> batch;
+                synchronized (this) {
+                    if (standby != socket) return;
+                    if (pending.isEmpty()) wait(HEARTBEAT_INTERVAL_MILLIS);
+                    if (standby != socket) return;
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+
+                if (batch.isEmpty()) {
+                    out.writeByte(HEARTBEAT);
+                } else {
+                    for (QueuedRecord record : batch) {
+                        out.writeByte(RECORD);
+                        out.writeLong(record.sequence);
+                        out.writeByte(record.type);
+                        out.writeInt(record.payload.length);
+                        out.write(record.payload);
+                    }
+                }
+                out.flush();
+                warnIfLagging();
+            }
+        } catch (IOException e) {
+            Log.warn("replication: IOException while sending to standby, %s", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (standby == socket) disconnect(socket);
+        }
+    }
+
+    /** Reads acknowledgements from a standby, until it is disconnected. */
+    private void ackLoop(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (true) {
+                long acked = in.readLong();
+                synchronized (this) {
+                    if (standby != socket) return;
+                    ackedSequence = Math.max(ackedSequence, acked);
+                    while (!unacked.isEmpty() && unacked.peek().sequence <= ackedSequence) {
+                        unacked.poll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("replication: standby disconnected, %s", e);
+        }
+        synchronized (this) {
+            if (standby == socket) disconnect(socket);
+        }
+    }
+
+    private void warnIfLagging() {
+        long lagMillis = getLagMillis();
+        if (lagMillis < LAG_WARNING_MILLIS) return;
+        long now = System.nanoTime();
+        if (now - lastLagWarningNanos < LAG_WARNING_INTERVAL_MILLIS * 1_000_000) return;
+        lastLagWarningNanos = now;
+        Log.info("replication: standby is %d records (%d ms) behind", getLagRecords(), lagMillis);
+    }
+
+    /** Disconnects a standby, and drops everything queued for it. Must hold this. */
+    private void disconnect(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+            // nothing more to do with it
+        }
+        if (standby == socket) {
+            standby = null;
+            pending.clear();
+            unacked.clear();
+            ackedSequence = sequence;
+        }
+        notifyAll();
+    }
+
+    /** Stops listening for standbys, and disconnects the current one. */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (this) {
+            if (standby != null) disconnect(standby);
+        }
+    }
+}
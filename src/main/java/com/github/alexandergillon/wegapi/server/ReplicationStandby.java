@@ -0,0 +1,135 @@
+package com.github.alexandergillon.wegapi.server;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The standby's end of hot-standby replication (see ReplicationPrimary): receives a primary's records, hands each
+ * one to the game to apply, and acknowledges them. <br> <br>
+ *
+ * The standby decides that the primary has died when the connection breaks, or when nothing (not even a heartbeat)
+ * has arrived for PRIMARY_TIMEOUT_MILLIS. It then tries to connect once more, within the same timeout: a primary
+ * that has only dropped the connection (e.g. because the standby fell too far behind) accepts, and replicates the
+ * complete state of every game again. Only if that fails is the primaryLost callback called, after which the standby
+ * stops. A crashed primary's port refuses connections at once, so this normally takes a few milliseconds. <br> <br>
+ *
+ * The standby cannot tell a dead primary from a network partition between the two, so over an unreliable network
+ * both may end up serving games.
+ */
+public final class ReplicationStandby {
+    static final int PRIMARY_TIMEOUT_MILLIS = 500;
+
+    private final String host;
+    private final int port;
+    private final int formatVersion;
+    private final GameEventLog.RecordHandler handler;
+    private final Runnable primaryLost;
+
+    private ReplicationStandby(String host, int port, int formatVersion, GameEventLog.RecordHandler handler, Runnable primaryLost) {
+        this.host = host;
+        this.port = port;
+        this.formatVersion = formatVersion;
+        this.handler = handler;
+        this.primaryLost = primaryLost;
+    }
+
+    /**
+     * Connects to a primary, and starts applying its records in the background.
+     *
+     * @param host the primary's host
+     * @param port the primary's replication port
+     * @param formatVersion the version of the game's record format, which the primary must agree with
+     * @param handler handler to pass each record to, on the replication thread
+     * @param primaryLost called (on the replication thread) if the primary dies
+     * @return the started standby
+     * @throws IOException if the primary could not be reached, or uses a different format version
+     */
+    public static ReplicationStandby start(String host, int port, int formatVersion,
+                                           GameEventLog.RecordHandler handler, Runnable primaryLost) throws IOException {
+        ReplicationStandby standby = new ReplicationStandby(host, port, formatVersion, handler, primaryLost);
+        Socket socket = standby.connect();
+        Thread thread = new Thread(() -> standby.receiveLoop(socket), "wegapi-replication-standby");
+        thread.setDaemon(true);
+        thread.start();
+        return standby;
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(PRIMARY_TIMEOUT_MILLIS);
+            socket.connect(new InetSocketAddress(host, port), PRIMARY_TIMEOUT_MILLIS);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] magic = new byte[ReplicationPrimary.REPLICATION_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, ReplicationPrimary.REPLICATION_MAGIC)) {
+                throw new IOException(host + ":" + port + " is not a replication primary");
+            }
+            int version = in.readInt();
+            if (version != formatVersion) {
+                throw new IOException("Primary has log format version " + version + ", expected " + formatVersion);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private void receiveLoop(Socket socket) {
+        while (true) {
+            try {
+                receive(socket);
+            } catch (IOException e) {
+                Log.warn("replication: lost connection to primary, %s", e);
+            }
+
+            try {
+                socket.close();
+                socket = connect();
+                Log.info("replication: reconnected to primary");
+            } catch (IOException e) {
+                Log.warn("replication: primary is not responding, %s", e);
+                primaryLost.run();
+                return;
+            }
+        }
+    }
+
+    /** Receives and applies records, acknowledging each batch, until the connection fails. */
+    private void receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        long lastSequence = -1;
+        long lastAcked = -1;
+        while (true) {
+            byte kind = in.readByte();
+            if (kind == ReplicationPrimary.RECORD) {
+                lastSequence = in.readLong();
+                byte type = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                handler.handle(type, ByteBuffer.wrap(payload));
+            } else if (kind != ReplicationPrimary.HEARTBEAT) {
+                throw new IOException("Unrecognized replication message " + kind);
+            }
+
+            // acknowledge once everything that has arrived so far is applied
+            if (in.available() == 0 && lastSequence != lastAcked) {
+                out.writeLong(lastSequence);
+                out.flush();
+                lastAcked = lastSequence;
+            }
+        }
+    }
+}
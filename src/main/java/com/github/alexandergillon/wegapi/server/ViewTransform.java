@@ -0,0 +1,69 @@
+package com.github.alexandergillon.wegapi.server;
+
+/**
+ * How a player sees a BaseServer2D's grid: the grid as the game sees it, rotated or mirrored. E.g. in chess, black
+ * sees the board rotated by 180 degrees, so that their pieces are at the bottom. <br> <br>
+ *
+ * A game works only with the grid's own coordinates, and BaseServer2D moves tiles to where the player sees them,
+ * and moves the tiles that the player clicks and drags back again (see BaseServer2D.viewTransformOf()). <br> <br>
+ *
+ * Rotations by 90 and 270 degrees swap the grid's rows and columns, so can only be used with square grids.
+ */
+public enum ViewTransform {
+    /** The player sees the grid as it is. */
+    IDENTITY,
+    /** The player sees the grid rotated by 90 degrees clockwise. */
+    ROTATE_90,
+    /** The player sees the grid rotated by 180 degrees. */
+    ROTATE_180,
+    /** The player sees the grid rotated by 270 degrees clockwise (90 degrees anticlockwise). */
+    ROTATE_270,
+    /** The player sees the grid mirrored left to right. */
+    MIRROR;
+
+    /**
+     * Builds a table of where the player sees each tile of a grid: the tile at index i of the grid (i.e. at row
+     * i / numCols and column i % numCols) is at index table[i] of the player's view.
+     *
+     * @param numRows the number of rows in the grid
+     * @param numCols the number of columns in the grid
+     * @return the table
+     * @throws IllegalArgumentException if this transform swaps rows and columns, and the grid is not square
+     */
+    int[] viewIndices(int numRows, int numCols) {
+        if ((this == ROTATE_90 || this == ROTATE_270) && numRows != numCols) {
+            throw new IllegalArgumentException(this + " needs a square grid, not " + numRows + "x" + numCols);
+        }
+        int[] table = new int[numRows * numCols];
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                int viewRow;
+                int viewCol;
+                switch (this) {
+                    case ROTATE_90:
+                        viewRow = col;
+                        viewCol = (numRows - 1) - row;
+                        break;
+                    case ROTATE_180:
+                        viewRow = (numRows - 1) - row;
+                        viewCol = (numCols - 1) - col;
+                        break;
+                    case ROTATE_270:
+                        viewRow = (numCols - 1) - col;
+                        viewCol = row;
+                        break;
+                    case MIRROR:
+                        viewRow = row;
+                        viewCol = (numCols - 1) - col;
+                        break;
+                    default:
+                        viewRow = row;
+                        viewCol = col;
+                        break;
+                }
+                table[row * numCols + col] = viewRow * numCols + viewCol;
+            }
+        }
+        return table;
+    }
+}
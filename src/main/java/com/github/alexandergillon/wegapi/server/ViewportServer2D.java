@@ -0,0 +1,363 @@
+package com.github.alexandergillon.wegapi.server;
+
+import com.github.alexandergillon.wegapi.game.PlayerData2D;
+import com.github.alexandergillon.wegapi.game.PlayerInterface;
+import com.github.alexandergillon.wegapi.game.PlayerInterface2D;
+import com.github.alexandergillon.wegapi.game.Tile2D;
+import com.github.alexandergillon.wegapi.game.TileCoordinate;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * A base 2D server for games played on a grid much larger than the grid that players see, e.g. a 1000x1000 map that
+ * each player sees through an 8x8 window. <br> <br>
+ *
+ * The game's grid (the world) is a ChunkedTileGrid, which the subclass changes with setWorldTile(). Each player sees
+ * a viewport of the world, of the size given to BaseServer2D, which is opened for them with openViewport() and
+ * moves when they scroll or pan (see moveViewport() and scrollViewport(): by default, dragging a tile drags the
+ * map). The server remembers which tiles each player has been sent, so when the world changes or a viewport moves,
+ * only the tiles in the viewport whose icons actually changed are sent, in one batch per player. <br> <br>
+ *
+ * Clicks and drags are passed to the subclass in world coordinates, with worldTileClicked() and worldTileDragged().
+ * Changes made to the world while handling them are sent to players afterwards; changes made at any other time are
+ * sent by flushViewports(). <br> <br>
+ *
+ * The world and every viewport are guarded by one lock, which is also held while updates are sent, so that every
+ * player receives updates in the order that the world changed.
+ */
+public abstract class ViewportServer2D extends BaseServer2D {
+    private final ChunkedTileGrid world;  // also the lock of viewports
+    private final HashMap<Integer, Viewport> viewports = new HashMap<>();  // by player number
+
+    /** A player's window onto the world, and the tiles they have been sent, by index within the window. */
+    private static final class Viewport {
+        private PlayerInterface2D player;  // changes if the player reconnects, see reopenViewport()
+        private int top;
+        private int left;
+        // the tiles that the player has, or null where not known (e.g. a failed update)
+        private final String[] shownIconNames;
+        private final String[] shownTileNames;
+        private final BitSet stale = new BitSet();  // tiles whose world tile has changed since they were sent
+
+        private Viewport(PlayerInterface2D player, int numTiles) {
+            this.player = player;
+            shownIconNames = new String[numTiles];
+            shownTileNames = new String[numTiles];
+        }
+    }
+
+    /**
+     * Creates a ViewportServer2D. Must be called by subclasses in their constructor.
+     *
+     * @param numRows the number of rows in the grid that players see
+     * @param numCols the number of columns in the grid that players see
+     * @param worldRows the number of rows in the world
+     * @param worldCols the number of columns in the world
+     * @param defaultIconName the icon of world tiles that have not been set
+     * @throws IllegalArgumentException if the world is smaller than the grid that players see
+     */
+    protected ViewportServer2D(int numRows, int numCols, int worldRows, int worldCols, String defaultIconName)
+            throws RemoteException {
+        super(numRows, numCols);
+        if (worldRows < numRows || worldCols < numCols) {
+            throw new IllegalArgumentException("World of " + worldRows + "x" + worldCols
+                    + " is smaller than the players' grid of " + numRows + "x" + numCols);
+        }
+        world = new ChunkedTileGrid(worldRows, worldCols, defaultIconName);
+    }
+
+    public final int getWorldRows() {
+        return world.getNumRows();
+    }
+
+    public final int getWorldCols() {
+        return world.getNumCols();
+    }
+
+    /**
+     * Called when a player clicks a tile, which must be implemented by a subclass.
+     *
+     * @param row the row of the tile in the world
+     * @param col the column of the tile in the world
+     * @param playerData the player who clicked
+     */
+    protected abstract void worldTileClicked(int row, int col, PlayerData2D playerData);
+
+    /**
+     * Called when a player drags one tile onto another. By default, scrolls the player's viewport so that the map
+     * moves with the drag, i.e. the world tile that was dragged ends up where it was dropped.
+     *
+     * @param fromRow the row of the dragged tile in the world
+     * @param fromCol the column of the dragged tile in the world
+     * @param toRow the row of the tile it was dropped on in the world
+     * @param toCol the column of the tile it was dropped on in the world
+     * @param playerData the player who dragged
+     */
+    protected void worldTileDragged(int fromRow, int fromCol, int toRow, int toCol, PlayerData2D playerData) {
+        scrollViewport(playerData.getPlayerNumber(), fromRow - toRow, fromCol - toCol);
+    }
+
+    /** Converts a click in a player's viewport to world coordinates, and passes it to worldTileClicked(). */
+    @Override
+    public final void tileClicked2D(int row, int col, PlayerData2D playerData) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerData.getPlayerNumber());
+            if (viewport == null || !inViewport(row, col)) return;
+            worldTileClicked(viewport.top + row, viewport.left + col, playerData);
+            flushViewports();
+        }
+    }
+
+    /** Converts a drag in a player's viewport to world coordinates, and passes it to worldTileDragged(). */
+    @Override
+    public final void tileDragged2D(int fromRow, int fromCol, int toRow, int toCol, PlayerData2D playerData) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerData.getPlayerNumber());
+            if (viewport == null || !inViewport(fromRow, fromCol) || !inViewport(toRow, toCol)) return;
+            worldTileDragged(viewport.top + fromRow, viewport.left + fromCol, viewport.top + toRow,
+                    viewport.left + toCol, playerData);
+            flushViewports();
+        }
+    }
+
+    /**
+     * Gets the icon name of a world tile.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the tile's icon name
+     */
+    protected final String getWorldIconName(int row, int col) {
+        synchronized (world) {
+            return world.getIconName(row, col);
+        }
+    }
+
+    /**
+     * Gets the tile name of a world tile.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the tile's name, or null if it has none
+     */
+    protected final String getWorldTileName(int row, int col) {
+        synchronized (world) {
+            return world.getTileName(row, col);
+        }
+    }
+
+    /**
+     * Sets a world tile, with no tile name. See setWorldTile(int, int, String, String).
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param iconName the tile's new icon name
+     */
+    protected final void setWorldTile(int row, int col, String iconName) {
+        setWorldTile(row, col, iconName, null);
+    }
+
+    /**
+     * Sets a world tile. If it changed, it is sent to every player whose viewport contains it, once the current
+     * action has been handled (or by the next flushViewports(), outside of an action).
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param iconName the tile's new icon name
+     * @param tileName the tile's new name, or null for none
+     * @throws IndexOutOfBoundsException if the tile is outside the world
+     */
+    protected final void setWorldTile(int row, int col, String iconName, String tileName) {
+        synchronized (world) {
+            if (!world.set(row, col, iconName, tileName)) return;
+            for (Viewport viewport : viewports.values()) {
+                if (inViewport(row - viewport.top, col - viewport.left)) {
+                    viewport.stale.set((row - viewport.top) * getNumCols() + (col - viewport.left));
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends every player the tiles in their viewport that have changed since they were last sent.
+     */
+    protected final void flushViewports() {
+        synchronized (world) {
+            for (Viewport viewport : viewports.values()) {
+                if (!viewport.stale.isEmpty()) redraw(viewport);
+            }
+        }
+    }
+
+    /**
+     * Opens a viewport for a player, and draws it. Any tiles the player had are deleted first.
+     *
+     * @param player the player
+     * @param playerNumber the player's number
+     * @param top the world row of the top of the viewport, which is moved into the world if it is outside
+     * @param left the world column of the left of the viewport, which is moved into the world if it is outside
+     */
+    protected final void openViewport(PlayerInterface2D player, int playerNumber, int top, int left) {
+        synchronized (world) {
+            Viewport viewport = new Viewport(player, getNumRows() * getNumCols());
+            viewport.top = clampTop(top);
+            viewport.left = clampLeft(left);
+            viewports.put(playerNumber, viewport);
+            try {
+                player.deleteTiles(new ArrayList<>(), PlayerInterface.DeleteTilesMode.DELETE_ALL);
+            } catch (RemoteException e) {
+                Log.warn("server: player #%d not reachable while opening viewport, %s", playerNumber, e);
+            }
+            viewport.stale.set(0, getNumRows() * getNumCols());
+            redraw(viewport);
+        }
+    }
+
+    /**
+     * Gives a reconnecting player back their viewport, sending only the tiles that differ from the tiles they still
+     * have.
+     *
+     * @param player the player's new remote object
+     * @param playerNumber the player's number
+     * @param currentTiles the tiles that the player has, in their viewport's coordinates
+     * @return whether the player had a viewport: if not, the subclass should open one
+     */
+    protected final boolean reopenViewport(PlayerInterface2D player, int playerNumber, ArrayList<Tile2D> currentTiles) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerNumber);
+            if (viewport == null) return false;
+            viewport.player = player;
+            Arrays.fill(viewport.shownIconNames, null);
+            Arrays.fill(viewport.shownTileNames, null);
+            for (Tile2D tile : currentTiles) {
+                if (!inViewport(tile.getRow(), tile.getCol())) continue;
+                int index = tile.getRow() * getNumCols() + tile.getCol();
+                viewport.shownIconNames[index] = tile.getIconName();
+                viewport.shownTileNames[index] = tile.getTileName();
+            }
+            viewport.stale.set(0, getNumRows() * getNumCols());
+            redraw(viewport);
+            return true;
+        }
+    }
+
+    /**
+     * Closes a player's viewport, e.g. when they leave the game. Nothing more is sent to them.
+     *
+     * @param playerNumber the player's number
+     */
+    protected final void closeViewport(int playerNumber) {
+        synchronized (world) {
+            viewports.remove(playerNumber);
+        }
+    }
+
+    /**
+     * Gets where a player's viewport is.
+     *
+     * @param playerNumber the player's number
+     * @return the world coordinates of the top left tile of the player's viewport, or null if they have none
+     */
+    protected final TileCoordinate getViewportOrigin(int playerNumber) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerNumber);
+            return viewport == null ? null : new TileCoordinate(viewport.top, viewport.left);
+        }
+    }
+
+    /**
+     * Moves a player's viewport, and sends them the tiles of the new viewport that differ from the tiles they have.
+     * Does nothing if the player has no viewport.
+     *
+     * @param playerNumber the player's number
+     * @param top the world row of the new top of the viewport, which is moved into the world if it is outside
+     * @param left the world column of the new left of the viewport, which is moved into the world if it is outside
+     */
+    protected final void moveViewport(int playerNumber, int top, int left) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerNumber);
+            if (viewport == null) return;
+            top = clampTop(top);
+            left = clampLeft(left);
+            if (top == viewport.top && left == viewport.left) return;
+            viewport.top = top;
+            viewport.left = left;
+            viewport.stale.set(0, getNumRows() * getNumCols());
+            redraw(viewport);
+        }
+    }
+
+    /**
+     * Moves a player's viewport by some number of rows and columns. See moveViewport().
+     *
+     * @param playerNumber the player's number
+     * @param rows how many rows to move the viewport down by (negative to move it up)
+     * @param cols how many columns to move the viewport right by (negative to move it left)
+     */
+    protected final void scrollViewport(int playerNumber, int rows, int cols) {
+        synchronized (world) {
+            Viewport viewport = viewports.get(playerNumber);
+            if (viewport == null) return;
+            moveViewport(playerNumber, viewport.top + rows, viewport.left + cols);
+        }
+    }
+
+    /** @return whether coordinates relative to a viewport are inside it */
+    private boolean inViewport(int row, int col) {
+        return row >= 0 && row < getNumRows() && col >= 0 && col < getNumCols();
+    }
+
+    private int clampTop(int top) {
+        return Math.max(0, Math.min(top, world.getNumRows() - getNumRows()));
+    }
+
+    private int clampLeft(int left) {
+        return Math.max(0, Math.min(left, world.getNumCols() - getNumCols()));
+    }
+
+    /**
+     * Sends a player the stale tiles of their viewport whose world tiles differ from the tiles the player has. If
+     * the update fails, the tiles are left stale, to be sent again by the next redraw.
+     *
+     * @param viewport the player's viewport
+     */
+    private void redraw(Viewport viewport) {
+        int numCols = getNumCols();
+        ArrayList<Tile2D> tiles = new ArrayList<>();
+        for (int index = viewport.stale.nextSetBit(0); index >= 0; index = viewport.stale.nextSetBit(index + 1)) {
+            int row = index / numCols;
+            int col = index % numCols;
+            String iconName = world.getIconName(viewport.top + row, viewport.left + col);
+            String tileName = world.getTileName(viewport.top + row, viewport.left + col);
+            boolean shown = iconName.equals(viewport.shownIconNames[index])
+                    && Objects.equals(tileName, viewport.shownTileNames[index]);
+            if (shown) continue;
+            tiles.add(tileName == null ? new Tile2D(row, col, iconName) : new Tile2D(row, col, iconName, tileName));
+        }
+        viewport.stale.clear();
+        if (tiles.isEmpty()) return;
+
+        try {
+            viewport.player.createTiles(tiles, PlayerInterface.CreateTilesMode.CREATE);
+            for (Tile2D tile : tiles) {
+                int index = tile.getRow() * numCols + tile.getCol();
+                viewport.shownIconNames[index] = tile.getIconName();
+                viewport.shownTileNames[index] = tile.getTileName();
+            }
+        } catch (RemoteException e) {
+            // the player may or may not have the tiles
+            for (Tile2D tile : tiles) {
+                int index = tile.getRow() * numCols + tile.getCol();
+                viewport.shownIconNames[index] = null;
+                viewport.stale.set(index);
+            }
+            Log.warn("RemoteException in ViewportServer2D.redraw(): %s", e);
+        }
+    }
+}
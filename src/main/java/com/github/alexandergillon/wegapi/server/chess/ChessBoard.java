@@ -38,11 +38,123 @@ class ChessBoard {
     private TileCoordinate enPassantTile = null;
     private ChessPiece.PlayerColor enPassantColor = null;  // the player who could perform en passant, not who just moved
 
+    /** Number of bytes in the packed encoding of a board, see toBytes(). */
+    static final int ENCODED_BYTES = NUM_ROWS * NUM_COLS + 2;
+    private static final byte NO_EN_PASSANT = -1;
+
     /** Creates a new ChessBoard, which initializes itself to the starting setup of chess. */
     public ChessBoard() {
         board = createInitialBoard();
     }
 
+    private ChessBoard(ChessPiece[][] board) {
+        this.board = board;
+    }
+
+    /**
+     * Encodes the board as a packed byte array, for snapshots in the game event log. The format is: <br> <br>
+     *
+     *   - NUM_ROWS * NUM_COLS bytes: one per tile, in row-major order. 0 is an empty tile, otherwise the byte is
+     *     1 + (2 * piece type ordinal) + player color ordinal. <br>
+     *   - 1 byte: the en passant tile, as row * NUM_COLS + col, or -1 if there is none. <br>
+     *   - 1 byte: the ordinal of the player color who could perform en passant (ignored if there is no en passant
+     *     tile). <br>
+     *
+     * @return the encoded board, of length ENCODED_BYTES
+     */
+    byte[] toBytes() {
+        byte[] bytes = new byte[ENCODED_BYTES];
+        for (int row = 0; row < NUM_ROWS; row++) {
+            for (int col = 0; col < NUM_COLS; col++) {
+                ChessPiece piece = board[row][col];
+                if (piece != null) {
+                    bytes[row * NUM_COLS + col] = (byte) (1 + 2 * piece.getPieceType().ordinal() + piece.getPlayerColor().ordinal());
+                }
+            }
+        }
+        if (enPassantTile == null) {
+            bytes[NUM_ROWS * NUM_COLS] = NO_EN_PASSANT;
+        } else {
+            bytes[NUM_ROWS * NUM_COLS] = (byte) (enPassantTile.getRow() * NUM_COLS + enPassantTile.getCol());
+            bytes[NUM_ROWS * NUM_COLS + 1] = (byte) enPassantColor.ordinal();
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes a board encoded by toBytes().
+     *
+     * @param bytes the encoded board
+     * @return the decoded board
+     * @throws IllegalArgumentException if bytes is not a valid encoded board
+     */
+    static ChessBoard fromBytes(byte[] bytes) {
+        if (bytes.length != ENCODED_BYTES) throw new IllegalArgumentException("Encoded chess board has the wrong length.");
+        ChessPiece.ChessPieceType[] pieceTypes = ChessPiece.ChessPieceType.values();
+        ChessPiece.PlayerColor[] playerColors = ChessPiece.PlayerColor.values();
+
+        ChessPiece[][] board = new ChessPiece[NUM_ROWS][NUM_COLS];
+        for (int row = 0; row < NUM_ROWS; row++) {
+            for (int col = 0; col < NUM_COLS; col++) {
+                int code = bytes[row * NUM_COLS + col];
+                if (code == 0) continue;
+                if (code < 0 || code > 2 * pieceTypes.length) {
+                    throw new IllegalArgumentException("Invalid piece in encoded chess board.");
+                }
+                board[row][col] = new ChessPiece(pieceTypes[(code - 1) / 2], playerColors[(code - 1) % 2]);
+            }
+        }
+
+        ChessBoard chessBoard = new ChessBoard(board);
+        int enPassantIndex = bytes[NUM_ROWS * NUM_COLS];
+        if (enPassantIndex != NO_EN_PASSANT) {
+            chessBoard.enPassantTile = new TileCoordinate(enPassantIndex / NUM_COLS, enPassantIndex % NUM_COLS);
+            chessBoard.enPassantColor = playerColors[bytes[NUM_ROWS * NUM_COLS + 1]];
+        }
+        return chessBoard;
+    }
+
+    /**
+     * Returns the board in the same text representation as INITIAL_BOARD, from white's point of view.
+     *
+     * @return the board as text
+     */
+    String toText() {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < NUM_ROWS; row++) {
+            for (int col = 0; col < NUM_COLS; col++) {
+                if (col != 0) text.append(' ');
+                ChessPiece piece = board[row][col];
+                if (piece == null) {
+                    text.append("00");
+                } else {
+                    text.append(piece.getPlayerColor() == ChessPiece.PlayerColor.WHITE ? 'W' : 'B')
+                            .append(pieceTypeToText(piece.getPieceType()));
+                }
+            }
+            if (row != NUM_ROWS - 1) text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Converts a chess piece type to its text representation. The inverse of textToPieceType().
+     *
+     * @param type the chess piece type to convert
+     * @return the text representation of the chess piece type
+     */
+    private static char pieceTypeToText(ChessPiece.ChessPieceType type) {
+        switch (type) {
+            case PAWN: return 'P';
+            case ROOK: return 'R';
+            case KNIGHT: return 'N';
+            case BISHOP: return 'B';
+            case QUEEN: return 'Q';
+            case KING: return 'K';
+            default: throw new IllegalArgumentException("Unrecognized ChessPieceType in ChessBoard.pieceTypeToText().");
+        }
+    }
+
     /**
      * Converts the text representation of a chess piece color to a ChessPiece::PlayerColor. B = black, W = white.
      *
@@ -744,28 +856,17 @@ class ChessBoard {
     }
 
     /**
-    * Converts a chess piece at a given row and column into a Tile2D, to send to a client for them to display. This
-    * method needs the player color of who this tile will be shown to, as the resulting Tile2D's position depends
-    * on which side of the board the player is on. I.e. because the two players see the board differently, we need
-    * to know who is going to see this tile.
+    * Converts a chess piece at a given row and column into a Tile2D, to send to a client for them to display. The
+    * Tile2D is at the piece's position on the board: black's view of the board is rotated by BaseServer2D (see
+    * ChessServer.viewTransformOf()).
     *
     * @param row the row of the chess piece
     * @param col the column of the chess piece
     * @param chessPiece the chess piece
-    * @param viewingPlayer the player color of who this tile will be shown to
     * @param highlightMode how the tile should be highlighted
-    * @return a Tile2D which represents the chess piece at those coordinates, appropriate for which side of the board
-    *         the player is on
+    * @return a Tile2D which represents the chess piece at those coordinates
     */
-    private static Tile2D pieceToTile(int row, int col, ChessPiece chessPiece,
-                                   ChessPiece.PlayerColor viewingPlayer,
-                                   HighlightMode highlightMode) {
-        // rotates the piece 180 degrees if the player viewing it is playing black
-        if (viewingPlayer == ChessPiece.PlayerColor.BLACK) {
-            row = (NUM_ROWS-1) - row;
-            col = (NUM_COLS-1) - col;
-        }
-
+    private static Tile2D pieceToTile(int row, int col, ChessPiece chessPiece, HighlightMode highlightMode) {
         StringBuilder iconName = new StringBuilder();
         if (chessPiece == null) {
             iconName.append("empty-").append(coordsToTileColor(row, col));
@@ -797,21 +898,15 @@ class ChessBoard {
     }
 
     /**
-     * Converts a tile at a given row and column into a Tile2D, to send to a client for them to display. This
-     * method needs the player color of who this tile will be shown to, as the resulting Tile2D's position depends
-     * on which side of the board the player is on. I.e. because the two players see the board differently, we need
-     * to know who is going to see this tile.
+     * Converts a tile at a given row and column into a Tile2D, to send to a client for them to display.
      *
      * @param row the row of the chess piece
      * @param col the column of the chess piece
-     * @param viewingPlayer the player color of who this tile will be shown to
      * @param highlightMode how the tile should be highlighted
-     * @return a Tile2D which represents the chess piece at those coordinates, appropriate for which side of the board
-     *         the player is on
+     * @return a Tile2D which represents the chess piece at those coordinates
      */
-    Tile2D pieceToTile(int row, int col, ChessPiece.PlayerColor viewingPlayer,
-                    HighlightMode highlightMode) {
-        return pieceToTile(row, col, board[row][col], viewingPlayer, highlightMode);
+    Tile2D pieceToTile(int row, int col, HighlightMode highlightMode) {
+        return pieceToTile(row, col, board[row][col], highlightMode);
     }
 
     /**
@@ -835,11 +930,11 @@ class ChessBoard {
                 : ChessBoard.HighlightMode.ENEMY_NORMAL;
 
         ArrayList<Tile2D> tiles = new ArrayList<>();
-        tiles.add(pieceToTile(row, col, playerColor, brightHighlight));
+        tiles.add(pieceToTile(row, col, brightHighlight));
 
         ArrayList<TileCoordinate> possibleMoves = getPossibleMoves(row, col);
         for (TileCoordinate move : possibleMoves) {
-            tiles.add(pieceToTile(move.getRow(), move.getCol(), playerColor, normalHighlight));
+            tiles.add(pieceToTile(move.getRow(), move.getCol(), normalHighlight));
         }
 
         return tiles;
@@ -847,12 +942,11 @@ class ChessBoard {
 
     /**
      * Converts the current state of the chess board to a map from tile coordinates to Tile2Ds representing that tile.
-     * This method needs the player color of who this tile will be shown to, as the resulting Tile2D's
-     * position depends on which side of the board the player is on. I.e. because the two players see the board
-     * differently, we need to know who is going to see this tile.
+     * This method needs the player who this tile will be shown to, as tiles are highlighted according to which piece
+     * they have selected.
      *
      * @param viewingPlayer the player data of who this tile will be shown to
-     * @return a mapping from coordinates to Tile2Ds, representing the board from that player's perspective
+     * @return a mapping from coordinates to Tile2Ds, representing the board as that player sees it
      */
     HashMap<TileCoordinate, Tile2D> getCoordinatesToTiles(ChessServer.ChessPlayerData viewingPlayer) {
         HashMap<TileCoordinate, Tile2D> coordinatesToTiles = new HashMap<>();
@@ -866,12 +960,9 @@ class ChessBoard {
         // then, add all other tiles
         for (int row = 0; row < NUM_ROWS; row++) {
             for (int col = 0; col < NUM_COLS; col++) {
-                Tile2D tile = pieceToTile(row, col, viewingPlayer.getPlayerColor(), HighlightMode.NONE);
-                // important to use tile.getRow/getCol as they may be different from row/col
-                // this is why we create the tile first, as it allows us to avoid player color conversions here
-                // with the small overhead of creating some tiles that may be thrown away
-                if (!coordinatesToTiles.containsKey(new TileCoordinate(tile.getRow(), tile.getCol()))) {
-                    coordinatesToTiles.put(new TileCoordinate(tile.getRow(), tile.getCol()), tile);
+                TileCoordinate coordinate = new TileCoordinate(row, col);
+                if (!coordinatesToTiles.containsKey(coordinate)) {
+                    coordinatesToTiles.put(coordinate, pieceToTile(row, col, HighlightMode.NONE));
                 }
             }
         }
@@ -881,9 +972,8 @@ class ChessBoard {
 
     /**
      * Converts the current state of the chess board to a Tile2D representation, which can be sent to a client for
-     * them to display. This method needs the player color of who this tile will be shown to, as the resulting Tile2D's
-     * position depends on which side of the board the player is on. I.e. because the two players see the board
-     * differently, we need to know who is going to see this tile.
+     * them to display. This method needs the player who this tile will be shown to, as tiles are highlighted according
+     * to which piece they have selected.
      *
      * @param viewingPlayer the player data of who this tile will be shown to
      * @return an array of Tile2Ds that can be sent to a player, and will display the current state of the board
@@ -0,0 +1,231 @@
+package com.github.alexandergillon.wegapi.server.chess;
+
+import com.github.alexandergillon.wegapi.game.Tile2D;
+import com.github.alexandergillon.wegapi.game.TileCoordinate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+
+/**
+ * Record types and payload encodings for the chess game's event log (see GameEventLog). <br> <br>
+ *
+ * Player actions are logged as the input that the player sent, in board coordinates (i.e. after BaseServer2D has
+ * undone the player's view transform, so black's clicks are not rotated), once the server has accepted them, and
+ * before they are applied. Frames are likewise logged in board coordinates. Replaying actions through ChessGame
+ * reproduces the board, the turn and every selection exactly. Every record's payload starts with an int: the player
+ * number for player events and frames, and the game ID for snapshots. Player events end with a long: the time the
+ * event was accepted, in milliseconds since the epoch. <br> <br>
+ *
+ *   - JOIN: (player number, time). A player joined the game. <br>
+ *   - CLICK: (player number, row, col, time). A player clicked a tile. <br>
+ *   - DRAG: (player number, from row, from col, to row, to col, time). A player dragged one tile to another. <br>
+ *   - SNAPSHOT: (game ID, ChessGame.snapshot()). The complete state of a game. Any earlier records for that game do
+ *               not need to be replayed. <br>
+ *   - FRAME: (player number, Frame). An update that was sent to a player. Only logged if the server is recording
+ *            frames, and never needed for recovery: see ChessReplay.
+ */
+final class ChessEvents {
+    static final int LOG_FORMAT_VERSION = 3;
+
+    static final byte JOIN = 1;
+    static final byte CLICK = 2;
+    static final byte DRAG = 3;
+    static final byte SNAPSHOT = 4;
+    static final byte FRAME = 5;
+
+    private ChessEvents() {
+        throw new AssertionError("Utility class, not meant to be instantiated");
+    }
+
+    /**
+     * A single update sent to a player: either some tiles being created, some tiles being deleted, or all tiles being
+     * deleted. Frames compare equal if they have the same kind and the same tiles, in any order.
+     */
+    static final class Frame {
+        static final byte CREATE = 0;
+        static final byte DELETE = 1;
+        static final byte DELETE_ALL = 2;
+
+        private final byte kind;
+        private final HashSet<Tile2D> created = new HashSet<>();
+        private final HashSet<TileCoordinate> deleted = new HashSet<>();
+
+        private Frame(byte kind) {
+            this.kind = kind;
+        }
+
+        static Frame create(Collection<Tile2D> tiles) {
+            Frame frame = new Frame(CREATE);
+            frame.created.addAll(tiles);
+            return frame;
+        }
+
+        static Frame delete(Collection<TileCoordinate> tileCoordinates) {
+            Frame frame = new Frame(DELETE);
+            frame.deleted.addAll(tileCoordinates);
+            return frame;
+        }
+
+        static Frame deleteAll() {
+            return new Frame(DELETE_ALL);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Frame other = (Frame) obj;
+            return kind == other.kind && created.equals(other.created) && deleted.equals(other.deleted);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, created, deleted);
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case CREATE: return "Frame(create " + created.size() + " tiles)";
+                case DELETE: return "Frame(delete " + deleted.size() + " tiles)";
+                default: return "Frame(delete all)";
+            }
+        }
+    }
+
+    static byte[] join(int playerNumber, long timestamp) {
+        return ByteBuffer.allocate(12).putInt(playerNumber).putLong(timestamp).array();
+    }
+
+    static byte[] click(int playerNumber, int row, int col, long timestamp) {
+        return ByteBuffer.allocate(14).putInt(playerNumber).put((byte) row).put((byte) col).putLong(timestamp).array();
+    }
+
+    static byte[] drag(int playerNumber, int fromRow, int fromCol, int toRow, int toCol, long timestamp) {
+        return ByteBuffer.allocate(16).putInt(playerNumber)
+                .put((byte) fromRow).put((byte) fromCol).put((byte) toRow).put((byte) toCol)
+                .putLong(timestamp)
+                .array();
+    }
+
+    static byte[] snapshot(int gameId, byte[] state) {
+        return ByteBuffer.allocate(4 + state.length).putInt(gameId).put(state).array();
+    }
+
+    /**
+     * Encodes a frame. The format is the player number, the frame's kind, the number of tiles, then for each tile its
+     * row and column, and (for CREATE frames) its icon name and tile name as length-prefixed UTF-8 (length -1 for
+     * no tile name).
+     *
+     * @param playerNumber the player that the frame was sent to
+     * @param frame the frame
+     * @return the encoded frame
+     */
+    static byte[] frame(int playerNumber, Frame frame) {
+        ArrayList<byte[]> strings = new ArrayList<>();
+        int size = 4 + 1 + 4;
+        if (frame.kind == Frame.CREATE) {
+            for (Tile2D tile : frame.created) {
+                byte[] iconName = tile.getIconName().getBytes(StandardCharsets.UTF_8);
+                byte[] tileName = tile.getTileName() == null ? null : tile.getTileName().getBytes(StandardCharsets.UTF_8);
+                strings.add(iconName);
+                strings.add(tileName);
+                size += 2 + 4 + iconName.length + 4 + (tileName == null ? 0 : tileName.length);
+            }
+        } else {
+            size += 2 * frame.deleted.size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).putInt(playerNumber).put(frame.kind);
+        if (frame.kind == Frame.CREATE) {
+            buffer.putInt(frame.created.size());
+            int i = 0;
+            for (Tile2D tile : frame.created) {
+                buffer.put((byte) tile.getRow()).put((byte) tile.getCol());
+                putString(buffer, strings.get(i++));
+                putString(buffer, strings.get(i++));
+            }
+        } else {
+            buffer.putInt(frame.deleted.size());
+            for (TileCoordinate coords : frame.deleted) {
+                buffer.put((byte) coords.getRow()).put((byte) coords.getCol());
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        if (string == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(string.length).put(string);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) return null;
+        byte[] string = new byte[length];
+        buffer.get(string);
+        return new String(string, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a frame encoded by frame(), after its player number has been read.
+     *
+     * @param payload the frame's payload, positioned after the player number
+     * @return the decoded frame
+     */
+    static Frame decodeFrame(ByteBuffer payload) {
+        Frame frame = new Frame(payload.get());
+        int numTiles = payload.getInt();
+        for (int i = 0; i < numTiles; i++) {
+            int row = payload.get();
+            int col = payload.get();
+            if (frame.kind == Frame.CREATE) {
+                String iconName = getString(payload);
+                String tileName = getString(payload);
+                frame.created.add(new Tile2D(row, col, iconName, tileName));
+            } else {
+                frame.deleted.add(new TileCoordinate(row, col));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the ID of the game that a record belongs to, without consuming any of its payload.
+     *
+     * @param type the record's type
+     * @param payload the record's payload
+     * @return the ID of the game that the record belongs to
+     */
+    static int gameIdOf(byte type, ByteBuffer payload) {
+        int firstInt = payload.getInt(payload.position());
+        return type == SNAPSHOT ? firstInt : ChessGame.gameIdOf(firstInt);
+    }
+
+    /**
+     * Returns whether a record is a player event (JOIN, CLICK or DRAG).
+     *
+     * @param type the record's type
+     * @return whether the record is a player event
+     */
+    static boolean isPlayerEvent(byte type) {
+        return type == JOIN || type == CLICK || type == DRAG;
+    }
+
+    /**
+     * Returns the time at which a player event was accepted, without consuming any of its payload.
+     *
+     * @param payload the payload of a player event
+     * @return the time the event was accepted, in milliseconds since the epoch
+     */
+    static long timestampOf(ByteBuffer payload) {
+        return payload.getLong(payload.limit() - 8);
+    }
+}
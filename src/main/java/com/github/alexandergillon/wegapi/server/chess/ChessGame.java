@@ -0,0 +1,645 @@
+package com.github.alexandergillon.wegapi.server.chess;
+
+import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.MoveValidatedEvent;
+import com.github.alexandergillon.wegapi.metrics.RedrawComputedEvent;
+import com.github.alexandergillon.wegapi.server.GamePageStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A single game of chess, between two players. ChessServer runs any number of these at once. <br> <br>
+ *
+ * Players are numbered globally by the server: players 2n and 2n+1 play game n, and the even-numbered player is
+ * white. A player may be detached (their ChessPlayerData has no remote object), e.g. when a game has been rebuilt
+ * from the event log and they have not yet reconnected. The game plays on as normal for detached players, but
+ * nothing is sent to them. This is also what lets the game be replayed without any players at all. <br> <br>
+ *
+ * A game that has been idle for a while can be compacted (see compactIfIdle()), and is rehydrated when it is next
+ * played, drawn or printed. <br> <br>
+ *
+ * A ChessGame is not thread-safe: ChessServer synchronizes on it.
+ */
+class ChessGame {
+    /** How many events a game can have in the event log after its last snapshot, before it is snapshotted again. */
+    static final int SNAPSHOT_INTERVAL = 64;
+    private static final byte NO_SELECTION = -1;
+    private static final int PACKED_BOARD_BYTES = ChessBoard.ENCODED_BYTES + 1;  // the board, then the current player
+
+    private final int gameId;
+    private final ChessServer.ChessPlayerData[] players = new ChessServer.ChessPlayerData[2];  // indexed by seat
+    private ChessBoard chessBoard = new ChessBoard();  // initializes a chess board to the starting setup of chess
+    private ChessPiece.PlayerColor currentPlayer = ChessPiece.PlayerColor.WHITE;
+    private int eventsSinceSnapshot = 0;
+    private FrameListener frameListener = null;
+
+    // while the game is compacted (see compactIfIdle()), chessBoard is null, and the board and current player are
+    // packed into packedBoard, or into pageStore if the game is paged out
+    private byte[] packedBoard = null;
+    private GamePageStore pageStore = null;  // non-null only while paged out
+    private long lastUsedNanos = System.nanoTime();
+
+    /** Listener for updates sent to players. */
+    interface FrameListener {
+        /**
+         * Called just before an update is sent to a player.
+         *
+         * @param playerNumber the player the update is sent to
+         * @param frame the update
+         */
+        void frameSent(int playerNumber, ChessEvents.Frame frame);
+    }
+
+    ChessGame(int gameId) {
+        this.gameId = gameId;
+    }
+
+    int getGameId() {
+        return gameId;
+    }
+
+    void setFrameListener(FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    /**
+     * Returns the ID of the game that a player is in.
+     *
+     * @param playerNumber the number of a player
+     * @return the ID of that player's game
+     */
+    static int gameIdOf(int playerNumber) {
+        return playerNumber / 2;
+    }
+
+    /**
+     * Gets the player color of a player with a certain player number. For now, even = white, odd = black.
+     *
+     * @param playerNumber the number of a player
+     * @return the player color of that player
+     */
+    static ChessPiece.PlayerColor getPlayerColor(int playerNumber) {
+        if (playerNumber % 2 == 0) {
+            return ChessPiece.PlayerColor.WHITE;
+        } else {
+            return ChessPiece.PlayerColor.BLACK;
+        }
+    }
+
+    /**
+     * Adds a player to this game.
+     *
+     * @param playerNumber the player's number, which must belong to this game
+     * @param player the player's remote object, or null to add them detached
+     * @return the player's chess-specific data
+     */
+    ChessServer.ChessPlayerData addPlayer(int playerNumber, PlayerInterface2D player) {
+        ChessServer.ChessPlayerData chessPlayerData = new ChessServer.ChessPlayerData(playerNumber, player, getPlayerColor(playerNumber));
+        chessPlayerData.setConnected(player != null);
+        players[playerNumber % 2] = chessPlayerData;
+        return chessPlayerData;
+    }
+
+    /**
+     * Returns a player's chess-specific data.
+     *
+     * @param playerNumber the player's number
+     * @return the player's data, or null if they are not in this game
+     */
+    ChessServer.ChessPlayerData getPlayer(int playerNumber) {
+        if (gameIdOf(playerNumber) != gameId) return null;
+        return players[playerNumber % 2];
+    }
+
+    /**
+     * Returns the opponent of a player in this game.
+     *
+     * @param player a player in this game
+     * @return the player's opponent, or null if they have not joined
+     */
+    ChessServer.ChessPlayerData getOtherPlayer(ChessServer.ChessPlayerData player) {
+        return players[1 - player.getPlayerNumber() % 2];
+    }
+
+    /**
+     * Records that an event for this game has been logged, and returns whether it is time to snapshot the game.
+     *
+     * @return whether SNAPSHOT_INTERVAL events have been logged since the last snapshot
+     */
+    boolean noteEventLogged() {
+        if (++eventsSinceSnapshot < SNAPSHOT_INTERVAL) return false;
+        eventsSinceSnapshot = 0;
+        return true;
+    }
+
+    /**
+     * Compacts this game if nothing has used its board for a while. The board (about 1.5KB of objects) and the current
+     * player are packed into PACKED_BOARD_BYTES bytes, and, if a page store is given, written out to it so that only
+     * the players are left in memory. The game is rehydrated transparently the next time it is used. <br> <br>
+     *
+     * The players are kept as they are: they are small next to the board, and the server looks them up without
+     * holding the game's lock.
+     *
+     * @param idleNanos how long the board must have been unused for, in nanoseconds
+     * @param pageStore the store to page the game out to, or null to keep it in memory
+     * @return whether the game was compacted (false if it was in use, or already compacted)
+     */
+    boolean compactIfIdle(long idleNanos, GamePageStore pageStore) {
+        if (chessBoard == null || System.nanoTime() - lastUsedNanos < idleNanos) return false;
+        byte[] packed = packBoard();
+        if (pageStore != null) {
+            try {
+                pageStore.write(gameId, packed);
+                this.pageStore = pageStore;
+                packed = null;
+            } catch (IOException e) {
+                Log.warn("server: failed to page out game %d, keeping it in memory, %s", gameId, e);
+            }
+        }
+        packedBoard = packed;
+        chessBoard = null;
+        return true;
+    }
+
+    boolean isCompacted() {
+        return chessBoard == null;
+    }
+
+    boolean isPagedOut() {
+        return pageStore != null;
+    }
+
+    /** Rehydrates this game if it is compacted, and notes that it has been used. */
+    private void ensureLive() {
+        lastUsedNanos = System.nanoTime();
+        if (chessBoard != null) return;
+        unpackBoard(packBoard());
+        discardPage();
+    }
+
+    /**
+     * Encodes the board and the current player: ChessBoard.toBytes(), then one byte for the ordinal of the player
+     * whose turn it is. This works whether or not the game is compacted, and does not rehydrate it.
+     *
+     * @return the packed board
+     */
+    private byte[] packBoard() {
+        if (chessBoard == null) {
+            if (pageStore == null) return packedBoard;
+            try {
+                return pageStore.read(gameId);
+            } catch (IOException e) {
+                System.out.printf("server: failed to read page of game %d, %s%n", gameId, e);
+                System.exit(1);
+                return null;
+            }
+        }
+        return ByteBuffer.allocate(PACKED_BOARD_BYTES).put(chessBoard.toBytes()).put((byte) currentPlayer.ordinal()).array();
+    }
+
+    private void unpackBoard(byte[] packed) {
+        chessBoard = ChessBoard.fromBytes(Arrays.copyOf(packed, ChessBoard.ENCODED_BYTES));
+        currentPlayer = ChessPiece.PlayerColor.values()[packed[ChessBoard.ENCODED_BYTES]];
+    }
+
+    /** Drops any compacted copy of the board, once the game is live again. */
+    private void discardPage() {
+        packedBoard = null;
+        if (pageStore == null) return;
+        try {
+            pageStore.delete(gameId);
+        } catch (IOException e) {
+            Log.warn("server: failed to delete page of game %d, %s", gameId, e);
+        }
+        pageStore = null;
+    }
+
+    /**
+     * Encodes the complete state of this game, for the event log. The format is ChessBoard.toBytes(), then one byte
+     * for the ordinal of the player whose turn it is, then for each seat (white, then black): one byte for whether
+     * a player has joined, and one byte for their selected tile (as row * NUM_COLS + col, or -1 if none).
+     *
+     * @return the encoded game state
+     */
+    byte[] snapshot() {
+        ByteBuffer buffer = ByteBuffer.allocate(PACKED_BOARD_BYTES + 2 * 2);
+        buffer.put(packBoard());  // does not rehydrate a compacted game: this is called for every game at once
+        for (ChessServer.ChessPlayerData player : players) {
+            buffer.put((byte) (player == null ? 0 : 1));
+            if (player == null || !player.hasSelectedTile()) {
+                buffer.put(NO_SELECTION);
+            } else {
+                buffer.put((byte) (player.getSelectedTile().getRow() * ChessBoard.NUM_COLS + player.getSelectedTile().getCol()));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Restores this game to a state encoded by snapshot(). Players who are in the snapshot are added detached.
+     *
+     * @param state the encoded game state
+     */
+    void restore(ByteBuffer state) {
+        discardPage();
+        byte[] packed = new byte[PACKED_BOARD_BYTES];
+        state.get(packed);
+        unpackBoard(packed);
+        lastUsedNanos = System.nanoTime();
+        for (int seat = 0; seat < players.length; seat++) {
+            boolean joined = state.get() != 0;
+            byte selected = state.get();
+            if (!joined) {
+                players[seat] = null;
+                continue;
+            }
+            ChessServer.ChessPlayerData player = addPlayer(2 * gameId + seat, null);
+            if (selected != NO_SELECTION) {
+                player.setSelectedTile(new TileCoordinate(selected / ChessBoard.NUM_COLS, selected % ChessBoard.NUM_COLS));
+            }
+        }
+        eventsSinceSnapshot = 0;
+    }
+
+    /**
+     * Returns the board in its text representation (see ChessBoard.toText()), along with whose turn it is.
+     *
+     * @return the game as text
+     */
+    String toText() {
+        ensureLive();
+        return chessBoard.toText() + "\n" + ChessPiece.colorToString(currentPlayer) + " to move";
+    }
+
+    /**
+     * Applies a record from the event log to this game. Players who join are added detached.
+     *
+     * @param type the record's type (see ChessEvents)
+     * @param payload the record's payload
+     */
+    void applyEvent(byte type, ByteBuffer payload) {
+        switch (type) {
+            case ChessEvents.JOIN:
+                addPlayer(payload.getInt(), null);
+                break;
+            case ChessEvents.CLICK: {
+                ChessServer.ChessPlayerData player = getPlayer(payload.getInt());
+                if (player != null) tileClicked(payload.get(), payload.get(), player);
+                break;
+            }
+            case ChessEvents.DRAG: {
+                ChessServer.ChessPlayerData player = getPlayer(payload.getInt());
+                if (player != null) tileDragged(payload.get(), payload.get(), payload.get(), payload.get(), player);
+                break;
+            }
+            case ChessEvents.SNAPSHOT:
+                payload.getInt();  // game ID
+                restore(payload);
+                break;
+            case ChessEvents.FRAME:
+                break;  // frames are a record of what was sent, and do not change the game
+            default:
+                Log.warn("server: unrecognized event log record type %d, ignoring it", type);
+        }
+    }
+
+    /**
+     * Sends a message to a player, unless they are detached.
+     *
+     * @param player the player to send the message to
+     * @param message the message to display
+     * @param error whether the message is an error
+     */
+    private void displayMessage(ChessServer.ChessPlayerData player, String message, boolean error) {
+        if (player.getPlayer() == null) return;
+        try {
+            player.getPlayer().displayMessage(message, error);
+        } catch (RemoteException e) {
+            Log.warn("RemoteException while displaying message to player #%d: %s", player.getPlayerNumber(), e);
+        }
+    }
+
+    /**
+     * Enforces that when a player takes an action (a click or a drag), that the other player is connected to the game.
+     * Furthermore, that the remote object that that player provided in their PlayerData2D corresponds with the remote
+     * object they initially supplied when they called registerPlayer2D()
+     *
+     * @param actionPlayerData the player data of the player who took an action
+     * @param actionPlayer the chess player data of the player who took an action
+     * @return whether the game state passes the checks described above
+     */
+    boolean checkPlayers(PlayerData2D actionPlayerData, ChessServer.ChessPlayerData actionPlayer) {
+        ChessServer.ChessPlayerData otherPlayer = getOtherPlayer(actionPlayer);
+        if (otherPlayer == null) {
+            try {
+                actionPlayerData.getPlayer().displayMessage("The other player has not yet joined.", true);
+            } catch (RemoteException e) {
+                Log.warn("RemoteException in checkPlayers(): %s", e);
+            }
+            return false;
+        }
+
+        if (!otherPlayer.isConnected()) {
+            try {
+                actionPlayerData.getPlayer().displayMessage("The other player is disconnected.", true);
+            } catch (RemoteException e) {
+                Log.warn("RemoteException in checkPlayers(): %s", e);
+            }
+            return false;
+        }
+
+        // make sure the remote object we have on file corresponds, as this is what we use to update the player
+        if (!actionPlayerData.getPlayer().equals(actionPlayer.getPlayer())) {
+            System.out.println("Player remote objects do not agree, exiting.");
+            System.exit(1);
+            return false;  // not used for now, but if we later want this to not exit, this should probably return false
+        }
+
+        return true;
+    }
+
+    /**
+     * Updates the other player when a player successfully made a move. This means checking whether the move interfered
+     * with what the other player currently had selected, and if so, deselecting the other player's piece. For example,
+     * the other player may have a piece selected that was captured in the move that just occurred. Then we need to
+     * deselect the other player's piece as this piece no longer exists.
+     *
+     * @param fromRow the row that was moved from
+     * @param fromCol the column that was moved from
+     * @param toRow the row that was moved to
+     * @param toCol the column that was moved to
+     * @param movingPlayer the player who moved
+     */
+    private void updateOtherPlayer(int fromRow, int fromCol, int toRow, int toCol, ChessServer.ChessPlayerData movingPlayer) {
+        ChessServer.ChessPlayerData otherPlayer = getOtherPlayer(movingPlayer);
+        if (otherPlayer == null || !otherPlayer.hasSelectedTile()) return;
+
+        int selectedRow = otherPlayer.getSelectedTile().getRow();
+        int selectedCol = otherPlayer.getSelectedTile().getCol();
+
+        if (selectedRow == fromRow && selectedCol == fromCol) {
+            otherPlayer.setSelectedTile(null);
+        } else if (selectedRow == toRow && selectedCol == toCol) {
+            otherPlayer.setSelectedTile(null);
+        }
+    }
+
+    /**
+     * Attempts to make a move. This move must be legal, except for possibly leaving the king in check. If this move
+     * does in fact leave the king in check (and is hence actually an illegal move), the move fails, and the player is
+     * notified. Otherwise, the move succeeds, and the visuals of both players are updated accordingly.
+     *
+     * @param fromRow the row of the piece to move
+     * @param fromCol the column of the piece to move
+     * @param toRow the row of where to move to
+     * @param toCol the column of where to move to
+     * @param movingPlayer the player who made the move
+     */
+    private void tryMove(int fromRow, int fromCol, int toRow, int toCol, ChessServer.ChessPlayerData movingPlayer) {
+        if (currentPlayer != movingPlayer.getPlayerColor()) {
+            displayMessage(movingPlayer, "Not your turn.", true);
+        } else {
+            MoveValidatedEvent event = new MoveValidatedEvent();
+            event.begin();
+            boolean legal = chessBoard.tryMove(fromRow, fromCol, toRow, toCol);
+            event.end();
+            if (event.shouldCommit()) {
+                event.gameId = gameId;
+                event.playerNumber = movingPlayer.getPlayerNumber();
+                event.fromRow = fromRow;
+                event.fromCol = fromCol;
+                event.toRow = toRow;
+                event.toCol = toCol;
+                event.legal = legal;
+                event.commit();
+            }
+
+            if (legal) {
+                movingPlayer.setSelectedTile(null);
+                updateOtherPlayer(fromRow, fromCol, toRow, toCol, movingPlayer);
+
+                if (currentPlayer == ChessPiece.PlayerColor.WHITE) currentPlayer = ChessPiece.PlayerColor.BLACK;
+                else currentPlayer = ChessPiece.PlayerColor.WHITE;
+            } else {
+                displayMessage(movingPlayer, "Illegal move: leaves king in check.", true);
+            }
+        }
+    }
+
+    /**
+     * This function is called when a player has clicked a tile when they have a piece selected. It updates the game
+     * state based on where the player clicked. <br> <br>
+     *
+     * If they clicked their selected piece, it deselects that piece. If they clicked a tile that their selected piece
+     * might be able to move to, it tries to make that move (this could fail if the move would leave their king in
+     * check). Otherwise, it deselects their currently selected piece (if they clicked an empty tile that their
+     * piece cannot move to), or selects a different piece (if they clicked another piece that their piece cannot
+     * move to).
+     *
+     * @param row the row that the player clicked
+     * @param col the column that the player clicked
+     * @param selectedTile the player's selected tile coordinates
+     * @param clickingPlayer the player who made the click
+     */
+    private void tileClickedHasSelected(int row, int col, TileCoordinate selectedTile, ChessServer.ChessPlayerData clickingPlayer) {
+        if (row == selectedTile.getRow() && col == selectedTile.getCol()) {
+            // clicked their selected tile: deselect
+            clickingPlayer.setSelectedTile(null);
+        } else {
+            // clicked another tile
+            ChessPiece clickedPiece = chessBoard.pieceAt(row, col);
+            ChessPiece selectedPiece = chessBoard.pieceAt(selectedTile.getRow(), selectedTile.getCol());
+
+            if (clickingPlayer.getPlayerColor() != selectedPiece.getPlayerColor()) {
+                // clicked another tile, and their selected piece is an enemy piece. deselect the piece,
+                // and perhaps select another
+                if (clickedPiece == null) {
+                    clickingPlayer.setSelectedTile(null);
+                } else {
+                    clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
+                }
+            } else {
+                // clicked another tile, and their selected piece is friendly. check if they are trying to make a move,
+                // or selecting another piece
+                if (chessBoard.canMove(selectedTile.getRow(), selectedTile.getCol(), row, col)) {
+                    // their selected piece can make the move. try to make it
+                    tryMove(selectedTile.getRow(), selectedTile.getCol(), row, col, clickingPlayer);
+                } else {
+                    // not trying to make a move: deselect their piece and potentially select another
+                    if (clickedPiece == null) {
+                        clickingPlayer.setSelectedTile(null);
+                    } else {
+                        clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This function is called when a player has clicked a tile when they do not have a piece selected. It updates
+     * the game state based on where the player clicked. Essentially, if they clicked a piece, it is selected,
+     * and otherwise nothing happens.
+     *
+     * @param row the row that the player clicked
+     * @param col the column that the player clicked
+     * @param clickingPlayer the player who made the click
+     */
+    private void tileClickedNoSelected(int row, int col, ChessServer.ChessPlayerData clickingPlayer) {
+        ChessPiece clickedPiece = chessBoard.pieceAt(row, col);
+        if (clickedPiece != null) {
+            clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
+        }
+        // otherwise, no selected piece, and the player clicked an empty square
+    }
+
+    /**
+     * Returns a player's view of the board, or null if they are detached (in which case there is nobody to draw for).
+     *
+     * @param player the player whose view to get
+     * @return the player's view of the board, or null
+     */
+    private HashMap<TileCoordinate, Tile2D> viewOf(ChessServer.ChessPlayerData player) {
+        if (player == null || player.getPlayer() == null) return null;
+        return chessBoard.getCoordinatesToTiles(player);
+    }
+
+    /**
+     * Redraws tiles for a player, based on what changed. This function takes the state of the game before some change,
+     * and the state after (both as lists of Tile2Ds). Then, any tiles that were present before and not afterwards are
+     * deleted, and any tiles that have changed icons are redrawn for the user. This therefore avoids redrawing the
+     * entire game for the user each time a change is made, which is faster and looks better.
+     *
+     * @param player the player whose game to redraw
+     * @param beforeTiles the state of the game before some change, or null if the player is detached
+     * @param afterTiles the state of the game after some change
+     */
+    private void redrawPlayer(ChessServer.ChessPlayerData player, HashMap<TileCoordinate, Tile2D> beforeTiles,
+                              HashMap<TileCoordinate, Tile2D> afterTiles) {
+        if (beforeTiles == null || player.getPlayer() == null) return;
+        RedrawComputedEvent event = new RedrawComputedEvent();
+        event.begin();
+
+        // update ('create') any tiles whose icons changed
+        ArrayList<Tile2D> tilesToCreate = new ArrayList<>();
+        for (TileCoordinate coords : afterTiles.keySet()) {
+            if (!beforeTiles.containsKey(coords)) {
+                tilesToCreate.add(afterTiles.get(coords));
+            } else {
+                Tile2D beforeTile = beforeTiles.get(coords);
+                Tile2D afterTile = afterTiles.get(coords);
+                if (!beforeTile.equals(afterTile)) {
+                    tilesToCreate.add(afterTile);
+                }
+            }
+        }
+
+        // delete any tiles which were present before but not after
+        HashSet<TileCoordinate> deletedCoordinates = new HashSet<>(beforeTiles.keySet());
+        deletedCoordinates.removeAll(afterTiles.keySet());
+        ArrayList<TileCoordinate> tilesToDelete = new ArrayList<>(deletedCoordinates);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.gameId = gameId;
+            event.playerNumber = player.getPlayerNumber();
+            event.tilesCreated = tilesToCreate.size();
+            event.tilesDeleted = tilesToDelete.size();
+            event.commit();
+        }
+
+        try {
+            if (tilesToDelete.size() != 0) {
+                sendDeleteTiles(player, tilesToDelete, PlayerInterface.DeleteTilesMode.DELETE_EXISTING);
+            }
+            if (tilesToCreate.size() != 0) {
+                sendCreateTiles(player, tilesToCreate, PlayerInterface.CreateTilesMode.CREATE);
+            }
+        } catch (RemoteException e) {
+            Log.warn("RemoteException in redrawPlayer(): %s", e);
+        }
+    }
+
+    /**
+     * Redraws a player's whole board from scratch.
+     *
+     * @param player the player whose board to draw
+     * @throws RemoteException if the player could not be reached
+     */
+    void drawBoard(ChessServer.ChessPlayerData player) throws RemoteException {
+        ensureLive();
+        sendDeleteTiles(player, new ArrayList<>(), PlayerInterface.DeleteTilesMode.DELETE_ALL);
+        sendCreateTiles(player, chessBoard.toTiles(player), PlayerInterface.CreateTilesMode.CREATE_NEW);
+    }
+
+    private void sendCreateTiles(ChessServer.ChessPlayerData player, ArrayList<Tile2D> tiles,
+                                 PlayerInterface.CreateTilesMode mode) throws RemoteException {
+        if (frameListener != null) frameListener.frameSent(player.getPlayerNumber(), ChessEvents.Frame.create(tiles));
+        player.getPlayer().createTiles(tiles, mode);
+    }
+
+    private void sendDeleteTiles(ChessServer.ChessPlayerData player, ArrayList<TileCoordinate> tileCoordinates,
+                                 PlayerInterface.DeleteTilesMode mode) throws RemoteException {
+        if (frameListener != null) {
+            ChessEvents.Frame frame = mode == PlayerInterface.DeleteTilesMode.DELETE_ALL ? ChessEvents.Frame.deleteAll()
+                    : ChessEvents.Frame.delete(tileCoordinates);
+            frameListener.frameSent(player.getPlayerNumber(), frame);
+        }
+        player.getPlayer().deleteTiles(tileCoordinates, mode);
+    }
+
+    /**
+     * Brings a player's board up to date, sending only the tiles that differ from the tiles they already have.
+     *
+     * @param player the player whose board to update
+     * @param currentTiles the tiles that the player currently has
+     */
+    void drawBoardFrom(ChessServer.ChessPlayerData player, HashMap<TileCoordinate, Tile2D> currentTiles) {
+        ensureLive();
+        redrawPlayer(player, currentTiles, chessBoard.getCoordinatesToTiles(player));
+    }
+
+    /** Processes a player's click. Selects/deselects/moves pieces appropriately, and redraws both players. */
+    void tileClicked(int row, int col, ChessServer.ChessPlayerData clickingPlayer) {
+        ensureLive();
+        ChessServer.ChessPlayerData otherPlayer = getOtherPlayer(clickingPlayer);
+        HashMap<TileCoordinate, Tile2D> beforeTilesClickingPlayer = viewOf(clickingPlayer);
+        HashMap<TileCoordinate, Tile2D> beforeTilesOtherPlayer = viewOf(otherPlayer);
+
+        // process the click
+        if (clickingPlayer.hasSelectedTile()) {
+            tileClickedHasSelected(row, col, clickingPlayer.getSelectedTile(), clickingPlayer);
+        } else {
+            tileClickedNoSelected(row, col, clickingPlayer);
+        }
+
+        redrawPlayer(clickingPlayer, beforeTilesClickingPlayer, viewOf(clickingPlayer));
+        if (otherPlayer != null) redrawPlayer(otherPlayer, beforeTilesOtherPlayer, viewOf(otherPlayer));
+    }
+
+    /** Processes a player's drag. Moves pieces appropriately, and redraws both players. */
+    void tileDragged(int fromRow, int fromCol, int toRow, int toCol, ChessServer.ChessPlayerData draggingPlayer) {
+        ensureLive();
+        ChessServer.ChessPlayerData otherPlayer = getOtherPlayer(draggingPlayer);
+        HashMap<TileCoordinate, Tile2D> beforeTilesDraggingPlayer = viewOf(draggingPlayer);
+        HashMap<TileCoordinate, Tile2D> beforeTilesOtherPlayer = viewOf(otherPlayer);
+
+        if (draggingPlayer.hasSelectedTile()) {
+            draggingPlayer.setSelectedTile(null);
+        }
+
+        if (chessBoard.canMove(fromRow, fromCol, toRow, toCol)) {
+            tryMove(fromRow, fromCol, toRow, toCol, draggingPlayer);
+        }
+
+        redrawPlayer(draggingPlayer, beforeTilesDraggingPlayer, viewOf(draggingPlayer));
+        if (otherPlayer != null) redrawPlayer(otherPlayer, beforeTilesOtherPlayer, viewOf(otherPlayer));
+    }
+}
@@ -0,0 +1,486 @@
+package com.github.alexandergillon.wegapi.server.chess;
+
+import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.logging.Log;
+import com.github.alexandergillon.wegapi.metrics.Histogram;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load-tests a ChessServer in-process, with many simulated players, to find out how many concurrent games one server
+ * can sustain. <br> <br>
+ *
+ * Each simulated player is a SimulatedPlayer, which goes through the same 1D GameServerInterface as a client daemon
+ * (so BaseServer2D's conversions, circuit breakers and metrics are all exercised), but keeps the tiles it is sent in
+ * an array rather than launching create_tiles.exe / delete_tiles.exe. There is no RMI between the players and the
+ * server, so the results are an upper bound on what the server can do over the network. <br> <br>
+ *
+ * Players are paired into games, and each game is driven by a task on a thread pool, which makes a move for the side
+ * whose turn it is at a configurable rate (or as fast as possible). By default, moves are random legal moves, chosen
+ * the way a person would: by clicking one of the player's pieces, and then one of the tiles that the server
+ * highlights. With -s, moves are scripted instead: both players shuffle a knight back and forth with drags, which
+ * is always legal, so the load is the same from one run to the next. A game that cannot make a move (e.g. because
+ * it has ended in checkmate) is abandoned, and a new game is started in its place, so the number of games in
+ * progress stays the same. <br> <br>
+ *
+ * After a warmup, which gives the JIT compiler time to settle, actions are counted for the length of the test. At
+ * the end, the test prints actions per second, percentiles of the time taken by the server to handle an action
+ * (including redrawing both players), and the heap and garbage collection behavior over the test. <br> <br>
+ *
+ * To test under WAN conditions, set the wegapi.netem.* system properties (see NetworkEmulator): the players' calls to
+ * the server, and the server's calls to the players, then go over the emulated network. Threads that drive games
+ * wait out the emulated latency, so -t should be raised to keep the same rate of moves.
+ */
+public class ChessLoadTest {
+    private static final int DEFAULT_GAMES = 1000;
+    private static final double DEFAULT_MOVES_PER_SECOND = 1;
+    private static final int DEFAULT_DURATION_SECONDS = 30;
+    private static final int DEFAULT_WARMUP_SECONDS = 5;
+    private static final int MAX_FAILED_ATTEMPTS = 20;  // attempts at a move before a game is considered stuck
+    private static final long GAME_START_TIMEOUT_SECONDS = 120;
+    private static final int NUM_TILES = ChessBoard.NUM_ROWS * ChessBoard.NUM_COLS;
+
+    /**
+     * A simulated player, which records what it is sent. A player's tiles are only read and written by the task
+     * driving its game (the server sends them from inside that task's calls), so need no synchronization.
+     */
+    private static class SimulatedPlayer implements PlayerInterface {
+        private final String[] icons = new String[NUM_TILES];  // icon of each tile, or null if the tile does not exist
+        private final TileBatch.Dictionary iconDictionary = new TileBatch.Dictionary();
+        private volatile int playerNumber = -1;
+        private String color;
+        private long errors = 0;
+        private boolean notYourTurn = false;
+        private long sequence = 0;
+
+        @Override
+        public void initialize(int playerNumber) {
+            this.playerNumber = playerNumber;
+            this.color = ChessPiece.colorToString(ChessGame.getPlayerColor(playerNumber));
+        }
+
+        @Override
+        public void setActionAdmissionPolicy(ActionAdmissionPolicy policy) {
+        }
+
+        @Override
+        public void displayMessage(String message, boolean error) {
+            if (error) errors++;
+            if (message.startsWith("Not your turn")) notYourTurn = true;
+        }
+
+        @Override
+        public long createTiles(TileBatch batch, CreateTilesMode mode, long traceId) {
+            for (Tile tile : batch.decode(iconDictionary)) {
+                icons[tile.getIndex()] = tile.getIconName();
+            }
+            return ++sequence;
+        }
+
+        @Override
+        public long deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode, long traceId) {
+            if (mode == DeleteTilesMode.DELETE_ALL) {
+                Arrays.fill(icons, null);
+            } else {
+                for (int index : tileIndices) {
+                    icons[index] = null;
+                }
+            }
+            return ++sequence;
+        }
+
+        @Override
+        public long getLastAppliedSequence() {
+            return sequence;
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void gameOver(boolean win) {
+        }
+
+        /** @return whether the tile at an index shows one of this player's pieces */
+        private boolean isOwnPiece(int index) {
+            return icons[index] != null && icons[index].startsWith(color + "-");
+        }
+
+        /** @return whether the tile at an index is highlighted as somewhere the selected piece can move to */
+        private boolean isMoveTarget(int index) {
+            return icons[index] != null && icons[index].contains("-highlighted") && !icons[index].contains("-highlighted-bright");
+        }
+
+        /** @return whether the tile at an index shows one of this player's knights */
+        private boolean isOwnKnight(int index) {
+            return icons[index] != null && icons[index].startsWith(color + "-knight-");
+        }
+    }
+
+    /** A game in the load test, and the task that drives it. */
+    private class SimulatedGame implements Runnable {
+        private final SimulatedPlayer[] players = new SimulatedPlayer[2];  // white, then black
+        private int turn = 0;  // index into players of the side to move
+        private int failedAttempts = 0;
+
+        private SimulatedGame(SimulatedPlayer white, SimulatedPlayer black) {
+            players[0] = white;
+            players[1] = black;
+        }
+
+        @Override
+        public void run() {
+            if (System.nanoTime() >= endNanos) return;
+            SimulatedPlayer player = players[turn];
+            boolean moved;
+            try {
+                moved = scripted ? scriptedMove(player) : randomMove(player);
+            } catch (RemoteException e) {
+                actionsFailed.incrementAndGet();  // e.g. dropped by the emulated network
+                moved = false;
+            }
+
+            if (moved || player.notYourTurn) {
+                // if it was not the player's turn, a move that looked like it failed (e.g. because its reply was
+                // dropped) was in fact made
+                player.notYourTurn = false;
+                turn = 1 - turn;
+                failedAttempts = 0;
+            } else if (++failedAttempts == MAX_FAILED_ATTEMPTS) {
+                gamesAbandoned.incrementAndGet();
+                addPlayers(2);
+                return;
+            }
+            scheduleGame(this, moveIntervalNanos);
+        }
+
+        /**
+         * Tries to make a random legal move, by clicking one of the player's pieces, and then one of the tiles that
+         * the server highlights.
+         *
+         * @return whether a move was made
+         */
+        private boolean randomMove(SimulatedPlayer player) throws RemoteException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int piece = pickTile(player, random, false);
+            if (piece == -1) return false;
+            click(player, piece);
+
+            int target = pickTile(player, random, true);
+            if (target == -1) return false;
+            long errorsBefore = player.errors;
+            click(player, target);
+            return player.errors == errorsBefore;
+        }
+
+        /**
+         * Picks a random tile that is either one of the player's pieces, or a highlighted move target.
+         *
+         * @return the index of the tile, or -1 if there is none
+         */
+        private int pickTile(SimulatedPlayer player, ThreadLocalRandom random, boolean moveTarget) {
+            int count = 0;
+            int picked = -1;
+            for (int index = 0; index < NUM_TILES; index++) {
+                boolean matches = moveTarget ? player.isMoveTarget(index) : player.isOwnPiece(index) && !player.icons[index].contains("-highlighted");
+                // reservoir sampling, to pick uniformly without building a list
+                if (matches && random.nextInt(++count) == 0) picked = index;
+            }
+            return picked;
+        }
+
+        /**
+         * Makes a scripted move: drags one of the player's knights forward from their back rank (which is the bottom
+         * row of their view), or back to it if no knight is there.
+         *
+         * @return whether a move was made
+         */
+        private boolean scriptedMove(SimulatedPlayer player) throws RemoteException {
+            int backRow = ChessBoard.NUM_ROWS - 1;
+            int from = -1;
+            int to = -1;
+            for (int col = 0; col < ChessBoard.NUM_COLS && to == -1; col++) {
+                if (player.isOwnKnight(backRow * ChessBoard.NUM_COLS + col)) {
+                    from = backRow * ChessBoard.NUM_COLS + col;
+                    to = emptyNeighbor(player, backRow - 2, col);
+                }
+            }
+            for (int col = 0; col < ChessBoard.NUM_COLS && to == -1; col++) {
+                if (player.isOwnKnight((backRow - 2) * ChessBoard.NUM_COLS + col)) {
+                    from = (backRow - 2) * ChessBoard.NUM_COLS + col;
+                    to = emptyNeighbor(player, backRow, col);
+                }
+            }
+            if (to == -1) return false;
+
+            long errorsBefore = player.errors;
+            long startNanos = System.nanoTime();
+            serverStub.tileDragged(from, to, new PlayerData(player.playerNumber, player, 0));
+            recordAction(startNanos);
+            return player.errors == errorsBefore;
+        }
+
+        /** @return the index of an empty tile in a row, one column either side of a column, or -1 if there is none */
+        private int emptyNeighbor(SimulatedPlayer player, int row, int col) {
+            for (int targetCol : new int[] {col - 1, col + 1}) {
+                if (targetCol < 0 || targetCol >= ChessBoard.NUM_COLS) continue;
+                int index = row * ChessBoard.NUM_COLS + targetCol;
+                if (player.icons[index] != null && player.icons[index].startsWith("empty-")) return index;
+            }
+            return -1;
+        }
+
+        private void click(SimulatedPlayer player, int tile) throws RemoteException {
+            long startNanos = System.nanoTime();
+            serverStub.tileClicked(tile, new PlayerData(player.playerNumber, player, 0));
+            recordAction(startNanos);
+        }
+    }
+
+    private final ChessServer server;
+    private final GameServerInterface serverStub;  // the server, over the emulated network if emulation is on
+    private final boolean scripted;
+    private final long moveIntervalNanos;  // 0 for as fast as possible
+    private final ScheduledThreadPoolExecutor executor;
+    private final Histogram actionNanos = new Histogram("ns");
+    private final AtomicLong gamesAbandoned = new AtomicLong();
+    private final AtomicLong actionsFailed = new AtomicLong();
+    private final HashMap<Integer, SimulatedPlayer> waitingPlayers = new HashMap<>();  // maps game ID to the player in it who has joined
+    private volatile CountDownLatch gamesStarted = new CountDownLatch(0);
+    private volatile long measureFromNanos = Long.MAX_VALUE;  // actions before this are warmup, and not recorded
+    private volatile long endNanos = Long.MAX_VALUE;
+
+    private ChessLoadTest(ChessServer server, boolean scripted, double movesPerSecond, int threads) {
+        this.server = server;
+        this.serverStub = NetworkEmulator.wrapIfEnabled(server, GameServerInterface.class);
+        this.scripted = scripted;
+        this.moveIntervalNanos = movesPerSecond == 0 ? 0 : (long) (1e9 / movesPerSecond);
+        this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-loadtest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void scheduleGame(SimulatedGame game, long delayNanos) {
+        executor.schedule(game, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers new players with the server, in the background. The server pairs players into games in the order
+     * they register, so as each player joins, they are paired with the other player in their game, if that player
+     * has already joined, and the game is started.
+     *
+     * @param count the number of players to add
+     */
+    private void addPlayers(int count) {
+        for (int i = 0; i < count; i++) {
+            executor.execute(this::addPlayer);
+        }
+    }
+
+    private void addPlayer() {
+        SimulatedPlayer player = new SimulatedPlayer();
+        server.registerPlayer(player);
+        if (player.playerNumber == -1) {
+            // initialize() did not get through, e.g. because the emulated network dropped it
+            System.out.println("loadtest: a player was not told their player number, so their game will not start");
+            return;
+        }
+
+        SimulatedPlayer opponent;
+        synchronized (waitingPlayers) {
+            opponent = waitingPlayers.remove(ChessGame.gameIdOf(player.playerNumber));
+            if (opponent == null) {
+                waitingPlayers.put(ChessGame.gameIdOf(player.playerNumber), player);
+                return;
+            }
+        }
+        SimulatedGame game = player.playerNumber % 2 == 0 ? new SimulatedGame(player, opponent) : new SimulatedGame(opponent, player);
+        gamesStarted.countDown();
+        // spread games' first moves over one move interval, so that they do not all move at once
+        scheduleGame(game, moveIntervalNanos == 0 ? 0 : ThreadLocalRandom.current().nextLong(moveIntervalNanos));
+    }
+
+    private void recordAction(long startNanos) {
+        if (startNanos >= measureFromNanos) actionNanos.recordSince(startNanos);
+    }
+
+    /**
+     * Starts the games, then runs the warmup and the test.
+     */
+    private void run(int games, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long heapEmpty = liveHeap();
+        long startNanos = System.nanoTime();
+        gamesStarted = new CountDownLatch(games);
+        addPlayers(2 * games);
+        if (!gamesStarted.await(GAME_START_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.printf("loadtest: only %d of %d games started, continuing with them%n", games - gamesStarted.getCount(), games);
+        }
+        System.out.printf("loadtest: started %d games (%d players) in %.1f ms%n", games, 2 * games, (System.nanoTime() - startNanos) / 1e6);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        long heapBefore = liveHeap();
+        long[] gcBefore = gcTotals();
+
+        measureFromNanos = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        long measuredNanos = System.nanoTime() - measureFromNanos;
+        long[] gcAfter = gcTotals();
+        endNanos = System.nanoTime();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        long heapAfter = liveHeap();
+
+        printSummary(games, measuredNanos, heapEmpty, heapBefore, heapAfter, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    /**
+     * Returns the heap that is live after a full collection: the usage of each heap pool just after the collection
+     * (see MemoryPoolMXBean.getCollectionUsage()). Reading the heap's current usage instead would also count garbage,
+     * which under load is most of the young generation.
+     *
+     * @return live heap in bytes
+     */
+    private static long liveHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null) used += usage.getUsed();
+        }
+        return used;
+    }
+
+    /** @return the total number of collections, and the total time spent collecting in milliseconds, of all collectors */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private void printSummary(int games, long measuredNanos, long heapEmpty, long heapBefore, long heapAfter,
+                              long collections, long gcMillis) {
+        long actions = actionNanos.getCount();
+        double seconds = measuredNanos / 1e9;
+        System.out.printf("loadtest: %d games, %d actions in %.1f s, %.0f actions/s%n", games, actions, seconds, actions / seconds);
+        System.out.printf("loadtest: action latency mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                actionNanos.getMean() / 1e3, actionNanos.get50thPercentile() / 1e3, actionNanos.get90thPercentile() / 1e3,
+                actionNanos.get99thPercentile() / 1e3, actionNanos.get999thPercentile() / 1e3, actionNanos.getMax() / 1e3);
+        System.out.printf("loadtest: live heap %.1f MB after warmup (%.1f KB per game, including its players), %.1f MB at end%n",
+                heapBefore / 1e6, (heapBefore - heapEmpty) / 1e3 / games, heapAfter / 1e6);
+        System.out.printf("loadtest: %d collections taking %d ms (%.2f%% of the test)%n", collections, gcMillis,
+                100.0 * gcMillis / (seconds * 1000));
+        System.out.printf("loadtest: %d games abandoned (stuck or ended) and replaced%n", gamesAbandoned.get());
+        if (actionsFailed.get() != 0) System.out.printf("loadtest: %d actions failed with a RemoteException%n", actionsFailed.get());
+    }
+
+    /**
+     * Prints a help message and exits.
+     */
+    private static void printHelpAndExit() {
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.server.chess.ChessLoadTest [-g <GAMES>] [-r <RATE>] [-d <SECONDS>] [-w <SECONDS>] [-t <THREADS>] [-s]\n");
+        System.out.print("  -g, --games <GAMES>       Number of concurrent games (default " + DEFAULT_GAMES + ")\n");
+        System.out.print("  -r, --rate <RATE>         Moves per second in each game (default " + DEFAULT_MOVES_PER_SECOND + ", 0 for as fast as possible)\n");
+        System.out.print("  -d, --duration <SECONDS>  How long to measure for (default " + DEFAULT_DURATION_SECONDS + ")\n");
+        System.out.print("  -w, --warmup <SECONDS>    How long to run before measuring (default " + DEFAULT_WARMUP_SECONDS + ")\n");
+        System.out.print("  -t, --threads <THREADS>   Number of threads driving games (default: number of processors)\n");
+        System.out.print("  -s, --scripted            Shuffle knights with drags, rather than making random moves with clicks\n");
+        System.exit(1);
+    }
+
+    /**
+     * Prints an error message, followed by a help message, then exits.
+     *
+     * @param errorMessage error message to print
+     */
+    private static void printHelpAndExit(String errorMessage) {
+        System.out.println(errorMessage);
+        printHelpAndExit();
+    }
+
+    /**
+     * Parses command line args. <br> <br>
+     *
+     * On error, prints a message and exits.
+     *
+     * @param args the args parameter that was passed to main()
+     * @return the parsed command line
+     */
+    private static CommandLine parseArgs(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("g").longOpt("games").hasArg().desc("Number of concurrent games").build());
+        options.addOption(Option.builder("r").longOpt("rate").hasArg().desc("Moves per second in each game").build());
+        options.addOption(Option.builder("d").longOpt("duration").hasArg().desc("How long to measure for").build());
+        options.addOption(Option.builder("w").longOpt("warmup").hasArg().desc("How long to run before measuring").build());
+        options.addOption(Option.builder("t").longOpt("threads").hasArg().desc("Number of threads driving games").build());
+        options.addOption(Option.builder("s").longOpt("scripted").desc("Shuffle knights rather than making random moves").build());
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            return parser.parse(options, args);
+        } catch (ParseException e) {
+            printHelpAndExit("ParseException: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Main function. Starts a ChessServer (without an event log, and without binding it in the registry), runs the
+     * load test against it, and prints the results.
+     */
+    public static void main(String[] args) {
+        CommandLine cmdline = parseArgs(args);
+        int games = DEFAULT_GAMES;
+        double movesPerSecond = DEFAULT_MOVES_PER_SECOND;
+        int durationSeconds = DEFAULT_DURATION_SECONDS;
+        int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (cmdline.hasOption("g")) games = Integer.parseInt(cmdline.getOptionValue("g"));
+            if (cmdline.hasOption("r")) movesPerSecond = Double.parseDouble(cmdline.getOptionValue("r"));
+            if (cmdline.hasOption("d")) durationSeconds = Integer.parseInt(cmdline.getOptionValue("d"));
+            if (cmdline.hasOption("w")) warmupSeconds = Integer.parseInt(cmdline.getOptionValue("w"));
+            if (cmdline.hasOption("t")) threads = Integer.parseInt(cmdline.getOptionValue("t"));
+        } catch (NumberFormatException e) {
+            printHelpAndExit("NumberFormatException: " + e);
+        }
+        if (games < 1 || threads < 1 || durationSeconds < 1 || movesPerSecond < 0 || warmupSeconds < 0) {
+            printHelpAndExit("-g, -t and -d must be positive, and -r and -w must not be negative.");
+        }
+
+        // the server logs every player that joins, which would drown out the results
+        if (System.getProperty(Log.LEVEL_PROPERTY) == null) System.setProperty(Log.LEVEL_PROPERTY, "WARN");
+
+        try {
+            ChessLoadTest loadTest = new ChessLoadTest(new ChessServer(null), cmdline.hasOption("s"), movesPerSecond, threads);
+            loadTest.run(games, warmupSeconds, durationSeconds);
+        } catch (IOException e) {
+            System.out.printf("Failed to start server, %s%n", e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.out.printf("Interrupted while running load test, %s%n", e);
+            System.exit(1);
+        }
+        System.exit(0);  // the server is exported via RMI, which would otherwise keep the JVM alive
+    }
+}
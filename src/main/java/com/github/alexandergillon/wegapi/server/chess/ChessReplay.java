@@ -0,0 +1,353 @@
+package com.github.alexandergillon.wegapi.server.chess;
+
+import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.server.GameEventLog;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Replays a chess session recorded in a ChessServer event log, through a fresh ChessServer. <br> <br>
+ *
+ * Each recorded player is replaced by an in-process ReplayPlayer, which collects the frames (tile updates) that the
+ * server sends it. Every recorded join, click and drag is fed to the server, with the same player numbers, either as
+ * fast as possible or at the pace at which it was originally made (-s). Replay can stop after any number of moves
+ * (-n), and print the board at that point, which makes it possible to step through a session move by move. <br> <br>
+ *
+ * Replay checks that the server is deterministic: whenever a recorded snapshot of a game is reached, it is compared
+ * with the replayed game, and if the session was recorded with frames (ChessServer -f), the frames sent to each
+ * player are diffed against the recorded ones. Disconnects and reconnects are not in the log, so a session in which
+ * a player disconnected will show frame differences from that point. <br> <br>
+ *
+ * At full speed, replay also doubles as a benchmark of the server's game logic: it reports how long the server took
+ * to process each event, without any RMI or file system overhead. <br> <br>
+ *
+ * The log should be copied first if the server is still running, and recorded with -k if the server has restarted
+ * since the session began, as recovery otherwise replaces a game's history with a single snapshot.
+ */
+public class ChessReplay {
+    /** A player in the replay, which records what it is sent. */
+    private static class ReplayPlayer implements PlayerInterface2D {
+        private final ArrayList<ChessEvents.Frame> frames = new ArrayList<>();
+        private int messages = 0;
+        private long sequence = 0;
+
+        @Override
+        public void initialize(int playerNumber) {
+        }
+
+        @Override
+        public void setActionAdmissionPolicy(ActionAdmissionPolicy policy) {
+        }
+
+        @Override
+        public void displayMessage(String message, boolean error) {
+            messages++;
+        }
+
+        @Override
+        public long createTiles(ArrayList<Tile2D> tiles, PlayerInterface.CreateTilesMode mode) {
+            frames.add(ChessEvents.Frame.create(tiles));
+            return ++sequence;
+        }
+
+        @Override
+        public long deleteTiles(ArrayList<TileCoordinate> tileCoordinates, PlayerInterface.DeleteTilesMode mode) {
+            frames.add(mode == PlayerInterface.DeleteTilesMode.DELETE_ALL ? ChessEvents.Frame.deleteAll()
+                    : ChessEvents.Frame.delete(tileCoordinates));
+            return ++sequence;
+        }
+
+        @Override
+        public long getLastAppliedSequence() {
+            return sequence;
+        }
+
+        @Override
+        public void gameOver(boolean win) {
+        }
+    }
+
+    /** Options that the replay was started with. */
+    private static class ReplayOptions {
+        private String logDir;
+        private int gameId = -1;  // -1 for all games
+        private long moveLimit = Long.MAX_VALUE;
+        private double speed = 0;  // 0 for full speed
+    }
+
+    private final ChessServer server;
+    private final ReplayOptions options;
+    private final HashMap<Integer, ReplayPlayer> players = new HashMap<>();  // maps player number to player
+    private final TreeMap<Integer, ArrayList<ChessEvents.Frame>> recordedFrames = new TreeMap<>();  // maps player number to frames
+
+    private long moves = 0;
+    private long events = 0;
+    private long processingNanos = 0;
+    private long maxProcessingNanos = 0;
+    private int snapshotsChecked = 0;
+    private int snapshotMismatches = 0;
+    private long lastTimestamp = -1;
+
+    private ChessReplay(ChessServer server, ReplayOptions options) {
+        this.server = server;
+        this.options = options;
+    }
+
+    /**
+     * Replays records, in order, until the move limit is reached.
+     *
+     * @param types the records' types
+     * @param payloads the records' payloads
+     */
+    private void replay(ArrayList<Byte> types, ArrayList<ByteBuffer> payloads) {
+        for (int i = 0; i < types.size(); i++) {
+            byte type = types.get(i);
+            ByteBuffer payload = payloads.get(i);
+            if (options.gameId != -1 && ChessEvents.gameIdOf(type, payload) != options.gameId) continue;
+
+            if (type == ChessEvents.CLICK || type == ChessEvents.DRAG) {
+                if (moves == options.moveLimit) return;
+                moves++;
+            }
+
+            switch (type) {
+                case ChessEvents.SNAPSHOT:
+                    replaySnapshot(payload);
+                    break;
+                case ChessEvents.FRAME:
+                    int playerNumber = payload.getInt();
+                    recordedFrames.computeIfAbsent(playerNumber, n -> new ArrayList<>()).add(ChessEvents.decodeFrame(payload));
+                    break;
+                case ChessEvents.JOIN:
+                case ChessEvents.CLICK:
+                case ChessEvents.DRAG:
+                    replayPlayerEvent(type, payload);
+                    break;
+                default:
+                    System.out.println("replay: unrecognized event log record type " + type + ", ignoring it");
+            }
+        }
+    }
+
+    /**
+     * Replays a snapshot. The first snapshot of a game that has not been seen yet starts the game from that state
+     * (this is where the log begins, if it has been checkpointed). Later snapshots are compared with the replayed
+     * game.
+     *
+     * @param payload the snapshot's payload
+     */
+    private void replaySnapshot(ByteBuffer payload) {
+        int gameId = payload.getInt();
+        ChessGame game = server.getGame(gameId);
+        if (game == null) {
+            server.restoreGame(gameId, payload);
+            for (int seat = 0; seat < 2; seat++) {
+                ReplayPlayer player = new ReplayPlayer();
+                if (server.attachPlayer(2 * gameId + seat, player)) players.put(2 * gameId + seat, player);
+            }
+            return;
+        }
+
+        byte[] recorded = new byte[payload.remaining()];
+        payload.get(recorded);
+        byte[] replayed;
+        synchronized (game) {
+            replayed = game.snapshot();
+        }
+        snapshotsChecked++;
+        if (!Arrays.equals(recorded, replayed)) {
+            snapshotMismatches++;
+            System.out.println("replay: game " + gameId + " differs from its recorded snapshot after " + moves + " moves");
+        }
+    }
+
+    /**
+     * Replays a join, click or drag, waiting first if replaying in real time.
+     *
+     * @param type the event's type
+     * @param payload the event's payload
+     */
+    private void replayPlayerEvent(byte type, ByteBuffer payload) {
+        long timestamp = ChessEvents.timestampOf(payload);
+        if (options.speed > 0 && lastTimestamp != -1 && timestamp > lastTimestamp) {
+            try {
+                Thread.sleep((long) ((timestamp - lastTimestamp) / options.speed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lastTimestamp = timestamp;
+
+        int playerNumber = payload.getInt();
+        ReplayPlayer player = players.get(playerNumber);
+        if (type != ChessEvents.JOIN && player == null) {
+            System.out.println("replay: player #" + playerNumber + " acted before joining, skipping their event");
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        switch (type) {
+            case ChessEvents.JOIN:
+                player = new ReplayPlayer();
+                players.put(playerNumber, player);
+                server.joinPlayer(playerNumber, player);
+                break;
+            case ChessEvents.CLICK:
+                server.tileClicked2D(payload.get(), payload.get(), new PlayerData2D(playerNumber, player));
+                break;
+            case ChessEvents.DRAG:
+                server.tileDragged2D(payload.get(), payload.get(), payload.get(), payload.get(), new PlayerData2D(playerNumber, player));
+                break;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        processingNanos += elapsedNanos;
+        maxProcessingNanos = Math.max(maxProcessingNanos, elapsedNanos);
+        events++;
+    }
+
+    /**
+     * Compares the frames that each player was sent in the replay with the recorded frames, and prints the first
+     * difference for each player.
+     *
+     * @return the number of players whose frames differ
+     */
+    private int diffFrames() {
+        int playersDiffering = 0;
+        for (Integer playerNumber : recordedFrames.keySet()) {
+            ArrayList<ChessEvents.Frame> recorded = recordedFrames.get(playerNumber);
+            ReplayPlayer player = players.get(playerNumber);
+            ArrayList<ChessEvents.Frame> replayed = player == null ? new ArrayList<>() : player.frames;
+
+            for (int i = 0; i < Math.max(recorded.size(), replayed.size()); i++) {
+                ChessEvents.Frame recordedFrame = i < recorded.size() ? recorded.get(i) : null;
+                ChessEvents.Frame replayedFrame = i < replayed.size() ? replayed.get(i) : null;
+                if (recordedFrame == null || !recordedFrame.equals(replayedFrame)) {
+                    System.out.printf("replay: player #%d's frame %d differs: recorded %s, replayed %s%n",
+                            playerNumber, i, recordedFrame, replayedFrame);
+                    playersDiffering++;
+                    break;
+                }
+            }
+        }
+        return playersDiffering;
+    }
+
+    /** Prints a summary of the replay. */
+    private void printSummary(long elapsedNanos) {
+        System.out.printf("replay: %d events (%d moves) in %.1f ms%n", events, moves, elapsedNanos / 1e6);
+        if (events != 0) {
+            System.out.printf("replay: %.0f events/s of processing, %.1f us mean and %.1f us max per event%n",
+                    events / (processingNanos / 1e9), processingNanos / 1e3 / events, maxProcessingNanos / 1e3);
+        }
+        System.out.printf("replay: %d of %d snapshots differed%n", snapshotMismatches, snapshotsChecked);
+        if (recordedFrames.isEmpty()) {
+            System.out.println("replay: no frames were recorded, start the server with -f to record them");
+        } else {
+            System.out.printf("replay: %d of %d players' frames differed%n", diffFrames(), recordedFrames.size());
+        }
+
+        if (options.gameId != -1) {
+            ChessGame game = server.getGame(options.gameId);
+            if (game == null) {
+                System.out.println("replay: game " + options.gameId + " is not in the event log");
+            } else {
+                synchronized (game) {
+                    System.out.println(game.toText());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints a help message and exits.
+     */
+    private static void printHelpAndExit() {
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.server.chess.ChessReplay -l <DIR> [-g <GAME>] [-n <MOVES>] [-s <SPEED>]\n");
+        System.out.print("  -l, --log <DIR>        Event log to replay\n");
+        System.out.print("  -g, --game <GAME>      Only replay this game, and print its board at the end\n");
+        System.out.print("  -n, --moves <MOVES>    Stop after this many clicks and drags\n");
+        System.out.print("  -s, --speed <SPEED>    Replay at SPEED times real time, rather than as fast as possible\n");
+        System.exit(1);
+    }
+
+    /**
+     * Prints an error message, followed by a help message, then exits.
+     *
+     * @param errorMessage error message to print
+     */
+    private static void printHelpAndExit(String errorMessage) {
+        System.out.println(errorMessage);
+        printHelpAndExit();
+    }
+
+    /**
+     * Parses command line args. <br> <br>
+     *
+     * On error, prints a message and exits.
+     *
+     * @param args the args parameter that was passed to main()
+     * @return the parsed options
+     */
+    private static ReplayOptions parseArgs(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("l").longOpt("log").hasArg().required().desc("Event log to replay").build());
+        options.addOption(Option.builder("g").longOpt("game").hasArg().desc("Game to replay").build());
+        options.addOption(Option.builder("n").longOpt("moves").hasArg().desc("Number of moves to replay").build());
+        options.addOption(Option.builder("s").longOpt("speed").hasArg().desc("Multiple of real time to replay at").build());
+        CommandLineParser parser = new DefaultParser();
+
+        ReplayOptions replayOptions = new ReplayOptions();
+        try {
+            CommandLine cmdline = parser.parse(options, args);
+            replayOptions.logDir = cmdline.getOptionValue("l");
+            if (cmdline.hasOption("g")) replayOptions.gameId = Integer.parseInt(cmdline.getOptionValue("g"));
+            if (cmdline.hasOption("n")) replayOptions.moveLimit = Long.parseLong(cmdline.getOptionValue("n"));
+            if (cmdline.hasOption("s")) replayOptions.speed = Double.parseDouble(cmdline.getOptionValue("s"));
+        } catch (ParseException e) {
+            printHelpAndExit("ParseException: " + e);
+        } catch (NumberFormatException e) {
+            printHelpAndExit("NumberFormatException: " + e);
+        }
+        if (replayOptions.gameId < -1 || replayOptions.moveLimit < 0 || replayOptions.speed < 0) {
+            printHelpAndExit("-g, -n and -s must not be negative.");
+        }
+        return replayOptions;
+    }
+
+    /**
+     * Main function. Reads the event log, replays it through a fresh ChessServer, and prints a summary.
+     */
+    public static void main(String[] args) {
+        ReplayOptions options = parseArgs(args);
+
+        ArrayList<Byte> types = new ArrayList<>();
+        ArrayList<ByteBuffer> payloads = new ArrayList<>();
+        try (GameEventLog eventLog = GameEventLog.open(Paths.get(options.logDir), ChessEvents.LOG_FORMAT_VERSION, GameEventLog.DEFAULT_SEGMENT_BYTES)) {
+            eventLog.replay((type, payload) -> {
+                types.add(type);
+                payloads.add(payload);
+            });
+        } catch (IOException e) {
+            System.out.printf("Failed to read event log, %s%n", e);
+            System.exit(1);
+        }
+
+        try {
+            ChessReplay replay = new ChessReplay(new ChessServer(null), options);
+            long startNanos = System.nanoTime();
+            replay.replay(types, payloads);
+            replay.printSummary(System.nanoTime() - startNanos);
+        } catch (IOException e) {
+            System.out.printf("Failed to start server, %s%n", e);
+            System.exit(1);
+        }
+        System.exit(0);  // the server is exported via RMI, which would otherwise keep the JVM alive
+    }
+}
@@ -1,28 +1,67 @@
 package com.github.alexandergillon.wegapi.server.chess;
 
 import com.github.alexandergillon.wegapi.game.*;
+import com.github.alexandergillon.wegapi.logging.Log;
 import com.github.alexandergillon.wegapi.server.BaseServer2D;
-
+import com.github.alexandergillon.wegapi.server.GameEventLog;
+import com.github.alexandergillon.wegapi.server.GamePageStore;
+import com.github.alexandergillon.wegapi.server.GameRouter;
+import com.github.alexandergillon.wegapi.server.ReplicationPrimary;
+import com.github.alexandergillon.wegapi.server.ReplicationStandby;
+import com.github.alexandergillon.wegapi.server.ViewTransform;
+import com.github.alexandergillon.wegapi.transport.Transport;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
 import java.net.MalformedURLException;
-import java.rmi.Naming;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-// todo: disconnections and before someone has joined
-
-/** Server that runs the chess game. */
+/**
+ * Server that runs chess games. Players are paired up as they register: players 2n and 2n+1 play game n (see
+ * ChessGame), and any number of games can run at once. <br> <br>
+ *
+ * If the server is started with an event log directory (-l), every accepted player action is written to a
+ * GameEventLog before it is applied, along with periodic snapshots of each game (see ChessEvents). When the server
+ * restarts, it replays the log to rebuild every game, with all players detached until their daemons reconnect (see
+ * reconnectPlayer2D()), then checkpoints the rebuilt games. While running, the server checkpoints the log again in the
+ * background whenever it has rolled over to a new segment since the last checkpoint (see checkpointIfGrown()), so
+ * the log does not grow forever, and a restart only replays a segment or two. <br> <br>
+ *
+ * With -f, every update sent to a player is also logged, as a FRAME record, so that ChessReplay can check that
+ * replaying a session produces exactly what the players saw. With -k, the log is never checkpointed, so that
+ * the full history of every game is kept for ChessReplay. <br> <br>
+ *
+ * A second ChessServer can be run as a hot standby. The primary (-r PORT) streams every event it accepts to the
+ * standby (-S HOST:PORT) with a ReplicationPrimary, without waiting for it, and the standby applies them to its own
+ * copy of every game. If the primary dies, the standby binds itself in the registry in the primary's place (see
+ * takeOver()), and daemons rejoin it with reconnectPlayer2D(), as they would after a restart of the server. <br> <br>
+ *
+ * Several ChessServers can run as shards behind a GameRouter (-R HOST), instead of binding themselves in the
+ * registry. Each shard numbers its players from GameRouter.firstPlayerNumber() of its shard ID, so game
+ * IDs are also unique across shards, and reports its load to the router every LOAD_REPORT_INTERVAL_MILLIS. <br> <br>
+ *
+ * With -Dwegapi.transport=nio, a server that binds itself in the registry also accepts daemons over NioTransport
+ * (see Transport). Shards are only reachable over RMI, as the router hands daemons RMI stubs.
+ */
 public class ChessServer extends BaseServer2D {
     /** Class that encapsulates chess-specific player data. */
     static class ChessPlayerData {
         private final int playerNumber;
-        private PlayerInterface2D player;  // shouldn't change, but maybe in the future, on disconnect
+        private PlayerInterface2D player;  // changes if the player's daemon restarts, see reconnectPlayer2D()
         private final ChessPiece.PlayerColor playerColor;
 
         private TileCoordinate selectedTile = null;  // todo: rename to selected
+        private volatile boolean connected = true;
 
         public ChessPlayerData(int playerNumber, PlayerInterface2D player, ChessPiece.PlayerColor playerColor) {
             this.playerNumber = playerNumber;
@@ -46,6 +85,14 @@ public class ChessServer extends BaseServer2D {
             return playerColor;
         }
 
+        public boolean isConnected() {
+            return connected;
+        }
+
+        public void setConnected(boolean connected) {
+            this.connected = connected;
+        }
+
         public boolean hasSelectedTile() {
             return selectedTile != null;
         }
@@ -65,339 +112,788 @@ public class ChessServer extends BaseServer2D {
         }
     }
 
-    private final HashMap<Integer, ChessPlayerData> players = new HashMap<>(); // maps player number to chess-specific data
-    private final AtomicInteger playerNumber = new AtomicInteger();
-    private final ChessBoard chessBoard;
-    private ChessPiece.PlayerColor currentPlayer = ChessPiece.PlayerColor.WHITE;
+    private static final long LOAD_REPORT_INTERVAL_MILLIS = 1000;
+    private static final long DEFAULT_COMPACT_AFTER_SECONDS = 300;
+    private static final long CHECKPOINT_CHECK_INTERVAL_MILLIS = 10000;
+
+    private final ConcurrentHashMap<Integer, ChessGame> games = new ConcurrentHashMap<>();  // maps game ID to game
+    private final AtomicInteger nextPlayerNumber = new AtomicInteger();
+    private final GameEventLog eventLog;  // null if the server is not logging
+    private final boolean recordFrames;
+    private final boolean keepHistory;
+    private long checkpointedSegment = -1;  // the event log's current segment when it was last checkpointed
+    private volatile ReplicationPrimary replication = null;  // null if not replicating to a standby
+    private GameRouterInterface router = null;  // null if not a shard
+    private int shardId = -1;
 
-    /** Creates a new ChessServer object, which exports itself via RMI. */
-    public ChessServer() throws RemoteException {
+    /**
+     * Creates a new ChessServer object, which exports itself via RMI. If an event log is given, the games in it are
+     * rebuilt, and new events are logged to it.
+     *
+     * @param eventLog the event log, or null to not log events
+     * @throws IOException if the event log could not be replayed or checkpointed
+     */
+    public ChessServer(GameEventLog eventLog) throws IOException {
+        this(eventLog, false, false);
+    }
+
+    /**
+     * Creates a new ChessServer object, which exports itself via RMI. If an event log is given, the games in it are
+     * rebuilt, and new events are logged to it.
+     *
+     * @param eventLog the event log, or null to not log events
+     * @param recordFrames whether to log every update sent to a player
+     * @param keepHistory whether to keep the full history of the event log, rather than checkpointing it on recovery
+     * @throws IOException if the event log could not be replayed or checkpointed
+     */
+    public ChessServer(GameEventLog eventLog, boolean recordFrames, boolean keepHistory) throws IOException {
         super(ChessBoard.NUM_ROWS, ChessBoard.NUM_COLS);
-        chessBoard = new ChessBoard();  // initializes a chess board to the starting setup of chess
+        this.eventLog = eventLog;
+        this.recordFrames = recordFrames && eventLog != null;
+        this.keepHistory = keepHistory;
+        if (eventLog != null) recoverGames();
     }
 
     /**
-     * Gets the player color of a player with a certain player number. For now, 0 = white, 1 = black.
+     * Rebuilds every game in the event log, then checkpoints them. Only the events after a game's last snapshot are
+     * applied, so recovery time is bounded by ChessGame.SNAPSHOT_INTERVAL events per game, not the length of the log.
      *
-     * @param thisPlayerNumber the number of a player in the game
-     * @return the player color of that player
+     * @throws IOException if the event log could not be replayed or checkpointed
      */
-    private ChessPiece.PlayerColor getPlayerColor(int thisPlayerNumber) {
-        if (thisPlayerNumber % 2 == 0) {
-            return ChessPiece.PlayerColor.WHITE;
-        } else {
-            return ChessPiece.PlayerColor.BLACK;
+    private void recoverGames() throws IOException {
+        long startNanos = System.nanoTime();
+        HashMap<Integer, ByteBuffer> lastSnapshots = new HashMap<>();
+        HashMap<Integer, ArrayList<ByteBuffer>> eventsSinceSnapshot = new HashMap<>();
+        HashMap<Integer, ArrayList<Byte>> eventTypesSinceSnapshot = new HashMap<>();
+
+        eventLog.replay((type, payload) -> {
+            if (type == ChessEvents.FRAME) return;  // not needed to rebuild games
+            int gameId = ChessEvents.gameIdOf(type, payload);
+            ArrayList<ByteBuffer> events = eventsSinceSnapshot.computeIfAbsent(gameId, id -> new ArrayList<>());
+            ArrayList<Byte> eventTypes = eventTypesSinceSnapshot.computeIfAbsent(gameId, id -> new ArrayList<>());
+            if (type == ChessEvents.SNAPSHOT) {
+                lastSnapshots.put(gameId, payload);
+                events.clear();
+                eventTypes.clear();
+            } else {
+                events.add(payload);
+                eventTypes.add(type);
+            }
+        });
+
+        ArrayList<GameEventLog.Record> checkpoint = new ArrayList<>();
+        int maxPlayerNumber = -1;
+        for (int gameId : eventsSinceSnapshot.keySet()) {
+            ChessGame game = newGame(gameId);
+            ByteBuffer snapshot = lastSnapshots.get(gameId);
+            if (snapshot != null) game.applyEvent(ChessEvents.SNAPSHOT, snapshot);
+            ArrayList<ByteBuffer> events = eventsSinceSnapshot.get(gameId);
+            ArrayList<Byte> eventTypes = eventTypesSinceSnapshot.get(gameId);
+            for (int i = 0; i < events.size(); i++) {
+                game.applyEvent(eventTypes.get(i), events.get(i));
+            }
+
+            games.put(gameId, game);
+            checkpoint.add(new GameEventLog.Record(ChessEvents.SNAPSHOT, ChessEvents.snapshot(gameId, game.snapshot())));
+            for (int seat = 0; seat < 2; seat++) {
+                if (game.getPlayer(2 * gameId + seat) != null) maxPlayerNumber = Math.max(maxPlayerNumber, 2 * gameId + seat);
+            }
         }
+        nextPlayerNumber.set(maxPlayerNumber + 1);
+        if (!keepHistory) eventLog.checkpoint(checkpoint);
+        checkpointedSegment = eventLog.currentSegment();
+
+        Log.info("server: recovered %d games from the event log in %.1f ms", games.size(), (System.nanoTime() - startNanos) / 1e6);
     }
 
-    /** Registers the player. Players are shown the default setup of chess, and the game can begin. */
-    @Override
-    public void registerPlayer2D(PlayerInterface2D player) {
-        int thisPlayerNumber = playerNumber.getAndUpdate(x -> 1-x);
-        ChessPiece.PlayerColor playerColor = getPlayerColor(thisPlayerNumber);
-        ChessPlayerData chessPlayerData = new ChessPlayerData(thisPlayerNumber, player, playerColor);
-        players.put(thisPlayerNumber, chessPlayerData);
-        System.out.println("server: register client received, assigned player #" + thisPlayerNumber + " and color " + ChessPiece.colorToString(playerColor));
-        try {
-            player.initialize(thisPlayerNumber);
-            player.deleteTiles(new ArrayList<>(), PlayerInterface.DeleteTilesMode.DELETE_ALL);
-            player.createTiles(chessBoard.toTiles(chessPlayerData), PlayerInterface.CreateTilesMode.CREATE_NEW);
-        } catch (RemoteException e) {
-            System.out.println("server: player " + thisPlayerNumber + " not reachable while initializing," + e);
+    /**
+     * Writes an event to the event log, and waits for it to be durable, then queues it for the standby. Must be
+     * called while synchronized on the event's game, before the event is applied. If the event cannot be logged,
+     * prints a message and exits, as the server can no longer guarantee that games can be recovered.
+     *
+     * @param type the event's type (see ChessEvents)
+     * @param payload the event's payload
+     */
+    private void logEvent(byte type, byte[] payload) {
+        if (eventLog != null) {
+            try {
+                eventLog.appendAndSync(type, payload);
+            } catch (IOException e) {
+                System.out.printf("Failed to write to event log, %s%n", e);
+                System.exit(1);
+            }
         }
+        ReplicationPrimary replication = this.replication;
+        if (replication != null) replication.replicate(type, payload);
     }
 
     /**
-     * Updates the other player when a player successfully made a move. This means checking whether the move interfered
-     * with what the other player currently had selected, and if so, deselecting the other player's piece. For example,
-     * the other player may have a piece selected that was captured in the move that just occurred. Then we need to
-     * deselect the other player's piece as this piece no longer exists.
+     * Starts replicating to a standby, which may connect on the given port at any time.
      *
-     * @param fromRow the row that was moved from
-     * @param fromCol the column that was moved from
-     * @param toRow the row that was moved to
-     * @param toCol the column that was moved to
-     * @param movingPlayer the player who moved
+     * @param port the port to accept a standby on
+     * @throws IOException if the port could not be listened on
      */
-    private void updateOtherPlayer(int fromRow, int fromCol, int toRow, int toCol, ChessPlayerData movingPlayer) {
-        ChessPlayerData otherPlayer = players.get(1 - movingPlayer.getPlayerNumber());
-        if (!otherPlayer.hasSelectedTile()) return;
-
-        int selectedRow = otherPlayer.getSelectedTile().getRow();
-        int selectedCol = otherPlayer.getSelectedTile().getCol();
+    private void startReplication(int port) throws IOException {
+        replication = ReplicationPrimary.start(port, ChessEvents.LOG_FORMAT_VERSION, this::sendGamesToStandby);
+        Log.info("server: accepting a standby on port %d", port);
+    }
 
-        if (selectedRow == fromRow && selectedCol == fromCol) {
-            otherPlayer.setSelectedTile(null);
-        } else if (selectedRow == toRow && selectedCol == toCol) {
-            otherPlayer.setSelectedTile(null);
+    /**
+     * Replicates a snapshot of every game, when a standby connects. Each snapshot is queued while synchronized on its
+     * game, so every later event for that game is queued after it. Events queued before it are overwritten by it.
+     */
+    private void sendGamesToStandby() {
+        for (ChessGame game : games.values()) {
+            synchronized (game) {
+                replication.replicate(ChessEvents.SNAPSHOT, ChessEvents.snapshot(game.getGameId(), game.snapshot()));
+            }
         }
     }
 
     /**
-     * Attempts to make a move. This move must be legal, except for possibly leaving the king in check. If this move
-     * does in fact leave the king in check (and is hence actually an illegal move), the move fails, and the player is
-     * notified. Otherwise, the move succeeds, and the visuals of both players are updated accordingly.
+     * Applies an event replicated from the primary, when this server is a standby. The event is also written to
+     * this server's own event log, if it has one.
      *
-     * @param fromRow the row of the piece to move
-     * @param fromCol the column of the piece to move
-     * @param toRow the row of where to move to
-     * @param toCol the column of where to move to
-     * @param movingPlayer the player who made the move
+     * @param type the event's type (see ChessEvents)
+     * @param payload the event's payload
      */
-    private void tryMove(int fromRow, int fromCol, int toRow, int toCol, ChessPlayerData movingPlayer) {
-        try {
-            if (currentPlayer != movingPlayer.getPlayerColor()) {
-                movingPlayer.getPlayer().displayMessage("Not your turn.", true);
-            } else {
-                if (chessBoard.tryMove(fromRow, fromCol, toRow, toCol)) {
-                    movingPlayer.setSelectedTile(null);
-                    updateOtherPlayer(fromRow, fromCol, toRow, toCol, movingPlayer);
-
-                    if (currentPlayer == ChessPiece.PlayerColor.WHITE) currentPlayer = ChessPiece.PlayerColor.BLACK;
-                    else currentPlayer = ChessPiece.PlayerColor.WHITE;
-                } else {
-                    movingPlayer.getPlayer().displayMessage("Illegal move: leaves king in check.", true);
+    private void applyReplicated(byte type, ByteBuffer payload) {
+        ChessGame game = games.computeIfAbsent(ChessEvents.gameIdOf(type, payload), this::newGame);
+        synchronized (game) {
+            if (eventLog != null) {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.duplicate().get(bytes);
+                try {
+                    eventLog.append(type, bytes);
+                } catch (IOException e) {
+                    System.out.printf("Failed to write to event log, %s%n", e);
+                    System.exit(1);
                 }
             }
-        } catch (RemoteException e) {
-            System.out.println("RemoteException in tryMove(): " + e);
+            try {
+                game.applyEvent(type, payload);
+            } catch (RuntimeException e) {
+                // the primary threw the same exception when it applied the event, so the games still agree
+                Log.warn("server: exception while applying replicated event: %s", e);
+            }
+            if (type != ChessEvents.SNAPSHOT) eventApplied(game);
         }
     }
 
     /**
-     * This function is called when a player has clicked a tile when they have a piece selected. It updates the game
-     * state based on where the player clicked. <br> <br>
+     * Takes over from a primary that has died: new players are numbered after everyone in the replicated games, and
+     * this server is bound in the registry (which is created if it died with the primary). Players are detached
+     * until their daemons notice and rejoin.
      *
-     * If they clicked their selected piece, it deselects that piece. If they clicked a tile that their selected piece
-     * might be able to move to, it tries to make that move (this could fail if the move would leave their king in
-     * check). Otherwise, it deselects their currently selected piece (if they clicked an empty tile that their
-     * piece cannot move to), or selects a different piece (if they clicked another piece that their piece cannot
-     * move to).
-     *
-     * @param row the row that the player clicked
-     * @param col the column that the player clicked
-     * @param selectedTile the player's selected tile coordinates
-     * @param clickingPlayer the player who made the click
+     * @param replicatePort port to accept a new standby on, or -1 for none
+     * @param routerHost host of the router to register with as a shard, or null to bind in the registry
      */
-    private void tileClickedHasSelected(int row, int col, TileCoordinate selectedTile, ChessPlayerData clickingPlayer) {
-        if (row == selectedTile.getRow() && col == selectedTile.getCol()) {
-            // clicked their selected tile: deselect
-            System.out.println("player deselcted");
-            clickingPlayer.setSelectedTile(null);
-        } else {
-            // clicked another tile
-            ChessPiece clickedPiece = chessBoard.pieceAt(row, col);
-            ChessPiece selectedPiece = chessBoard.pieceAt(selectedTile.getRow(), selectedTile.getCol());
-
-            if (clickingPlayer.getPlayerColor() != selectedPiece.getPlayerColor()) {
-                // clicked another tile, and their selected piece is an enemy piece. deselect the piece,
-                // and perhaps select another
-                if (clickedPiece == null) {
-                    clickingPlayer.setSelectedTile(null);
-                } else {
-                    clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
-                }
-            } else {
-                // clicked another tile, and their selected piece is friendly. check if they are trying to make a move,
-                // or selecting another piece
-                if (chessBoard.canMove(selectedTile.getRow(), selectedTile.getCol(), row, col)) {
-                    // their selected piece can make the move. try to make it
-                    tryMove(selectedTile.getRow(), selectedTile.getCol(), row, col, clickingPlayer);
-                } else {
-                    // not trying to make a move: deselect their piece and potentially select another
-                    if (clickedPiece == null) {
-                        clickingPlayer.setSelectedTile(null);
-                    } else {
-                        clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
-                    }
+    private void takeOver(int replicatePort, String routerHost) {
+        long startNanos = System.nanoTime();
+        int maxPlayerNumber = -1;
+        for (ChessGame game : games.values()) {
+            synchronized (game) {
+                for (int seat = 0; seat < 2; seat++) {
+                    int playerNumber = 2 * game.getGameId() + seat;
+                    if (game.getPlayer(playerNumber) != null) maxPlayerNumber = Math.max(maxPlayerNumber, playerNumber);
                 }
             }
         }
+        nextPlayerNumber.accumulateAndGet(maxPlayerNumber + 1, Math::max);
+
+        if (replicatePort != -1) {
+            try {
+                startReplication(replicatePort);
+            } catch (IOException e) {
+                Log.warn("server: failed to start replication, continuing without a standby, %s", e);
+            }
+        }
+        publish(this, routerHost);
+        Log.info("server: took over %d games from the primary in %.1f ms", games.size(), (System.nanoTime() - startNanos) / 1e6);
     }
 
     /**
-     * This function is called when a player has clicked a tile when they do not have a piece selected. It updates
-     * the game state based on where the player clicked. Essentially, if they clicked a piece, it is selected,
-     * and otherwise nothing happens.
+     * Called after an event has been applied to a game. Snapshots the game every ChessGame.SNAPSHOT_INTERVAL events.
+     * The snapshot does not need to be waited for: if it is lost, recovery just replays more events. Must be called
+     * while synchronized on the game.
      *
-     * @param row the row that the player clicked
-     * @param col the column that the player clicked
-     * @param clickingPlayer the player who made the click
+     * @param game the game that an event was applied to
      */
-    private void tileClickedNoSelected(int row, int col, ChessPlayerData clickingPlayer) {
-        ChessPiece clickedPiece = chessBoard.pieceAt(row, col);
-        if (clickedPiece == null) {
-            return; // no selected piece, and the player clicked an empty square
-        } else {
-            clickingPlayer.setSelectedTile(new TileCoordinate(row, col));
+    private void eventApplied(ChessGame game) {
+        if (eventLog == null || !game.noteEventLogged()) return;
+        try {
+            eventLog.append(ChessEvents.SNAPSHOT, ChessEvents.snapshot(game.getGameId(), game.snapshot()));
+        } catch (IOException e) {
+            System.out.printf("Failed to write to event log, %s%n", e);
+            System.exit(1);
         }
     }
 
     /**
-     * Redraws tiles for a player, based on what changed. This function takes the state of the game before some change,
-     * and the state after (both as lists of Tile2Ds). Then, any tiles that were present before and not afterwards are
-     * deleted, and any tiles that have changed icons are redrawn for the user. This therefore avoids redrawing the
-     * entire game for the user each time a change is made, which is faster and looks better.
-     *
-     * @param player the player whose game to redraw
-     * @param beforeTiles the state of the game before some change
-     * @param afterTiles the state of the game after some change
+     * Starts checkpointing the event log in the background, unless this server is not logging or is keeping the full
+     * history of the log (see checkpointIfGrown()).
      */
-    private void redrawPlayer(ChessPlayerData player, HashMap<TileCoordinate, Tile2D> beforeTiles,
-                              HashMap<TileCoordinate, Tile2D> afterTiles) {
-        // update ('create') any tiles whose icons changed
-        ArrayList<Tile2D> tilesToCreate = new ArrayList<>();
-        for (TileCoordinate coords : afterTiles.keySet()) {
-            if (!beforeTiles.containsKey(coords)) {
-                tilesToCreate.add(afterTiles.get(coords));
-            } else {
-                Tile2D beforeTile = beforeTiles.get(coords);
-                Tile2D afterTile = afterTiles.get(coords);
-                if (!beforeTile.equals(afterTile)) {
-                    tilesToCreate.add(afterTile);
+    private void startCheckpointing() {
+        if (eventLog == null || keepHistory) return;
+        ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointIfGrown, CHECKPOINT_CHECK_INTERVAL_MILLIS,
+                CHECKPOINT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checkpoints the event log if it has rolled over to a new segment since the last checkpoint, without stopping
+     * the games. The log is rolled over again, then a snapshot of every game is appended while synchronized on the
+     * game, so it follows every event that it includes, and precedes every event that it does not. Once the last
+     * snapshot is durable, every game can be rebuilt from the new segments alone, so the older ones are deleted.
+     * If the log cannot be written, prints a message and exits, as with any other event.
+     */
+    private void checkpointIfGrown() {
+        if (eventLog.currentSegment() == checkpointedSegment) return;
+        long startNanos = System.nanoTime();
+        try {
+            long firstSegment = eventLog.rollOver();
+            long lastSequence = 0;
+            for (ChessGame game : games.values()) {
+                synchronized (game) {
+                    lastSequence = eventLog.append(ChessEvents.SNAPSHOT, ChessEvents.snapshot(game.getGameId(), game.snapshot()));
                 }
             }
+            eventLog.awaitDurable(lastSequence);
+            eventLog.deleteSegmentsBefore(firstSegment);
+        } catch (IOException e) {
+            System.out.printf("Failed to checkpoint event log, %s%n", e);
+            System.exit(1);
         }
+        checkpointedSegment = eventLog.currentSegment();
+        Log.info("server: checkpointed %d games in the event log in %.1f ms", games.size(), (System.nanoTime() - startNanos) / 1e6);
+    }
 
-        // delete any tiles which were present before but not after
-        HashSet<TileCoordinate> deletedCoordinates = new HashSet<>(beforeTiles.keySet());
-        deletedCoordinates.removeAll(afterTiles.keySet());
-        ArrayList<TileCoordinate> tilesToDelete = new ArrayList<>(deletedCoordinates);
+    /**
+     * Creates a game, which records the frames it sends if this server is recording frames.
+     *
+     * @param gameId the ID of the game
+     * @return the new game
+     */
+    private ChessGame newGame(int gameId) {
+        ChessGame game = new ChessGame(gameId);
+        if (recordFrames) game.setFrameListener(this::logFrame);
+        return game;
+    }
 
+    /**
+     * Writes a frame to the event log. The frame does not need to be waited for, as it is not used for recovery.
+     *
+     * @param playerNumber the player that the frame was sent to
+     * @param frame the frame
+     */
+    private void logFrame(int playerNumber, ChessEvents.Frame frame) {
         try {
-            if (tilesToDelete.size() != 0) {
-                player.getPlayer().deleteTiles(tilesToDelete, PlayerInterface.DeleteTilesMode.DELETE_EXISTING);
-            }
-            if (tilesToCreate.size() != 0) {
-                player.getPlayer().createTiles(tilesToCreate, PlayerInterface.CreateTilesMode.CREATE);
-            }
-        } catch (RemoteException e) {
-            System.out.println("RemoteException in redrawPlayer(): " + e);
+            eventLog.append(ChessEvents.FRAME, ChessEvents.frame(playerNumber, frame));
+        } catch (IOException e) {
+            System.out.printf("Failed to write to event log, %s%n", e);
+            System.exit(1);
         }
     }
 
     /**
-     * Enforces that when a player takes an action (a click or a drag), that the other player is connected to the game.
-     * Furthermore, that the remote object that that player provided in their PlayerData2D corresponds with the remote
-     * object they initially supplied when they called registerPlayer2D()
+     * Returns a game, for ChessReplay.
      *
-     * @param actionPlayerData the player data of the player who took an action
-     * @param actionPlayer the chess player data of the player who took an action
-     * @param otherPlayer the chess player data of the other player
-     * @return whether the game state passes the checks described above
+     * @param gameId the ID of the game
+     * @return the game, or null if there is no such game
      */
-    private boolean checkPlayers(PlayerData2D actionPlayerData, ChessPlayerData actionPlayer, ChessPlayerData otherPlayer) {
-        if (otherPlayer == null) {
-            try {
-                actionPlayer.getPlayer().displayMessage("The other player has not yet joined.", true);
-                return false;
-            } catch (RemoteException e) {
-                System.out.println("RemoteException in tileClicked2D(): " + e);
-                return false;  // todo: change when handling disconnects
-            }
-        }
+    ChessGame getGame(int gameId) {
+        return games.get(gameId);
+    }
 
-        // make sure the remote object we have on file corresponds, as this is what we use to update the player
-        if (!actionPlayerData.getPlayer().equals(actionPlayer.getPlayer())) {
-            System.out.println("Player remote objects do not agree, exiting.");
-            System.exit(1);
-            return false;  // not used for now, but if we later want this to not exit, this should probably return false
+    /**
+     * Restores a game from a snapshot, for ChessReplay. Players in the snapshot are added detached, and new players are
+     * numbered after them.
+     *
+     * @param gameId the ID of the game
+     * @param snapshot the game's state, as encoded by ChessGame.snapshot()
+     * @return the restored game
+     */
+    ChessGame restoreGame(int gameId, ByteBuffer snapshot) {
+        ChessGame game = games.computeIfAbsent(gameId, this::newGame);
+        synchronized (game) {
+            game.restore(snapshot);
+            nextPlayerNumber.accumulateAndGet(2 * gameId + 2, Math::max);
         }
+        return game;
+    }
 
-        return true;
+    /**
+     * Attaches a remote object to a detached player, without telling the player anything, for ChessReplay.
+     *
+     * @param playerNumber the player's number
+     * @param player the player's remote object
+     * @return whether the player exists
+     */
+    boolean attachPlayer(int playerNumber, PlayerInterface2D player) {
+        ChessGame game = games.get(ChessGame.gameIdOf(playerNumber));
+        if (game == null) return false;
+        synchronized (game) {
+            ChessPlayerData chessPlayerData = game.getPlayer(playerNumber);
+            if (chessPlayerData == null) return false;
+            chessPlayerData.setPlayer(player);
+            chessPlayerData.setConnected(true);
+            return true;
+        }
     }
 
-    /** Processes a player's click. Selects/deselects/moves pieces appropriately. */
-    @Override
-    public void tileClicked2D(int row, int col, PlayerData2D clickingPlayerData) {
-        ChessPlayerData clickingPlayer = players.get(clickingPlayerData.getPlayerNumber());
-        ChessPlayerData otherPlayer = players.get(1 - clickingPlayerData.getPlayerNumber());
+    /**
+     * Registers this server as a shard with a router, and starts reporting its load. If this server already has
+     * games (recovered from the event log, or replicated from a primary), it asks for the shard ID that their players
+     * were numbered in, so that returning players are routed back here.
+     *
+     * @param routerHost the host of the router
+     * @throws RemoteException if the router could not be reached, or has no free shard IDs
+     * @throws NotBoundException if no router is bound
+     * @throws MalformedURLException if routerHost is malformed
+     */
+    private void joinRouter(String routerHost) throws RemoteException, NotBoundException, MalformedURLException {
+        router = GameRouterInterface.connectToRouter(routerHost, GameServerInterface.RMI_REGISTRY_PORT);
+        int next = nextPlayerNumber.get();
+        int requestedShardId = next == 0 ? -1 : GameRouter.shardOf(next - 1);
+        shardId = router.registerShard(this, requestedShardId);
+        if (requestedShardId != -1 && requestedShardId != shardId) {
+            Log.warn("server: shard %d is in use, so existing players will not be routed here", requestedShardId);
+            nextPlayerNumber.set(GameRouter.firstPlayerNumber(shardId));
+        } else {
+            nextPlayerNumber.accumulateAndGet(GameRouter.firstPlayerNumber(shardId), Math::max);
+        }
+        Log.info("server: registered with the router as shard %d", shardId);
+
+        ScheduledExecutorService loadReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-load-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadReporter.scheduleAtFixedRate(this::reportLoad, 0, LOAD_REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-         if (!checkPlayers(clickingPlayerData, clickingPlayer, otherPlayer)) return;
+    /**
+     * Reports this shard's load to the router: the number of players it has numbered, and whether the last of them
+     * is waiting for an opponent.
+     */
+    private void reportLoad() {
+        int next = nextPlayerNumber.get();
+        try {
+            router.reportLoad(shardId, next - GameRouter.firstPlayerNumber(shardId), next % 2 == 1);
+        } catch (RemoteException e) {
+            Log.warn("server: failed to report load to the router, %s", e);
+        }
+    }
 
-        HashMap<TileCoordinate, Tile2D> beforeTilesClickingPlayer = chessBoard.getCoordinatesToTiles(clickingPlayer);
-        HashMap<TileCoordinate, Tile2D> beforeTilesOtherPlayer = chessBoard.getCoordinatesToTiles(otherPlayer);
+    /**
+     * Starts compacting games that have been idle for a while (see ChessGame.compactIfIdle()), in the background.
+     * Games are checked every quarter of the idle time, but at least every minute and at most every second.
+     *
+     * @param idleMillis how long a game must have been idle for to be compacted, in milliseconds
+     * @param pageStore the store to page compacted games out to, or null to keep them in memory
+     */
+    private void startCompaction(long idleMillis, GamePageStore pageStore) {
+        long intervalMillis = Math.min(Math.max(idleMillis / 4, 1000), 60000);
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> compactIdleGames(idleMillis * 1_000_000, pageStore),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
 
-        // black sees the board 180 degrees rotated
-        if (clickingPlayer.getPlayerColor() == ChessPiece.PlayerColor.BLACK) {
-            row = (ChessBoard.NUM_ROWS-1) - row;
-            col = (ChessBoard.NUM_COLS-1) - col;
+    /**
+     * Compacts every game that has been idle for a certain time, and prints how many were compacted, if any.
+     *
+     * @param idleNanos how long a game must have been idle for to be compacted, in nanoseconds
+     * @param pageStore the store to page compacted games out to, or null to keep them in memory
+     */
+    private void compactIdleGames(long idleNanos, GamePageStore pageStore) {
+        int compacted = 0;
+        int totalCompacted = 0;
+        int pagedOut = 0;
+        for (ChessGame game : games.values()) {
+            synchronized (game) {
+                if (game.compactIfIdle(idleNanos, pageStore)) compacted++;
+                if (game.isCompacted()) totalCompacted++;
+                if (game.isPagedOut()) pagedOut++;
+            }
+        }
+        if (compacted > 0) {
+            Log.info("server: compacted %d idle games (%s compacted, %d paged out)", compacted,
+                    totalCompacted + " of " + games.size() + " games", pagedOut);
         }
+    }
 
-        // process the click
-        if (clickingPlayer.hasSelectedTile()) {
-            tileClickedHasSelected(row, col, clickingPlayer.getSelectedTile(), clickingPlayer);
-        } else {
-            tileClickedNoSelected(row, col, clickingPlayer);
+    /** Registers the player. Players are shown the default setup of chess, and the game can begin. */
+    @Override
+    public void registerPlayer2D(PlayerInterface2D player) {
+        joinPlayer(nextPlayerNumber.getAndIncrement(), player);
+    }
+
+    /**
+     * Adds a player to their game with a given player number, and shows them the board. ChessReplay uses this to
+     * give players the same numbers as in the recorded session.
+     *
+     * @param thisPlayerNumber the player's number
+     * @param player the player's remote object
+     */
+    void joinPlayer(int thisPlayerNumber, PlayerInterface2D player) {
+        nextPlayerNumber.accumulateAndGet(thisPlayerNumber + 1, Math::max);
+        ChessGame game = games.computeIfAbsent(ChessGame.gameIdOf(thisPlayerNumber), this::newGame);
+        synchronized (game) {
+            logEvent(ChessEvents.JOIN, ChessEvents.join(thisPlayerNumber, System.currentTimeMillis()));
+            ChessPlayerData chessPlayerData = game.addPlayer(thisPlayerNumber, player);
+            setPlayerNumber2D(player, thisPlayerNumber);
+            eventApplied(game);
+            Log.info("server: register client received, assigned player #%d and color %s", thisPlayerNumber, ChessPiece.colorToString(chessPlayerData.getPlayerColor()));
+            try {
+                player.initialize(thisPlayerNumber);
+                // clicks made while the board is still changing were made against a stale board, so are discarded
+                player.setActionAdmissionPolicy(ActionAdmissionPolicy.dropWhileRendering());
+                game.drawBoard(chessPlayerData);
+            } catch (RemoteException e) {
+                Log.warn("server: player %d not reachable while initializing, %s", thisPlayerNumber, e);
+            }
         }
+    }
 
-        HashMap<TileCoordinate, Tile2D> afterTilesClickingPlayer = chessBoard.getCoordinatesToTiles(clickingPlayer);
-        HashMap<TileCoordinate, Tile2D> afterTilesOtherPlayer = chessBoard.getCoordinatesToTiles(otherPlayer);
+    /**
+     * Rebinds a restarted player to their place in their game. The player reports which tiles they still have, so
+     * only the tiles that differ from their current view of the board are sent. If the player number is not in any
+     * game, the player is registered as a new player instead.
+     */
+    @Override
+    public void reconnectPlayer2D(PlayerInterface2D player, int thisPlayerNumber, ArrayList<Tile2D> currentTiles) {
+        ChessGame game = games.get(ChessGame.gameIdOf(thisPlayerNumber));
+        if (game == null || !rebindPlayer(game, player, thisPlayerNumber, currentTiles)) {
+            Log.info("server: reconnect from unknown player #%d, registering as a new player", thisPlayerNumber);
+            registerPlayer2D(player);
+        }
+    }
 
-        redrawPlayer(clickingPlayer, beforeTilesClickingPlayer, afterTilesClickingPlayer);
-        redrawPlayer(otherPlayer, beforeTilesOtherPlayer, afterTilesOtherPlayer);
+    /**
+     * Rebinds a restarted player to their place in a game, if they are in it. The player is looked up under the
+     * game's lock, as registration and compaction change the game's players under it.
+     *
+     * @param game the player's game
+     * @param player the player's new remote object
+     * @param thisPlayerNumber the player's number
+     * @param currentTiles the tiles that the player still has
+     * @return false if the player is not in the game, in which case nothing was changed
+     */
+    private boolean rebindPlayer(ChessGame game, PlayerInterface2D player, int thisPlayerNumber,
+                                 ArrayList<Tile2D> currentTiles) {
+        synchronized (game) {
+            ChessPlayerData chessPlayerData = game.getPlayer(thisPlayerNumber);
+            if (chessPlayerData == null) return false;
+
+            if (chessPlayerData.getPlayer() != null) untrackPlayer2D(chessPlayerData.getPlayer());
+            chessPlayerData.setPlayer(player);
+            chessPlayerData.setConnected(true);
+            setPlayerNumber2D(player, thisPlayerNumber);
+            Log.info("server: player #%d reconnected with %d tiles", thisPlayerNumber, currentTiles.size());
+
+            HashMap<TileCoordinate, Tile2D> reportedTiles = new HashMap<>();
+            for (Tile2D tile : currentTiles) {
+                reportedTiles.put(new TileCoordinate(tile.getRow(), tile.getCol()), tile);
+            }
+            try {
+                player.setActionAdmissionPolicy(ActionAdmissionPolicy.dropWhileRendering());
+            } catch (RemoteException e) {
+                Log.warn("server: player %d not reachable while reconnecting, %s", thisPlayerNumber, e);
+                return true;
+            }
+            game.drawBoardFrom(chessPlayerData, reportedTiles);
+            return true;
+        }
+    }
 
-        System.out.println("player #" + clickingPlayerData.getPlayerNumber() + "(" + clickingPlayer.getPlayerColor() + ") clicked on (" + row + ", " + col + ")");
+    /** Processes a player's click. Selects/deselects/moves pieces appropriately. */
+    @Override
+    public void tileClicked2D(int row, int col, PlayerData2D clickingPlayerData) {
+        int thisPlayerNumber = clickingPlayerData.getPlayerNumber();
+        ChessGame game = games.get(ChessGame.gameIdOf(thisPlayerNumber));
+        if (game == null) return;
+
+        synchronized (game) {
+            ChessPlayerData clickingPlayer = game.getPlayer(thisPlayerNumber);
+            if (clickingPlayer == null || !game.checkPlayers(clickingPlayerData, clickingPlayer)) return;
+
+            logEvent(ChessEvents.CLICK, ChessEvents.click(thisPlayerNumber, row, col, System.currentTimeMillis()));
+            game.tileClicked(row, col, clickingPlayer);
+            eventApplied(game);
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                Log.debug("player #%d (%s) clicked on %s", thisPlayerNumber, clickingPlayer.getPlayerColor(), "(" + row + ", " + col + ")");
+            }
+        }
     }
 
     /** Processes a player's drag. Moves pieces appropriately. */
     @Override
     public void tileDragged2D(int fromRow, int fromCol, int toRow, int toCol, PlayerData2D draggingPlayerData) {
-        ChessPlayerData draggingPlayer = players.get(draggingPlayerData.getPlayerNumber());
-        ChessPlayerData otherPlayer = players.get(1 - draggingPlayerData.getPlayerNumber());
-
-        if (!checkPlayers(draggingPlayerData, draggingPlayer, otherPlayer)) return;
+        int thisPlayerNumber = draggingPlayerData.getPlayerNumber();
+        ChessGame game = games.get(ChessGame.gameIdOf(thisPlayerNumber));
+        if (game == null) return;
+
+        synchronized (game) {
+            ChessPlayerData draggingPlayer = game.getPlayer(thisPlayerNumber);
+            if (draggingPlayer == null || !game.checkPlayers(draggingPlayerData, draggingPlayer)) return;
+
+            logEvent(ChessEvents.DRAG, ChessEvents.drag(thisPlayerNumber, fromRow, fromCol, toRow, toCol, System.currentTimeMillis()));
+            game.tileDragged(fromRow, fromCol, toRow, toCol, draggingPlayer);
+            eventApplied(game);
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                Log.debug("player #%d dragged %s to %s", thisPlayerNumber, "(" + fromRow + ", " + fromCol + ")", "(" + toRow + ", " + toCol + ")");
+            }
+        }
+    }
 
-        HashMap<TileCoordinate, Tile2D> beforeTilesClickingPlayer = chessBoard.getCoordinatesToTiles(draggingPlayer);
-        HashMap<TileCoordinate, Tile2D> beforeTilesOtherPlayer = chessBoard.getCoordinatesToTiles(otherPlayer);
+    /** Black sees the board rotated by 180 degrees, so that both players have their own pieces at the bottom. */
+    @Override
+    protected ViewTransform viewTransformOf(int playerNumber) {
+        return ChessGame.getPlayerColor(playerNumber) == ChessPiece.PlayerColor.BLACK ? ViewTransform.ROTATE_180
+                : ViewTransform.IDENTITY;
+    }
 
-        // black sees the board 180 degrees rotated
-        if (draggingPlayer.getPlayerColor() == ChessPiece.PlayerColor.BLACK) {
-            fromRow = (ChessBoard.NUM_ROWS-1) - fromRow;
-            fromCol = (ChessBoard.NUM_COLS-1) - fromCol;
-            toRow = (ChessBoard.NUM_ROWS-1) - toRow;
-            toCol = (ChessBoard.NUM_COLS-1) - toCol;
+    /** Marks a player as disconnected, so that their opponent cannot move until they return, and tells the opponent. */
+    @Override
+    protected void playerDisconnected2D(PlayerInterface2D player) {
+        // the player's number leads straight to their game, without searching (and locking) every game
+        int thisPlayerNumber = playerNumberOf2D(player);
+        ChessGame game = thisPlayerNumber == -1 ? null : games.get(ChessGame.gameIdOf(thisPlayerNumber));
+        if (game == null) return;
+
+        synchronized (game) {
+            ChessPlayerData disconnectedPlayer = game.getPlayer(thisPlayerNumber);
+            if (disconnectedPlayer == null || !player.equals(disconnectedPlayer.getPlayer())) return;  // rebound by reconnectPlayer2D()
+            disconnectedPlayer.setConnected(false);
+            Log.info("server: player #%d disconnected", disconnectedPlayer.getPlayerNumber());
+
+            ChessPlayerData otherPlayer = game.getOtherPlayer(disconnectedPlayer);
+            if (otherPlayer == null || otherPlayer.getPlayer() == null) return;
+            try {
+                otherPlayer.getPlayer().displayMessage("The other player has disconnected.", true);
+            } catch (RemoteException e) {
+                Log.warn("RemoteException in playerDisconnected2D(): %s", e);
+            }
         }
+    }
 
-        if (draggingPlayer.hasSelectedTile()) {
-            draggingPlayer.setSelectedTile(null);
-        }
+    /**
+     * Marks a player as connected again. Any updates made while they were disconnected were lost, so their board is
+     * redrawn from scratch.
+     */
+    @Override
+    protected void playerReconnected2D(PlayerInterface2D player) {
+        int thisPlayerNumber = playerNumberOf2D(player);
+        ChessGame game = thisPlayerNumber == -1 ? null : games.get(ChessGame.gameIdOf(thisPlayerNumber));
+        if (game == null) return;
+
+        synchronized (game) {
+            ChessPlayerData reconnectedPlayer = game.getPlayer(thisPlayerNumber);
+            if (reconnectedPlayer == null || !player.equals(reconnectedPlayer.getPlayer())) return;  // rebound by reconnectPlayer2D()
+            Log.info("server: player #%d reconnected", reconnectedPlayer.getPlayerNumber());
+            try {
+                game.drawBoard(reconnectedPlayer);
+            } catch (RemoteException e) {
+                Log.warn("RemoteException in playerReconnected2D(): %s", e);
+            }
+            reconnectedPlayer.setConnected(true);
 
-        if (chessBoard.canMove(fromRow, fromCol, toRow, toCol)) {
-            tryMove(fromRow, fromCol, toRow, toCol, draggingPlayer);
+            ChessPlayerData otherPlayer = game.getOtherPlayer(reconnectedPlayer);
+            if (otherPlayer == null || otherPlayer.getPlayer() == null) return;
+            try {
+                otherPlayer.getPlayer().displayMessage("The other player has reconnected.", false);
+            } catch (RemoteException e) {
+                Log.warn("RemoteException in playerReconnected2D(): %s", e);
+            }
         }
+    }
 
-        HashMap<TileCoordinate, Tile2D> afterTilesClickingPlayer = chessBoard.getCoordinatesToTiles(draggingPlayer);
-        HashMap<TileCoordinate, Tile2D> afterTilesOtherPlayer = chessBoard.getCoordinatesToTiles(otherPlayer);
-
-        redrawPlayer(draggingPlayer, beforeTilesClickingPlayer, afterTilesClickingPlayer);
-        redrawPlayer(otherPlayer, beforeTilesOtherPlayer, afterTilesOtherPlayer);
+    /**
+     * Prints a help message and exits.
+     */
+    private static void printHelpAndExit() {
+        System.out.print("usage: java -cp wegapi.jar com.github.alexandergillon.wegapi.server.chess.ChessServer [-l <DIR> [-f] [-k]] [-r <PORT>] [-S <HOST:PORT>] [-R <HOST>] [-c <SECONDS>] [-p <DIR>]        Start the chess server, logging games to DIR if given\n");
+        System.out.print("  -f, --record-frames              Also log every update sent to a player, for ChessReplay\n");
+        System.out.print("  -k, --keep-history               Do not checkpoint the event log, for ChessReplay\n");
+        System.out.print("  -r, --replicate-port <PORT>      Accept a standby server on PORT (for a standby, once it takes over)\n");
+        System.out.print("  -S, --standby-of <HOST:PORT>     Run as a standby of the primary replicating on HOST:PORT\n");
+        System.out.print("  -R, --router <HOST>              Register as a shard with the router on HOST, instead of binding in the registry\n");
+        System.out.print("  -c, --compact-after <SECONDS>    Compact games that have been idle for SECONDS (default " + DEFAULT_COMPACT_AFTER_SECONDS + ", 0 to never compact)\n");
+        System.out.print("  -p, --page-dir <DIR>             Page compacted games out to DIR, keeping only their players in memory\n");
+        System.exit(1);
+    }
 
-        System.out.println("player #" + draggingPlayerData.getPlayerNumber() + " dragged (" + fromRow + ", " + fromCol + ") to (" + toRow + ", " + toCol + ")");
+    /**
+     * Prints an error message, followed by a help message, then exits.
+     *
+     * @param errorMessage error message to print
+     */
+    private static void printHelpAndExit(String errorMessage) {
+        System.out.println(errorMessage);
+        printHelpAndExit();
     }
 
     /**
-     * Main function. Starts the server and exports it via RMI.
+     * Parses command line args for the event log directory, whether to record frames and keep history, replication,
+     * routing and compaction of idle games. <br> <br>
+     *
+     * On error, prints a message and exits.
      *
-     * @param args for now, unused
+     * @param args the args parameter that was passed to main()
+     * @return the parsed command line
      */
-    public static void main(String[] args) {
+    private static CommandLine parseArgs(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("l").longOpt("log").hasArg().desc("Directory to keep the event log in").build());
+        options.addOption(Option.builder("f").longOpt("record-frames").desc("Log every update sent to a player").build());
+        options.addOption(Option.builder("k").longOpt("keep-history").desc("Do not checkpoint the event log").build());
+        options.addOption(Option.builder("r").longOpt("replicate-port").hasArg().desc("Port to accept a standby on").build());
+        options.addOption(Option.builder("S").longOpt("standby-of").hasArg().desc("Primary to be a standby of").build());
+        options.addOption(Option.builder("R").longOpt("router").hasArg().desc("Router to register with as a shard").build());
+        options.addOption(Option.builder("c").longOpt("compact-after").hasArg().desc("Seconds after which to compact an idle game (default " + DEFAULT_COMPACT_AFTER_SECONDS + ", 0 to never compact)").build());
+        options.addOption(Option.builder("p").longOpt("page-dir").hasArg().desc("Directory to page compacted games out to").build());
+        CommandLineParser parser = new DefaultParser();
+
         try {
-            LocateRegistry.createRegistry(GameServerInterface.RMI_REGISTRY_PORT);
-        } catch (RemoteException ignore) {
-            // RMI server already exists
+            CommandLine cmdline = parser.parse(options, args);
+            if (!cmdline.hasOption("l") && (cmdline.hasOption("f") || cmdline.hasOption("k"))) {
+                printHelpAndExit("-f and -k need an event log (-l).");
+            }
+            if (cmdline.hasOption("S") && !cmdline.getOptionValue("S").matches(".+:\\d+")) {
+                printHelpAndExit("-S must be of the form HOST:PORT.");
+            }
+            if (cmdline.hasOption("p") && "0".equals(cmdline.getOptionValue("c"))) {
+                printHelpAndExit("-p needs compaction to be enabled (-c).");
+            }
+            return cmdline;
+        } catch (ParseException e) {
+            printHelpAndExit("ParseException: " + e);
         }
+        return null;
+    }
 
+    /**
+     * Makes a server reachable to daemons over the transport named by the wegapi.transport system property (see
+     * Transport), which binds it in the registry, creating the registry if there is not one. On error, prints a
+     * message and exits.
+     *
+     * @param server the server to bind
+     */
+    private static void bindServer(ChessServer server) {
         try {
-            ChessServer server = new ChessServer();
-            Naming.rebind("//" + GameServerInterface.DEFAULT_IP + ":" + GameServerInterface.RMI_REGISTRY_PORT + "/" + GameServerInterface.DEFAULT_SERVER_PATH, server);
+            Transport.fromProperties().publish(server);
+        } catch (MalformedURLException e) {
+            System.out.printf("Malformed URL: %s%n", e);
+            System.exit(1);
         } catch (RemoteException e) {
             System.out.printf("Failed to rebind server, %s%n", e);
             System.exit(1);
+        } catch (IOException e) {
+            System.out.printf("Failed to publish server, %s%n", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes a server available to daemons: registers it as a shard with a router, or binds it in the registry if
+     * there is no router. On error, prints a message and exits.
+     *
+     * @param server the server
+     * @param routerHost the host of the router, or null to bind in the registry
+     */
+    private static void publish(ChessServer server, String routerHost) {
+        if (routerHost == null) {
+            bindServer(server);
+            return;
+        }
+
+        try {
+            server.joinRouter(routerHost);
+        } catch (RemoteException e) {
+            System.out.printf("Failed to register with router, %s%n", e);
+            System.exit(1);
+        } catch (NotBoundException e) {
+            System.out.printf("Router is not bound, %s%n", e);
+            System.exit(1);
         } catch (MalformedURLException e) {
             System.out.printf("Malformed URL: %s%n", e);
             System.exit(1);
         }
-        System.out.println("Server ready!");
+    }
+
+    /**
+     * Main function. Starts the server (recovering any games in the event log) and exports it via RMI. A standby
+     * instead connects to its primary, and only binds itself once the primary has died.
+     */
+    public static void main(String[] args) {
+        CommandLine cmdline = parseArgs(args);
+        String logDir = cmdline.getOptionValue("l");
+        String routerHost = cmdline.getOptionValue("R");
+        int replicatePort = -1;
+        long compactAfterSeconds = DEFAULT_COMPACT_AFTER_SECONDS;
+        try {
+            if (cmdline.hasOption("r")) replicatePort = Integer.parseInt(cmdline.getOptionValue("r"));
+            if (cmdline.hasOption("c")) compactAfterSeconds = Long.parseLong(cmdline.getOptionValue("c"));
+        } catch (NumberFormatException e) {
+            printHelpAndExit("NumberFormatException: " + e);
+        }
+
+        ChessServer server = null;
+        try {
+            GameEventLog eventLog = logDir == null ? null
+                    : GameEventLog.open(Paths.get(logDir), ChessEvents.LOG_FORMAT_VERSION, GameEventLog.DEFAULT_SEGMENT_BYTES);
+            server = new ChessServer(eventLog, cmdline.hasOption("f"), cmdline.hasOption("k"));
+        } catch (IOException e) {
+            System.out.printf("Failed to recover games from the event log, %s%n", e);
+            System.exit(1);
+        }
+        server.startCheckpointing();
+
+        if (compactAfterSeconds > 0) {
+            GamePageStore pageStore = null;
+            try {
+                if (cmdline.hasOption("p")) pageStore = GamePageStore.open(Paths.get(cmdline.getOptionValue("p")));
+            } catch (IOException e) {
+                System.out.printf("Failed to open page directory, %s%n", e);
+                System.exit(1);
+            }
+            server.startCompaction(compactAfterSeconds * 1000, pageStore);
+        }
+
+        if (cmdline.hasOption("S")) {
+            String primary = cmdline.getOptionValue("S");
+            String host = primary.substring(0, primary.lastIndexOf(':'));
+            int port = Integer.parseInt(primary.substring(primary.lastIndexOf(':') + 1));
+            ChessServer standby = server;
+            int takeOverReplicatePort = replicatePort;
+            try {
+                ReplicationStandby.start(host, port, ChessEvents.LOG_FORMAT_VERSION, standby::applyReplicated,
+                        () -> standby.takeOver(takeOverReplicatePort, routerHost));
+            } catch (IOException e) {
+                System.out.printf("Failed to connect to primary, %s%n", e);
+                System.exit(1);
+            }
+            Log.info("Standby ready!");
+            return;
+        }
+
+        if (replicatePort != -1) {
+            try {
+                server.startReplication(replicatePort);
+            } catch (IOException e) {
+                System.out.printf("Failed to start replication, %s%n", e);
+                System.exit(1);
+            }
+        }
+        publish(server, routerHost);
+        Log.info("Server ready!");
     }
 }
@@ -0,0 +1,279 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One end of a NioTransport connection between a daemon process and the server, which both sides make calls over
+ * (see Wire). <br> <br>
+ *
+ * The channel is non-blocking, and read by a SelectorLoop. Replies are matched to the calls waiting for them, on the
+ * loop's thread. Calls from the other side are handed to an Executor, as they call into the game (or the daemon),
+ * which may itself make calls and wait for their replies. Frames are written by whichever thread sends them; if the
+ * socket's send buffer is full, the rest is queued and written by the loop when the channel is writable. <br> <br>
+ *
+ * A call waits for its reply for up to wegapi.rmi.readTimeoutMillis, as an RMI call would. Once the connection has
+ * closed, outstanding and new calls fail with a ConnectException, and an exception thrown by the callee is rethrown
+ * to the caller as a ServerException, so that the caller can tell them apart as it would with RMI.
+ */
+abstract class NioConnection implements SelectorLoop.Handler {
+    private static final int INITIAL_READ_BUFFER_BYTES = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final Executor callExecutor;
+    private final String remoteAddress;
+    private final long replyTimeoutMillis = Integer.getInteger(ConfigurableClientSocketFactory.READ_TIMEOUT_PROPERTY,
+            ConfigurableClientSocketFactory.DEFAULT_READ_TIMEOUT_MILLIS);
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<Wire.FrameReader>> pendingCalls = new ConcurrentHashMap<>();
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();  // guarded by this
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_BYTES);  // only used by the loop
+    private volatile SelectionKey key;
+    private volatile boolean closed = false;
+
+    /**
+     * @param channel a connected channel, tuned with ConfigurableClientSocketFactory.configure()
+     * @param callExecutor the executor to handle calls from the other side on
+     */
+    NioConnection(SocketChannel channel, Executor callExecutor) throws IOException {
+        this.channel = channel;
+        this.callExecutor = callExecutor;
+        this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+    }
+
+    /**
+     * Starts reading from the channel. Must be called once, before any calls are made.
+     *
+     * @param loop the loop to read the channel on
+     * @throws IOException if the channel could not be registered with the loop
+     */
+    void start(SelectorLoop loop) throws IOException {
+        channel.configureBlocking(false);
+        key = loop.register(channel, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Handles a call from the other side. Runs on the call executor.
+     *
+     * @param method the method called (see Wire)
+     * @param args the call's arguments
+     * @param reply the reply, to put the return value in
+     * @throws Exception anything that the method throws, which is sent back to the caller
+     */
+    abstract void handleCall(byte method, Wire.FrameReader args, Wire.FrameWriter reply) throws Exception;
+
+    /**
+     * Starts building a call to the other side.
+     *
+     * @param method the method to call (see Wire)
+     * @return the call, to put the arguments in and pass to call()
+     */
+    Wire.FrameWriter startCall(byte method) {
+        return Wire.FrameWriter.call(nextCallId.incrementAndGet(), method);
+    }
+
+    /**
+     * Makes a call to the other side, and waits for its reply.
+     *
+     * @param call the call, from startCall()
+     * @param methodName the name of the method called, for exception messages
+     * @return the reply, to read the return value from
+     * @throws RemoteException if the call could not be made, the reply timed out, or the callee threw
+     */
+    Wire.FrameReader call(Wire.FrameWriter call, String methodName) throws RemoteException {
+        ByteBuffer frame = call.finish();
+        int callId = frame.getInt(5);
+        CompletableFuture<Wire.FrameReader> reply = new CompletableFuture<>();
+        pendingCalls.put(callId, reply);
+        try {
+            send(frame);
+            return replyTimeoutMillis == 0 ? reply.get() : reply.get(replyTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (RemoteException) e.getCause();  // only ever completed exceptionally with RemoteExceptions
+        } catch (TimeoutException e) {
+            throw new UnmarshalException("Timed out waiting for a reply to " + methodName + "() from " + remoteAddress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for a reply to " + methodName + "()");
+        } finally {
+            pendingCalls.remove(callId);
+        }
+    }
+
+    /**
+     * Sends a frame, or queues what is left of it for the loop if the socket's send buffer is full.
+     *
+     * @param frame the frame
+     * @throws ConnectException if the connection is closed, or the frame could not be written
+     */
+    private void send(ByteBuffer frame) throws ConnectException {
+        synchronized (this) {
+            if (closed) throw new ConnectException("Connection to " + remoteAddress + " is closed.");
+            try {
+                if (pendingWrites.isEmpty()) {
+                    channel.write(frame);
+                    if (!frame.hasRemaining()) return;
+                }
+                pendingWrites.add(frame);
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException | CancelledKeyException e) {
+                close(e.toString());
+                throw new ConnectException("Failed to write to " + remoteAddress, e);
+            }
+        }
+        key.selector().wakeup();
+    }
+
+    @Override
+    public void ready(SelectionKey key) {
+        if (key.isReadable()) read();
+        if (key.isValid() && key.isWritable()) flush();
+    }
+
+    /** Writes queued frames, now that the channel is writable. */
+    private synchronized void flush() {
+        try {
+            ByteBuffer frame;
+            while ((frame = pendingWrites.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) return;
+                pendingWrites.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close(e.toString());
+        }
+    }
+
+    /** Reads what is available, and handles every complete frame. */
+    private void read() {
+        int bytesRead;
+        try {
+            bytesRead = channel.read(readBuffer);
+        } catch (IOException e) {
+            close(e.toString());
+            return;
+        }
+        if (bytesRead == -1) {
+            close("closed by the other side");
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < Wire.HEADER_BYTES - 4 || length > Wire.MAX_FRAME_BYTES) {
+                close("bad frame length " + length);
+                return;
+            }
+            if (readBuffer.remaining() < 4 + length) break;
+
+            byte[] frame = new byte[length];
+            readBuffer.position(readBuffer.position() + 4);
+            readBuffer.get(frame);
+            handleFrame(new Wire.FrameReader(ByteBuffer.wrap(frame)));
+            if (closed) return;
+        }
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {  // a frame larger than the buffer is on its way
+            ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    private void handleFrame(Wire.FrameReader frame) {
+        try {
+            byte kind = frame.getByte();
+            int callId = frame.getInt();
+            switch (kind) {
+                case Wire.CALL:
+                    byte method = frame.getByte();
+                    callExecutor.execute(() -> serve(callId, method, frame));
+                    break;
+                case Wire.REPLY:
+                    complete(callId, frame, null);
+                    break;
+                case Wire.EXCEPTION:
+                    complete(callId, null, new ServerException(frame.getString()));
+                    break;
+                default:
+                    close("bad frame kind " + kind);
+            }
+        } catch (RuntimeException e) {  // includes RejectedExecutionException, if the executor has been shut down
+            close("malformed frame, " + e);
+        }
+    }
+
+    private void complete(int callId, Wire.FrameReader reply, RemoteException exception) {
+        CompletableFuture<Wire.FrameReader> pending = pendingCalls.get(callId);
+        if (pending == null) return;  // the call timed out
+        if (exception == null) {
+            pending.complete(reply);
+        } else {
+            pending.completeExceptionally(exception);
+        }
+    }
+
+    /** Handles a call from the other side, and sends its reply. */
+    private void serve(int callId, byte method, Wire.FrameReader args) {
+        Wire.FrameWriter reply = Wire.FrameWriter.reply(callId);
+        try {
+            handleCall(method, args, reply);
+        } catch (Exception e) {
+            reply = Wire.FrameWriter.exception(callId, e.toString());
+        }
+        try {
+            send(reply.finish());
+        } catch (ConnectException ignore) {
+            // the connection closed while the call was being handled, so there is no one to reply to
+        }
+    }
+
+    /**
+     * Closes the connection, and fails every call that is waiting for a reply. Does nothing if already closed.
+     *
+     * @param reason why the connection is being closed, for the log
+     */
+    void close(String reason) {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            pendingWrites.clear();
+        }
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+            // closing anyway
+        }
+
+        ConnectException failure = new ConnectException("Connection to " + remoteAddress + " closed: " + reason);
+        pendingCalls.values().forEach(pending -> pending.completeExceptionally(failure));
+        Log.info("transport: connection to %s closed, %s", remoteAddress, reason);
+    }
+
+    @Override
+    public String toString() {
+        return remoteAddress;
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.ActionAdmissionPolicy;
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.game.PlayerData;
+import com.github.alexandergillon.wegapi.game.PlayerInterface;
+import com.github.alexandergillon.wegapi.game.TileBatch;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server side of NioTransport. Accepts connections from daemon processes, spreads them over a few SelectorLoops,
+ * and runs the calls that they make on a fixed pool of worker threads, which call the game server. <br> <br>
+ *
+ * Each player that a daemon passes to the server becomes a RemotePlayer, whose calls go back over that daemon's
+ * connection. There is one RemotePlayer per player per connection, so that the server can compare players by
+ * identity (e.g. as map keys), as it does RMI stubs.
+ */
+final class NioServer implements SelectorLoop.Handler {
+    private final GameServerInterface server;
+    private final ServerSocketChannel acceptor;
+    private final SelectorLoop[] loops;
+    private final ExecutorService workers;
+    private int nextLoop = 0;  // only used by the accepting loop
+
+    /**
+     * Starts accepting connections.
+     *
+     * @param server the server to make calls on
+     * @param port the port to listen on
+     * @param selectorThreads how many threads to read and write connections on
+     * @param workerThreads how many threads to run calls on
+     * @throws IOException if the port could not be bound
+     */
+    NioServer(GameServerInterface server, int port, int selectorThreads, int workerThreads) throws IOException {
+        this.server = server;
+        loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new SelectorLoop("wegapi-nio-selector-" + i);
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "wegapi-nio-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        acceptor = ServerSocketChannel.open();
+        try {
+            // accepted sockets inherit the receive buffer size, which must be set before binding to take effect
+            int receiveBufferBytes = Integer.getInteger(ConfigurableClientSocketFactory.RECEIVE_BUFFER_PROPERTY, 0);
+            if (receiveBufferBytes > 0) acceptor.socket().setReceiveBufferSize(receiveBufferBytes);
+            acceptor.bind(new InetSocketAddress(port));
+            acceptor.configureBlocking(false);
+            loops[0].register(acceptor, SelectionKey.OP_ACCEPT, this);
+        } catch (IOException e) {
+            acceptor.close();
+            throw e;
+        }
+    }
+
+    /** Accepts every pending connection, on the first loop's thread. */
+    @Override
+    public void ready(SelectionKey key) {
+        while (true) {
+            SocketChannel channel = null;
+            try {
+                channel = acceptor.accept();
+                if (channel == null) return;
+                ConfigurableClientSocketFactory.configure(channel.socket());
+                PlayerConnection connection = new PlayerConnection(channel);
+                connection.start(loops[nextLoop]);
+                nextLoop = (nextLoop + 1) % loops.length;
+                Log.info("transport: accepted a connection from %s", connection);
+            } catch (IOException e) {
+                Log.warn("transport: failed to accept a connection, %s", e);
+                if (channel == null) return;
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // giving up on it anyway
+                }
+            }
+        }
+    }
+
+    /** A connection from a daemon process, which calls the server. */
+    private final class PlayerConnection extends NioConnection {
+        private final ConcurrentHashMap<Integer, RemotePlayer> players = new ConcurrentHashMap<>();
+
+        private PlayerConnection(SocketChannel channel) throws IOException {
+            super(channel, workers);
+        }
+
+        /** Returns the player with a handle on this connection, or null for handle -1. */
+        private RemotePlayer player(int handle) {
+            return handle == -1 ? null : players.computeIfAbsent(handle, h -> new RemotePlayer(this, h));
+        }
+
+        private PlayerData getPlayerData(Wire.FrameReader args) {
+            int playerNumber = args.getInt();
+            RemotePlayer player = player(args.getInt());
+            return new PlayerData(playerNumber, player, args.getLong());
+        }
+
+        @Override
+        void handleCall(byte method, Wire.FrameReader args, Wire.FrameWriter reply) throws RemoteException {
+            switch (method) {
+                case Wire.REGISTER_PLAYER:
+                    server.registerPlayer(player(args.getInt()));
+                    break;
+                case Wire.RECONNECT_PLAYER: {
+                    RemotePlayer player = player(args.getInt());
+                    int playerNumber = args.getInt();
+                    server.reconnectPlayer(player, playerNumber, args.getTiles());
+                    break;
+                }
+                case Wire.TILE_CLICKED: {
+                    int tileIndex = args.getInt();
+                    server.tileClicked(tileIndex, getPlayerData(args));
+                    break;
+                }
+                case Wire.TILE_DRAGGED: {
+                    int fromTileIndex = args.getInt();
+                    int toTileIndex = args.getInt();
+                    server.tileDragged(fromTileIndex, toTileIndex, getPlayerData(args));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown server method " + method);
+            }
+        }
+    }
+
+    /** A player in a daemon process, called over that process's connection. */
+    private static final class RemotePlayer implements PlayerInterface {
+        private final NioConnection connection;
+        private final int handle;
+
+        private RemotePlayer(NioConnection connection, int handle) {
+            this.connection = connection;
+            this.handle = handle;
+        }
+
+        private Wire.FrameWriter startCall(byte method) {
+            Wire.FrameWriter call = connection.startCall(method);
+            call.putInt(handle);
+            return call;
+        }
+
+        @Override
+        public void initialize(int playerNumber) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.INITIALIZE);
+            call.putInt(playerNumber);
+            connection.call(call, "initialize");
+        }
+
+        @Override
+        public void setActionAdmissionPolicy(ActionAdmissionPolicy policy) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.SET_ACTION_ADMISSION_POLICY);
+            call.putByte((byte) policy.getKind().ordinal());
+            call.putInt(policy.getQueueBound());
+            connection.call(call, "setActionAdmissionPolicy");
+        }
+
+        @Override
+        public void displayMessage(String message, boolean error) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.DISPLAY_MESSAGE);
+            call.putString(message);
+            call.putBoolean(error);
+            connection.call(call, "displayMessage");
+        }
+
+        @Override
+        public long createTiles(TileBatch tiles, CreateTilesMode mode, long traceId) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.CREATE_TILES);
+            call.putBytes(tiles.toBytes());
+            call.putByte((byte) mode.ordinal());
+            call.putLong(traceId);
+            return connection.call(call, "createTiles").getLong();
+        }
+
+        @Override
+        public long deleteTiles(ArrayList<Integer> tileIndices, DeleteTilesMode mode, long traceId) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.DELETE_TILES);
+            call.putIndices(tileIndices);
+            call.putByte((byte) mode.ordinal());
+            call.putLong(traceId);
+            return connection.call(call, "deleteTiles").getLong();
+        }
+
+        @Override
+        public long getLastAppliedSequence() throws RemoteException {
+            return connection.call(startCall(Wire.GET_LAST_APPLIED_SEQUENCE), "getLastAppliedSequence").getLong();
+        }
+
+        @Override
+        public void heartbeat() throws RemoteException {
+            connection.call(startCall(Wire.HEARTBEAT), "heartbeat");
+        }
+
+        @Override
+        public void gameOver(boolean win) throws RemoteException {
+            Wire.FrameWriter call = startCall(Wire.GAME_OVER);
+            call.putBoolean(win);
+            connection.call(call, "gameOver");
+        }
+
+        @Override
+        public String toString() {
+            return "player " + handle + " at " + connection;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.ActionAdmissionPolicy;
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.game.PlayerData;
+import com.github.alexandergillon.wegapi.game.PlayerInterface;
+import com.github.alexandergillon.wegapi.game.Tile;
+import com.github.alexandergillon.wegapi.game.TileBatch;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * The daemon side of NioTransport: a connection to the server, through which GameServerInterface calls are made.
+ * <br> <br>
+ *
+ * Players passed to the server (as arguments, or in a PlayerData) are given a handle, the first time that they are
+ * passed, and the server's calls to a handle are made on that player. Several daemons in a process can share one
+ * stub, as they do an RMI stub.
+ */
+final class NioServerStub extends NioConnection implements GameServerInterface {
+    private final IdentityHashMap<PlayerInterface, Integer> handles = new IdentityHashMap<>();  // guarded by this
+    private final HashMap<Integer, PlayerInterface> players = new HashMap<>();  // guarded by this
+
+    /**
+     * @param channel a connected channel
+     * @param callExecutor the executor to run the server's calls to players on
+     */
+    NioServerStub(SocketChannel channel, Executor callExecutor) throws IOException {
+        super(channel, callExecutor);
+    }
+
+    /** Returns a player's handle, giving it one if it has none, or -1 for null. */
+    private synchronized int handleOf(PlayerInterface player) {
+        if (player == null) return -1;
+        Integer handle = handles.get(player);
+        if (handle == null) {
+            handle = handles.size();
+            handles.put(player, handle);
+            players.put(handle, player);
+        }
+        return handle;
+    }
+
+    private synchronized PlayerInterface playerOf(int handle) {
+        PlayerInterface player = players.get(handle);
+        if (player == null) throw new IllegalArgumentException("Unknown player handle " + handle);
+        return player;
+    }
+
+    private void putPlayerData(Wire.FrameWriter call, PlayerData player) {
+        call.putInt(player.getPlayerNumber());
+        call.putInt(handleOf(player.getPlayer()));
+        call.putLong(player.getTraceId());
+    }
+
+    @Override
+    public void registerPlayer(PlayerInterface player) throws RemoteException {
+        Wire.FrameWriter call = startCall(Wire.REGISTER_PLAYER);
+        call.putInt(handleOf(player));
+        call(call, "registerPlayer");
+    }
+
+    @Override
+    public void reconnectPlayer(PlayerInterface player, int playerNumber, ArrayList<Tile> currentTiles) throws RemoteException {
+        Wire.FrameWriter call = startCall(Wire.RECONNECT_PLAYER);
+        call.putInt(handleOf(player));
+        call.putInt(playerNumber);
+        call.putTiles(currentTiles);
+        call(call, "reconnectPlayer");
+    }
+
+    @Override
+    public void tileClicked(int tileIndex, PlayerData player) throws RemoteException {
+        Wire.FrameWriter call = startCall(Wire.TILE_CLICKED);
+        call.putInt(tileIndex);
+        putPlayerData(call, player);
+        call(call, "tileClicked");
+    }
+
+    @Override
+    public void tileDragged(int fromTileIndex, int toTileIndex, PlayerData player) throws RemoteException {
+        Wire.FrameWriter call = startCall(Wire.TILE_DRAGGED);
+        call.putInt(fromTileIndex);
+        call.putInt(toTileIndex);
+        putPlayerData(call, player);
+        call(call, "tileDragged");
+    }
+
+    @Override
+    void handleCall(byte method, Wire.FrameReader args, Wire.FrameWriter reply) throws RemoteException {
+        PlayerInterface player = playerOf(args.getInt());
+        switch (method) {
+            case Wire.INITIALIZE:
+                player.initialize(args.getInt());
+                break;
+            case Wire.SET_ACTION_ADMISSION_POLICY: {
+                ActionAdmissionPolicy.Kind kind = args.getEnum(ActionAdmissionPolicy.Kind.values());
+                player.setActionAdmissionPolicy(toPolicy(kind, args.getInt()));
+                break;
+            }
+            case Wire.DISPLAY_MESSAGE: {
+                String message = args.getString();
+                player.displayMessage(message, args.getBoolean());
+                break;
+            }
+            case Wire.CREATE_TILES: {
+                TileBatch tiles = TileBatch.fromBytes(args.getBytes());
+                PlayerInterface.CreateTilesMode mode = args.getEnum(PlayerInterface.CreateTilesMode.values());
+                reply.putLong(player.createTiles(tiles, mode, args.getLong()));
+                break;
+            }
+            case Wire.DELETE_TILES: {
+                ArrayList<Integer> tileIndices = args.getIndices();
+                PlayerInterface.DeleteTilesMode mode = args.getEnum(PlayerInterface.DeleteTilesMode.values());
+                reply.putLong(player.deleteTiles(tileIndices, mode, args.getLong()));
+                break;
+            }
+            case Wire.GET_LAST_APPLIED_SEQUENCE:
+                reply.putLong(player.getLastAppliedSequence());
+                break;
+            case Wire.HEARTBEAT:
+                player.heartbeat();
+                break;
+            case Wire.GAME_OVER:
+                player.gameOver(args.getBoolean());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown player method " + method);
+        }
+    }
+
+    private static ActionAdmissionPolicy toPolicy(ActionAdmissionPolicy.Kind kind, int queueBound) {
+        switch (kind) {
+            case DROP_WHILE_RENDERING:
+                return ActionAdmissionPolicy.dropWhileRendering();
+            case LATEST_ONLY:
+                return ActionAdmissionPolicy.latestOnly();
+            case BOUNDED_QUEUE:
+                return ActionAdmissionPolicy.boundedQueue(queueBound);
+            default:
+                return ActionAdmissionPolicy.forwardAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NIO server at " + super.toString();
+    }
+}
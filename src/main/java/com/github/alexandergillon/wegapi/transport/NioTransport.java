@@ -0,0 +1,112 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.ConfigurableClientSocketFactory;
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A transport that sends calls between daemons and the server as length-prefixed binary frames over plain TCP
+ * (see Wire), rather than as serialized objects over RMI. Each daemon process opens one connection to the server,
+ * which carries its daemons' calls to the server and the server's calls back to them, so daemons do not need to be
+ * reachable from the server. <br> <br>
+ *
+ * The server accepts connections with NioServer, which reads and writes every connection on a few selector threads,
+ * instead of RMI's thread per connection, and runs calls on a fixed pool of workers. Settings are read from system
+ * properties: <br> <br>
+ *
+ *   - wegapi.nio.port: the port that the server listens on (default DEFAULT_PORT) <br>
+ *   - wegapi.nio.selectorThreads: how many selector threads the server has (default DEFAULT_SELECTOR_THREADS) <br>
+ *   - wegapi.nio.workerThreads: how many threads the server runs calls on (default WORKER_THREADS_PER_PROCESSOR per
+ *                               available processor). Calls to the server block while it calls players, so this
+ *                               bounds how many actions can be in progress at once. <br> <br>
+ *
+ * Sockets are tuned, and calls time out, with the same wegapi.rmi.* properties as RMI's sockets (see
+ * ConfigurableClientSocketFactory). The server still binds itself in the RMI registry as well, so that daemons using
+ * RMI can join it too.
+ */
+public final class NioTransport implements Transport {
+    public static final NioTransport INSTANCE = new NioTransport();
+    public static final String PORT_PROPERTY = "wegapi.nio.port";
+    public static final String SELECTOR_THREADS_PROPERTY = "wegapi.nio.selectorThreads";
+    public static final String WORKER_THREADS_PROPERTY = "wegapi.nio.workerThreads";
+    public static final int DEFAULT_PORT = 1100;
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
+    public static final int WORKER_THREADS_PER_PROCESSOR = 4;
+
+    private SelectorLoop clientLoop = null;  // created on the first connection to a server, guarded by this
+    private ExecutorService clientExecutor = null;  // guarded by this
+
+    private NioTransport() {
+    }
+
+    /**
+     * Opens a connection to the server on a host. Connections made by one process share a selector thread, and
+     * the server's calls to players are run on a cached thread pool.
+     *
+     * @param host the host that the server runs on
+     * @return the server
+     * @throws RemoteException if the server could not be reached
+     */
+    @Override
+    public GameServerInterface connectToServer(String host) throws RemoteException {
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            ConfigurableClientSocketFactory.configure(channel.socket());
+            // the receive buffer must be set before connecting, as it decides the TCP window scale
+            int receiveBufferBytes = Integer.getInteger(ConfigurableClientSocketFactory.RECEIVE_BUFFER_PROPERTY, 0);
+            if (receiveBufferBytes > 0) channel.socket().setReceiveBufferSize(receiveBufferBytes);
+            channel.socket().connect(new InetSocketAddress(host, port), Integer.getInteger(
+                    ConfigurableClientSocketFactory.CONNECT_TIMEOUT_PROPERTY, ConfigurableClientSocketFactory.DEFAULT_CONNECT_TIMEOUT_MILLIS));
+
+            NioServerStub server;
+            synchronized (this) {
+                if (clientLoop == null) {
+                    clientLoop = new SelectorLoop("wegapi-nio-client");
+                    clientExecutor = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "wegapi-nio-callback");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                server = new NioServerStub(channel, clientExecutor);
+                server.start(clientLoop);
+            }
+            return server;
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // giving up on it anyway
+                }
+            }
+            throw new ConnectException("Failed to connect to server at " + host + ":" + port, e);
+        }
+    }
+
+    /**
+     * Binds a server in the RMI registry (see RmiTransport), and starts accepting connections from daemons on
+     * wegapi.nio.port.
+     *
+     * @param server the server
+     * @throws IOException if the server could not be bound, or the port could not be listened on
+     */
+    @Override
+    public void publish(GameServerInterface server) throws IOException {
+        RmiTransport.INSTANCE.publish(server);
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        new NioServer(server, port, Integer.getInteger(SELECTOR_THREADS_PROPERTY, DEFAULT_SELECTOR_THREADS),
+                Integer.getInteger(WORKER_THREADS_PROPERTY, WORKER_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors()));
+        Log.info("server: accepting NIO connections on port %d", port);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * The default transport: daemons look the server up in the RMI registry on its host, and call it through an RMI
+ * stub. Daemons pass themselves to the server as RMI stubs, which the server calls back through.
+ */
+public final class RmiTransport implements Transport {
+    public static final RmiTransport INSTANCE = new RmiTransport();
+
+    private RmiTransport() {
+    }
+
+    @Override
+    public GameServerInterface connectToServer(String host) throws RemoteException, NotBoundException, MalformedURLException {
+        return GameServerInterface.connectToServer(host, GameServerInterface.RMI_REGISTRY_PORT);
+    }
+
+    /**
+     * Binds a server in the registry on this host, at GameServerInterface.DEFAULT_SERVER_PATH, creating the registry
+     * if there is not one.
+     *
+     * @param server the server
+     * @throws RemoteException if the server could not be bound
+     * @throws MalformedURLException if the registry URL is malformed
+     */
+    @Override
+    public void publish(GameServerInterface server) throws RemoteException, MalformedURLException {
+        try {
+            LocateRegistry.createRegistry(GameServerInterface.RMI_REGISTRY_PORT);
+        } catch (RemoteException ignore) {
+            // RMI registry already exists
+        }
+
+        Naming.rebind("//" + GameServerInterface.DEFAULT_IP + ":" + GameServerInterface.RMI_REGISTRY_PORT + "/"
+                + GameServerInterface.DEFAULT_SERVER_PATH, server);
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ * A thread that waits on a Selector for any of its channels to be ready, and tells each channel's Handler. Handlers
+ * run on this thread, so must not block: anything that might (such as calling into the game) is handed off to
+ * another thread.
+ */
+final class SelectorLoop implements Runnable {
+    /** Something registered with a SelectorLoop, which is told when its channel is ready. */
+    interface Handler {
+        /**
+         * Called on the loop's thread when the handler's channel is ready for the operations it is interested in.
+         *
+         * @param key the channel's selection key
+         */
+        void ready(SelectionKey key);
+    }
+
+    private final Selector selector;
+
+    /**
+     * Creates a loop, and starts its thread.
+     *
+     * @param threadName the name of the thread
+     * @throws IOException if a Selector could not be opened
+     */
+    SelectorLoop(String threadName) throws IOException {
+        this.selector = Selector.open();
+        Thread thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a channel with this loop. Safe to call from any thread.
+     *
+     * @param channel the channel, which must be in non-blocking mode
+     * @param ops the operations to be told about
+     * @param handler the handler to tell
+     * @return the channel's selection key
+     * @throws ClosedChannelException if the channel has been closed
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        SelectionKey key = channel.register(selector, ops, handler);
+        selector.wakeup();
+        return key;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Log.error("transport: selector failed, %s", e);
+                return;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    ((Handler) key.attachment()).ready(key);
+                } catch (CancelledKeyException ignore) {
+                    // the channel was closed while it was being handled
+                }
+            }
+        }
+    }
+}
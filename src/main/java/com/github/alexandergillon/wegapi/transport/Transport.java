@@ -0,0 +1,68 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.GameServerInterface;
+import com.github.alexandergillon.wegapi.logging.Log;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/**
+ * How daemons and the game server talk to each other: how a daemon gets hold of a GameServerInterface to call, and
+ * how a server makes itself reachable to daemons. Whatever the transport, the server and daemons only ever see
+ * GameServerInterface and PlayerInterface, and failures surface as RemoteExceptions, with the same meaning as they
+ * have over RMI (a ServerException if the other side threw, any other RemoteException if it could not be reached).
+ * <br> <br>
+ *
+ * The transport is chosen with the wegapi.transport system property, which must be the same in the server and its
+ * daemons: <br> <br>
+ *
+ *   - rmi (default): Java RMI, with the server bound in the RMI registry (see RmiTransport). <br>
+ *   - nio: a length-prefixed binary protocol over TCP, served by a few selector threads (see NioTransport). <br> <br>
+ *
+ * This only covers calls between daemons and the server. The Client still talks to its daemon over RMI, and
+ * routers, shards and standbys still use RMI (or their own sockets) among themselves.
+ */
+public interface Transport {
+    String TRANSPORT_PROPERTY = "wegapi.transport";
+
+    /**
+     * Connects to the game server on a host.
+     *
+     * @param host the host that the server runs on
+     * @return the server, which PlayerInterfaces passed to it can be called back through
+     * @throws RemoteException if the server could not be reached
+     * @throws NotBoundException if the host has no server bound (RMI only)
+     * @throws MalformedURLException if the host is malformed
+     */
+    GameServerInterface connectToServer(String host) throws RemoteException, NotBoundException, MalformedURLException;
+
+    /**
+     * Makes a game server reachable to daemons on this host. The server must already be exported via RMI (as
+     * BaseServer is), as RMI is used for everything other than calls between daemons and the server.
+     *
+     * @param server the server
+     * @throws IOException if the server could not be made reachable
+     */
+    void publish(GameServerInterface server) throws IOException;
+
+    /**
+     * Returns the transport named by the wegapi.transport system property. An unrecognized name is reported, and
+     * RMI used instead.
+     *
+     * @return the transport
+     */
+    static Transport fromProperties() {
+        String name = System.getProperty(TRANSPORT_PROPERTY, "rmi").strip();
+        switch (name) {
+            case "rmi":
+                return RmiTransport.INSTANCE;
+            case "nio":
+                return NioTransport.INSTANCE;
+            default:
+                Log.warn("Unrecognized %s %s, using rmi", TRANSPORT_PROPERTY, name);
+                return RmiTransport.INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.github.alexandergillon.wegapi.transport;
+
+import com.github.alexandergillon.wegapi.game.Tile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * The binary protocol spoken by NioTransport. Every message is a frame: <br> <br>
+ *
+ *   int length (of the rest of the frame), byte kind, int call ID, then, by kind: <br>
+ *     - CALL: byte method, then the method's arguments <br>
+ *     - REPLY: the method's return value, if it has one <br>
+ *     - EXCEPTION: string describing what the callee threw <br> <br>
+ *
+ * Calls can be made in either direction on a connection: the daemon calls GameServerInterface methods, and the
+ * server calls PlayerInterface methods back. Each side numbers its own calls, and the reply to a call carries its
+ * call ID, so many calls can be outstanding on a connection at once. <br> <br>
+ *
+ * Values are encoded big-endian, with no type information: <br> <br>
+ *
+ *   - a string is an int byte length (-1 for null), then that many bytes of UTF-8 <br>
+ *   - a boolean is a byte, 0 or 1 <br>
+ *   - a Tile is its index, icon name and tile name; a list of them is an int count, then the tiles <br>
+ *   - a TileBatch is an int byte length, then its packed bytes (see TileBatch) <br>
+ *   - a list of tile indices is an int count (-1 for null), then the ints <br>
+ *   - a PlayerInterface is an int handle, which the daemon assigns to each player it passes to the server <br>
+ *   - a PlayerData is its player number, the handle of its player (-1 for null), and its trace ID <br>
+ *   - an enum is a byte ordinal <br>
+ */
+final class Wire {
+    static final byte CALL = 0;
+    static final byte REPLY = 1;
+    static final byte EXCEPTION = 2;
+
+    // GameServerInterface methods, called by daemons
+    static final byte REGISTER_PLAYER = 1;   // (player) -> void
+    static final byte RECONNECT_PLAYER = 2;  // (player, int playerNumber, tiles) -> void
+    static final byte TILE_CLICKED = 3;      // (int tileIndex, PlayerData) -> void
+    static final byte TILE_DRAGGED = 4;      // (int fromTileIndex, int toTileIndex, PlayerData) -> void
+
+    // PlayerInterface methods, called by the server. Each starts with the handle of the player called.
+    static final byte INITIALIZE = 16;                  // (int playerNumber) -> void
+    static final byte SET_ACTION_ADMISSION_POLICY = 17; // (byte kind, int queueBound) -> void
+    static final byte DISPLAY_MESSAGE = 18;             // (string message, boolean error) -> void
+    static final byte CREATE_TILES = 19;                // (TileBatch, byte mode, long traceId) -> long
+    static final byte DELETE_TILES = 20;                // (indices, byte mode, long traceId) -> long
+    static final byte GET_LAST_APPLIED_SEQUENCE = 21;   // () -> long
+    static final byte HEARTBEAT = 22;                   // () -> void
+    static final byte GAME_OVER = 23;                   // (boolean win) -> void
+
+    static final int HEADER_BYTES = 4 + 1 + 4;  // length, kind, call ID
+    static final int MAX_FRAME_BYTES = 16 << 20;
+
+    private Wire() {
+    }
+
+    /**
+     * Builds a frame. The buffer grows as needed, and the length is filled in by finish().
+     */
+    static final class FrameWriter {
+        private ByteBuffer buffer;
+
+        private FrameWriter(byte kind, int callId) {
+            buffer = ByteBuffer.allocate(256);
+            buffer.putInt(0);
+            buffer.put(kind);
+            buffer.putInt(callId);
+        }
+
+        static FrameWriter call(int callId, byte method) {
+            FrameWriter writer = new FrameWriter(CALL, callId);
+            writer.putByte(method);
+            return writer;
+        }
+
+        static FrameWriter reply(int callId) {
+            return new FrameWriter(REPLY, callId);
+        }
+
+        static FrameWriter exception(int callId, String description) {
+            FrameWriter writer = new FrameWriter(EXCEPTION, callId);
+            writer.putString(description);
+            return writer;
+        }
+
+        private void ensureRemaining(int bytes) {
+            if (buffer.remaining() >= bytes) return;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+
+        void putByte(byte value) {
+            ensureRemaining(1);
+            buffer.put(value);
+        }
+
+        void putBoolean(boolean value) {
+            putByte(value ? (byte) 1 : (byte) 0);
+        }
+
+        void putInt(int value) {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensureRemaining(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putTiles(ArrayList<Tile> tiles) {
+            putInt(tiles.size());
+            for (Tile tile : tiles) {
+                putInt(tile.getIndex());
+                putString(tile.getIconName());
+                putString(tile.getTileName());
+            }
+        }
+
+        void putBytes(byte[] bytes) {
+            putInt(bytes.length);
+            ensureRemaining(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putIndices(ArrayList<Integer> indices) {
+            if (indices == null) {
+                putInt(-1);
+                return;
+            }
+            putInt(indices.size());
+            ensureRemaining(4 * indices.size());
+            for (int index : indices) {
+                buffer.putInt(index);
+            }
+        }
+
+        /**
+         * Fills in the frame's length, and returns it, ready to be written to a channel.
+         *
+         * @return the frame
+         */
+        ByteBuffer finish() {
+            buffer.putInt(0, buffer.position() - 4);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads the values in a received frame, after its header. A frame that ends early throws a
+     * BufferUnderflowException, and a malformed value an IllegalArgumentException: either means that the other side
+     * is not speaking this protocol.
+     */
+    static final class FrameReader {
+        private final ByteBuffer buffer;
+
+        FrameReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        byte getByte() {
+            return buffer.get();
+        }
+
+        boolean getBoolean() {
+            return buffer.get() != 0;
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        String getString() {
+            int length = buffer.getInt();
+            if (length == -1) return null;
+            if (length < 0 || length > buffer.remaining()) throw new IllegalArgumentException("Bad string length " + length);
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        ArrayList<Tile> getTiles() {
+            int count = getCount(3 * 4);
+            ArrayList<Tile> tiles = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = buffer.getInt();
+                String iconName = getString();
+                String tileName = getString();
+                tiles.add(tileName == null ? new Tile(index, iconName) : new Tile(index, iconName, tileName));
+            }
+            return tiles;
+        }
+
+        byte[] getBytes() {
+            int length = getCount(1);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        ArrayList<Integer> getIndices() {
+            if (buffer.getInt(buffer.position()) == -1) {
+                buffer.getInt();
+                return null;
+            }
+            int count = getCount(4);
+            ArrayList<Integer> indices = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                indices.add(buffer.getInt());
+            }
+            return indices;
+        }
+
+        /** Reads a count of items, checking that the rest of the frame could hold that many. */
+        private int getCount(int minBytesEach) {
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+                throw new IllegalArgumentException("Bad count " + count);
+            }
+            return count;
+        }
+
+        /**
+         * Reads an enum constant, by its ordinal.
+         *
+         * @param values the enum's values()
+         * @return the constant
+         */
+        <E extends Enum<E>> E getEnum(E[] values) {
+            int ordinal = buffer.get();
+            if (ordinal < 0 || ordinal >= values.length) throw new IllegalArgumentException("Bad ordinal " + ordinal);
+            return values[ordinal];
+        }
+    }
+}